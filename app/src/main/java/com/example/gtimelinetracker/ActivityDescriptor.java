@@ -0,0 +1,111 @@
+package com.example.gtimelinetracker;
+
+import com.example.gtimelinetracker.track.ActivitySettings;
+
+/**
+ * Everything the application needs to know about a detected activity type. Descriptors are held
+ * in a table indexed by the {@code DetectedActivity} type, with the {@link ActivitySettings} the
+ * activity is tracked with, so new activity types only need to be added here.
+ * <p>
+ * Only the generated resources are needed besides plain Java, so that the lookups done for every
+ * transition can be benchmarked on the JVM.
+ */
+final class ActivityDescriptor {
+	// Same values as DetectedActivity
+	static final int IN_VEHICLE = 0;
+	static final int ON_BICYCLE = 1;
+	static final int ON_FOOT = 2;
+	static final int STILL = 3;
+	static final int UNKNOWN_TYPE = 4;
+	static final int WALKING = 7;
+	static final int RUNNING = 8;
+
+	static final ActivityDescriptor UNKNOWN = new ActivityDescriptor(UNKNOWN_TYPE, "UNKNOWN",
+			R.drawable.ic_activity_unknown, ActivitySettings.DEFAULT);
+
+	private static final ActivityDescriptor[] DESCRIPTORS = {
+			new ActivityDescriptor(IN_VEHICLE, "IN_VEHICLE", R.drawable.ic_activity_vehicle,
+					ActivitySettings.VEHICLE),
+			new ActivityDescriptor(ON_BICYCLE, "ON_BICYCLE", R.drawable.ic_activity_bicycle,
+					ActivitySettings.BICYCLE),
+			new ActivityDescriptor(ON_FOOT, "ON_FOOT", R.drawable.ic_activity_walk,
+					ActivitySettings.ON_FOOT),
+			new ActivityDescriptor(STILL, "STILL", R.drawable.ic_activity_unknown,
+					ActivitySettings.DEFAULT),
+			UNKNOWN,
+			null, // TILTING
+			null,
+			new ActivityDescriptor(WALKING, "WALKING", R.drawable.ic_activity_walk,
+					ActivitySettings.ON_FOOT),
+			new ActivityDescriptor(RUNNING, "RUNNING", R.drawable.ic_activity_run,
+					ActivitySettings.RUNNING),
+	};
+
+	static {
+		for (int i = 0; i < DESCRIPTORS.length; i++) {
+			if (DESCRIPTORS[i] != null && DESCRIPTORS[i].type != i) {
+				throw new IllegalStateException("Descriptor of " + DESCRIPTORS[i].name + " is misplaced");
+			}
+		}
+	}
+
+	final int type;
+	final String name;
+	final int icon;
+	// How the location is tracked, shared with the tracking core
+	final ActivitySettings settings;
+
+	private ActivityDescriptor(int type, String name, int icon, ActivitySettings settings) {
+		this.type = type;
+		this.name = name;
+		this.icon = icon;
+		this.settings = settings;
+	}
+
+	/**
+	 * @return the descriptor of the given {@link DetectedActivity} type, {@link #UNKNOWN} for unknown types
+	 */
+	static ActivityDescriptor get(int activityType) {
+		if (activityType < 0 || activityType >= DESCRIPTORS.length) return UNKNOWN;
+		ActivityDescriptor descriptor = DESCRIPTORS[activityType];
+		return descriptor == null ? UNKNOWN : descriptor;
+	}
+
+	/**
+	 * @return a new array holding the names of the activities, indexed by type
+	 */
+	static String[] getNames() {
+		String[] names = new String[DESCRIPTORS.length];
+		for (int i = 0; i < DESCRIPTORS.length; i++) {
+			names[i] = get(i).name;
+		}
+		return names;
+	}
+
+	/**
+	 * @return a new array holding, for each activity type, the first type tracked in the same way
+	 */
+	static int[] getGroups() {
+		ActivitySettings[] settings = new ActivitySettings[DESCRIPTORS.length];
+		for (int i = 0; i < DESCRIPTORS.length; i++) {
+			settings[i] = get(i).settings;
+		}
+		return ActivitySettings.getGroups(settings);
+	}
+
+	/**
+	 * @return a new array holding the types of the tracked activities
+	 */
+	static int[] getTrackedActivities() {
+		int count = 0;
+		for (ActivityDescriptor descriptor : DESCRIPTORS) {
+			if (descriptor != null && descriptor.settings.tracked) count++;
+		}
+		int[] types = new int[count];
+		count = 0;
+		for (ActivityDescriptor descriptor : DESCRIPTORS) {
+			if (descriptor != null && descriptor.settings.tracked) types[count++] = descriptor.type;
+		}
+		return types;
+	}
+}
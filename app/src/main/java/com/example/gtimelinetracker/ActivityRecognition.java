@@ -3,7 +3,6 @@ package com.example.gtimelinetracker;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -16,56 +15,30 @@ import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 class ActivityRecognition {
 	private static final String LOG_TAG = "TRANSITION_RECOGNITION";
-	private static final int[] TRACKED_ACTIVITIES = {
-			DetectedActivity.ON_BICYCLE,
-			DetectedActivity.RUNNING,
-			DetectedActivity.WALKING,
-			DetectedActivity.ON_FOOT,
-			DetectedActivity.IN_VEHICLE
-	};
-
-	private static final Map<Integer, String> DETECTED_ACTIVITIES_NAMES = new HashMap<>();
-	private static final Map<Integer, Integer> DETECTED_ACTIVITIES_ICONS = new HashMap<>();
-	static {
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.STILL, "STILL");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.ON_BICYCLE, "ON_BICYCLE");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.ON_FOOT, "ON_FOOT");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.RUNNING, "RUNNING");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.WALKING, "WALKING");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.UNKNOWN, "UNKNOWN");
-		DETECTED_ACTIVITIES_NAMES.put(DetectedActivity.IN_VEHICLE, "IN_VEHICLE");
-		DETECTED_ACTIVITIES_ICONS.put(DetectedActivity.ON_BICYCLE, R.drawable.ic_activity_bicycle);
-		DETECTED_ACTIVITIES_ICONS.put(DetectedActivity.ON_FOOT, R.drawable.ic_activity_walk);
-		DETECTED_ACTIVITIES_ICONS.put(DetectedActivity.RUNNING, R.drawable.ic_activity_run);
-		DETECTED_ACTIVITIES_ICONS.put(DetectedActivity.WALKING, R.drawable.ic_activity_walk);
-		DETECTED_ACTIVITIES_ICONS.put(DetectedActivity.IN_VEHICLE, R.drawable.ic_activity_vehicle);
-	}
+	private static final Logger LOG = new Logger(LOG_TAG);
+	private static final int[] TRACKED_ACTIVITIES = ActivityDescriptor.getTrackedActivities();
 
 	private static ActivityRecognition instance;
 
 	static ActivityRecognition getInstance() {
 		if (instance == null) {
 			instance = new ActivityRecognition();
-			log("Created new TransitionRecognition %s", instance);
+			LOG.d("Created new TransitionRecognition %s", instance);
 		} else {
-		    log("Getting TransitionRecognition %s", instance);
+		    LOG.d("Getting TransitionRecognition %s", instance);
         }
 		return instance;
 	}
 
 	static String getActivityName(int activityType) {
-		String activityName = DETECTED_ACTIVITIES_NAMES.get(activityType);
-		return activityName == null ? "UNKNOWN" : activityName;
+		return ActivityDescriptor.get(activityType).name;
 	}
 	static int getActivityIcon(int activityType) {
-		Integer icon = DETECTED_ACTIVITIES_ICONS.get(activityType);
-		return icon == null ? R.drawable.ic_activity_unknown : icon;
+		return ActivityDescriptor.get(activityType).icon;
 	}
 
 	private PendingIntent pendingIntent;
@@ -77,20 +50,13 @@ class ActivityRecognition {
 	void startTracking(Context context) {
         if (!started) {
             started = true;
-            log("Starting activity tracking");
+            LOG.d("Starting activity tracking");
             List<ActivityTransition> transitions = new ArrayList<>();
 
-			transitions.add(
-					new ActivityTransition.Builder()
-							.setActivityType(DetectedActivity.STILL)
-							.setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_ENTER)
-							.build());
+			// Exits let the tracker cancel a pending change, see TransitionStateMachine
+			addTransitions(transitions, DetectedActivity.STILL);
             for (int activityType : TRACKED_ACTIVITIES) {
-				transitions.add(
-						new ActivityTransition.Builder()
-								.setActivityType(activityType)
-								.setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_ENTER)
-								.build());
+				addTransitions(transitions, activityType);
 			}
 
             ActivityTransitionRequest request = new ActivityTransitionRequest(transitions);
@@ -104,36 +70,49 @@ class ActivityRecognition {
             task.addOnSuccessListener(new OnSuccessListener<Void>() {
                 @Override
                 public void onSuccess(Void aVoid) {
-                    log("Activity recognition success");
+                    LOG.d("Activity recognition success");
                 }
             });
 
             task.addOnFailureListener(new OnFailureListener() {
                 @Override
                 public void onFailure(@NonNull Exception e) {
-                    Log.e(LOG_TAG, "Activity recognition failure", e);
+                    LOG.e("Activity recognition failure", e);
                 }
             });
         }
     }
 
+	private static void addTransitions(List<ActivityTransition> transitions, int activityType) {
+		transitions.add(
+				new ActivityTransition.Builder()
+						.setActivityType(activityType)
+						.setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_ENTER)
+						.build());
+		transitions.add(
+				new ActivityTransition.Builder()
+						.setActivityType(activityType)
+						.setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_EXIT)
+						.build());
+	}
+
 	void stopTracking(Context context) {
 		if (started) {
 		    started = false;
-			log("Stopping activity tracking");
+			LOG.d("Stopping activity tracking");
 			com.google.android.gms.location.ActivityRecognition.getClient(context).removeActivityTransitionUpdates(pendingIntent)
 					.addOnSuccessListener(new OnSuccessListener<Void>() {
 						@Override
 						public void onSuccess(Void aVoid) {
 							pendingIntent.cancel();
 							pendingIntent = null;
-                            log("Stopped activity tracking");
+                            LOG.d("Stopped activity tracking");
 						}
 					})
 					.addOnFailureListener(new OnFailureListener() {
 						@Override
 						public void onFailure(@NonNull Exception e) {
-							Log.e(LOG_TAG, "Transitions could not be unregistered", e);
+							LOG.e("Transitions could not be unregistered", e);
 						}
 					});
 			context.stopService(new Intent(context, TrackerService.class));
@@ -143,8 +122,4 @@ class ActivityRecognition {
 	boolean isStarted() {
 		return started;
 	}
-
-	private static void log(String s, Object... args) {
-		Log.d(LOG_TAG, String.format(s, args));
-	}
 }
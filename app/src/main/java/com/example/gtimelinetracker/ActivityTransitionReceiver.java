@@ -3,51 +3,104 @@ package com.example.gtimelinetracker;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.gtimelinetracker.track.TransitionLog;
 import com.google.android.gms.location.ActivityTransition;
 import com.google.android.gms.location.ActivityTransitionEvent;
 import com.google.android.gms.location.ActivityTransitionResult;
-import com.google.android.gms.location.DetectedActivity;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ActivityTransitionReceiver extends BroadcastReceiver {
     private static final String LOG_TAG = "TRANSITION_RECOGNITION_ACTIVITY_RECEIVER";
-
+    private static final Logger LOG = new Logger(LOG_TAG);
+    // Appends the transitions off the main thread, in the order they were received
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor();
 
     @Override
     public void onReceive(Context context, Intent intent) {
         if (ActivityTransitionResult.hasResult(intent)) {
+            long startTime = System.nanoTime();
             ActivityTransitionResult result = ActivityTransitionResult.extractResult(intent);
-            log("Transition");
-            boolean stopTrackingPosition = false;
-            int startActivityType = -1;
-            for (ActivityTransitionEvent event : Objects.requireNonNull(result).getTransitionEvents()) {
-                if (event.getTransitionType() != ActivityTransition.ACTIVITY_TRANSITION_ENTER)
-                    continue;
-                int activityType = event.getActivityType();
-                log("   %s", ActivityRecognition.getActivityName(activityType));
-                if (activityType == DetectedActivity.STILL) {
-                    stopTrackingPosition = true;
-                } else {
-                    startActivityType = activityType;
+            List<ActivityTransitionEvent> events = Objects.requireNonNull(result).getTransitionEvents();
+            LOG.d("%d transitions", events.size());
+            Metrics.TRANSITIONS_RECEIVED.add(events.size());
+            // The tracker service debounces the transitions, see TransitionStateMachine
+            int count = events.size();
+            long[] times = new long[count];
+            int[] activityTypes = new int[count];
+            int[] transitionTypes = new int[count];
+            boolean startTracking = false;
+            long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < count; i++) {
+                ActivityTransitionEvent event = events.get(i);
+                times[i] = event.getElapsedRealTimeNanos() / 1000000;
+                activityTypes[i] = event.getActivityType();
+                transitionTypes[i] = event.getTransitionType();
+                if (LOG.isLoggable(Log.DEBUG)) {
+                    LOG.d("   %s %s", ActivityRecognition.getActivityName(activityTypes[i]),
+                            transitionTypes[i] == ActivityTransition.ACTIVITY_TRANSITION_ENTER ? "ENTER" : "EXIT");
+                }
+                if (transitionTypes[i] == ActivityTransition.ACTIVITY_TRANSITION_ENTER
+                        && ActivityDescriptor.get(activityTypes[i]).settings.tracked) {
+                    startTracking = true;
                 }
             }
+            if (count > 0) {
+                Metrics.TRANSITION_DELAY.record(now - times[count - 1]);
+            }
+            recordTransitions(context, times, activityTypes, transitionTypes);
             Intent trackerIntent = new Intent(context, TrackerService.class);
-            if (startActivityType != -1) {
-                log("Starting location tracker: %s", ActivityRecognition.getActivityName(startActivityType));
-                trackerIntent.putExtra(TrackerService.IntentExtras.START_IMMEDIATELY, true);
-                trackerIntent.putExtra(TrackerService.IntentExtras.ACTIVITY_TYPE, startActivityType);
+            trackerIntent.putExtra(TrackerService.IntentExtras.SENT_TIME, now);
+            trackerIntent.putExtra(TrackerService.IntentExtras.TRANSITION_TIMES, times);
+            trackerIntent.putExtra(TrackerService.IntentExtras.TRANSITION_ACTIVITIES, activityTypes);
+            trackerIntent.putExtra(TrackerService.IntentExtras.TRANSITION_TYPES, transitionTypes);
+            if (startTracking) {
+                // Tracking starts right away when the service is not tracking yet
                 context.startForegroundService(trackerIntent);
-            } else if (stopTrackingPosition) {
-                log("Stopping location tracker");
-                context.stopService(trackerIntent);
+            } else {
+                try {
+                    context.startService(trackerIntent);
+                } catch (IllegalStateException e) {
+                    // Not allowed from the background, the service is not running so there is nothing to stop
+                    LOG.d("Tracker service not running");
+                }
             }
+            Metrics.RECEIVER_DURATION.record(Metrics.microsSince(startTime));
         }
     }
 
-    private static void log(String s, Object... args) {
-        Log.d(LOG_TAG, String.format(s, args));
+    /**
+     * Appends the transitions to the log on the writer thread, the broadcast is kept alive until then.
+     *
+     * @param times elapsed realtimes of the transitions
+     */
+    private void recordTransitions(Context context, final long[] times, final int[] activityTypes,
+                                   final int[] transitionTypes) {
+        final TransitionLog transitionLog = new TransitionLog(new File(context.getFilesDir(), TrackerService.TRACKS_DIRECTORY));
+        // Event times are relative to the boot
+        final long bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        final PendingResult pendingResult = goAsync();
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < times.length; i++) {
+                        transitionLog.append(bootTime + times[i], activityTypes[i], transitionTypes[i]);
+                    }
+                } catch (IOException e) {
+                    LOG.e("Can not record the transitions", e);
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
     }
 }
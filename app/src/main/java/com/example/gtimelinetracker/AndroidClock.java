@@ -0,0 +1,25 @@
+package com.example.gtimelinetracker;
+
+import android.os.SystemClock;
+
+import com.example.gtimelinetracker.track.Clock;
+
+/**
+ * The system clocks, as seen by the tracking core.
+ */
+final class AndroidClock implements Clock {
+	static final AndroidClock INSTANCE = new AndroidClock();
+
+	private AndroidClock() {
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long elapsedRealtime() {
+		return SystemClock.elapsedRealtime();
+	}
+}
@@ -0,0 +1,180 @@
+package com.example.gtimelinetracker;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.example.gtimelinetracker.track.Tile;
+import com.example.gtimelinetracker.track.TilePyramid;
+
+/**
+ * Draws the whole recorded track over a blank web Mercator map, which is panned by dragging and
+ * zoomed by pinching.
+ * <p>
+ * Only the tiles of the {@link TilePyramid} visible at the level of the zoom are drawn, the ones
+ * not cached yet are drawn once loaded.
+ */
+public class HistoryMapView extends View implements TilePyramid.Listener {
+	private static final double MIN_ZOOM = 2;
+	private static final double MAX_ZOOM = 19;
+	private static final double DEFAULT_ZOOM = 14;
+	// Colors of the polylines, by DetectedActivity type
+	private static final int[] ACTIVITY_COLORS = {
+			0xFF3F51B5, // IN_VEHICLE
+			0xFF009688, // ON_BICYCLE
+			0xFFFF9800, // ON_FOOT
+			0xFF9E9E9E, // STILL
+			0xFF9E9E9E, // UNKNOWN
+			0xFF9E9E9E, // TILTING
+			0xFF9E9E9E,
+			0xFFFF9800, // WALKING
+			0xFFE91E63, // RUNNING
+	};
+
+	private TilePyramid tilePyramid;
+	// Web Mercator coordinates of the center of the view, from 0 to 1
+	private double centerX = 0.5;
+	private double centerY = 0.5;
+	private double zoom = MIN_ZOOM;
+	private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final ScaleGestureDetector scaleDetector;
+	private float lastTouchX;
+	private float lastTouchY;
+	// Line ends given to Canvas.drawLines, reused for every tile
+	private float[] lines = new float[1024];
+
+	public HistoryMapView(Context context, AttributeSet attributes) {
+		super(context, attributes);
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeWidth(4);
+		scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			@Override
+			public boolean onScale(ScaleGestureDetector detector) {
+				setZoom(zoom + Math.log(detector.getScaleFactor()) / Math.log(2));
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * @param tilePyramid pyramid to draw, null to draw nothing
+	 */
+	public void setTilePyramid(TilePyramid tilePyramid) {
+		if (this.tilePyramid != null) {
+			this.tilePyramid.setListener(null);
+		}
+		this.tilePyramid = tilePyramid;
+		if (tilePyramid != null) {
+			tilePyramid.setListener(this);
+		}
+		invalidate();
+	}
+
+	/**
+	 * Centers the view on the location, and zooms in if the whole world is displayed.
+	 */
+	public void setCenter(double latitude, double longitude) {
+		centerX = TilePyramid.getWorldX(longitude);
+		centerY = TilePyramid.getWorldY(latitude);
+		if (zoom == MIN_ZOOM) {
+			zoom = DEFAULT_ZOOM;
+		}
+		invalidate();
+	}
+
+	@Override
+	public void onTileLoaded(Tile tile) {
+		postInvalidate();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		scaleDetector.onTouchEvent(event);
+		switch (event.getActionMasked()) {
+			case MotionEvent.ACTION_DOWN:
+				lastTouchX = event.getX();
+				lastTouchY = event.getY();
+				break;
+			case MotionEvent.ACTION_MOVE:
+				if (!scaleDetector.isInProgress() && event.getPointerCount() == 1) {
+					double worldSize = getWorldSize();
+					centerX -= (event.getX() - lastTouchX) / worldSize;
+					centerY = Math.max(0, Math.min(1, centerY - (event.getY() - lastTouchY) / worldSize));
+					centerX -= Math.floor(centerX);
+					invalidate();
+				}
+				lastTouchX = event.getX();
+				lastTouchY = event.getY();
+				break;
+		}
+		return true;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		canvas.drawColor(Color.WHITE);
+		if (tilePyramid == null) return;
+		int level = TilePyramid.getLevel(zoom);
+		int tiles = 1 << level;
+		double worldSize = getWorldSize();
+		double tileSize = worldSize / tiles;
+		double left = centerX * worldSize - getWidth() / 2.0;
+		double top = centerY * worldSize - getHeight() / 2.0;
+		int firstX = (int) Math.floor(left / tileSize);
+		int lastX = (int) Math.floor((left + getWidth()) / tileSize);
+		int firstY = Math.max(0, (int) Math.floor(top / tileSize));
+		int lastY = Math.min(tiles - 1, (int) Math.floor((top + getHeight()) / tileSize));
+		for (int tileY = firstY; tileY <= lastY; tileY++) {
+			for (int x = firstX; x <= lastX; x++) {
+				// The map wraps around the antimeridian
+				Tile tile = tilePyramid.getTile(level, Math.floorMod(x, tiles), tileY);
+				if (tile != null) {
+					drawTile(canvas, tile, (float) (x * tileSize - left), (float) (tileY * tileSize - top), (float) tileSize);
+				}
+			}
+		}
+	}
+
+	// Draws the polylines of the tile, one call per run of points of the same activity
+	private void drawTile(Canvas canvas, Tile tile, float left, float top, float size) {
+		synchronized (tile) {
+			int pointCount = tile.getPointCount();
+			int count = 0;
+			int activityType = -1;
+			for (int point = 0; point < pointCount; point++) {
+				if (point == 0 || tile.isPolylineStart(point)) continue;
+				if (tile.getActivityType(point) != activityType || count + 4 > lines.length) {
+					drawLines(canvas, count, activityType);
+					count = 0;
+					activityType = tile.getActivityType(point);
+				}
+				lines[count++] = left + tile.getPointX(point - 1) * size;
+				lines[count++] = top + tile.getPointY(point - 1) * size;
+				lines[count++] = left + tile.getPointX(point) * size;
+				lines[count++] = top + tile.getPointY(point) * size;
+			}
+			drawLines(canvas, count, activityType);
+		}
+	}
+
+	private void drawLines(Canvas canvas, int count, int activityType) {
+		if (count == 0) return;
+		paint.setColor(activityType >= 0 && activityType < ACTIVITY_COLORS.length ? ACTIVITY_COLORS[activityType] : Color.BLUE);
+		canvas.drawLines(lines, 0, count, paint);
+	}
+
+	private void setZoom(double zoom) {
+		this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+		invalidate();
+	}
+
+	// Size of the world at the current zoom, in pixels
+	private double getWorldSize() {
+		return TilePyramid.TILE_PIXELS * Math.pow(2, zoom);
+	}
+}
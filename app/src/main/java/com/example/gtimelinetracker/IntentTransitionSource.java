@@ -0,0 +1,35 @@
+package com.example.gtimelinetracker;
+
+import android.content.Intent;
+
+import com.example.gtimelinetracker.track.TransitionSource;
+
+/**
+ * Activity transitions received by the {@link ActivityTransitionReceiver}, which hands them to the
+ * tracker service in the extras of the intents starting it.
+ */
+class IntentTransitionSource implements TransitionSource {
+	private Listener listener;
+
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Delivers the transitions held by the intent, if any.
+	 *
+	 * @return true when the intent held transitions
+	 */
+	boolean deliver(Intent intent) {
+		if (!intent.hasExtra(TrackerService.IntentExtras.TRANSITION_TIMES)) return false;
+		long[] times = intent.getLongArrayExtra(TrackerService.IntentExtras.TRANSITION_TIMES);
+		int[] activityTypes = intent.getIntArrayExtra(TrackerService.IntentExtras.TRANSITION_ACTIVITIES);
+		int[] transitionTypes = intent.getIntArrayExtra(TrackerService.IntentExtras.TRANSITION_TYPES);
+		for (int i = 0; i < times.length; i++) {
+			listener.onTransition(times[i], activityTypes[i], transitionTypes[i]);
+		}
+		listener.onBatchEnd();
+		return true;
+	}
+}
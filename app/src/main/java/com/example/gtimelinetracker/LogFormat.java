@@ -0,0 +1,85 @@
+package com.example.gtimelinetracker;
+
+/**
+ * Formatting of the logs, without the varargs array and the boxing of {@link String#format}: the
+ * arguments are passed as four objects and four longs, with a mask telling which ones are longs.
+ * <p>
+ * Formats only support the {@code %s}, {@code %S} and {@code %d} conversions, with an optional
+ * {@code -} flag, width and precision for {@code %s} and {@code %S}, and {@code %n} and {@code %%}.
+ * Others are rejected with an {@link IllegalArgumentException}.
+ */
+final class LogFormat {
+	// Argument count meaning that the first object argument is an array holding all the arguments
+	static final int VARARGS = -1;
+
+	private LogFormat() {
+	}
+
+	/**
+	 * Replaces each %-conversion of the format by the next argument.
+	 *
+	 * @throws IllegalArgumentException on an unsupported conversion or flag, or a precision on {@code %d}
+	 */
+	static void format(StringBuilder out, String format, int count, int longMask,
+					   Object o0, Object o1, Object o2, Object o3, long l0, long l1, long l2, long l3) {
+		Object[] varargs = count == VARARGS ? (Object[]) o0 : null;
+		int arg = 0;
+		for (int i = 0, n = format.length(); i < n; i++) {
+			char c = format.charAt(i);
+			if (c != '%') {
+				out.append(c);
+				continue;
+			}
+			int start = i;
+			boolean leftJustified = i + 1 < n && format.charAt(i + 1) == '-';
+			if (leftJustified) {
+				i++;
+			}
+			int width = 0;
+			while (i + 1 < n && format.charAt(i + 1) >= '0' && format.charAt(i + 1) <= '9') {
+				width = 10 * width + format.charAt(++i) - '0';
+			}
+			int precision = -1;
+			if (i + 1 < n && format.charAt(i + 1) == '.') {
+				i++;
+				precision = 0;
+				while (i + 1 < n && format.charAt(i + 1) >= '0' && format.charAt(i + 1) <= '9') {
+					precision = 10 * precision + format.charAt(++i) - '0';
+				}
+			}
+			c = i + 1 < n ? format.charAt(++i) : 0;
+			boolean plain = !leftJustified && width == 0 && precision == -1;
+			if ((c == '%' || c == 'n') && plain) {
+				out.append(c == '%' ? '%' : '\n');
+				continue;
+			}
+			if ((c != 's' && c != 'S' && c != 'd') || (leftJustified && width == 0) || (c == 'd' && precision != -1)) {
+				throw new IllegalArgumentException("Unsupported conversion " + format.substring(start, i + 1) + " in " + format);
+			}
+			int from = out.length();
+			if (varargs != null) {
+				out.append(arg < varargs.length ? varargs[arg] : null);
+			} else if (arg < count && (longMask & (1 << arg)) != 0) {
+				out.append(arg == 0 ? l0 : arg == 1 ? l1 : arg == 2 ? l2 : l3);
+			} else {
+				out.append(arg >= count ? null : arg == 0 ? o0 : arg == 1 ? o1 : arg == 2 ? o2 : o3);
+			}
+			arg++;
+			if (precision != -1 && out.length() - from > precision) {
+				out.setLength(from + precision);
+			}
+			if (c == 'S') {
+				for (int k = from; k < out.length(); k++) {
+					out.setCharAt(k, Character.toUpperCase(out.charAt(k)));
+				}
+			}
+			for (int padding = width - (out.length() - from); padding > 0; padding--) {
+				if (leftJustified) {
+					out.append(' ');
+				} else {
+					out.insert(from, ' ');
+				}
+			}
+		}
+	}
+}
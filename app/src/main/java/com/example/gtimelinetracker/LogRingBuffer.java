@@ -0,0 +1,94 @@
+package com.example.gtimelinetracker;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Fixed size in-memory log keeping the last entries unformatted: the format and the arguments
+ * are stored in preallocated arrays, and only formatted when the buffer is dumped. The object
+ * arguments must have been captured by the {@link Logger}, so that they render as when logged.
+ */
+class LogRingBuffer {
+	private static final int ARGS = 4;
+	private static final String LEVELS = "??VDIWEA";
+
+	private final int capacity;
+	private final long[] times;
+	private final int[] levels;
+	private final String[] tags;
+	private final String[] formats;
+	private final int[] counts;
+	private final int[] longMasks;
+	private final Object[] objectArgs;
+	private final long[] longArgs;
+	// Index of the next entry, entries are overwritten once the buffer is full
+	private int next = 0;
+	private int size = 0;
+
+	LogRingBuffer(int capacity) {
+		this.capacity = capacity;
+		times = new long[capacity];
+		levels = new int[capacity];
+		tags = new String[capacity];
+		formats = new String[capacity];
+		counts = new int[capacity];
+		longMasks = new int[capacity];
+		objectArgs = new Object[capacity * ARGS];
+		longArgs = new long[capacity * ARGS];
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	synchronized void add(long time, int level, String tag, String format, int count, int longMask,
+						  Object o0, Object o1, Object o2, Object o3, long l0, long l1, long l2, long l3) {
+		int i = next;
+		times[i] = time;
+		levels[i] = level;
+		tags[i] = tag;
+		formats[i] = format;
+		counts[i] = count;
+		longMasks[i] = longMask;
+		int args = i * ARGS;
+		objectArgs[args] = o0;
+		objectArgs[args + 1] = o1;
+		objectArgs[args + 2] = o2;
+		objectArgs[args + 3] = o3;
+		longArgs[args] = l0;
+		longArgs[args + 1] = l1;
+		longArgs[args + 2] = l2;
+		longArgs[args + 3] = l3;
+		next = (i + 1) % capacity;
+		size = Math.min(size + 1, capacity);
+	}
+
+	/**
+	 * Writes the entries, oldest first, one per line.
+	 */
+	synchronized void dump(Appendable out) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+		StringBuilder builder = new StringBuilder(128);
+		for (int k = 0; k < size; k++) {
+			int i = (next - size + k + capacity) % capacity;
+			int args = i * ARGS;
+			builder.setLength(0);
+			builder.append(dateFormat.format(new Date(times[i])))
+					.append(' ').append(LEVELS.charAt(Math.min(levels[i], LEVELS.length() - 1)))
+					.append('/').append(tags[i]).append(": ");
+			int prefix = builder.length();
+			try {
+				LogFormat.format(builder, formats[i], counts[i], longMasks[i],
+						objectArgs[args], objectArgs[args + 1], objectArgs[args + 2], objectArgs[args + 3],
+						longArgs[args], longArgs[args + 1], longArgs[args + 2], longArgs[args + 3]);
+			} catch (IllegalArgumentException e) {
+				// The other entries are still dumped
+				builder.setLength(prefix);
+				builder.append(e.getMessage());
+			}
+			out.append(builder).append('\n');
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.example.gtimelinetracker;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Logging facade checking the level before anything is formatted.
+ * <p>
+ * Arguments are passed through overloads taking primitives, so that disabled logs cost neither
+ * a varargs array nor boxing, and the object arguments are only turned into strings when the log
+ * is printed. The ring buffer is meant for debug builds and field diagnostics: when it is enabled,
+ * every log, whatever its level, is also kept unformatted in memory and only formatted when the
+ * buffer is dumped, and the object arguments which may change or be kept alive meanwhile are
+ * turned into strings when logged, see {@link #capture}.
+ * <p>
+ * The formats are those of {@link LogFormat}.
+ */
+final class Logger {
+	private static volatile int level = BuildConfig.DEBUG ? Log.DEBUG : Log.INFO;
+	private static volatile LogRingBuffer ringBuffer;
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(128);
+		}
+	};
+
+	private final String tag;
+
+	Logger(String tag) {
+		this.tag = tag;
+	}
+
+	static void setLevel(int level) {
+		Logger.level = level;
+	}
+
+	/**
+	 * Keeps the last logs in memory, see {@link #dumpRingBuffer}.
+	 */
+	static void enableRingBuffer(int capacity) {
+		if (ringBuffer == null || ringBuffer.getCapacity() != capacity) {
+			ringBuffer = new LogRingBuffer(capacity);
+		}
+	}
+
+	/**
+	 * Drops the logs kept in memory, the disabled logs then cost nothing.
+	 */
+	static void disableRingBuffer() {
+		ringBuffer = null;
+	}
+
+	static boolean isRingBufferEnabled() {
+		return ringBuffer != null;
+	}
+
+	static void dumpRingBuffer(Appendable out) throws IOException {
+		LogRingBuffer buffer = ringBuffer;
+		if (buffer != null) {
+			buffer.dump(out);
+		}
+	}
+
+	/**
+	 * @return false when a log of this level is neither printed nor kept, to skip computing
+	 * arguments which are not already at hand
+	 */
+	boolean isLoggable(int level) {
+		return level >= Logger.level || ringBuffer != null;
+	}
+
+	void d(String message) {
+		log(Log.DEBUG, message, 0, 0, null, null, null, null, 0, 0, 0, 0);
+	}
+
+	void d(String format, Object arg) {
+		log(Log.DEBUG, format, 1, 0, arg, null, null, null, 0, 0, 0, 0);
+	}
+
+	void d(String format, Object arg1, Object arg2) {
+		log(Log.DEBUG, format, 2, 0, arg1, arg2, null, null, 0, 0, 0, 0);
+	}
+
+	void d(String format, long arg) {
+		log(Log.DEBUG, format, 1, 0b1, null, null, null, null, arg, 0, 0, 0);
+	}
+
+	void d(String format, long arg1, long arg2) {
+		log(Log.DEBUG, format, 2, 0b11, null, null, null, null, arg1, arg2, 0, 0);
+	}
+
+	void d(String format, Object arg1, long arg2) {
+		log(Log.DEBUG, format, 2, 0b10, arg1, null, null, null, 0, arg2, 0, 0);
+	}
+
+	void d(String format, Object arg1, long arg2, long arg3) {
+		log(Log.DEBUG, format, 3, 0b110, arg1, null, null, null, 0, arg2, arg3, 0);
+	}
+
+	void d(String format, long arg1, long arg2, long arg3, long arg4) {
+		log(Log.DEBUG, format, 4, 0b1111, null, null, null, null, arg1, arg2, arg3, arg4);
+	}
+
+	/**
+	 * Fallback for the rare logs not covered by the other overloads, the arguments array is
+	 * allocated even when the log is disabled.
+	 */
+	void d(String format, Object... args) {
+		log(Log.DEBUG, format, LogFormat.VARARGS, 0, args, null, null, null, 0, 0, 0, 0);
+	}
+
+	void w(String message) {
+		log(Log.WARN, message, 0, 0, null, null, null, null, 0, 0, 0, 0);
+	}
+
+	void w(String format, long arg) {
+		log(Log.WARN, format, 1, 0b1, null, null, null, null, arg, 0, 0, 0);
+	}
+
+	void e(String message, Throwable throwable) {
+		log(Log.ERROR, "%s: %s", 2, 0, message, throwable, null, null, 0, 0, 0, 0);
+		if (Log.ERROR >= level) {
+			Log.e(tag, message, throwable);
+		}
+	}
+
+	private void log(int level, String format, int count, int longMask,
+					 Object o0, Object o1, Object o2, Object o3, long l0, long l1, long l2, long l3) {
+		LogRingBuffer buffer = ringBuffer;
+		if (buffer != null) {
+			Object[] varargs = count == LogFormat.VARARGS ? captureAll((Object[]) o0) : null;
+			buffer.add(System.currentTimeMillis(), level, tag, format, count, longMask,
+					varargs != null ? varargs : capture(o0), capture(o1), capture(o2), capture(o3), l0, l1, l2, l3);
+		}
+		// Errors are printed with their stack trace by e()
+		if (level >= Logger.level && level != Log.ERROR) {
+			StringBuilder builder = BUILDER.get();
+			builder.setLength(0);
+			LogFormat.format(builder, format, count, longMask, o0, o1, o2, o3, l0, l1, l2, l3);
+			Log.println(level, tag, builder.toString());
+		}
+	}
+
+	/**
+	 * @return the argument itself when it is immutable and keeps nothing else alive, otherwise its
+	 * string as it is now
+	 */
+	static Object capture(Object arg) {
+		if (arg == null || arg instanceof String || arg instanceof Long || arg instanceof Integer
+				|| arg instanceof Boolean || arg instanceof Double || arg instanceof Float || arg instanceof Character
+				|| arg instanceof Short || arg instanceof Byte) {
+			return arg;
+		}
+		return String.valueOf(arg);
+	}
+
+	private static Object[] captureAll(Object[] args) {
+		if (args == null) return null;
+		Object[] captured = new Object[args.length];
+		for (int i = 0; i < args.length; i++) {
+			captured[i] = capture(args[i]);
+		}
+		return captured;
+	}
+}
@@ -12,10 +12,12 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
-import android.util.Log;
+import android.view.KeyEvent;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -23,14 +25,15 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 
+import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity {
 
 	private static final String LOG_TAG = "ACTIVITY";
+	private static final Logger LOG = new Logger(LOG_TAG);
 
 	private static final int PERMISSIONS_LOCATION_REQUEST_CODE = 1;
 	private static final int PERMISSIONS_ACTIVITY_RECOGNITION_REQUEST_CODE = 2;
@@ -41,31 +44,63 @@ public class MainActivity extends AppCompatActivity {
 	private final Handler trackerMessageHandler = new TrackerMessageHandler(this);
 	private final ActivityRecognition activityRecognition = ActivityRecognition.getInstance();
 
+	private CheckBox automaticTrackingCheckbox;
+	private Button startTrackingButton;
+	private TextView locationText;
+	private EditText energyBudgetText;
+	private HistoryMapView historyMapView;
+	// Displayed location, in 1e-5 degrees, to skip refreshes that would not change the text
+	private long displayedLatitude = Long.MIN_VALUE;
+	private long displayedLongitude = Long.MIN_VALUE;
+	private final StringBuilder locationBuilder = new StringBuilder(32);
+	private char decimalSeparator;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);
 		Toolbar toolbar = findViewById(R.id.toolbar);
 		setSupportActionBar(toolbar);
+		automaticTrackingCheckbox = findViewById(R.id.automaticTrackingCheckbox);
+		startTrackingButton = findViewById(R.id.startTrackingButton);
+		locationText = findViewById(R.id.locationText);
+		energyBudgetText = findViewById(R.id.energyBudgetText);
+		historyMapView = findViewById(R.id.historyMapView);
+		energyBudgetText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+			@Override
+			public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+				if (actionId == EditorInfo.IME_ACTION_DONE) {
+					handleEnergyBudgetChange();
+				}
+				return false;
+			}
+		});
+		decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
 		requestLocationPermissions();
 	}
 
 	@Override
 	protected void onDestroy() {
-		log("Destroying activity");
+		LOG.d("Destroying activity");
 		super.onDestroy();
 	}
 
 	@Override
 	protected void onResume() {
-		log("Resuming activity");
+		LOG.d("Resuming activity");
 		super.onResume();
 		bindToTrackerService();
 	}
 
 	@Override
 	protected void onPause() {
-		log("Pausing activity");
+		LOG.d("Pausing activity");
+		// The service outlives the binding, it must stop posting to the activity and its views
+		if (trackerBinder != null) {
+			trackerBinder.setOutHandler(null);
+			trackerBinder = null;
+			historyMapView.setTilePyramid(null);
+		}
 		unbindService(trackerConnection);
 		super.onPause();
 	}
@@ -91,6 +126,20 @@ public class MainActivity extends AppCompatActivity {
 		}
 	}
 
+	private void handleEnergyBudgetChange() {
+		if (trackerBinder != null) {
+			String text = energyBudgetText.getText().toString().trim();
+			int budget = 0;
+			try {
+				budget = text.isEmpty() ? 0 : Integer.parseInt(text);
+			} catch (NumberFormatException e) {
+				LOG.w("Invalid energy budget: " + text);
+			}
+			trackerBinder.setEnergyBudget(budget);
+			updateEnergyBudgetText();
+		}
+	}
+
 	private void bindToTrackerService() {
 		Intent trackerIntent = createServiceIntent();
 		startService(trackerIntent);
@@ -98,32 +147,64 @@ public class MainActivity extends AppCompatActivity {
 	}
 
 	private void updateAutomaticTrackingCheckbox() {
-		CheckBox checkBox = findViewById(R.id.automaticTrackingCheckbox);
-		checkBox.setChecked(activityRecognition.isStarted());
+		automaticTrackingCheckbox.setChecked(activityRecognition.isStarted());
 	}
 
 	private void updateStartTrackingButton() {
-		Button button = findViewById(R.id.startTrackingButton);
 		if (!hasLocationPermission || trackerBinder == null) {
-			button.setEnabled(false);
-			button.setText(R.string.start_tracking_btn_label);
+			startTrackingButton.setEnabled(false);
+			startTrackingButton.setText(R.string.start_tracking_btn_label);
 		} else {
-			button.setEnabled(true);
-			button.setText(trackerBinder.isStarted() ? R.string.stop_tracking_btn_label : R.string.start_tracking_btn_label);
+			startTrackingButton.setEnabled(true);
+			startTrackingButton.setText(trackerBinder.isStarted() ? R.string.stop_tracking_btn_label : R.string.start_tracking_btn_label);
+		}
+	}
+
+	// An empty text means tracking without limit
+	private void updateEnergyBudgetText() {
+		if (trackerBinder == null) {
+			energyBudgetText.setEnabled(false);
+		} else {
+			int budget = trackerBinder.getEnergyBudget();
+			energyBudgetText.setEnabled(true);
+			energyBudgetText.setText(budget > 0 ? Integer.toString(budget) : "");
 		}
 	}
 
 	private void updateLocationText(Location location) {
-		TextView text = findViewById(R.id.locationText);
-		String locationAsString;
 		if (location == null) {
-			locationAsString = "";
-		} else {
-			locationAsString = String.format(Locale.getDefault(), "%s°, %s°",
-					Location.convert(location.getLatitude(), Location.FORMAT_DEGREES),
-					Location.convert(location.getLongitude(), Location.FORMAT_DEGREES));
+			displayedLatitude = Long.MIN_VALUE;
+			displayedLongitude = Long.MIN_VALUE;
+			locationText.setText("");
+			return;
+		}
+		long latitude = Math.round(location.getLatitude() * 1e5);
+		long longitude = Math.round(location.getLongitude() * 1e5);
+		if (latitude == displayedLatitude && longitude == displayedLongitude) return;
+		displayedLatitude = latitude;
+		displayedLongitude = longitude;
+		locationBuilder.setLength(0);
+		appendDegrees(locationBuilder, latitude).append("°, ");
+		appendDegrees(locationBuilder, longitude).append('°');
+		locationText.setText(locationBuilder);
+	}
+
+	// Same output as Location.convert(FORMAT_DEGREES), without the DecimalFormat
+	private StringBuilder appendDegrees(StringBuilder builder, long degrees) {
+		if (degrees < 0) {
+			builder.append('-');
+			degrees = -degrees;
+		}
+		builder.append(degrees / 100000);
+		long fraction = degrees % 100000;
+		if (fraction != 0) {
+			builder.append(decimalSeparator);
+			for (long digit = 10000; fraction != 0; digit /= 10) {
+				builder.append((char) ('0' + fraction / digit));
+				fraction %= digit;
+			}
 		}
-		text.setText(locationAsString);
+		return builder;
 	}
 
 	@SuppressLint("ObsoleteSdkInt")
@@ -158,21 +239,21 @@ public class MainActivity extends AppCompatActivity {
 				if (hasPermission) {
 					hasLocationPermission = true;
 					requestActivityRecognitionPermissions();
-					log("Permission to access location has been GRANTED");
+					LOG.d("Permission to access location has been GRANTED");
 				} else {
-					log("Permission to access location has been DENIED");
+					LOG.d("Permission to access location has been DENIED");
 				}
 				break;
 			case PERMISSIONS_ACTIVITY_RECOGNITION_REQUEST_CODE:
 				if (hasPermission) {
-					findViewById(R.id.automaticTrackingCheckbox).setEnabled(true);
+					automaticTrackingCheckbox.setEnabled(true);
 					if (!activityRecognition.isStarted()) {
 						activityRecognition.startTracking(this);
 					}
 					updateAutomaticTrackingCheckbox();
-					log("Permission to activity recognition has been GRANTED");
+					LOG.d("Permission to activity recognition has been GRANTED");
 				} else {
-					log("Permission to activity recognition has been DENIED");
+					LOG.d("Permission to activity recognition has been DENIED");
 				}
 				break;
 		}
@@ -182,10 +263,6 @@ public class MainActivity extends AppCompatActivity {
 		return new Intent(MainActivity.this, TrackerService.class);
 	}
 
-	private static void log(String s, Object... args) {
-		Log.d(LOG_TAG, String.format(s, args));
-	}
-
 	private class TrackerServiceConnection implements ServiceConnection {
 		@Override
 		public void onServiceConnected(ComponentName name, IBinder service) {
@@ -193,7 +270,13 @@ public class MainActivity extends AppCompatActivity {
 			trackerBinder.setOutHandler(trackerMessageHandler);
 			updateLocationText(trackerBinder.getLastLocation());
 			updateStartTrackingButton();
-			log("Tracker service is connected");
+			updateEnergyBudgetText();
+			historyMapView.setTilePyramid(trackerBinder.getTilePyramid());
+			Location location = trackerBinder.getLastLocation();
+			if (location != null) {
+				historyMapView.setCenter(location.getLatitude(), location.getLongitude());
+			}
+			LOG.d("Tracker service is connected");
 		}
 
 		@Override
@@ -202,10 +285,12 @@ public class MainActivity extends AppCompatActivity {
 			trackerBinder = null;
 			updateLocationText(null);
 			updateStartTrackingButton();
+			updateEnergyBudgetText();
+			historyMapView.setTilePyramid(null);
 			if (!isActivityTransitionRunning()) {
 				bindToTrackerService();
 			}
-			log("Tracker service is disconnected");
+			LOG.d("Tracker service is disconnected");
 		}
 	}
 
@@ -225,6 +310,8 @@ public class MainActivity extends AppCompatActivity {
 					break;
 				case TrackerService.SentMessages.LOCATION_CHANGE:
 					activity.updateLocationText((Location) msg.obj);
+					// The last fixes have been added to the cached tiles
+					activity.historyMapView.invalidate();
 					break;
 			}
 		}
@@ -0,0 +1,64 @@
+package com.example.gtimelinetracker;
+
+import android.os.SystemClock;
+
+import com.example.gtimelinetracker.metrics.Counter;
+import com.example.gtimelinetracker.metrics.Histogram;
+import com.example.gtimelinetracker.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+/**
+ * Metrics of the application process, dumped through the tracker binder and periodically to a
+ * file so that field behaviour can be checked.
+ */
+final class Metrics {
+	private static final MetricsRegistry REGISTRY = new MetricsRegistry(SystemClock.elapsedRealtime());
+
+	static final Counter TRACKER_THREAD_STARTS = REGISTRY.counter("tracker.thread.starts");
+	static final Counter TRACKER_STARTS = REGISTRY.counter("tracker.starts");
+	static final Counter TRACKER_RECONFIGURATIONS = REGISTRY.counter("tracker.reconfigurations");
+	static final Counter TRACKER_STOPS = REGISTRY.counter("tracker.stops");
+	static final Counter LOCATION_REQUESTS = REGISTRY.counter("location.requests");
+	static final Counter CALLBACK_WAKEUPS = REGISTRY.counter("callback.wakeups");
+	static final Counter FIXES_RECEIVED = REGISTRY.counter("fixes.received");
+	static final Counter FIXES_ACCEPTED = REGISTRY.counter("fixes.accepted");
+	static final Counter TRANSITIONS_RECEIVED = REGISTRY.counter("transitions.received");
+	static final Counter SIGNIFICANT_MOTIONS = REGISTRY.counter("significant.motions");
+	// Gaps without satellites, and the seconds the receiver was spared by backing off meanwhile
+	static final Counter GNSS_GAPS = REGISTRY.counter("gnss.gaps");
+	static final Counter GNSS_SAVED_SECONDS = REGISTRY.counter("gnss.saved.seconds");
+	static final Counter CHUNKS_SEALED = REGISTRY.counter("upload.chunks.sealed");
+	static final Counter CHUNKS_UPLOADED = REGISTRY.counter("upload.chunks.uploaded");
+	static final Counter CHUNKS_REJECTED = REGISTRY.counter("upload.chunks.rejected");
+	static final Counter UPLOAD_SESSIONS = REGISTRY.counter("upload.sessions");
+
+	static final Histogram CALLBACK_DURATION = REGISTRY.histogram("callback.duration", "us");
+	// Delay between a fix and its processing, mostly due to batching
+	static final Histogram FIX_DELAY = REGISTRY.histogram("fix.delay", "ms");
+	static final Histogram TRACKER_MESSAGE_DURATION = REGISTRY.histogram("tracker.message.duration", "us");
+	static final Histogram RECEIVER_DURATION = REGISTRY.histogram("receiver.duration", "us");
+	// Stages from an activity transition to the first accurate fix of the tracker it starts
+	static final Histogram TRANSITION_DELAY = REGISTRY.histogram("start.transition.delay", "ms");
+	static final Histogram SERVICE_START_DELAY = REGISTRY.histogram("start.service.delay", "ms");
+	static final Histogram REQUEST_REGISTRATION = REGISTRY.histogram("start.request.registration", "ms");
+	static final Histogram FIRST_FIX_DELAY = REGISTRY.histogram("start.first.fix", "ms");
+	static final Histogram ACCURATE_FIX_DELAY = REGISTRY.histogram("start.first.accurate.fix", "ms");
+	// Age of the location shown until the first fix of a start
+	static final Histogram PROVISIONAL_AGE = REGISTRY.histogram("start.provisional.age", "s");
+	static final Histogram GNSS_GAP_DURATION = REGISTRY.histogram("gnss.gap.duration", "s");
+
+	private Metrics() {
+	}
+
+	static void dump(Appendable out) throws IOException {
+		REGISTRY.dump(out, SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * @return the time elapsed since {@code startNanos}, from {@link System#nanoTime}, in microseconds
+	 */
+	static long microsSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000;
+	}
+}
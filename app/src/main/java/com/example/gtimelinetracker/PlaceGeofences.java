@@ -0,0 +1,74 @@
+package com.example.gtimelinetracker;
+
+import android.annotation.SuppressLint;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+
+import com.example.gtimelinetracker.track.PlaceIndex;
+import com.example.gtimelinetracker.track.PlaceSamplingPolicy;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.OnFailureListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers a geofence around each frequent place, so that the tracker learns when the user leaves
+ * a place while it only requests low power locations there.
+ * <p>
+ * Exits are broadcast with {@link #ACTION_PLACE_EXIT}, they are only received while the tracker
+ * service is running.
+ */
+class PlaceGeofences {
+	static final String ACTION_PLACE_EXIT = "com.example.gtimelinetracker.PLACE_EXIT";
+	private static final String LOG_TAG = "PLACE_GEOFENCES";
+	private static final Logger LOG = new Logger(LOG_TAG);
+	// An application can not register more than 100 geofences
+	private static final int MAX_GEOFENCES = 100;
+
+	private final GeofencingClient client;
+	private final PendingIntent pendingIntent;
+
+	PlaceGeofences(Context context) {
+		client = LocationServices.getGeofencingClient(context);
+		Intent intent = new Intent(ACTION_PLACE_EXIT).setPackage(context.getPackageName());
+		pendingIntent = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+
+	/**
+	 * Replaces the registered geofences by the ones of the current frequent places.
+	 */
+	@SuppressLint("MissingPermission")
+	void update(PlaceIndex places) {
+		List<Geofence> geofences = new ArrayList<>();
+		for (int place = 0; place < places.size() && geofences.size() < MAX_GEOFENCES; place++) {
+			if (places.getVisitCount(place) < PlaceSamplingPolicy.MIN_VISIT_COUNT) continue;
+			geofences.add(new Geofence.Builder()
+					.setRequestId(Integer.toString(place))
+					.setCircularRegion(places.getLatitude(place), places.getLongitude(place), (float) PlaceIndex.PLACE_RADIUS)
+					.setExpirationDuration(Geofence.NEVER_EXPIRE)
+					.setTransitionTypes(Geofence.GEOFENCE_TRANSITION_EXIT)
+					.build());
+		}
+		LOG.d("Registering %d place geofences", geofences.size());
+		client.removeGeofences(pendingIntent);
+		if (geofences.isEmpty()) return;
+		GeofencingRequest request = new GeofencingRequest.Builder()
+				.setInitialTrigger(0)
+				.addGeofences(geofences)
+				.build();
+		client.addGeofences(request, pendingIntent)
+				.addOnFailureListener(new OnFailureListener() {
+					@Override
+					public void onFailure(@NonNull Exception e) {
+						LOG.e("Place geofences could not be registered", e);
+					}
+				});
+	}
+}
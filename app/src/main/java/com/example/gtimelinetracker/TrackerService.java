@@ -6,20 +6,54 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.location.Location;
+import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import com.example.gtimelinetracker.track.Clock;
+import com.example.gtimelinetracker.track.EnergyBudgetPlanner;
+import com.example.gtimelinetracker.track.EnergyModel;
+import com.example.gtimelinetracker.track.FixSink;
+import com.example.gtimelinetracker.track.GeoJsonExporter;
+import com.example.gtimelinetracker.track.GpxExporter;
+import com.example.gtimelinetracker.track.LocationSource;
+import com.example.gtimelinetracker.track.PlaceIndex;
+import com.example.gtimelinetracker.track.SamplingProfile;
+import com.example.gtimelinetracker.track.TilePyramid;
+import com.example.gtimelinetracker.track.TrackExporter;
+import com.example.gtimelinetracker.track.TrackReader;
+import com.example.gtimelinetracker.track.TrackStore;
+import com.example.gtimelinetracker.track.TrackerLoop;
+import com.example.gtimelinetracker.track.TrackingCore;
+import com.example.gtimelinetracker.track.TransitionLog;
+import com.example.gtimelinetracker.track.TransitionSource;
+import com.example.gtimelinetracker.track.TransitionStateMachine;
+import com.example.gtimelinetracker.track.TripLog;
+import com.example.gtimelinetracker.track.TripSegment;
+import com.example.gtimelinetracker.track.UploadQueue;
 import com.google.android.gms.location.DetectedActivity;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationAvailability;
@@ -27,10 +61,16 @@ import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-
-import java.util.Date;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.Executors;
+import java.util.TimeZone;
 
 public class TrackerService extends Service {
 	interface SentMessages {
@@ -41,20 +81,71 @@ public class TrackerService extends Service {
 	interface IntentExtras {
 		String START_IMMEDIATELY = "immediate";
 		String ACTIVITY_TYPE = "activity";
+		// Activity transitions to feed the state machine, times are elapsed realtime in milliseconds
+		String TRANSITION_TIMES = "transitionTimes";
+		String TRANSITION_ACTIVITIES = "transitionActivities";
+		String TRANSITION_TYPES = "transitionTypes";
+		// Elapsed realtime in milliseconds when the intent was sent, to measure the start of the service
+		String SENT_TIME = "sentTime";
 	}
 
 	private static final String LOG_TAG = "TRACKER_SERVICE";
+	private static final Logger LOG = new Logger(LOG_TAG);
 	private static final String NOTIFICATION_CHANNEL_ID = "TimelineTracker";
 	private static final int NOTIFICATION_STARTED_ID = 1;
-	private static final int DEFAULT_TRACKING_PERIOD = 1000;
-	private static final int BICYCLE_TRACKING_PERIOD = 500;
-	private static final int RUNNING_TRACKING_PERIOD = 500;
+	static final String TRACKS_DIRECTORY = "tracks";
+	private static final String PLACES_FILE = "places.bin";
+	// Provider of the last location restored from the track store after a restart
+	private static final String RECOVERED_PROVIDER = "recovered";
+	private static final String ENERGY_FILE = "energy.bin";
+	private static final String TILES_DIRECTORY = "tiles";
+	// Points of the map tiles kept in memory, 12 bytes each
+	private static final int MAX_CACHED_TILE_POINTS = 1 << 18;
+	private static final String PREFERENCES_NAME = "tracker";
+	// Daily charge allowed for tracking, in mAh, 0 when unlimited
+	private static final String ENERGY_BUDGET_PREFERENCE = "energyBudget";
+	// Time a change of activity, or STILL, must last before the tracker is reconfigured, or stopped
+	private static final long SWITCH_DWELL_TIME = 30000;
+	private static final long STOP_DWELL_TIME = 60000;
+	private static final String METRICS_FILE = "metrics.txt";
+	// Maximum number of location refreshes per second sent to the UI
+	private static final float UI_MAX_REFRESH_RATE = 2;
+	// Number of log entries kept in memory for field diagnostics
+	private static final int LOG_RING_BUFFER_SIZE = 2048;
+	// Whether release builds keep the logs in memory, debug builds always do
+	private static final String LOG_RING_BUFFER_PREFERENCE = "logRingBuffer";
+	private static final Clock CLOCK = AndroidClock.INSTANCE;
 
 	private final TrackerBinder binder = new TrackerBinder();
 	private Tracker tracker;
-	// Handler used to send messages to activity
-	private Handler outHandler;
+	// Activity being tracked, -1 when the tracker is stopped
+	private int trackedActivityType = -1;
+	private Notification startNotification;
+	// Sends messages to activity
+	private final UiPublisher uiPublisher = new UiPublisher(UI_MAX_REFRESH_RATE);
 	private Location lastLocation;
+	private TrackStore trackStore;
+	// Level of detail pyramid of the recorded fixes, for the map
+	private TilePyramid tilePyramid;
+	// Chunks of the recorded fixes waiting for the upload job, null when the build has no collector
+	private UploadQueue uploadQueue;
+	private TripLog tripLog;
+	private final TransitionStateMachine transitionStateMachine = createTransitionStateMachine();
+	// Transitions are debounced on the main thread, then start or stop the tracker
+	private final IntentTransitionSource transitionSource = new IntentTransitionSource();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final Runnable transitionPollTask = new Runnable() {
+		@Override
+		public void run() {
+			pollTransitions();
+		}
+	};
+	private final BroadcastReceiver placeExitReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			tracker.exitPlace();
+		}
+	};
 
 	class TrackerBinder extends Binder {
 		Location getLastLocation() {
@@ -62,17 +153,91 @@ public class TrackerService extends Service {
 		}
 
 		boolean isStarted() {
-			return tracker != null;
+			return trackedActivityType != -1;
 		}
 		void start() {
+			transitionStateMachine.reset(DetectedActivity.UNKNOWN);
 			startTracking(DetectedActivity.UNKNOWN);
 		}
 		void stop() {
+			transitionStateMachine.reset(TransitionStateMachine.STOPPED);
 			stopTracking();
 		}
 
 		void setOutHandler(Handler handler) {
-			TrackerService.this.outHandler = handler;
+			uiPublisher.setOutHandler(handler);
+		}
+
+		/**
+		 * Writes the last logs kept in memory, whatever their level, nothing when they are not kept.
+		 */
+		void dumpLogs(Appendable out) throws IOException {
+			Logger.dumpRingBuffer(out);
+		}
+
+		boolean isLogRingBufferEnabled() {
+			return Logger.isRingBufferEnabled();
+		}
+
+		/**
+		 * Keeps the logs in memory for {@link #dumpLogs}, at the cost of capturing the arguments
+		 * of every log. Always enabled in debug builds.
+		 */
+		void setLogRingBufferEnabled(boolean enabled) {
+			getPreferences().edit().putBoolean(LOG_RING_BUFFER_PREFERENCE, enabled).apply();
+			updateLogRingBuffer();
+		}
+
+		void dumpMetrics(Appendable out) throws IOException {
+			Metrics.dump(out);
+		}
+
+		int getEnergyBudget() {
+			return getPreferences().getInt(ENERGY_BUDGET_PREFERENCE, 0);
+		}
+
+		/**
+		 * @param budget daily charge allowed for tracking, in mAh, 0 to track without limit
+		 */
+		void setEnergyBudget(int budget) {
+			budget = Math.max(0, budget);
+			getPreferences().edit().putInt(ENERGY_BUDGET_PREFERENCE, budget).apply();
+			tracker.setEnergyBudget(budget);
+		}
+
+		/**
+		 * Creates a reader of the recorded fixes. The last fixes are still buffered in memory and
+		 * only become readable once the store has written them.
+		 */
+		TrackReader createTrackReader() {
+			trackStore.flush();
+			return new TrackReader(trackStore.getDirectory());
+		}
+
+		/**
+		 * Exports the recorded fixes such that {@code from <= time < to}, split by activity.
+		 *
+		 * @return the number of exported fixes
+		 */
+		long exportTracks(long from, long to, boolean geoJson, Writer out) throws IOException {
+			String[] activityNames = ActivityDescriptor.getNames();
+			TrackExporter exporter = geoJson ? new GeoJsonExporter(out, activityNames) : new GpxExporter(out, activityNames);
+			TransitionLog transitionLog = new TransitionLog(trackStore.getDirectory());
+			return exporter.export(createTrackReader().query(from, to), transitionLog.query(from, to));
+		}
+
+		/**
+		 * @return a cursor over the closed trip segments that overlap {@code from <= time < to}
+		 */
+		TripLog.Cursor queryTripSegments(long from, long to) throws IOException {
+			return tripLog.query(from, to);
+		}
+
+		/**
+		 * @return the tiles of the recorded track, including the fixes not written yet
+		 */
+		TilePyramid getTilePyramid() {
+			return tilePyramid;
 		}
 	}
 
@@ -86,8 +251,53 @@ public class TrackerService extends Service {
 
 	@Override
 	public void onCreate() {
-		log("Creating service %S", this);
+		LOG.d("Creating service %S", this);
 		super.onCreate();
+		updateLogRingBuffer();
+		// Writes the fixes a killed process left in the write-ahead log of the store
+		trackStore = new TrackStore(new File(getFilesDir(), TRACKS_DIRECTORY));
+		trackStore.readLastFix(new FixSink() {
+			@Override
+			public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+				Location location = new Location(RECOVERED_PROVIDER);
+				location.setTime(time);
+				location.setLatitude(latitude);
+				location.setLongitude(longitude);
+				location.setAccuracy(accuracy);
+				lastLocation = location;
+			}
+
+			@Override
+			public void flush() {
+			}
+		});
+		tripLog = new TripLog(trackStore.getDirectory());
+		FixSink recorder = trackStore;
+		if (UploadJobService.isEnabled()) {
+			uploadQueue = new UploadQueue(new File(getFilesDir(), UploadJobService.UPLOAD_DIRECTORY), trackStore, CLOCK,
+					new UploadQueue.Listener() {
+						@Override
+						public void onChunkSealed(File chunk) {
+							Metrics.CHUNKS_SEALED.increment();
+							UploadJobService.schedule(TrackerService.this);
+						}
+					});
+			recorder = uploadQueue;
+		}
+		tilePyramid = new TilePyramid(new File(getFilesDir(), TILES_DIRECTORY), recorder, MAX_CACHED_TILE_POINTS);
+		tracker = new Tracker();
+		transitionSource.setListener(new TransitionSource.Listener() {
+			@Override
+			public void onTransition(long time, int activityType, int transitionType) {
+				transitionStateMachine.onTransition(time, activityType, transitionType);
+			}
+
+			@Override
+			public void onBatchEnd() {
+				onTransitionsDelivered();
+			}
+		});
+		registerReceiver(placeExitReceiver, new IntentFilter(PlaceGeofences.ACTION_PLACE_EXIT));
 	}
 
 
@@ -97,40 +307,105 @@ public class TrackerService extends Service {
 		if (intent != null) {
 			startImmediately = intent.getBooleanExtra(IntentExtras.START_IMMEDIATELY, false);
 		}
-		log("Starting service %s - immediate=%s", this, startImmediately);
+		LOG.d("Starting service %s - immediate=%s", this, startImmediately);
+		if (intent != null && intent.hasExtra(IntentExtras.SENT_TIME)) {
+			Metrics.SERVICE_START_DELAY.record(CLOCK.elapsedRealtime() - intent.getLongExtra(IntentExtras.SENT_TIME, 0));
+		}
 		if (startImmediately) {
-			startTracking(intent.getIntExtra(IntentExtras.ACTIVITY_TYPE, DetectedActivity.UNKNOWN));
+			int activityType = intent.getIntExtra(IntentExtras.ACTIVITY_TYPE, DetectedActivity.UNKNOWN);
+			transitionStateMachine.reset(activityType);
+			startTracking(activityType);
+		} else if (intent != null) {
+			transitionSource.deliver(intent);
 		}
 		return START_STICKY;
 	}
 
+	private void onTransitionsDelivered() {
+		pollTransitions();
+		LOG.d("Transitions applied - %s", transitionStateMachine);
+		if (trackedActivityType != -1) {
+			// Required after each startForegroundService, even when the tracker was not reconfigured
+			startForeground(NOTIFICATION_STARTED_ID, startNotification);
+		} else if (transitionStateMachine.getDeadline() == Long.MAX_VALUE) {
+			// Started only to handle the transitions
+			stopSelf();
+		}
+	}
+
+	private void pollTransitions() {
+		mainHandler.removeCallbacks(transitionPollTask);
+		transitionStateMachine.poll(CLOCK.elapsedRealtime());
+		long deadline = transitionStateMachine.getDeadline();
+		if (deadline != Long.MAX_VALUE) {
+			mainHandler.postDelayed(transitionPollTask, deadline - CLOCK.elapsedRealtime());
+		}
+	}
+
+	private TransitionStateMachine createTransitionStateMachine() {
+		TransitionStateMachine machine = new TransitionStateMachine(new TransitionStateMachine.Listener() {
+			@Override
+			public void onTrackingChange(int activityType) {
+				if (activityType == TransitionStateMachine.STOPPED) {
+					LOG.d("Stopping location tracker");
+					stopTracking();
+					stopSelf();
+				} else {
+					LOG.d("Starting location tracker: %s", ActivityRecognition.getActivityName(activityType));
+					startTracking(activityType);
+				}
+			}
+		}, SWITCH_DWELL_TIME, STOP_DWELL_TIME);
+		// Activities tracked in the same way are not worth a reconfiguration
+		int[] groups = ActivityDescriptor.getGroups();
+		for (int activityType = 0; activityType < groups.length; activityType++) {
+			machine.setGroup(activityType, groups[activityType]);
+		}
+		return machine;
+	}
+
 	@Override
 	public void onDestroy() {
-		log("Destroying service %s", this);
+		LOG.d("Destroying service %s", this);
+		mainHandler.removeCallbacks(transitionPollTask);
 		this.stopTracking();
+		unregisterReceiver(placeExitReceiver);
+		// The tracker thread closes the map tiles and the store once it passed them the last fixes
+		tracker.quit();
 		super.onDestroy();
 	}
 
 	private void startTracking(int activityType) {
-		if (tracker != null) {
-			if (tracker.activityType == activityType) return;
-			tracker.stop();
-		}
-		tracker = new Tracker(activityType);
-		Executors.newSingleThreadExecutor().execute(tracker);
+		if (trackedActivityType == activityType) return;
+		(trackedActivityType == -1 ? Metrics.TRACKER_STARTS : Metrics.TRACKER_RECONFIGURATIONS).increment();
+		trackedActivityType = activityType;
+		tracker.start(activityType);
 
-		Notification notification = showStartNotification(activityType);
-		startForeground(NOTIFICATION_STARTED_ID, notification);
+		startNotification = showStartNotification(activityType);
+		startForeground(NOTIFICATION_STARTED_ID, startNotification);
 	}
 
 	private void stopTracking() {
-		if (tracker != null) {
+		if (trackedActivityType != -1) {
+			Metrics.TRACKER_STOPS.increment();
+			trackedActivityType = -1;
 			tracker.stop();
-			tracker = null;
 		}
 		stopForeground(true);
 	}
 
+	private SharedPreferences getPreferences() {
+		return getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+	}
+
+	private void updateLogRingBuffer() {
+		if (BuildConfig.DEBUG || getPreferences().getBoolean(LOG_RING_BUFFER_PREFERENCE, false)) {
+			Logger.enableRingBuffer(LOG_RING_BUFFER_SIZE);
+		} else {
+			Logger.disableRingBuffer();
+		}
+	}
+
 	@SuppressLint("ObsoleteSdkInt")
 	private Notification showStartNotification(int activityType) {
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -155,96 +430,501 @@ public class TrackerService extends Service {
 		return notification;
 	}
 
-	private static void log(String s, Object... args) {
-		Log.d(LOG_TAG, String.format(s, args));
-	}
+	/**
+	 * Thread of the {@link TrackingCore}, living for the whole life of the service. The core is
+	 * reconfigured in place through the messages of a {@link TrackerLoop}, and the tracker saves
+	 * what the core learns.
+	 */
+	private class Tracker implements Handler.Callback, TrackingCore.Listener, TrackerLoop.Platform {
+		// Maximum wait for the store to write the fixes recovered from its log
+		private static final long STORE_FLUSH_TIMEOUT = 10000;
+		// Time after which a tracker thread still running once told to quit is reported
+		private static final long QUIT_TIMEOUT = 5000;
+		// Accelerometer sampling for the stop detection, the samples are batched by the sensor hub
+		private static final int ACCELEROMETER_PERIOD = 200000;
+		private static final int ACCELEROMETER_MAX_LATENCY = 5000000;
+
+		private final HandlerThread thread = new HandlerThread("Tracker");
+		private final Handler handler;
+		private final TrackerLoop loop;
+		private final FusedLocationSource locationSource;
+		// Learned places, only accessed by the tracker thread once loaded
+		private final File placesFile = new File(trackStore.getDirectory(), PLACES_FILE);
+		private final PlaceGeofences placeGeofences = new PlaceGeofences(TrackerService.this);
+		// Energy accounting and model calibration, only accessed by the tracker thread once loaded
+		private final File energyFile = new File(trackStore.getDirectory(), ENERGY_FILE);
+		private final BatteryManager batteryManager = getSystemService(BatteryManager.class);
+		// Last battery charge measurement, in uAh, the time is -1 when there is none to compare with
+		private long chargeTime = -1;
+		private int chargeCounter;
+		private double chargeRawCharge;
+		// Only accessed by the tracker thread, the recorded fixes go to the map tiles then to the store
+		private final TrackingCore core;
+		// Motion sensors of the stop detection, either may be missing
+		private final SensorManager sensorManager = getSystemService(SensorManager.class);
+		private final Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		private final Sensor significantMotion = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+		private final SensorEventListener accelerometerListener = new SensorEventListener() {
+			@Override
+			public void onSensorChanged(SensorEvent event) {
+				core.onAcceleration(getSensorTime(event.timestamp), event.values[0], event.values[1], event.values[2]);
+			}
+
+			@Override
+			public void onAccuracyChanged(Sensor sensor, int accuracy) {
+			}
+		};
+		// One-shot, armed again by each trigger while tracking
+		private final TriggerEventListener significantMotionListener = new TriggerEventListener() {
+			@Override
+			public void onTrigger(final TriggerEvent event) {
+				// Called on the main thread
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (!core.isStarted()) return;
+						Metrics.SIGNIFICANT_MOTIONS.increment();
+						core.onSignificantMotion(getSensorTime(event.timestamp));
+						sensorManager.requestTriggerSensor(significantMotionListener, significantMotion);
+					}
+				});
+			}
+		};
+
+		private Tracker() {
+			thread.start();
+			handler = new Handler(thread.getLooper(), this);
+			locationSource = new FusedLocationSource(LocationServices.getFusedLocationProviderClient(TrackerService.this),
+					thread.getLooper());
+			PlaceIndex places = loadPlaces();
+			EnergyBudgetPlanner planner = loadPlanner();
+			planner.setDailyBudget(getPreferences().getInt(ENERGY_BUDGET_PREFERENCE, 0));
+			core = new TrackingCore(CLOCK, locationSource, tilePyramid, places, planner, this);
+			loop = new TrackerLoop(CLOCK, core, new TrackerLoop.Queue() {
+				@Override
+				public void send(int what, int arg, Object obj) {
+					handler.obtainMessage(what, arg, 0, obj).sendToTarget();
+				}
+
+				@Override
+				public void sendDelayed(int what, long delay) {
+					handler.sendEmptyMessageDelayed(what, delay);
+				}
+
+				@Override
+				public void remove(int what) {
+					handler.removeMessages(what);
+				}
+
+				@Override
+				public void quit() {
+					thread.quitSafely();
+				}
+			}, this);
+			placeGeofences.update(places);
+			Metrics.TRACKER_THREAD_STARTS.increment();
+			if (tilePyramid.isEmpty()) {
+				// Before any fix, so that the tiles get the history first
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						buildTiles();
+					}
+				});
+			}
+			if (uploadQueue != null) {
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						recoverUploads();
+					}
+				});
+			}
+		}
 
-	private class Tracker implements Runnable {
-		final int activityType;
-		// Handler used to receive stop message
-		private Handler stopHandler;
+		void start(int activityType) {
+			ActivityDescriptor activity = ActivityDescriptor.get(activityType);
+			LOG.d("Tracking - activity=%s", activity.name);
+			loop.start(activityType, activity.settings);
+		}
 
-		private Tracker(int activityType) {
-			this.activityType = activityType;
+		void stop() {
+			loop.stop();
 		}
 
-		@Override
-		public void run() {
-			log("Starting looper thread - activity=%s", ActivityRecognition.getActivityName(activityType));
-			Looper.prepare();
+		void setEnergyBudget(int budget) {
+			loop.setEnergyBudget(budget);
+		}
 
-			FusedLocationProviderClient locationClient = LocationServices.getFusedLocationProviderClient(TrackerService.this);
-			LocationCallback locationCallback = new TrackerLocationCallback();
-			LocationRequest locationRequest = LocationRequest.create();
-			locationRequest.setInterval(getUpdateInterval());
-			locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-			locationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.myLooper());
+		/**
+		 * Tells that the user left a frequent place.
+		 */
+		void exitPlace() {
+			loop.exitPlace();
+		}
 
-			stopHandler = new StopTrackerHandler();
+		/**
+		 * Stops tracking, then the thread closes the sinks and terminates. The main thread does not
+		 * wait for it. The tracker can not be used afterwards.
+		 */
+		void quit() {
+			loop.quit();
+			mainHandler.postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					if (thread.isAlive()) {
+						LOG.w("Tracker thread still running after %d ms", QUIT_TIMEOUT);
+					}
+				}
+			}, QUIT_TIMEOUT);
+		}
 
+		@Override
+		public boolean handleMessage(@NonNull Message msg) {
+			long startTime = System.nanoTime();
+			boolean handled = loop.handleMessage(msg.what, msg.arg1, msg.obj);
+			Metrics.TRACKER_MESSAGE_DURATION.record(Metrics.microsSince(startTime));
+			return handled;
+		}
+
+		@Override
+		public void onTrackingStart() {
+			locationSource.publishProvisionalLocation();
+			updateBattery();
+			locationSource.resetStats();
+			registerSensors();
 			sendStateChange();
+		}
 
-			Looper.loop();
+		@Override
+		public void onTrackingStop() {
+			unregisterSensors();
+			updateBattery();
+		}
 
-			locationClient.removeLocationUpdates(locationCallback);
+		@Override
+		public void onTrackingStopped() {
+			savePlanner();
 			sendStateChange();
+			if (LOG.isLoggable(Log.DEBUG)) {
+				locationSource.logStats();
+				LOG.d("Tracking stopped - %s, %d fixes recorded out of %d", core.getFixFilter(),
+						core.getSimplifier().getOutputCount(), core.getSimplifier().getInputCount());
+				LOG.d("Energy - %s", core.getPlanner());
+				LOG.d("Stops - %s", core.getStopDetector());
+				LOG.d("Gaps - %s", core.getAvailabilityPolicy());
+			}
+		}
 
-			log("Looper thread finished");
+		// Without an accelerometer, the stop detection is disabled
+		private void registerSensors() {
+			if (accelerometer == null) {
+				LOG.w("No accelerometer, the stops are not detected");
+				return;
+			}
+			sensorManager.registerListener(accelerometerListener, accelerometer, ACCELEROMETER_PERIOD,
+					ACCELEROMETER_MAX_LATENCY, handler);
+			if (significantMotion != null) {
+				sensorManager.requestTriggerSensor(significantMotionListener, significantMotion);
+			}
 		}
 
-		void stop() {
-			if (stopHandler != null) {
-				stopHandler.sendEmptyMessage(StopTrackerHandler.STOP_MESSAGE);
+		private void unregisterSensors() {
+			if (accelerometer == null) return;
+			sensorManager.unregisterListener(accelerometerListener);
+			if (significantMotion != null) {
+				sensorManager.cancelTriggerSensor(significantMotionListener, significantMotion);
+			}
+		}
+
+		// The sensor events are timestamped in elapsed realtime nanoseconds, the fixes in UTC milliseconds
+		private long getSensorTime(long timestamp) {
+			return CLOCK.currentTimeMillis() - CLOCK.elapsedRealtime() + timestamp / 1000000;
+		}
+
+		@Override
+		public void onSegmentClosed(TripSegment segment) {
+			LOG.d("Trip segment closed - %s", segment);
+			try {
+				tripLog.append(segment);
+			} catch (IOException e) {
+				LOG.e("Can not record the trip segment", e);
 			}
 		}
 
+		@Override
+		public void onLocationRequest(SamplingProfile profile) {
+			Metrics.LOCATION_REQUESTS.increment();
+			LOG.d("Requesting locations - %s", profile);
+		}
+
+		@Override
+		public void onPlacesChange() {
+			savePlaces();
+		}
+
+		@Override
+		public void onFirstFix(long delay) {
+			Metrics.FIRST_FIX_DELAY.record(delay);
+			LOG.d("First fix after %d ms", delay);
+		}
+
+		@Override
+		public void onFirstAccurateFix(long delay) {
+			Metrics.ACCURATE_FIX_DELAY.record(delay);
+			LOG.d("First accurate fix after %d ms", delay);
+		}
+
+		@Override
+		public void onGapStart() {
+			Metrics.GNSS_GAPS.increment();
+			LOG.d("Satellites lost, backing off");
+		}
+
+		@Override
+		public void onGapEnd(long duration, long savedTime) {
+			Metrics.GNSS_GAP_DURATION.record(duration / 1000);
+			Metrics.GNSS_SAVED_SECONDS.add(savedTime / 1000);
+			LOG.d("Gap ended after %d s, %d s without satellites requested", duration / 1000, savedTime / 1000);
+		}
+
+		@Override
+		public void onDeadlineChange(long deadline) {
+			loop.onDeadlineChange(deadline);
+		}
+
+		// Called by the loop on quit, the service no longer uses the sinks
+		@Override
+		public void close() {
+			tilePyramid.close();
+			trackStore.close();
+		}
+
 		private void sendStateChange() {
-			if (outHandler != null) {
-				outHandler.sendEmptyMessage(SentMessages.STATE_CHANGE);
+			uiPublisher.sendStateChange();
+		}
+
+		// Replaces the metrics file with the current values
+		@Override
+		public void dumpMetrics() {
+			File file = new File(getFilesDir(), METRICS_FILE);
+			File temporary = new File(getFilesDir(), METRICS_FILE + ".tmp");
+			try (Writer out = new BufferedWriter(new FileWriter(temporary))) {
+				Metrics.dump(out);
+			} catch (IOException e) {
+				LOG.e("Can not dump the metrics", e);
+				return;
+			}
+			if (!temporary.renameTo(file)) {
+				LOG.w("Can not replace the metrics file");
 			}
 		}
 
-		private int getUpdateInterval() {
-			int interval;
-			switch (activityType) {
-				case DetectedActivity.ON_BICYCLE:
-					interval = BICYCLE_TRACKING_PERIOD;
-					break;
-				case DetectedActivity.RUNNING:
-					interval = RUNNING_TRACKING_PERIOD;
-					break;
-				default:
-					interval = DEFAULT_TRACKING_PERIOD;
+		// Reads the battery level for the plan, and calibrates the energy model on the charge drawn
+		// since the previous measurement, the windows which include a charge are skipped
+		@Override
+		public void updateBattery() {
+			EnergyBudgetPlanner planner = core.getPlanner();
+			long now = CLOCK.currentTimeMillis();
+			planner.update(now);
+			int level = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+			if (level > 0) {
+				planner.setBatteryLevel(level / 100f);
+			}
+			int counter = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+			if (counter <= 0 || batteryManager.isCharging()) {
+				chargeTime = -1;
+				return;
+			}
+			if (chargeTime != -1 && counter <= chargeCounter) {
+				planner.getModel().addObservation(now - chargeTime, planner.getRawCharge() - chargeRawCharge,
+						(chargeCounter - counter) / 1000.0);
+			}
+			chargeTime = now;
+			chargeCounter = counter;
+			chargeRawCharge = planner.getRawCharge();
+		}
+
+		private EnergyBudgetPlanner loadPlanner() {
+			try {
+				return EnergyBudgetPlanner.read(energyFile, TimeZone.getDefault());
+			} catch (IOException e) {
+				LOG.e("Can not load the energy model", e);
+				return new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getDefault());
+			}
+		}
+
+		private void savePlanner() {
+			try {
+				core.getPlanner().write(energyFile);
+			} catch (IOException e) {
+				LOG.e("Can not save the energy model", e);
+			}
+		}
+
+		// Adds the recorded fixes to the empty tiles, once after an update or a loss of the tiles
+		private void buildTiles() {
+			long startTime = System.nanoTime();
+			try {
+				tilePyramid.build(new TrackReader(trackStore.getDirectory()).query(0, Long.MAX_VALUE / 2));
+				LOG.d("Tiles built in %d ms", (System.nanoTime() - startTime) / 1000000);
+			} catch (IOException e) {
+				LOG.e("Can not build the tiles", e);
+			}
+		}
+
+		// Queues the fixes a killed process recorded without sealing them into a chunk, before any new fix
+		private void recoverUploads() {
+			try {
+				if (!trackStore.awaitFlushed(STORE_FLUSH_TIMEOUT)) {
+					LOG.w("Recovering the uploads before the store is flushed");
+				}
+				long from = Math.max(0, uploadQueue.getSealedTime() + 1);
+				int recovered = uploadQueue.recover(new TrackReader(trackStore.getDirectory()).query(from, Long.MAX_VALUE / 2));
+				LOG.d("Uploads recovered - %s, %d fixes", uploadQueue, recovered);
+			} catch (IOException e) {
+				LOG.e("Can not recover the uploads", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (UploadQueue.listChunks(uploadQueue.getDirectory()).length > 0) {
+				UploadJobService.schedule(TrackerService.this);
+			}
+		}
+
+		private PlaceIndex loadPlaces() {
+			try {
+				return PlaceIndex.read(placesFile);
+			} catch (IOException e) {
+				LOG.e("Can not load the places", e);
+				return new PlaceIndex();
 			}
-			return interval;
+		}
+
+		private void savePlaces() {
+			PlaceIndex places = core.getPlaces();
+			LOG.d("Saving %d places", places.size());
+			try {
+				places.write(placesFile);
+			} catch (IOException e) {
+				LOG.e("Can not save the places", e);
+			}
+			placeGeofences.update(places);
 		}
 	}
 
-	private static class StopTrackerHandler extends Handler {
-		static int STOP_MESSAGE = 1;
+	/**
+	 * Fused location provider behind the {@link LocationSource} of the tracking core, which also
+	 * publishes the last accepted fix of each batch to the UI.
+	 */
+	private class FusedLocationSource extends LocationCallback implements LocationSource {
+		private final FusedLocationProviderClient client;
+		private final Looper looper;
+		private LocationSource.Listener listener;
+		private long startTime;
+		// Number of times the callback has been woken up, and number of fixes received
+		private int wakeups;
+		private int fixes;
+
+		private FusedLocationSource(FusedLocationProviderClient client, Looper looper) {
+			this.client = client;
+			this.looper = looper;
+		}
 
+		// Requesting again with the same callback replaces the current request in place
 		@Override
-		public void handleMessage(@NonNull Message msg) {
-			if (msg.what == STOP_MESSAGE) {
-				Objects.requireNonNull(Looper.myLooper()).quitSafely();
+		public void requestLocationUpdates(SamplingProfile profile, LocationSource.Listener listener) {
+			this.listener = listener;
+			LocationRequest locationRequest = LocationRequest.create();
+			locationRequest.setInterval(profile.interval);
+			locationRequest.setPriority(profile.priority);
+			locationRequest.setSmallestDisplacement(profile.smallestDisplacement);
+			if (profile.maxWaitTime > 0) {
+				locationRequest.setMaxWaitTime(profile.maxWaitTime);
 			}
+			final long requestTime = SystemClock.elapsedRealtime();
+			client.requestLocationUpdates(locationRequest, this, looper).addOnSuccessListener(new OnSuccessListener<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					Metrics.REQUEST_REGISTRATION.record(SystemClock.elapsedRealtime() - requestTime);
+				}
+			});
+		}
+
+		/**
+		 * Shows the last recorded location, then the last location known to the provider if it is
+		 * more recent, until the first fix of the request.
+		 */
+		void publishProvisionalLocation() {
+			Location recorded = lastLocation;
+			if (recorded != null) {
+				uiPublisher.publishLocation(recorded);
+			}
+			client.getLastLocation().addOnSuccessListener(new OnSuccessListener<Location>() {
+				@Override
+				public void onSuccess(Location location) {
+					Location last = lastLocation;
+					if (location == null || (last != null && last.getTime() >= location.getTime())) return;
+					Metrics.PROVISIONAL_AGE.record((CLOCK.currentTimeMillis() - location.getTime()) / 1000);
+					lastLocation = location;
+					uiPublisher.publishLocation(location);
+				}
+			});
 		}
-	}
 
-	private class TrackerLocationCallback extends LocationCallback {
+		@Override
+		public void removeLocationUpdates() {
+			client.removeLocationUpdates(this);
+		}
+
+		// A result holds a single fix, or a whole batch when a max wait time is requested
 		public void onLocationResult(LocationResult result) {
-			Location location = result.getLastLocation();
-			lastLocation = location;
-//			log("Received location result: %s", new Date(location.getTime()));
-			if (outHandler != null) {
-				Message msg = outHandler.obtainMessage(SentMessages.LOCATION_CHANGE);
-				msg.obj = location;
-				outHandler.sendMessage(msg);
+			long startTime = System.nanoTime();
+			List<Location> locations = result.getLocations();
+			int count = locations.size();
+			if (count == 0 || listener == null) return;
+			wakeups++;
+			fixes += count;
+			Metrics.CALLBACK_WAKEUPS.increment();
+			Metrics.FIXES_RECEIVED.add(count);
+			long elapsedNow = SystemClock.elapsedRealtimeNanos();
+			// Only the most recent accepted fix of a batch is relevant to the UI
+			Location location = null;
+			for (int i = 0; i < count; i++) {
+				Location fix = locations.get(i);
+				Metrics.FIX_DELAY.record((elapsedNow - fix.getElapsedRealtimeNanos()) / 1000000);
+				if (listener.onFix(fix.getTime(), fix.getElapsedRealtimeNanos() / 1000000, fix.getLatitude(),
+						fix.getLongitude(), fix.getAccuracy())) {
+					Metrics.FIXES_ACCEPTED.increment();
+					location = fix;
+				}
 			}
+			listener.onBatchEnd();
+			if (location != null) {
+				lastLocation = location;
+				LOG.d("Received %d locations, last at %d", count, location.getTime());
+				uiPublisher.publishLocation(location);
+			}
+			Metrics.CALLBACK_DURATION.record(Metrics.microsSince(startTime));
 		}
 
 		public void onLocationAvailability(LocationAvailability availability) {
-			log("Received location availability: %s", availability);
+			LOG.d("Received location availability: %s", availability);
+			if (listener != null) {
+				listener.onAvailability(availability.isLocationAvailable());
+			}
+		}
+
+		void resetStats() {
+			startTime = SystemClock.elapsedRealtime();
+			wakeups = 0;
+			fixes = 0;
+		}
+
+		void logStats() {
+			long duration = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+			LOG.d("Received %d fixes in %d wakeups over %d s - %d wakeups/h",
+					fixes, wakeups, duration / 1000, wakeups * 3600000L / duration);
 		}
 	}
 }
@@ -0,0 +1,80 @@
+package com.example.gtimelinetracker;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Forwards the tracker state and location to the bound UI.
+ * <p>
+ * Locations are coalesced: only the latest one is kept, the UI is refreshed at most at the given
+ * rate, and nothing is posted while no UI is bound.
+ */
+class UiPublisher {
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final long minInterval;
+	private final Runnable publishTask = new Runnable() {
+		@Override
+		public void run() {
+			publishLatest();
+		}
+	};
+
+	// Guards all the fields below
+	private final Object lock = new Object();
+	// Handler of the bound UI, null when no UI is bound
+	private Handler outHandler;
+	private Location latest;
+	private boolean scheduled = false;
+	private long lastPublishTime = 0;
+
+	/**
+	 * @param maxRefreshRate maximum number of locations sent to the UI per second
+	 */
+	UiPublisher(float maxRefreshRate) {
+		this.minInterval = (long) (1000 / maxRefreshRate);
+	}
+
+	void setOutHandler(Handler handler) {
+		synchronized (lock) {
+			outHandler = handler;
+			if (handler == null) {
+				latest = null;
+			}
+		}
+	}
+
+	void sendStateChange() {
+		synchronized (lock) {
+			if (outHandler != null) {
+				outHandler.sendEmptyMessage(TrackerService.SentMessages.STATE_CHANGE);
+			}
+		}
+	}
+
+	/**
+	 * Can be called from any thread.
+	 */
+	void publishLocation(Location location) {
+		synchronized (lock) {
+			if (outHandler == null) return;
+			latest = location;
+			if (!scheduled) {
+				scheduled = true;
+				mainHandler.postAtTime(publishTask, Math.max(SystemClock.uptimeMillis(), lastPublishTime + minInterval));
+			}
+		}
+	}
+
+	private void publishLatest() {
+		synchronized (lock) {
+			scheduled = false;
+			if (outHandler != null && latest != null) {
+				outHandler.obtainMessage(TrackerService.SentMessages.LOCATION_CHANGE, latest).sendToTarget();
+				lastPublishTime = SystemClock.uptimeMillis();
+			}
+			latest = null;
+		}
+	}
+}
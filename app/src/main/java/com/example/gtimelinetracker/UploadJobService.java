@@ -0,0 +1,117 @@
+package com.example.gtimelinetracker;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.gtimelinetracker.track.ChunkUploader;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Sends the chunks queued by the tracker to the collector of {@link BuildConfig#UPLOAD_URL}. The
+ * job only runs while the network is unmetered and the device is charging, so that the radio
+ * wakes up once for all the chunks queued since the previous upload.
+ * <p>
+ * The {@link ChunkUploader} retries the transient failures a few times, then the job is
+ * rescheduled with the exponential backoff of the scheduler. Chunks rejected by the collector are
+ * moved aside and do not reschedule the job.
+ */
+public class UploadJobService extends JobService {
+	private static final String LOG_TAG = "UPLOAD_JOB";
+	private static final Logger LOG = new Logger(LOG_TAG);
+	static final String UPLOAD_DIRECTORY = "upload";
+	private static final int JOB_ID = 1;
+	private static final long INITIAL_BACKOFF = 10 * 60000;
+	private static final String PREFERENCES_NAME = "upload";
+	private static final String DEVICE_ID_PREFERENCE = "deviceId";
+
+	private Thread worker;
+
+	/**
+	 * @return false when the build has no collector, the fixes are then not queued
+	 */
+	static boolean isEnabled() {
+		return !BuildConfig.UPLOAD_URL.isEmpty();
+	}
+
+	/**
+	 * Schedules an upload for when the device is charging on an unmetered network, unless one
+	 * is already scheduled.
+	 */
+	static void schedule(Context context) {
+		JobScheduler scheduler = Objects.requireNonNull(context.getSystemService(JobScheduler.class));
+		// Scheduling again would reset the backoff of a failed upload
+		if (scheduler.getPendingJob(JOB_ID) != null) return;
+		JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, UploadJobService.class))
+				.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+				.setRequiresCharging(true)
+				.setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+				.setPersisted(true)
+				.build();
+		if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+			LOG.w("Can not schedule the upload");
+		}
+	}
+
+	@Override
+	public boolean onStartJob(final JobParameters params) {
+		final ChunkUploader uploader;
+		try {
+			uploader = new ChunkUploader(new URL(BuildConfig.UPLOAD_URL), getDeviceId());
+		} catch (MalformedURLException e) {
+			LOG.e("Invalid collector URL", e);
+			return false;
+		}
+		final File directory = new File(getFilesDir(), UPLOAD_DIRECTORY);
+		Metrics.UPLOAD_SESSIONS.increment();
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long startTime = System.nanoTime();
+				boolean drained = uploader.drain(directory);
+				LOG.d("Upload %s in %d ms - %s", drained ? "done" : "interrupted",
+						(System.nanoTime() - startTime) / 1000000, uploader);
+				Metrics.CHUNKS_UPLOADED.add(uploader.getUploadedCount());
+				Metrics.CHUNKS_REJECTED.add(uploader.getRejectedCount());
+				if (uploader.getRejectedCount() > 0) {
+					LOG.w("%d chunks rejected by the collector", uploader.getRejectedCount());
+				}
+				if (!Thread.currentThread().isInterrupted()) {
+					// Only transient failures leave chunks in the queue
+					jobFinished(params, !drained);
+				}
+			}
+		}, "Upload");
+		worker.start();
+		return true;
+	}
+
+	// Called when the device is unplugged or leaves the unmetered network
+	@Override
+	public boolean onStopJob(JobParameters params) {
+		if (worker != null) {
+			worker.interrupt();
+		}
+		return true;
+	}
+
+	// Random ID, the chunk IDs are only unique for a device
+	private String getDeviceId() {
+		SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+		String deviceId = preferences.getString(DEVICE_ID_PREFERENCE, null);
+		if (deviceId == null) {
+			deviceId = UUID.randomUUID().toString();
+			preferences.edit().putString(DEVICE_ID_PREFERENCE, deviceId).apply();
+		}
+		return deviceId;
+	}
+}
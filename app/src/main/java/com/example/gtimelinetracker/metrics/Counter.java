@@ -0,0 +1,31 @@
+package com.example.gtimelinetracker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic event count, safe to increment from any thread without locking.
+ */
+public final class Counter {
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	public void add(long value) {
+		count.addAndGet(value);
+	}
+
+	public long get() {
+		return count.get();
+	}
+}
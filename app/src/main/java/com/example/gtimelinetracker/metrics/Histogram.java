@@ -0,0 +1,76 @@
+package com.example.gtimelinetracker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of positive values, typically latencies, in fixed power of two buckets: bucket
+ * {@code i} counts the values in {@code [2^(i-1), 2^i)}, bucket 0 the values below 1. Recording
+ * does not lock nor allocate, percentiles are estimated as the upper bound of their bucket.
+ */
+public final class Histogram {
+	private static final int BUCKETS = 64;
+
+	private final String name;
+	private final String unit;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value) & (BUCKETS - 1));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return an upper bound of the percentile, never more than the maximum
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.gtimelinetracker.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named counters and histograms. Metrics are created once, typically in static fields, and then
+ * recorded to without going through the registry.
+ */
+public class MetricsRegistry {
+	private final List<Counter> counters = new ArrayList<>();
+	private final List<Histogram> histograms = new ArrayList<>();
+	private final long startTime;
+
+	/**
+	 * @param startTime time the counts are related to, in milliseconds
+	 */
+	public MetricsRegistry(long startTime) {
+		this.startTime = startTime;
+	}
+
+	public synchronized Counter counter(String name) {
+		Counter counter = new Counter(name);
+		counters.add(counter);
+		return counter;
+	}
+
+	public synchronized Histogram histogram(String name, String unit) {
+		Histogram histogram = new Histogram(name, unit);
+		histograms.add(histogram);
+		return histogram;
+	}
+
+	/**
+	 * Writes one line per metric, with the hourly rate of the counters:
+	 * <pre>
+	 * uptime 7200 s
+	 * fixes.received 14400 (7200/h)
+	 * callback.duration us count=3600 mean=85 p50=127 p90=255 p95=255 p99=511 max=2210
+	 * </pre>
+	 *
+	 * @param now current time, from the clock of the start time
+	 */
+	public synchronized void dump(Appendable out, long now) throws IOException {
+		long uptime = Math.max(1, now - startTime);
+		out.append("uptime ").append(Long.toString(uptime / 1000)).append(" s\n");
+		for (Counter counter : counters) {
+			long count = counter.get();
+			out.append(counter.getName()).append(' ').append(Long.toString(count))
+					.append(" (").append(Long.toString(count * 3600000 / uptime)).append("/h)\n");
+		}
+		for (Histogram histogram : histograms) {
+			long count = histogram.getCount();
+			out.append(histogram.getName()).append(' ').append(histogram.getUnit())
+					.append(" count=").append(Long.toString(count));
+			if (count > 0) {
+				out.append(" mean=").append(Long.toString(histogram.getSum() / count))
+						.append(" p50=").append(Long.toString(histogram.getPercentile(50)))
+						.append(" p90=").append(Long.toString(histogram.getPercentile(90)))
+						.append(" p95=").append(Long.toString(histogram.getPercentile(95)))
+						.append(" p99=").append(Long.toString(histogram.getPercentile(99)))
+						.append(" max=").append(Long.toString(histogram.getMax()));
+			}
+			out.append('\n');
+		}
+	}
+}
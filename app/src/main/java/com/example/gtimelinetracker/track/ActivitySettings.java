@@ -0,0 +1,78 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * How the location is tracked while an activity is performed. The application gives each of its
+ * activity types one of these settings, so that the tracking core runs without Play Services.
+ */
+public final class ActivitySettings {
+	private static final int DEFAULT_TRACKING_PERIOD = 1000;
+	private static final int FAST_TRACKING_PERIOD = 500;
+	// Maximum delay before batched fixes are delivered, 0 means one delivery per fix.
+	// Batched delivery lets the CPU sleep between batches, the UI only needs it when tracking manually
+	private static final int VEHICLE_BATCH_WAIT_TIME = 30000;
+	private static final int ON_FOOT_BATCH_WAIT_TIME = 60000;
+	// Maximum speeds in m/s, faster moves are considered as outliers
+	private static final float VEHICLE_MAX_SPEED = 70;
+	private static final float BICYCLE_MAX_SPEED = 25;
+	private static final float ON_FOOT_MAX_SPEED = 10;
+	// Variances of the acceleration, in (m/s^2)^2, used to smooth the fixes
+	private static final double VEHICLE_PROCESS_NOISE = 9;
+	private static final double ON_FOOT_PROCESS_NOISE = 1;
+
+	/**
+	 * Settings of the activities which are not tracked, also used when tracking manually.
+	 */
+	public static final ActivitySettings DEFAULT = new ActivitySettings(false, DEFAULT_TRACKING_PERIOD, 0,
+			VEHICLE_MAX_SPEED, VEHICLE_PROCESS_NOISE);
+	public static final ActivitySettings VEHICLE = new ActivitySettings(true, DEFAULT_TRACKING_PERIOD,
+			VEHICLE_BATCH_WAIT_TIME, VEHICLE_MAX_SPEED, VEHICLE_PROCESS_NOISE);
+	public static final ActivitySettings BICYCLE = new ActivitySettings(true, FAST_TRACKING_PERIOD,
+			VEHICLE_BATCH_WAIT_TIME, BICYCLE_MAX_SPEED, VEHICLE_PROCESS_NOISE);
+	public static final ActivitySettings ON_FOOT = new ActivitySettings(true, DEFAULT_TRACKING_PERIOD,
+			ON_FOOT_BATCH_WAIT_TIME, ON_FOOT_MAX_SPEED, ON_FOOT_PROCESS_NOISE);
+	public static final ActivitySettings RUNNING = new ActivitySettings(true, FAST_TRACKING_PERIOD,
+			ON_FOOT_BATCH_WAIT_TIME, ON_FOOT_MAX_SPEED, ON_FOOT_PROCESS_NOISE);
+
+	// Whether the location is tracked while this activity is performed
+	public final boolean tracked;
+	// Nominal location request, adapted on the fly by the sampling policy
+	public final SamplingProfile profile;
+	public final float maxSpeed;
+	public final double processNoise;
+
+	private ActivitySettings(boolean tracked, int interval, int maxWaitTime, float maxSpeed, double processNoise) {
+		this.tracked = tracked;
+		this.profile = new SamplingProfile(interval, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, maxWaitTime);
+		this.maxSpeed = maxSpeed;
+		this.processNoise = processNoise;
+	}
+
+	/**
+	 * @param settings the settings of each activity type, indexed by type
+	 * @return a new array holding, for each activity type, the first type tracked in the same way
+	 */
+	public static int[] getGroups(ActivitySettings[] settings) {
+		int[] groups = new int[settings.length];
+		for (int i = 0; i < settings.length; i++) {
+			groups[i] = i;
+			for (int j = 0; j < i; j++) {
+				if (settings[i].isTrackedLike(settings[j])) {
+					groups[i] = j;
+					break;
+				}
+			}
+		}
+		return groups;
+	}
+
+	private boolean isTrackedLike(ActivitySettings other) {
+		return tracked == other.tracked && profile.equals(other.profile)
+				&& maxSpeed == other.maxSpeed && processNoise == other.processNoise;
+	}
+
+	@Override
+	public String toString() {
+		return "ActivitySettings{tracked=" + tracked + ", profile=" + profile + ", maxSpeed=" + maxSpeed
+				+ ", processNoise=" + processNoise + '}';
+	}
+}
@@ -0,0 +1,141 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Adapts the sampling rate to the shape of the track: the interval is doubled while the path goes
+ * straight, down to one fix every {@link #MAX_SPACING} meters, and goes back to the nominal
+ * interval as soon as the heading changes. When the user does not move, locations are requested
+ * with a lower priority and a minimal displacement.
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy {
+	static final long MAX_INTERVAL = 5000;
+	// Maximum distance between two fixes while going straight
+	static final double MAX_SPACING = 200;
+	// Heading changes are ignored on fixes less accurate than this
+	static final float POOR_ACCURACY = 50;
+	static final double TURN_ANGLE = 30;
+	static final double STRAIGHT_ANGLE = 10;
+	// Number of straight fixes before the interval is doubled
+	static final int STRAIGHT_FIXES = 5;
+	// Displacements below this are considered as noise
+	static final float MIN_DISPLACEMENT = 5;
+	static final long STOPPED_DELAY = 30000;
+	static final float STOPPED_DISPLACEMENT = 10;
+
+	private SamplingProfile base;
+	private SamplingProfile profile;
+
+	private boolean hasPrevious;
+	private long previousTime;
+	private double previousLatitude;
+	private double previousLongitude;
+	private double previousBearing;
+	private long lastMoveTime;
+	private double speed;
+	private int straightCount;
+	private int level;
+	private boolean stopped;
+
+	@Override
+	public void reset(SamplingProfile base) {
+		this.base = base;
+		this.profile = base;
+		hasPrevious = false;
+		previousBearing = Double.NaN;
+		speed = 0;
+		straightCount = 0;
+		level = 0;
+		stopped = false;
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		if (!hasPrevious) {
+			hasPrevious = true;
+			setPrevious(time, latitude, longitude);
+			lastMoveTime = time;
+			return false;
+		}
+		long elapsed = time - previousTime;
+		if (elapsed <= 0) return false;
+
+		double distance = Geo.distance(previousLatitude, previousLongitude, latitude, longitude);
+		if (distance < Math.max(accuracy, MIN_DISPLACEMENT)) {
+			// Movement can not be told apart from noise, the previous fix is kept as reference so
+			// that slow movements eventually show up
+			if (!stopped && time - lastMoveTime >= STOPPED_DELAY) {
+				stopped = true;
+				speed = 0;
+			}
+		} else {
+			speed = distance * 1000 / elapsed;
+			if (accuracy <= POOR_ACCURACY) {
+				updateHeading(Geo.bearing(previousLatitude, previousLongitude, latitude, longitude));
+			}
+			setPrevious(time, latitude, longitude);
+			lastMoveTime = time;
+			stopped = false;
+		}
+		return updateProfile();
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		return profile;
+	}
+
+	private void updateHeading(double bearing) {
+		if (!Double.isNaN(previousBearing)) {
+			double turn = Geo.angleDifference(previousBearing, bearing);
+			if (turn >= TURN_ANGLE) {
+				level = 0;
+				straightCount = 0;
+			} else if (turn <= STRAIGHT_ANGLE) {
+				if (++straightCount >= STRAIGHT_FIXES) {
+					straightCount = 0;
+					long next = getInterval(level + 1);
+					if (next > getInterval(level) && next * speed <= MAX_SPACING * 1000) {
+						level++;
+					}
+				}
+			} else {
+				straightCount = 0;
+			}
+		}
+		previousBearing = bearing;
+	}
+
+	private boolean updateProfile() {
+		long interval;
+		int priority;
+		float smallestDisplacement;
+		if (stopped) {
+			interval = MAX_INTERVAL;
+			priority = SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY;
+			smallestDisplacement = STOPPED_DISPLACEMENT;
+		} else {
+			// Speeding up shortens the interval again without waiting for a turn
+			while (level > 0 && getInterval(level) * speed > MAX_SPACING * 1000) {
+				level--;
+			}
+			interval = getInterval(level);
+			priority = base.priority;
+			smallestDisplacement = base.smallestDisplacement;
+		}
+		if (interval == profile.interval && priority == profile.priority
+				&& smallestDisplacement == profile.smallestDisplacement) {
+			return false;
+		}
+		profile = new SamplingProfile(interval, priority, smallestDisplacement, base.maxWaitTime);
+		return true;
+	}
+
+	private long getInterval(int level) {
+		return Math.max(base.interval, Math.min(base.interval << level, MAX_INTERVAL));
+	}
+
+	private void setPrevious(long time, double latitude, double longitude) {
+		previousTime = time;
+		previousLatitude = latitude;
+		previousLongitude = longitude;
+	}
+}
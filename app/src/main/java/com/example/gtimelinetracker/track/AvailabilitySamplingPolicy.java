@@ -0,0 +1,228 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Backs off the high accuracy requests while the satellites can not be received, in a tunnel,
+ * underground or indoors, and otherwise leaves the decision to another policy.
+ * <p>
+ * A gap starts when the provider tells that locations are unavailable for
+ * {@link #UNAVAILABLE_DELAY}, or when no fix more accurate than {@link #POOR_ACCURACY} was
+ * received for {@link #POOR_ACCURACY_TIME}. The high accuracy request is then replaced by a
+ * {@link #BACKOFF_PROFILE}, which does not power the receiver, and probed again for
+ * {@link #PROBE_TIME} after a backoff doubling from {@link #MIN_BACKOFF} to {@link #MAX_BACKOFF}
+ * with each failed probe, without batching. A fix accurate enough during a probe ends the gap, and the profile of
+ * the other policy is requested again. A fix as accurate as a satellite fix while backing off
+ * probes early.
+ * <p>
+ * The policy is timed by {@link #poll} at {@link #getDeadline}, and measures the time the receiver
+ * was spared, see {@link #getSavedTime}. It only acts when the other policy requests high
+ * accuracy, the low power profiles do not depend on the satellites.
+ */
+public class AvailabilitySamplingPolicy implements SamplingPolicy {
+	static final long UNAVAILABLE_DELAY = 20000;
+	// Fixes less accurate than this, in meters, do not show that the satellites are received
+	static final float POOR_ACCURACY = 30;
+	static final long POOR_ACCURACY_TIME = 60000;
+	static final long MIN_BACKOFF = 30000;
+	static final long MAX_BACKOFF = 10 * 60000;
+	// Long enough for the receiver to get an accurate fix from a warm start
+	static final long PROBE_TIME = 30000;
+	static final SamplingProfile BACKOFF_PROFILE =
+			new SamplingProfile(MIN_BACKOFF, SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY, 0, 0);
+
+	private static final int TRACKING = 0;
+	private static final int BACKING_OFF = 1;
+	private static final int PROBING = 2;
+
+	private final SamplingPolicy delegate;
+	private int state = TRACKING;
+	// Time of the start of the current backoff or probe
+	private long stateTime;
+	private long backoff = MIN_BACKOFF;
+	// Time since when the locations are unavailable, -1 when they are available
+	private long unavailableTime = -1;
+	// Time of the last accurate fix, or of the first fix since the reset, -1 before
+	private long accurateTime = -1;
+	private long gapTime;
+	private long gapCount = 0;
+	// Time spent backing off before the current backoff
+	private long savedTime = 0;
+
+	public AvailabilitySamplingPolicy(SamplingPolicy delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Starts over with the profile of the activity, a gap goes on until the satellites are
+	 * received or {@link #end} is called.
+	 */
+	@Override
+	public void reset(SamplingProfile base) {
+		delegate.reset(base);
+		accurateTime = -1;
+	}
+
+	/**
+	 * Ends the current gap, when tracking stops.
+	 */
+	public void end(long now) {
+		leaveGap(now);
+		unavailableTime = -1;
+		accurateTime = -1;
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		return delegate.onFix(time, latitude, longitude, accuracy);
+	}
+
+	/**
+	 * Tells the accuracy of every received fix, including the ones rejected by the filter.
+	 *
+	 * @param now time of the reception
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean onFixReceived(long now, long time, float accuracy) {
+		if (accuracy <= POOR_ACCURACY) {
+			accurateTime = time;
+			// The batched fixes may be older than the unavailability or the backoff
+			if (time >= unavailableTime) {
+				unavailableTime = -1;
+			}
+			if (time < stateTime) return false;
+			if (state == PROBING) {
+				leaveGap(now);
+				return true;
+			}
+			if (state == BACKING_OFF && accuracy <= POOR_ACCURACY / 2) {
+				probe(now);
+				return true;
+			}
+			return false;
+		}
+		if (accurateTime == -1) {
+			accurateTime = time;
+		}
+		if (state == TRACKING && isActive() && time - accurateTime >= POOR_ACCURACY_TIME) {
+			backOff(now);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether the provider can deliver locations.
+	 *
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean onAvailability(long now, boolean available) {
+		if (!available && unavailableTime == -1) {
+			unavailableTime = now;
+		} else if (available) {
+			unavailableTime = -1;
+		}
+		return poll(now);
+	}
+
+	/**
+	 * Starts or ends the backoffs and the probes which are due.
+	 *
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean poll(long now) {
+		if (now < getDeadline()) return false;
+		switch (state) {
+			case TRACKING:
+				backOff(now);
+				return true;
+			case BACKING_OFF:
+				probe(now);
+				return true;
+			default:
+				backoff = Math.min(2 * backoff, MAX_BACKOFF);
+				backOff(now);
+				return true;
+		}
+	}
+
+	/**
+	 * @return the time of the next call to {@link #poll}, {@link Long#MAX_VALUE} when there is none
+	 */
+	public long getDeadline() {
+		switch (state) {
+			case TRACKING:
+				return unavailableTime != -1 && isActive() ? unavailableTime + UNAVAILABLE_DELAY : Long.MAX_VALUE;
+			case BACKING_OFF:
+				return stateTime + backoff;
+			default:
+				return stateTime + PROBE_TIME;
+		}
+	}
+
+	/**
+	 * @return true from the first backoff until the satellites are received again
+	 */
+	public boolean isInGap() {
+		return state != TRACKING;
+	}
+
+	/**
+	 * @return the time when the current or last gap started
+	 */
+	public long getGapTime() {
+		return gapTime;
+	}
+
+	public long getGapCount() {
+		return gapCount;
+	}
+
+	/**
+	 * @return the total time spent backing off instead of requesting high accuracy, in milliseconds
+	 */
+	public long getSavedTime(long now) {
+		return state == BACKING_OFF ? savedTime + now - stateTime : savedTime;
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		SamplingProfile profile = delegate.getProfile();
+		if (state == TRACKING || profile.priority != SamplingProfile.PRIORITY_HIGH_ACCURACY) return profile;
+		if (state == BACKING_OFF) return BACKOFF_PROFILE;
+		// The fixes of a probe must not wait for a batch
+		return profile.maxWaitTime == 0 ? profile
+				: new SamplingProfile(profile.interval, profile.priority, profile.smallestDisplacement, 0);
+	}
+
+	private boolean isActive() {
+		return delegate.getProfile().priority == SamplingProfile.PRIORITY_HIGH_ACCURACY;
+	}
+
+	private void backOff(long now) {
+		if (state == TRACKING) {
+			gapTime = now;
+			gapCount++;
+		}
+		state = BACKING_OFF;
+		stateTime = now;
+	}
+
+	private void probe(long now) {
+		savedTime += now - stateTime;
+		state = PROBING;
+		stateTime = now;
+	}
+
+	private void leaveGap(long now) {
+		if (state == BACKING_OFF) {
+			savedTime += now - stateTime;
+		}
+		state = TRACKING;
+		backoff = MIN_BACKOFF;
+		unavailableTime = -1;
+	}
+
+	@Override
+	public String toString() {
+		return "AvailabilitySamplingPolicy{gaps=" + gapCount + ", saved=" + savedTime / 1000 + " s}";
+	}
+}
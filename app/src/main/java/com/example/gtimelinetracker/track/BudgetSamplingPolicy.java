@@ -0,0 +1,79 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Degrades the profile of another policy so that the tracking stays within the daily energy
+ * budget of an {@link EnergyBudgetPlanner}.
+ * <p>
+ * The plan is updated when the other policy changes its profile, and otherwise every
+ * {@link #PLAN_INTERVAL} since the allowed current drifts as the budget is spent. The planner
+ * is not told about the requested profiles by the policy, since the tracker may request
+ * profiles without fixes coming back, see {@link EnergyBudgetPlanner#onProfile}.
+ */
+public class BudgetSamplingPolicy implements SamplingPolicy {
+	static final long PLAN_INTERVAL = 60000;
+	// Weight of the last fix in the speed estimate
+	static final float SPEED_SMOOTHING = 0.2f;
+
+	private final SamplingPolicy delegate;
+	private final EnergyBudgetPlanner planner;
+
+	private SamplingProfile profile;
+	private long planTime = Long.MIN_VALUE;
+	private boolean hasLastFix = false;
+	private long lastTime;
+	private double lastLatitude;
+	private double lastLongitude;
+	private float speed = 0;
+
+	public BudgetSamplingPolicy(SamplingPolicy delegate, EnergyBudgetPlanner planner) {
+		this.delegate = delegate;
+		this.planner = planner;
+	}
+
+	/**
+	 * Starts over with the profile of the other policy, until the next call to {@link #plan}.
+	 */
+	@Override
+	public void reset(SamplingProfile base) {
+		delegate.reset(base);
+		profile = delegate.getProfile();
+		planTime = Long.MIN_VALUE;
+		hasLastFix = false;
+		speed = 0;
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		boolean changed = delegate.onFix(time, latitude, longitude, accuracy);
+		if (hasLastFix && time > lastTime) {
+			float fixSpeed = (float) (Geo.distance(lastLatitude, lastLongitude, latitude, longitude) * 1000 / (time - lastTime));
+			speed += SPEED_SMOOTHING * (fixSpeed - speed);
+		}
+		hasLastFix = true;
+		lastTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		if (changed || time - planTime >= PLAN_INTERVAL) {
+			return plan(time);
+		}
+		return false;
+	}
+
+	/**
+	 * Fits the profile of the other policy to the budget left at {@code time}.
+	 *
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean plan(long time) {
+		planTime = time;
+		SamplingProfile planned = planner.plan(time, delegate.getProfile(), speed);
+		if (planned.equals(profile)) return false;
+		profile = planned;
+		return true;
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		return profile;
+	}
+}
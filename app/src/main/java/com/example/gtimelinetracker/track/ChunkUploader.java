@@ -0,0 +1,195 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Sends the chunks of an {@link UploadQueue} to a collector, and removes them once stored.
+ * <p>
+ * A chunk is put to {@code <collector>/<device>/<chunk ID>}, gzip encoded, its body being the
+ * {@link TrackEncoder} encoding of its fixes. The collector answers 2xx once the chunk is stored,
+ * possibly from a previous attempt, since the ID only depends on the content. A chunk which may
+ * have reached the collector without an answer is first checked with a HEAD request, so that
+ * resending it only costs a round trip.
+ * <p>
+ * Failures which may be transient are retried with an exponential backoff, then left in the queue
+ * until the next {@link #drain}. A chunk rejected by the collector with a 4xx status would be
+ * rejected again, it is moved aside with the {@link #REJECTED_SUFFIX} so that it is kept for
+ * investigation without blocking the queue.
+ */
+public class ChunkUploader {
+	public static final String CONTENT_TYPE = "application/x-gtimelinetracker-track";
+	public static final String REJECTED_SUFFIX = ".rejected";
+	static final int CONNECT_TIMEOUT = 15000;
+	static final int READ_TIMEOUT = 30000;
+	static final int MAX_ATTEMPTS = 4;
+	static final long FIRST_RETRY_DELAY = 2000;
+
+	private final URL collector;
+	private final String deviceId;
+	private final long firstRetryDelay;
+	// IDs of the chunks whose upload was interrupted, they may be stored already
+	private final Set<String> attempted = new HashSet<>();
+	private long uploadedCount = 0;
+	private long uploadedBytes = 0;
+	private long skippedCount = 0;
+	private long failedCount = 0;
+	private long rejectedCount = 0;
+
+	/**
+	 * @param collector base URL of the collector
+	 * @param deviceId  ID of the device, the chunk IDs are only unique for a device
+	 */
+	public ChunkUploader(URL collector, String deviceId) {
+		this(collector, deviceId, FIRST_RETRY_DELAY);
+	}
+
+	ChunkUploader(URL collector, String deviceId, long firstRetryDelay) {
+		this.collector = collector;
+		this.deviceId = deviceId;
+		this.firstRetryDelay = firstRetryDelay;
+	}
+
+	public long getUploadedCount() {
+		return uploadedCount;
+	}
+
+	/**
+	 * @return the number of chunks rejected by the collector and moved aside
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Sends the queued chunks of a directory, oldest first, deletes them once stored and moves
+	 * them aside once rejected. Retries a transient failure a few times, then stops. Stops on an
+	 * interrupt too.
+	 *
+	 * @return true when the queue is empty, false when chunks are left for a later attempt
+	 */
+	public boolean drain(File directory) {
+		for (File chunk : UploadQueue.listChunks(directory)) {
+			long delay = firstRetryDelay;
+			for (int attempt = 1; ; attempt++) {
+				if (Thread.currentThread().isInterrupted()) return false;
+				int status = upload(chunk);
+				if (isStored(status)) {
+					if (!chunk.delete()) return false;
+					break;
+				}
+				failedCount++;
+				if (isRejected(status)) {
+					// Sending it again would fail the same way, the following chunks may be accepted
+					if (!reject(chunk)) return false;
+					break;
+				}
+				if (attempt == MAX_ATTEMPTS) return false;
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				delay *= 2;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a chunk, unless the collector already has it.
+	 *
+	 * @return the HTTP status, or -1 when the connection failed
+	 */
+	public int upload(File chunk) {
+		String id = UploadQueue.getChunkId(chunk);
+		try {
+			URL url = new URL(collector, deviceId + '/' + id);
+			if (attempted.contains(id)) {
+				int status = request(url, "HEAD", null);
+				if (isStored(status)) {
+					attempted.remove(id);
+					skippedCount++;
+					return status;
+				}
+			}
+			attempted.add(id);
+			int status = request(url, "PUT", chunk);
+			if (isStored(status)) {
+				attempted.remove(id);
+				uploadedCount++;
+				uploadedBytes += chunk.length();
+			}
+			return status;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private int request(URL url, String method, File body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setRequestMethod(method);
+			if (body != null) {
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode((int) body.length());
+				connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+				connection.setRequestProperty("Content-Encoding", "gzip");
+				try (InputStream in = new FileInputStream(body); OutputStream out = connection.getOutputStream()) {
+					byte[] buffer = new byte[8192];
+					int length;
+					while ((length = in.read(buffer)) != -1) {
+						out.write(buffer, 0, length);
+					}
+				}
+			}
+			int status = connection.getResponseCode();
+			// Reads the answer to the end so that the connection is kept for the next chunk
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try (InputStream answer = in) {
+					byte[] buffer = new byte[1024];
+					while (answer.read(buffer) != -1) {
+						// Discards the answer
+					}
+				}
+			}
+			return status;
+		} catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	// Moves the chunk out of the queue, deletes it if it can not be moved
+	private boolean reject(File chunk) {
+		rejectedCount++;
+		File rejected = new File(chunk.getParentFile(), UploadQueue.getChunkId(chunk) + REJECTED_SUFFIX);
+		return chunk.renameTo(rejected) || chunk.delete();
+	}
+
+	private static boolean isStored(int status) {
+		return status >= 200 && status < 300;
+	}
+
+	// Client errors, but for a timeout or too many requests, the other failures may be transient
+	private static boolean isRejected(int status) {
+		return status >= 400 && status < 500 && status != 408 && status != 429;
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkUploader{uploaded=" + uploadedCount + ", bytes=" + uploadedBytes + ", skipped=" + skippedCount
+				+ ", failed=" + failedCount + ", rejected=" + rejectedCount + '}';
+	}
+}
@@ -0,0 +1,17 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Source of the time used by the tracking core, the system clocks on a device and a virtual
+ * clock in the replays of the tests.
+ */
+public interface Clock {
+	/**
+	 * @return the wall clock time, in milliseconds since the epoch
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * @return the monotonic time, in milliseconds since the boot, which the transitions refer to
+	 */
+	long elapsedRealtime();
+}
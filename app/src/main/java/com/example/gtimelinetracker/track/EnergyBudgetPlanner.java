@@ -0,0 +1,282 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the charge spent on tracking within a daily budget.
+ * <p>
+ * The charge of the requested profiles is accounted for with the {@link EnergyModel}, see
+ * {@link #onProfile}. The remaining budget of the day is spread over the tracking time expected
+ * for the rest of the day, learned from the previous days, and {@link #plan} degrades the
+ * profiles which would draw more than this: it picks, among longer intervals and lower
+ * priorities, the profile with the smallest expected error which fits. The available budget
+ * shrinks linearly as the battery drops from {@link #FULL_BUDGET_LEVEL} to
+ * {@link #MIN_BUDGET_LEVEL}.
+ */
+public class EnergyBudgetPlanner {
+	// Longest interval the planner degrades to
+	static final long MAX_INTERVAL = 120000;
+	// Expected distance between a fix and the actual location, in meters, by index in EnergyModel.PRIORITIES
+	static final float[] PRIORITY_ERRORS = {5, 40, 400, 1000};
+	static final float FULL_BUDGET_LEVEL = 0.5f;
+	static final float MIN_BUDGET_LEVEL = 0.15f;
+	// Share of the budget left at MIN_BUDGET_LEVEL and below
+	static final double MIN_BUDGET_FRACTION = 0.2;
+	static final long DEFAULT_DAILY_TRACKING_TIME = TimeUnit.HOURS.toMillis(2);
+	// The remaining budget is never spread over less than this, to keep some for later trips
+	static final long MIN_REMAINING_TRACKING_TIME = TimeUnit.MINUTES.toMillis(30);
+	// Weight of the last day in the expected daily tracking time
+	static final double TRACKING_TIME_SMOOTHING = 0.3;
+	static final int STATE_SIZE = 32 + EnergyModel.STATE_SIZE;
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final double MILLIS_PER_HOUR = 3600000;
+
+	private final EnergyModel model;
+	private final TimeZone timeZone;
+	// Charge allowed per day, in mAh, 0 when unlimited
+	private double dailyBudget = 0;
+	private float batteryLevel = 1;
+
+	private long day = -1;
+	// Calibrated charge spent today, in mAh, and time spent tracking
+	private double spentCharge = 0;
+	private long trackingTime = 0;
+	private long expectedTrackingTime = DEFAULT_DAILY_TRACKING_TIME;
+	// Charge predicted before calibration since the creation of the planner, in mAh
+	private double rawCharge = 0;
+	// Profile being requested, null when the tracker is stopped
+	private SamplingProfile profile;
+	private long profileTime;
+
+	public EnergyBudgetPlanner(EnergyModel model, TimeZone timeZone) {
+		this.model = model;
+		this.timeZone = timeZone;
+	}
+
+	public EnergyModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @param dailyBudget charge allowed per day, in mAh, 0 to track without limit
+	 */
+	public void setDailyBudget(double dailyBudget) {
+		this.dailyBudget = Math.max(0, dailyBudget);
+	}
+
+	public double getDailyBudget() {
+		return dailyBudget;
+	}
+
+	/**
+	 * @param batteryLevel charge left in the battery, from 0 to 1
+	 */
+	public void setBatteryLevel(float batteryLevel) {
+		this.batteryLevel = batteryLevel;
+	}
+
+	/**
+	 * Tells which profile is requested from now on.
+	 *
+	 * @param profile the requested profile, null when the tracker stops
+	 */
+	public void onProfile(long time, SamplingProfile profile) {
+		update(time);
+		this.profile = profile;
+	}
+
+	/**
+	 * Accounts for the charge drawn by the current profile up to {@code time}.
+	 */
+	public void update(long time) {
+		long day = getDay(time);
+		if (day != this.day) {
+			if (this.day != -1) {
+				// The tracking before midnight is accounted for on the previous day
+				accrue(Math.min(time, getDayStart(this.day + 1)));
+				// Days without tracking count too, gaps of several days do not
+				long days = Math.min(day - this.day, 2);
+				for (long i = 0; i < days; i++) {
+					expectedTrackingTime += Math.round(TRACKING_TIME_SMOOTHING * ((i == 0 ? trackingTime : 0) - expectedTrackingTime));
+				}
+			}
+			this.day = day;
+			spentCharge = 0;
+			trackingTime = 0;
+			profileTime = Math.max(profileTime, getDayStart(day));
+		}
+		accrue(time);
+	}
+
+	private void accrue(long time) {
+		if (profile != null && time > profileTime) {
+			long elapsed = time - profileTime;
+			double raw = model.getRawCurrent(profile.interval, profile.priority, profile.maxWaitTime) * elapsed / MILLIS_PER_HOUR;
+			rawCharge += raw;
+			spentCharge += raw * model.getScale();
+			trackingTime += elapsed;
+		}
+		profileTime = Math.max(profileTime, time);
+	}
+
+	/**
+	 * @return the profile to request instead of {@code requested} to stay within the budget
+	 * @param speed speed of the user, in m/s, to estimate the error of the longer intervals
+	 */
+	public SamplingProfile plan(long time, SamplingProfile requested, float speed) {
+		update(time);
+		double allowedCurrent = getAllowedCurrent(time);
+		if (model.getCurrent(requested) <= allowedCurrent) return requested;
+
+		// Priorities and intervals are only degraded, never upgraded
+		int bestPriority = -1;
+		long bestInterval = 0;
+		double bestError = Double.MAX_VALUE;
+		for (int index = EnergyModel.getPriorityIndex(requested.priority); index < EnergyModel.PRIORITIES.length; index++) {
+			int priority = EnergyModel.PRIORITIES[index];
+			for (long interval = requested.interval; ; interval = Math.min(interval * 2, MAX_INTERVAL)) {
+				if (model.getCurrent(interval, priority, requested.maxWaitTime) <= allowedCurrent) {
+					double error = getExpectedError(interval, priority, speed);
+					if (error < bestError) {
+						bestError = error;
+						bestPriority = priority;
+						bestInterval = interval;
+					}
+					// Longer intervals of the same priority are less accurate
+					break;
+				}
+				if (interval >= MAX_INTERVAL) break;
+			}
+		}
+		if (bestPriority == -1) {
+			// Nothing fits, the cheapest profile that still locates the user
+			int lowPower = EnergyModel.getPriorityIndex(SamplingProfile.PRIORITY_LOW_POWER);
+			bestPriority = EnergyModel.PRIORITIES[Math.max(EnergyModel.getPriorityIndex(requested.priority), lowPower)];
+			bestInterval = Math.max(requested.interval, MAX_INTERVAL);
+		}
+		if (bestPriority == requested.priority && bestInterval == requested.interval) return requested;
+		return new SamplingProfile(bestInterval, bestPriority, requested.smallestDisplacement, requested.maxWaitTime);
+	}
+
+	/**
+	 * @return the average current the tracking can draw for the rest of the day, in mA
+	 */
+	public double getAllowedCurrent(long time) {
+		if (dailyBudget <= 0) return Double.MAX_VALUE;
+		double remainingCharge = dailyBudget * getBudgetFraction() - spentCharge;
+		if (remainingCharge <= 0) return 0;
+		long remainingTime = Math.max(expectedTrackingTime - trackingTime, MIN_REMAINING_TRACKING_TIME);
+		remainingTime = Math.min(remainingTime, Math.max(getDayStart(day) + DAY_MILLIS - time, 1));
+		return remainingCharge * MILLIS_PER_HOUR / remainingTime;
+	}
+
+	// Interpolation error grows with the distance between fixes, half of it is a fair estimate on turns
+	static double getExpectedError(long interval, int priority, float speed) {
+		return PRIORITY_ERRORS[EnergyModel.getPriorityIndex(priority)] + speed * interval / 2000.0;
+	}
+
+	double getBudgetFraction() {
+		if (batteryLevel >= FULL_BUDGET_LEVEL) return 1;
+		if (batteryLevel <= MIN_BUDGET_LEVEL) return MIN_BUDGET_FRACTION;
+		double ratio = (batteryLevel - MIN_BUDGET_LEVEL) / (FULL_BUDGET_LEVEL - MIN_BUDGET_LEVEL);
+		return MIN_BUDGET_FRACTION + (1 - MIN_BUDGET_FRACTION) * ratio;
+	}
+
+	/**
+	 * @return the calibrated charge spent on tracking today, in mAh
+	 */
+	public double getSpentCharge() {
+		return spentCharge;
+	}
+
+	public long getTrackingTime() {
+		return trackingTime;
+	}
+
+	public long getExpectedTrackingTime() {
+		return expectedTrackingTime;
+	}
+
+	/**
+	 * @return the charge predicted before calibration since the planner was created, in mAh, to
+	 * calibrate the model with {@link EnergyModel#addObservation}
+	 */
+	public double getRawCharge() {
+		return rawCharge;
+	}
+
+	/**
+	 * Restores the accounting of the day and the model calibration, the budget and the battery
+	 * level are not saved.
+	 */
+	public static EnergyBudgetPlanner read(File file, TimeZone timeZone) throws IOException {
+		EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), timeZone);
+		if (!file.exists() || file.length() < STATE_SIZE) return planner;
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE).order(TrackStore.BYTE_ORDER);
+			FileChannel channel = input.getChannel();
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			planner.day = buffer.getLong();
+			planner.spentCharge = buffer.getDouble();
+			planner.trackingTime = buffer.getLong();
+			planner.expectedTrackingTime = buffer.getLong();
+			planner.model.read(buffer);
+		}
+		planner.profileTime = planner.day == -1 ? 0 : planner.getDayStart(planner.day);
+		return planner;
+	}
+
+	public void write(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE).order(TrackStore.BYTE_ORDER);
+		buffer.putLong(day)
+				.putDouble(spentCharge)
+				.putLong(trackingTime)
+				.putLong(expectedTrackingTime);
+		model.write(buffer);
+		buffer.flip();
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Can not replace " + file);
+		}
+	}
+
+	// Local day number, the budget is reset at local midnight
+	private long getDay(long time) {
+		return Math.floorDiv(time + timeZone.getOffset(time), DAY_MILLIS);
+	}
+
+	private long getDayStart(long day) {
+		long start = day * DAY_MILLIS;
+		return start - timeZone.getOffset(start);
+	}
+
+	@Override
+	public String toString() {
+		return "EnergyBudgetPlanner{dailyBudget=" + (float) dailyBudget
+				+ ", spent=" + (float) spentCharge
+				+ ", trackingTime=" + trackingTime / 1000
+				+ ", expectedTrackingTime=" + expectedTrackingTime / 1000
+				+ ", batteryLevel=" + batteryLevel
+				+ ", " + model + '}';
+	}
+}
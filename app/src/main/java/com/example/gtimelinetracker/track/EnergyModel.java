@@ -0,0 +1,149 @@
+package com.example.gtimelinetracker.track;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the average battery current drawn by a location request, in mA.
+ * <p>
+ * While a fix is acquired, the location engine of the requested priority draws
+ * {@link #ACTIVE_CURRENTS}. It stays on between fixes when they are closer than its acquisition
+ * time, so the current drops with the interval only beyond it. Every delivery also wakes the CPU
+ * up, which batching with a max wait time avoids.
+ * <p>
+ * The coefficients are typical values, the actual drain of the device is fitted on the battery
+ * charge measured over observation windows, as
+ * {@code measured = idleCurrent * duration + scale * predicted}, so that the rest of the phone
+ * usage does not bias the scale of the tracking cost.
+ */
+public class EnergyModel {
+	static final int[] PRIORITIES = {
+			SamplingProfile.PRIORITY_HIGH_ACCURACY,
+			SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY,
+			SamplingProfile.PRIORITY_LOW_POWER,
+			SamplingProfile.PRIORITY_NO_POWER,
+	};
+	// GNSS, then Wi-Fi scans, then cell towers, by index in PRIORITIES
+	static final double[] ACTIVE_CURRENTS = {30, 10, 2, 0};
+	static final long[] ACQUISITION_TIMES = {6000, 2000, 1000, 0};
+	// Charge of a CPU wakeup, in mA.ms
+	static final double WAKEUP_CHARGE = 10000;
+	// Values assumed before anything is observed, weighted as PRIOR_WEIGHT hours of observations
+	static final double DEFAULT_IDLE_CURRENT = 15;
+	static final double DEFAULT_SCALE = 1;
+	static final double PRIOR_WEIGHT = 2;
+	// Tracking charge, in mAh, of the prior observations of the scale, small enough to give way to
+	// the few mAh measured per window under a low budget
+	static final double PRIOR_CHARGE = 1;
+	static final double MIN_SCALE = 0.25;
+	static final double MAX_SCALE = 4;
+	// Weight of the past observations after a day of observations
+	static final double DAILY_DECAY = 0.5;
+	static final int STATE_SIZE = 40;
+
+	private static final double MILLIS_PER_HOUR = 3600000;
+
+	// Sums of the observations, weighted by their decay: durations (h), predicted and measured charges (mAh)
+	private double durationSquares;
+	private double durationPredicted;
+	private double predictedSquares;
+	private double durationMeasured;
+	private double predictedMeasured;
+
+	private double idleCurrent = DEFAULT_IDLE_CURRENT;
+	private double scale = DEFAULT_SCALE;
+
+	/**
+	 * @return the calibrated average current of the profile, in mA
+	 */
+	public double getCurrent(SamplingProfile profile) {
+		return scale * getRawCurrent(profile.interval, profile.priority, profile.maxWaitTime);
+	}
+
+	public double getCurrent(long interval, int priority, long maxWaitTime) {
+		return scale * getRawCurrent(interval, priority, maxWaitTime);
+	}
+
+	/**
+	 * @return the current of the profile before calibration, in mA
+	 */
+	public double getRawCurrent(long interval, int priority, long maxWaitTime) {
+		int index = getPriorityIndex(priority);
+		double acquisition = ACTIVE_CURRENTS[index] * Math.min(1, (double) ACQUISITION_TIMES[index] / Math.max(1, interval));
+		double wakeups = WAKEUP_CHARGE / Math.max(1, Math.max(interval, maxWaitTime));
+		return acquisition + wakeups;
+	}
+
+	/**
+	 * Fits the model on the battery charge drawn during a window.
+	 *
+	 * @param duration  length of the window, in milliseconds
+	 * @param predicted charge predicted for the tracking during the window before calibration, in mAh
+	 * @param measured  charge drawn from the battery during the window, in mAh
+	 */
+	public void addObservation(long duration, double predicted, double measured) {
+		if (duration <= 0 || measured < 0) return;
+		double hours = duration / MILLIS_PER_HOUR;
+		double decay = Math.pow(DAILY_DECAY, hours / 24);
+		durationSquares = durationSquares * decay + hours * hours;
+		durationPredicted = durationPredicted * decay + hours * predicted;
+		predictedSquares = predictedSquares * decay + predicted * predicted;
+		durationMeasured = durationMeasured * decay + hours * measured;
+		predictedMeasured = predictedMeasured * decay + predicted * measured;
+		fit();
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return the current drawn by the rest of the phone, in mA
+	 */
+	public double getIdleCurrent() {
+		return idleCurrent;
+	}
+
+	void write(ByteBuffer buffer) {
+		buffer.putDouble(durationSquares)
+				.putDouble(durationPredicted)
+				.putDouble(predictedSquares)
+				.putDouble(durationMeasured)
+				.putDouble(predictedMeasured);
+	}
+
+	void read(ByteBuffer buffer) {
+		durationSquares = buffer.getDouble();
+		durationPredicted = buffer.getDouble();
+		predictedSquares = buffer.getDouble();
+		durationMeasured = buffer.getDouble();
+		predictedMeasured = buffer.getDouble();
+		fit();
+	}
+
+	// Least squares of the two coefficients, with the default values added as prior observations
+	// so that windows which all have the same share of tracking still give sensible values
+	private void fit() {
+		double a = durationSquares + PRIOR_WEIGHT;
+		double b = durationPredicted;
+		double d = predictedSquares + PRIOR_WEIGHT * PRIOR_CHARGE * PRIOR_CHARGE;
+		double e = durationMeasured + PRIOR_WEIGHT * DEFAULT_IDLE_CURRENT;
+		double f = predictedMeasured + PRIOR_WEIGHT * PRIOR_CHARGE * PRIOR_CHARGE * DEFAULT_SCALE;
+		double determinant = a * d - b * b;
+		if (determinant <= 0) return;
+		idleCurrent = Math.max(0, (e * d - b * f) / determinant);
+		scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, (a * f - b * e) / determinant));
+	}
+
+	static int getPriorityIndex(int priority) {
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			if (PRIORITIES[i] == priority) return i;
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "EnergyModel{scale=" + (float) scale
+				+ ", idleCurrent=" + (float) idleCurrent + '}';
+	}
+}
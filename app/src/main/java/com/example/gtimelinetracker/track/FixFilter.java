@@ -0,0 +1,92 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Rejects fixes that would only add noise to the track: inaccurate fixes, fixes delivered too late
+ * and fixes implying a speed the tracked activity can not reach.
+ */
+public class FixFilter {
+	// Once this many fixes in a row have been rejected for their speed, the last accepted fix is
+	// more likely to be the wrong one and the next fix is accepted as new reference
+	static final int MAX_SPEED_REJECTIONS = 5;
+	static final long MAX_GAP = 60000;
+
+	private float maxAccuracy = Float.MAX_VALUE;
+	private long maxAge = Long.MAX_VALUE;
+	private float maxSpeed = Float.MAX_VALUE;
+
+	private boolean hasLast = false;
+	private long lastTime;
+	private double lastLatitude;
+	private double lastLongitude;
+	private float lastAccuracy;
+	private int speedRejections;
+
+	private long acceptedCount;
+	private long inaccurateCount;
+	private long staleCount;
+	private long tooFastCount;
+
+	/**
+	 * @param maxAccuracy in meters
+	 * @param maxAge      in milliseconds, between the fix and its processing
+	 * @param maxSpeed    in meters per second
+	 */
+	public void setLimits(float maxAccuracy, long maxAge, float maxSpeed) {
+		this.maxAccuracy = maxAccuracy;
+		this.maxAge = maxAge;
+		this.maxSpeed = maxSpeed;
+	}
+
+	public void reset() {
+		hasLast = false;
+		speedRejections = 0;
+	}
+
+	/**
+	 * @param age time elapsed since the fix, in milliseconds, measured on a clock which is not set
+	 *            like the wall clock
+	 */
+	public boolean accept(long age, long time, double latitude, double longitude, float accuracy) {
+		if (accuracy > maxAccuracy) {
+			inaccurateCount++;
+			return false;
+		}
+		if (age > maxAge || (hasLast && time <= lastTime)) {
+			staleCount++;
+			return false;
+		}
+		if (hasLast && time - lastTime < MAX_GAP && speedRejections < MAX_SPEED_REJECTIONS) {
+			// Only the part of the move that the accuracies can not explain is taken into account
+			double distance = Geo.distance(lastLatitude, lastLongitude, latitude, longitude) - accuracy - lastAccuracy;
+			if (distance > maxSpeed * (time - lastTime) / 1000.0) {
+				speedRejections++;
+				tooFastCount++;
+				return false;
+			}
+		}
+		hasLast = true;
+		lastTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastAccuracy = accuracy;
+		speedRejections = 0;
+		acceptedCount++;
+		return true;
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount;
+	}
+
+	public long getRejectedCount() {
+		return inaccurateCount + staleCount + tooFastCount;
+	}
+
+	@Override
+	public String toString() {
+		return "FixFilter{accepted=" + acceptedCount
+				+ ", inaccurate=" + inaccurateCount
+				+ ", stale=" + staleCount
+				+ ", tooFast=" + tooFastCount + '}';
+	}
+}
@@ -0,0 +1,14 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Stage of the fix processing pipeline. Fixes are passed as primitives so that they can flow
+ * through the pipeline without allocation.
+ */
+public interface FixSink {
+	void onFix(long time, double latitude, double longitude, float accuracy, int activityType);
+
+	/**
+	 * Called when no more fixes are expected for a while, stages must forward what they hold.
+	 */
+	void flush();
+}
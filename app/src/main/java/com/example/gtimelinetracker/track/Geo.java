@@ -0,0 +1,42 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Geodesic helpers working on primitive coordinates.
+ * <p>
+ * Distances use the equirectangular approximation, which is accurate to a few centimeters for
+ * the short distances separating consecutive fixes and much cheaper than the haversine formula.
+ */
+public final class Geo {
+	public static final double EARTH_RADIUS = 6371008.8;
+	public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+	private Geo() {
+	}
+
+	/**
+	 * @return distance in meters between two points
+	 */
+	public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double x = (longitude2 - longitude1) * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+		double y = latitude2 - latitude1;
+		return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+	}
+
+	/**
+	 * @return initial bearing in degrees, in [0, 360[, from the first point to the second one
+	 */
+	public static double bearing(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double x = (longitude2 - longitude1) * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+		double y = latitude2 - latitude1;
+		double bearing = Math.toDegrees(Math.atan2(x, y));
+		return bearing < 0 ? bearing + 360 : bearing;
+	}
+
+	/**
+	 * @return absolute difference between two bearings, in [0, 180]
+	 */
+	public static double angleDifference(double bearing1, double bearing2) {
+		double difference = Math.abs(bearing1 - bearing2) % 360;
+		return difference > 180 ? 360 - difference : difference;
+	}
+}
@@ -0,0 +1,87 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Exports fixes as a GeoJSON feature collection, one {@code LineString} feature per activity
+ * segment, or a {@code Point} for a segment of a single fix, since a line needs two positions. The
+ * activity and the times of the segment are in the properties, written after the geometry since the
+ * end time is only known then. The activity names must not need to be escaped in JSON.
+ */
+public class GeoJsonExporter extends TrackExporter {
+	private boolean firstSegment;
+	// Number of fixes of the segment, the first one is only written with the second one or at the end
+	private int fixCount;
+	private double firstLatitude;
+	private double firstLongitude;
+	private long segmentStart;
+	private int segmentActivity;
+
+	public GeoJsonExporter(Writer out, String[] activityNames) {
+		super(out, activityNames);
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		append("{\"type\":\"FeatureCollection\",\"features\":[");
+		firstSegment = true;
+	}
+
+	@Override
+	protected void writeSegmentStart(int activityType, long time) throws IOException {
+		append(firstSegment ? "\n" : ",\n");
+		append("{\"type\":\"Feature\",\"geometry\":{\"type\":");
+		firstSegment = false;
+		fixCount = 0;
+		segmentStart = time;
+		segmentActivity = activityType;
+	}
+
+	@Override
+	protected void writeFix(long time, double latitude, double longitude, float accuracy) throws IOException {
+		if (fixCount == 0) {
+			firstLatitude = latitude;
+			firstLongitude = longitude;
+		} else {
+			if (fixCount == 1) {
+				append("\"LineString\",\"coordinates\":[");
+				appendPosition(firstLatitude, firstLongitude);
+			}
+			append(',');
+			appendPosition(latitude, longitude);
+		}
+		fixCount++;
+	}
+
+	@Override
+	protected void writeSegmentEnd(long time) throws IOException {
+		if (fixCount == 1) {
+			append("\"Point\",\"coordinates\":");
+			appendPosition(firstLatitude, firstLongitude);
+			append('}');
+		} else {
+			append("]}");
+		}
+		append(",\"properties\":{\"activity\":\"");
+		appendActivity(segmentActivity);
+		append("\",\"startTime\":\"");
+		appendTime(segmentStart);
+		append("\",\"endTime\":\"");
+		appendTime(time);
+		append("\"}}");
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		append("\n]}\n");
+	}
+
+	private void appendPosition(double latitude, double longitude) throws IOException {
+		append('[');
+		appendDecimal(longitude, 7);
+		append(',');
+		appendDecimal(latitude, 7);
+		append(']');
+	}
+}
@@ -0,0 +1,48 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Exports fixes as GPX 1.1, one {@code trk} per activity segment. The activity names must not need
+ * to be escaped in XML.
+ */
+public class GpxExporter extends TrackExporter {
+	public GpxExporter(Writer out, String[] activityNames) {
+		super(out, activityNames);
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<gpx version=\"1.1\" creator=\"GTimelineTracker\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+	}
+
+	@Override
+	protected void writeSegmentStart(int activityType, long time) throws IOException {
+		append("<trk><type>");
+		appendActivity(activityType);
+		append("</type><trkseg>\n");
+	}
+
+	@Override
+	protected void writeFix(long time, double latitude, double longitude, float accuracy) throws IOException {
+		append("<trkpt lat=\"");
+		appendDecimal(latitude, 7);
+		append("\" lon=\"");
+		appendDecimal(longitude, 7);
+		append("\"><time>");
+		appendTime(time);
+		append("</time></trkpt>\n");
+	}
+
+	@Override
+	protected void writeSegmentEnd(long time) throws IOException {
+		append("</trkseg></trk>\n");
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		append("</gpx>\n");
+	}
+}
@@ -0,0 +1,119 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Constant velocity Kalman filter smoothing the positions of the fixes going through it.
+ * <p>
+ * Both axes are filtered in a local plane, in meters, around a recent fix. As they share the same
+ * process and measurement noises they also share the same covariance, so the whole state holds in
+ * a few doubles and the filter does not allocate.
+ */
+public class KalmanSmoother implements FixSink {
+	// Fixes further apart than this restart the filter from the new fix
+	static final long MAX_GAP = 60000;
+	// Distance from the origin of the local plane beyond which it is moved
+	static final double MAX_ORIGIN_DISTANCE = 10000;
+
+	private final FixSink downstream;
+	// Variance of the acceleration, in (m/s^2)^2
+	private double processNoise;
+
+	private boolean initialized = false;
+	private long time;
+	private double originLatitude;
+	private double originLongitude;
+	private double longitudeScale;
+	// Position and velocity along the east (x) and north (y) axes
+	private double x;
+	private double y;
+	private double vx;
+	private double vy;
+	// Covariance matrix [[p00, p01], [p01, p11]] of position and velocity along one axis
+	private double p00;
+	private double p01;
+	private double p11;
+
+	public KalmanSmoother(FixSink downstream, double processNoise) {
+		this.downstream = downstream;
+		this.processNoise = processNoise;
+	}
+
+	public void setProcessNoise(double processNoise) {
+		this.processNoise = processNoise;
+	}
+
+	public void reset() {
+		initialized = false;
+	}
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		double variance = (double) accuracy * accuracy;
+		long elapsed = time - this.time;
+		if (!initialized || elapsed > MAX_GAP || elapsed < 0) {
+			initialize(time, latitude, longitude, variance);
+			downstream.onFix(time, latitude, longitude, accuracy, activityType);
+			return;
+		}
+		this.time = time;
+		predict(elapsed / 1000.0);
+		update((longitude - originLongitude) * longitudeScale, (latitude - originLatitude) * Geo.METERS_PER_DEGREE, variance);
+
+		double smoothedLatitude = originLatitude + y / Geo.METERS_PER_DEGREE;
+		double smoothedLongitude = originLongitude + x / longitudeScale;
+		if (Math.abs(x) > MAX_ORIGIN_DISTANCE || Math.abs(y) > MAX_ORIGIN_DISTANCE) {
+			setOrigin(smoothedLatitude, smoothedLongitude);
+			x = 0;
+			y = 0;
+		}
+		downstream.onFix(time, smoothedLatitude, smoothedLongitude, (float) Math.sqrt(p00), activityType);
+	}
+
+	@Override
+	public void flush() {
+		downstream.flush();
+	}
+
+	private void initialize(long time, double latitude, double longitude, double variance) {
+		initialized = true;
+		this.time = time;
+		setOrigin(latitude, longitude);
+		x = 0;
+		y = 0;
+		vx = 0;
+		vy = 0;
+		p00 = variance;
+		p01 = 0;
+		// Nothing is known about the speed yet
+		p11 = 100;
+	}
+
+	private void predict(double dt) {
+		x += vx * dt;
+		y += vy * dt;
+		double dt2 = dt * dt;
+		p00 += 2 * dt * p01 + dt2 * p11 + processNoise * dt2 * dt2 / 4;
+		p01 += dt * p11 + processNoise * dt2 * dt / 2;
+		p11 += processNoise * dt2;
+	}
+
+	private void update(double measuredX, double measuredY, double variance) {
+		double s = p00 + variance;
+		double k0 = p00 / s;
+		double k1 = p01 / s;
+		double dx = measuredX - x;
+		double dy = measuredY - y;
+		x += k0 * dx;
+		y += k0 * dy;
+		vx += k1 * dx;
+		vy += k1 * dy;
+		p11 -= k1 * p01;
+		p01 *= 1 - k0;
+		p00 *= 1 - k0;
+	}
+
+	private void setOrigin(double latitude, double longitude) {
+		originLatitude = latitude;
+		originLongitude = longitude;
+		longitudeScale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+	}
+}
@@ -0,0 +1,38 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Delivers fixes according to a {@link SamplingProfile}, the fused location provider on a device
+ * and recorded or synthetic fixes in a replay.
+ */
+public interface LocationSource {
+	/**
+	 * Receives the fixes on the thread of the tracking core.
+	 */
+	interface Listener {
+		/**
+		 * @param time        time of the fix, in milliseconds since the epoch
+		 * @param elapsedTime time of the fix on the {@link Clock#elapsedRealtime} clock, which is not
+		 *                    set back or forth like the wall clock
+		 * @return true when the fix is accepted
+		 */
+		boolean onFix(long time, long elapsedTime, double latitude, double longitude, float accuracy);
+
+		/**
+		 * Called after the fixes delivered together, once per wakeup of the listener.
+		 */
+		void onBatchEnd();
+
+		/**
+		 * Called when the source starts or stops being able to deliver fixes, as long as fixes
+		 * are requested.
+		 */
+		void onAvailability(boolean available);
+	}
+
+	/**
+	 * Starts delivering fixes, or replaces the profile of the current request.
+	 */
+	void requestLocationUpdates(SamplingProfile profile, Listener listener);
+
+	void removeLocationUpdates();
+}
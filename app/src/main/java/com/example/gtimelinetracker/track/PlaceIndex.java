@@ -0,0 +1,250 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Places where the user was seen dwelling, with a grid index to find the place around a fix
+ * without going through all of them.
+ * <p>
+ * Places are stored as columns of primitives and identified by their position. The grid cells
+ * are twice as wide as {@link #PLACE_RADIUS}, so a place containing a point is always in the 3x3
+ * cells around it. Cells are kept in an open addressing table, each one pointing to a chain of places.
+ */
+public class PlaceIndex {
+	// Radius of a place in meters, dwell points closer than this to a place are merged into it
+	public static final double PLACE_RADIUS = 100;
+	public static final int RECORD_SIZE = 32;
+
+	private static final double CELL_SIZE = 2 * PLACE_RADIUS;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long NO_CELL = Long.MIN_VALUE;
+
+	private int size = 0;
+	private double[] latitudes = new double[INITIAL_CAPACITY];
+	private double[] longitudes = new double[INITIAL_CAPACITY];
+	private int[] visitCounts = new int[INITIAL_CAPACITY];
+	private long[] dwellTimes = new long[INITIAL_CAPACITY];
+	// Next place in the same cell, -1 at the end of a chain
+	private int[] nextInCell = new int[INITIAL_CAPACITY];
+
+	// Cell table, at most half full
+	private long[] cells = newCells(INITIAL_CAPACITY * 2);
+	private int[] cellHeads = new int[INITIAL_CAPACITY * 2];
+	private int cellCount = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public double getLatitude(int place) {
+		return latitudes[place];
+	}
+
+	public double getLongitude(int place) {
+		return longitudes[place];
+	}
+
+	public int getVisitCount(int place) {
+		return visitCounts[place];
+	}
+
+	/**
+	 * @return the total time spent in the place in milliseconds
+	 */
+	public long getDwellTime(int place) {
+		return dwellTimes[place];
+	}
+
+	/**
+	 * @return the closest place containing the point, -1 if none
+	 */
+	public int find(double latitude, double longitude) {
+		int found = -1;
+		double foundDistance = PLACE_RADIUS;
+		long row = getRow(latitude);
+		for (long cellRow = row - 1; cellRow <= row + 1; cellRow++) {
+			long column = getColumn(cellRow, longitude);
+			for (long cellColumn = column - 1; cellColumn <= column + 1; cellColumn++) {
+				for (int place = getCellHead(cellRow, cellColumn); place != -1; place = nextInCell[place]) {
+					double distance = Geo.distance(latitude, longitude, latitudes[place], longitudes[place]);
+					if (distance <= foundDistance) {
+						found = place;
+						foundDistance = distance;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Records a visit of the given duration, in a new place or in the place containing the point.
+	 * The center of a place is the average of its visits.
+	 *
+	 * @return the visited place
+	 */
+	public int addVisit(double latitude, double longitude, long dwellTime) {
+		int place = find(latitude, longitude);
+		if (place == -1) {
+			return add(latitude, longitude, 1, dwellTime);
+		}
+		int visits = ++visitCounts[place];
+		dwellTimes[place] += dwellTime;
+		double newLatitude = latitudes[place] + (latitude - latitudes[place]) / visits;
+		double newLongitude = longitudes[place] + (longitude - longitudes[place]) / visits;
+		boolean moved = getRow(newLatitude) != getRow(latitudes[place])
+				|| getColumn(getRow(newLatitude), newLongitude) != getColumn(getRow(latitudes[place]), longitudes[place]);
+		latitudes[place] = newLatitude;
+		longitudes[place] = newLongitude;
+		if (moved) {
+			rebuildCells();
+		}
+		return place;
+	}
+
+	public void addDwellTime(int place, long dwellTime) {
+		dwellTimes[place] += dwellTime;
+	}
+
+	/**
+	 * Loads the places saved by {@link #write}, a missing file gives no place.
+	 */
+	public static PlaceIndex read(File file) throws IOException {
+		PlaceIndex index = new PlaceIndex();
+		if (!file.exists()) return index;
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) (input.length() - input.length() % RECORD_SIZE)).order(TrackStore.BYTE_ORDER);
+			FileChannel channel = input.getChannel();
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				double latitude = buffer.getDouble();
+				double longitude = buffer.getDouble();
+				long dwellTime = buffer.getLong();
+				index.add(latitude, longitude, buffer.getInt(), dwellTime);
+				buffer.getInt();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Saves the places, replacing the file atomically.
+	 */
+	public void write(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size * RECORD_SIZE).order(TrackStore.BYTE_ORDER);
+		for (int place = 0; place < size; place++) {
+			buffer.putDouble(latitudes[place])
+					.putDouble(longitudes[place])
+					.putLong(dwellTimes[place])
+					.putInt(visitCounts[place])
+					.putInt(0);
+		}
+		buffer.flip();
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Can not replace " + file);
+		}
+	}
+
+	private int add(double latitude, double longitude, int visitCount, long dwellTime) {
+		if (size == latitudes.length) {
+			int capacity = size * 2;
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+			visitCounts = Arrays.copyOf(visitCounts, capacity);
+			dwellTimes = Arrays.copyOf(dwellTimes, capacity);
+			nextInCell = Arrays.copyOf(nextInCell, capacity);
+		}
+		int place = size++;
+		latitudes[place] = latitude;
+		longitudes[place] = longitude;
+		visitCounts[place] = visitCount;
+		dwellTimes[place] = dwellTime;
+		if ((cellCount + 1) * 2 > cells.length) {
+			rebuildCells();
+		} else {
+			insertInCell(place);
+		}
+		return place;
+	}
+
+	private void rebuildCells() {
+		int capacity = cells.length;
+		while (size * 2 > capacity) {
+			capacity *= 2;
+		}
+		cells = newCells(capacity);
+		cellHeads = new int[capacity];
+		cellCount = 0;
+		for (int place = 0; place < size; place++) {
+			insertInCell(place);
+		}
+	}
+
+	private void insertInCell(int place) {
+		long row = getRow(latitudes[place]);
+		long cell = getCellKey(row, getColumn(row, longitudes[place]));
+		int slot = getSlot(cell);
+		if (cells[slot] == NO_CELL) {
+			cells[slot] = cell;
+			cellHeads[slot] = -1;
+			cellCount++;
+		}
+		nextInCell[place] = cellHeads[slot];
+		cellHeads[slot] = place;
+	}
+
+	private int getCellHead(long row, long column) {
+		int slot = getSlot(getCellKey(row, column));
+		return cells[slot] == NO_CELL ? -1 : cellHeads[slot];
+	}
+
+	// Slot of the cell, or the empty slot where it must be inserted
+	private int getSlot(long cell) {
+		int mask = cells.length - 1;
+		long hash = cell * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash >>> 32) & mask;
+		while (cells[slot] != NO_CELL && cells[slot] != cell) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static long getRow(double latitude) {
+		return (long) Math.floor(latitude * Geo.METERS_PER_DEGREE / CELL_SIZE);
+	}
+
+	// Cells of a row have the same width in meters, narrower in degrees towards the poles
+	private static long getColumn(long row, double longitude) {
+		double rowLatitude = Math.min(89, Math.abs((row + 0.5) * CELL_SIZE / Geo.METERS_PER_DEGREE));
+		return (long) Math.floor(longitude * Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(rowLatitude)) / CELL_SIZE);
+	}
+
+	private static long getCellKey(long row, long column) {
+		return (row << 32) ^ (column & 0xFFFFFFFFL);
+	}
+
+	private static long[] newCells(int capacity) {
+		long[] cells = new long[capacity];
+		Arrays.fill(cells, NO_CELL);
+		return cells;
+	}
+}
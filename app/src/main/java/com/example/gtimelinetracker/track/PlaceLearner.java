@@ -0,0 +1,76 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Learns the places where the user stops from the accepted fixes.
+ * <p>
+ * A dwell is detected when the fixes stay within {@link #DWELL_RADIUS} of the first one for
+ * {@link #DWELL_TIME}. Its centroid is then added to the {@link PlaceIndex} as a visit, which
+ * clusters the dwells of the same place together.
+ */
+public class PlaceLearner {
+	static final double DWELL_RADIUS = 50;
+	static final long DWELL_TIME = 120000;
+
+	private final PlaceIndex places;
+
+	private boolean started = false;
+	private long anchorTime;
+	private double anchorLatitude;
+	private double anchorLongitude;
+	private long lastTime;
+	// Sums of the fixes of the current dwell, for its centroid
+	private double latitudeSum;
+	private double longitudeSum;
+	private int fixCount;
+	// Place of the current dwell, -1 while it is too short
+	private int place = -1;
+
+	public PlaceLearner(PlaceIndex places) {
+		this.places = places;
+	}
+
+	/**
+	 * @return true when a visit was added, the places must then be saved
+	 */
+	public boolean onFix(long time, double latitude, double longitude) {
+		boolean changed = false;
+		if (!started || Geo.distance(anchorLatitude, anchorLongitude, latitude, longitude) > DWELL_RADIUS) {
+			changed = endDwell();
+			started = true;
+			anchorTime = time;
+			anchorLatitude = latitude;
+			anchorLongitude = longitude;
+			latitudeSum = 0;
+			longitudeSum = 0;
+			fixCount = 0;
+		}
+		lastTime = time;
+		latitudeSum += latitude;
+		longitudeSum += longitude;
+		fixCount++;
+		if (place == -1 && time - anchorTime >= DWELL_TIME) {
+			// The dwell time is only known at the end, it is added then
+			place = places.addVisit(latitudeSum / fixCount, longitudeSum / fixCount, 0);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Ends the current dwell, when the tracking stops.
+	 *
+	 * @return true when the places must be saved
+	 */
+	public boolean reset() {
+		boolean changed = endDwell();
+		started = false;
+		return changed;
+	}
+
+	private boolean endDwell() {
+		if (place == -1) return false;
+		places.addDwellTime(place, lastTime - anchorTime);
+		place = -1;
+		return true;
+	}
+}
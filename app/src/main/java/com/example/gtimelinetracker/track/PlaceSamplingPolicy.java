@@ -0,0 +1,100 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Switches to a low power profile while the user stays in a frequent place, and otherwise leaves
+ * the decision to another policy.
+ * <p>
+ * The switch happens once the fixes have been inside the place and slower than
+ * {@link #STATIONARY_SPEED} for {@link #STATIONARY_DELAY}. The low power fixes are not accurate
+ * enough to be accepted by the filter, so leaving the place is mostly detected by its geofence,
+ * see {@link #onPlaceExit}, or by a new activity transition which resets the policy.
+ */
+public class PlaceSamplingPolicy implements SamplingPolicy {
+	// Places visited less often are not trusted
+	public static final int MIN_VISIT_COUNT = 3;
+	static final float STATIONARY_SPEED = 1;
+	static final long STATIONARY_DELAY = 60000;
+	static final SamplingProfile LOW_POWER_PROFILE =
+			new SamplingProfile(60000, SamplingProfile.PRIORITY_LOW_POWER, (float) PlaceIndex.PLACE_RADIUS, 0);
+
+	private final SamplingPolicy delegate;
+	private final PlaceIndex places;
+
+	// Place where the low power profile is used, -1 when the delegate decides
+	private int suppressedPlace = -1;
+	// Time since when the user has been stationary in a place, -1 when moving
+	private long stationaryTime = -1;
+	private boolean hasLastFix = false;
+	private long lastTime;
+	private double lastLatitude;
+	private double lastLongitude;
+
+	public PlaceSamplingPolicy(SamplingPolicy delegate, PlaceIndex places) {
+		this.delegate = delegate;
+		this.places = places;
+	}
+
+	@Override
+	public void reset(SamplingProfile base) {
+		delegate.reset(base);
+		suppressedPlace = -1;
+		stationaryTime = -1;
+		hasLastFix = false;
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		boolean changed = delegate.onFix(time, latitude, longitude, accuracy);
+		float speed = Float.MAX_VALUE;
+		if (hasLastFix && time > lastTime) {
+			speed = (float) (Geo.distance(lastLatitude, lastLongitude, latitude, longitude) * 1000 / (time - lastTime));
+		}
+		hasLastFix = true;
+		lastTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+
+		if (suppressedPlace != -1) {
+			double distance = Geo.distance(places.getLatitude(suppressedPlace), places.getLongitude(suppressedPlace), latitude, longitude);
+			if (distance - accuracy > PlaceIndex.PLACE_RADIUS) {
+				suppressedPlace = -1;
+				stationaryTime = -1;
+				return true;
+			}
+			return false;
+		}
+		int place = places.find(latitude, longitude);
+		if (place == -1 || places.getVisitCount(place) < MIN_VISIT_COUNT || speed > STATIONARY_SPEED) {
+			stationaryTime = -1;
+			return changed;
+		}
+		if (stationaryTime == -1) {
+			stationaryTime = time;
+		} else if (time - stationaryTime >= STATIONARY_DELAY) {
+			suppressedPlace = place;
+			return true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Goes back to the profile of the delegate when the user leaves the place.
+	 *
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean onPlaceExit() {
+		stationaryTime = -1;
+		if (suppressedPlace == -1) return false;
+		suppressedPlace = -1;
+		return true;
+	}
+
+	public boolean isSuppressed() {
+		return suppressedPlace != -1;
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		return suppressedPlace != -1 ? LOW_POWER_PROFILE : delegate.getProfile();
+	}
+}
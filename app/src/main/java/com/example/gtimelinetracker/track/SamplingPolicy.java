@@ -0,0 +1,21 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Decides how often, and how accurately, locations are requested while tracking.
+ * <p>
+ * Policies are fed with every received fix and may adapt the profile on the fly, the tracker then
+ * updates its location request in place.
+ */
+public interface SamplingPolicy {
+	/**
+	 * Starts over with the nominal profile of the tracked activity.
+	 */
+	void reset(SamplingProfile base);
+
+	/**
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	boolean onFix(long time, double latitude, double longitude, float accuracy);
+
+	SamplingProfile getProfile();
+}
@@ -0,0 +1,53 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Parameters of a location request.
+ */
+public final class SamplingProfile {
+	// Same values as the LocationRequest priorities so that they can be passed as is
+	public static final int PRIORITY_HIGH_ACCURACY = 100;
+	public static final int PRIORITY_BALANCED_POWER_ACCURACY = 102;
+	public static final int PRIORITY_LOW_POWER = 104;
+	public static final int PRIORITY_NO_POWER = 105;
+
+	public final long interval;
+	public final int priority;
+	public final float smallestDisplacement;
+	// Maximum delay before fixes are delivered in batch, 0 to receive them one by one
+	public final long maxWaitTime;
+
+	public SamplingProfile(long interval, int priority, float smallestDisplacement, long maxWaitTime) {
+		this.interval = interval;
+		this.priority = priority;
+		this.smallestDisplacement = smallestDisplacement;
+		this.maxWaitTime = maxWaitTime;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof SamplingProfile)) return false;
+		SamplingProfile that = (SamplingProfile) o;
+		return interval == that.interval
+				&& priority == that.priority
+				&& Float.compare(that.smallestDisplacement, smallestDisplacement) == 0
+				&& maxWaitTime == that.maxWaitTime;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (int) (interval ^ (interval >>> 32));
+		result = 31 * result + priority;
+		result = 31 * result + Float.floatToIntBits(smallestDisplacement);
+		result = 31 * result + (int) (maxWaitTime ^ (maxWaitTime >>> 32));
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "SamplingProfile{interval=" + interval
+				+ ", priority=" + priority
+				+ ", smallestDisplacement=" + smallestDisplacement
+				+ ", maxWaitTime=" + maxWaitTime + '}';
+	}
+}
@@ -0,0 +1,178 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Detects within seconds that the user stopped, long before the activity recognition tells
+ * STILL, by fusing the fixes with the accelerometer.
+ * <p>
+ * The user is stopped once the fixes of the last {@link #FIX_WINDOW} all lie within
+ * {@link #STOP_RADIUS} of the last one, beyond the accuracy of either, and the accelerometer has not
+ * measured any motion for {@link #STILL_TIME}. A motion is a deviation of the magnitude of the
+ * acceleration from the gravity above {@link #MOTION_THRESHOLD}, so that it does not depend on the
+ * orientation of the phone. Without accelerometer samples, the user is never considered stopped.
+ * <p>
+ * The user moves again after motions sustained for {@link #MOTION_TIME}, a significant motion
+ * event, or a fix further than {@link #RESUME_DISTANCE} from the stop.
+ * <p>
+ * The state is bounded: the fixes of the window are kept in a ring of {@link #MAX_WINDOW_FIXES},
+ * the accelerometer only updates a few times. All the times are in milliseconds, from the same
+ * clock as the fixes.
+ */
+public class StopDetector {
+	static final long FIX_WINDOW = 20000;
+	static final int MAX_WINDOW_FIXES = 64;
+	// Maximum distance in meters between the fixes of a stop, on top of their accuracy
+	static final float STOP_RADIUS = 10;
+	static final double GRAVITY = 9.80665;
+	// Deviation of the acceleration from the gravity in m/s^2, phones lying still measure less than 0.1
+	static final double MOTION_THRESHOLD = 0.5;
+	static final long STILL_TIME = 5000;
+	static final long MOTION_TIME = 2000;
+	// Motions further apart are not sustained
+	static final long MOTION_GAP = 1000;
+	static final float RESUME_DISTANCE = 50;
+
+	// Ring of the fixes of the window, the oldest one may be before the window
+	private final long[] times = new long[MAX_WINDOW_FIXES];
+	private final double[] latitudes = new double[MAX_WINDOW_FIXES];
+	private final double[] longitudes = new double[MAX_WINDOW_FIXES];
+	private final float[] accuracies = new float[MAX_WINDOW_FIXES];
+	private int first = 0;
+	private int size = 0;
+	// Whether the fixes of the window were within the stop radius at the last fix
+	private boolean fixesStationary = false;
+
+	// Time of the first accelerometer sample, -1 when there is none
+	private long firstSampleTime = -1;
+	private long lastSampleTime;
+	private long lastMotionTime;
+	// Start of the current run of sustained motions, -1 when there is none
+	private long motionStart = -1;
+
+	private boolean stopped = false;
+	private double stopLatitude;
+	private double stopLongitude;
+	private long stopCount = 0;
+
+	/**
+	 * Forgets everything, the user is considered moving.
+	 */
+	public void reset() {
+		size = 0;
+		fixesStationary = false;
+		firstSampleTime = -1;
+		motionStart = -1;
+		stopped = false;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public long getStopCount() {
+		return stopCount;
+	}
+
+	/**
+	 * @return true when the user stopped or moved again
+	 */
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		if (stopped) {
+			if (Geo.distance(stopLatitude, stopLongitude, latitude, longitude) - accuracy > RESUME_DISTANCE) {
+				resume();
+				return true;
+			}
+			return false;
+		}
+		if (size > 0 && time <= times[(first + size - 1) % MAX_WINDOW_FIXES]) return false;
+		if (size == MAX_WINDOW_FIXES) {
+			first = (first + 1) % MAX_WINDOW_FIXES;
+			size--;
+		}
+		int last = (first + size) % MAX_WINDOW_FIXES;
+		times[last] = time;
+		latitudes[last] = latitude;
+		longitudes[last] = longitude;
+		accuracies[last] = accuracy;
+		size++;
+		// Keeps a single fix before the window, so that the window is known to be covered
+		while (size > 1 && times[(first + 1) % MAX_WINDOW_FIXES] <= time - FIX_WINDOW) {
+			first = (first + 1) % MAX_WINDOW_FIXES;
+			size--;
+		}
+		fixesStationary = times[first] <= time - FIX_WINDOW && isWithinRadius(last);
+		return checkStop();
+	}
+
+	/**
+	 * @param x acceleration including the gravity, in m/s^2, in any frame
+	 * @return true when the user stopped or moved again
+	 */
+	public boolean onAcceleration(long time, float x, float y, float z) {
+		if (firstSampleTime == -1) {
+			firstSampleTime = time;
+			lastMotionTime = time;
+		}
+		lastSampleTime = time;
+		if (Math.abs(Math.sqrt(x * x + y * y + z * z) - GRAVITY) <= MOTION_THRESHOLD) {
+			return checkStop();
+		}
+		if (motionStart == -1 || time - lastMotionTime > MOTION_GAP) {
+			motionStart = time;
+		}
+		lastMotionTime = time;
+		if (stopped && time - motionStart >= MOTION_TIME) {
+			resume();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells that the significant motion sensor triggered.
+	 *
+	 * @return true when the user moved again
+	 */
+	public boolean onSignificantMotion(long time) {
+		if (firstSampleTime != -1) {
+			lastMotionTime = Math.max(lastMotionTime, time);
+		}
+		if (!stopped) return false;
+		resume();
+		return true;
+	}
+
+	private boolean checkStop() {
+		if (stopped || !fixesStationary || firstSampleTime == -1 || lastSampleTime - lastMotionTime < STILL_TIME) {
+			return false;
+		}
+		int last = (first + size - 1) % MAX_WINDOW_FIXES;
+		stopped = true;
+		stopLatitude = latitudes[last];
+		stopLongitude = longitudes[last];
+		stopCount++;
+		return true;
+	}
+
+	// Whether the fixes of the window are close enough to the given one
+	private boolean isWithinRadius(int index) {
+		for (int i = 0; i < size; i++) {
+			int other = (first + i) % MAX_WINDOW_FIXES;
+			double distance = Geo.distance(latitudes[index], longitudes[index], latitudes[other], longitudes[other]);
+			if (distance - Math.max(accuracies[index], accuracies[other]) > STOP_RADIUS) return false;
+		}
+		return true;
+	}
+
+	// A new stop needs a whole window of fixes and of stillness
+	private void resume() {
+		stopped = false;
+		size = 0;
+		fixesStationary = false;
+		motionStart = -1;
+	}
+
+	@Override
+	public String toString() {
+		return "StopDetector{stopped=" + stopped + ", stops=" + stopCount + '}';
+	}
+}
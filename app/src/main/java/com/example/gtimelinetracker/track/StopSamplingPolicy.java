@@ -0,0 +1,56 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Suspends the high accuracy requests while a {@link StopDetector} tells that the user stopped,
+ * and otherwise leaves the decision to another policy.
+ * <p>
+ * The low power fixes received meanwhile are rarely accurate enough to tell a move, so the requests
+ * mostly resume on the motions measured by the sensors, see
+ * {@link #onAcceleration} and {@link #onSignificantMotion}.
+ */
+public class StopSamplingPolicy implements SamplingPolicy {
+	static final SamplingProfile STOPPED_PROFILE = new SamplingProfile(60000, SamplingProfile.PRIORITY_LOW_POWER, 0, 0);
+
+	private final SamplingPolicy delegate;
+	private final StopDetector detector = new StopDetector();
+
+	public StopSamplingPolicy(SamplingPolicy delegate) {
+		this.delegate = delegate;
+	}
+
+	public StopDetector getDetector() {
+		return detector;
+	}
+
+	@Override
+	public void reset(SamplingProfile base) {
+		delegate.reset(base);
+		detector.reset();
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		boolean changed = delegate.onFix(time, latitude, longitude, accuracy);
+		// The delegate profile is hidden while stopped
+		return detector.onFix(time, latitude, longitude, accuracy) || (changed && !detector.isStopped());
+	}
+
+	/**
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean onAcceleration(long time, float x, float y, float z) {
+		return detector.onAcceleration(time, x, y, z);
+	}
+
+	/**
+	 * @return true when the profile changed and the location request must be updated
+	 */
+	public boolean onSignificantMotion(long time) {
+		return detector.onSignificantMotion(time);
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		return detector.isStopped() ? STOPPED_PROFILE : delegate.getProfile();
+	}
+}
@@ -0,0 +1,109 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+
+/**
+ * Simplified polylines of a tile of the {@link TilePyramid}, in tile coordinates: from 0 to 1,
+ * left to right and top to bottom.
+ * <p>
+ * Tiles are only appended to, while synchronized on the tile. The getters must be called while
+ * synchronized on the tile by the threads which do not feed the pyramid, they may use
+ * {@link #getVersion} to only rebuild what they derive from the tile when it changed.
+ */
+public final class Tile {
+	// Flag of the points which start a polyline, the low bits hold the activity type
+	static final int POLYLINE_START = 0x80000000;
+	static final int ACTIVITY_MASK = 0xFFFF;
+
+	final int level;
+	final int x;
+	final int y;
+	final long key;
+
+	private float[] coordinates = new float[32];
+	private int[] flags = new int[16];
+	private int pointCount = 0;
+	private int polylineCount = 0;
+	private int version = 0;
+
+	Tile(int level, int x, int y) {
+		this.level = level;
+		this.x = x;
+		this.y = y;
+		this.key = TilePyramid.getKey(level, x, y);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public int getPolylineCount() {
+		return polylineCount;
+	}
+
+	public float getPointX(int point) {
+		return coordinates[point * 2];
+	}
+
+	public float getPointY(int point) {
+		return coordinates[point * 2 + 1];
+	}
+
+	/**
+	 * @return true when the point is the first one of a polyline, the previous one is not linked to it
+	 */
+	public boolean isPolylineStart(int point) {
+		return (flags[point] & POLYLINE_START) != 0;
+	}
+
+	public int getActivityType(int point) {
+		return (short) (flags[point] & ACTIVITY_MASK);
+	}
+
+	/**
+	 * @return a number which changes every time points are added
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	synchronized void add(float x, float y, int flags) {
+		if (pointCount == this.flags.length) {
+			coordinates = Arrays.copyOf(coordinates, pointCount * 4);
+			this.flags = Arrays.copyOf(this.flags, pointCount * 2);
+		}
+		coordinates[pointCount * 2] = x;
+		coordinates[pointCount * 2 + 1] = y;
+		this.flags[pointCount] = flags;
+		pointCount++;
+		if ((flags & POLYLINE_START) != 0) {
+			polylineCount++;
+		}
+		version++;
+	}
+
+	int getFlags(int point) {
+		return flags[point];
+	}
+
+	static int getFlags(boolean polylineStart, int activityType) {
+		return (polylineStart ? POLYLINE_START : 0) | (activityType & ACTIVITY_MASK);
+	}
+
+	@Override
+	public String toString() {
+		return "Tile{" + level + '/' + x + '/' + y + ", points=" + pointCount + '}';
+	}
+}
@@ -0,0 +1,633 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level of detail pyramid of the track, to draw months of history at any zoom level without
+ * going through the fixes.
+ * <p>
+ * The fixes are projected with the web Mercator projection, and simplified for each level of
+ * {@link #LEVELS} to about a pixel of a {@link #TILE_PIXELS} pixels wide tile of this zoom level.
+ * The polylines are then cut into the tiles they cross, see {@link Tile}. This happens
+ * incrementally as fixes are received, the fixes are then forwarded downstream as they are. The
+ * polylines are broken by the gap markers and by fixes more than {@link #MAX_GAP} apart.
+ * <p>
+ * Each tile is stored in its own file, to which the new points are appended by an I/O thread.
+ * {@link #getTile} only returns the tiles held by a cache bounded to {@link #getMaxCachedPoints}
+ * points, and loads the others on the I/O thread, then tells the {@link Listener}.
+ */
+public class TilePyramid implements FixSink, Closeable {
+	// Zoom levels with a simplified copy of the track, other zoom levels use the next coarser one
+	public static final int[] LEVELS = {2, 4, 6, 8, 10, 12, 14, 16};
+	public static final int TILE_PIXELS = 256;
+	static final double EARTH_CIRCUMFERENCE = 2 * Math.PI * 6378137;
+	static final double MAX_LATITUDE = 85.05112878;
+	// Fixes further apart are not linked
+	static final long MAX_GAP = TrackExporter.MAX_GAP;
+	// A segment crossing more tiles of a level is not drawn at this level
+	static final int MAX_SEGMENT_TILES = 64;
+	// Pending points written at once, unless the tracker flushes first
+	static final int MAX_PENDING_POINTS = 4096;
+	// Cache cost of a tile on top of its points, so that empty tiles are bounded too
+	static final int TILE_COST = 16;
+	static final int POINT_SIZE = 12;
+	static final String TILE_SUFFIX = ".bin";
+
+	/**
+	 * Told on the I/O thread when a tile requested by {@link #getTile} is loaded.
+	 */
+	public interface Listener {
+		void onTileLoaded(Tile tile);
+	}
+
+	private final File directory;
+	private final FixSink downstream;
+	private final int maxCachedPoints;
+	private final Level[] levels = new Level[LEVELS.length];
+	private final ExecutorService io = Executors.newSingleThreadExecutor();
+	private final Runnable writeTask = new Runnable() {
+		@Override
+		public void run() {
+			writePending();
+		}
+	};
+
+	// Guards pending, pendingCount, cache, cachedPoints, loading, listener and closed
+	private final Object lock = new Object();
+	// Points not written yet, by tile key
+	private PendingTiles pending = new PendingTiles();
+	private int pendingCount = 0;
+	private final LinkedHashMap<Long, Tile> cache = new LinkedHashMap<>(64, 0.75f, true);
+	private long cachedPoints = 0;
+	private final Set<Long> loading = new HashSet<>();
+	private Listener listener;
+	private boolean closed = false;
+
+	// Only accessed by the thread feeding the fixes
+	private boolean hasLast = false;
+	private long lastTime;
+
+	// Only accessed by the I/O thread
+	private final ByteBuffer ioBuffer = ByteBuffer.allocate(MAX_PENDING_POINTS * POINT_SIZE).order(TrackStore.BYTE_ORDER);
+
+	public TilePyramid(File directory, FixSink downstream, int maxCachedPoints) {
+		this.directory = directory;
+		this.downstream = downstream;
+		this.maxCachedPoints = maxCachedPoints;
+		for (int i = 0; i < LEVELS.length; i++) {
+			Level level = new Level(LEVELS[i]);
+			// The tolerance is a pixel at the equator, and less elsewhere
+			level.simplifier = new TrackSimplifier(level, EARTH_CIRCUMFERENCE / ((long) TILE_PIXELS << LEVELS[i]), MAX_GAP);
+			levels[i] = level;
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getMaxCachedPoints() {
+		return maxCachedPoints;
+	}
+
+	public void setListener(Listener listener) {
+		synchronized (lock) {
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * @return true when no tile has ever been stored, the history may then be added with {@link #build}
+	 */
+	public boolean isEmpty() {
+		String[] files = directory.list();
+		return files == null || files.length == 0;
+	}
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		add(time, latitude, longitude, activityType);
+		downstream.onFix(time, latitude, longitude, accuracy, activityType);
+	}
+
+	@Override
+	public void flush() {
+		flushLevels();
+		downstream.flush();
+	}
+
+	/**
+	 * Adds the fixes of the cursor to the pyramid, without forwarding them.
+	 */
+	public void build(TrackCursor cursor) {
+		while (cursor.next()) {
+			add(cursor.getTime(), cursor.getLatitude(), cursor.getLongitude(), cursor.getActivityType());
+		}
+		flushLevels();
+	}
+
+	/**
+	 * @return the tile if it is cached, otherwise null and the tile is loaded in the background
+	 */
+	public Tile getTile(int level, int x, int y) {
+		long key = getKey(level, x, y);
+		synchronized (lock) {
+			Tile tile = cache.get(key);
+			if (tile == null && !closed && loading.add(key)) {
+				io.execute(new LoadTask(level, x, y));
+			}
+			return tile;
+		}
+	}
+
+	/**
+	 * Writes the pending points, and releases the I/O thread. The pyramid can not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) return;
+			closed = true;
+			io.execute(writeTask);
+			io.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for the writes queued before {@link #close} to complete.
+	 *
+	 * @return false when the timeout elapsed first
+	 */
+	boolean awaitClosed(long timeout) throws InterruptedException {
+		return io.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the level of {@link #LEVELS} to draw at the given zoom level
+	 */
+	public static int getLevel(double zoom) {
+		int level = LEVELS[0];
+		for (int candidate : LEVELS) {
+			if (candidate <= zoom) {
+				level = candidate;
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * @return the web Mercator abscissa of the longitude, from 0 to 1
+	 */
+	public static double getWorldX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * @return the web Mercator ordinate of the latitude, from 0 at the north to 1 at the south
+	 */
+	public static double getWorldY(double latitude) {
+		double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+		return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+	}
+
+	static long getKey(int level, int x, int y) {
+		return ((long) level << 58) | ((long) x << 29) | y;
+	}
+
+	private void add(long time, double latitude, double longitude, int activityType) {
+		if (activityType == TrackStore.GAP_MARKER) {
+			flushLevels();
+			return;
+		}
+		if (hasLast && time - lastTime > MAX_GAP) {
+			flushLevels();
+		}
+		hasLast = true;
+		lastTime = time;
+		for (Level level : levels) {
+			level.simplifier.onFix(time, latitude, longitude, 0, activityType);
+		}
+	}
+
+	// Forwards the points held by the simplifiers, and breaks the polylines
+	private void flushLevels() {
+		for (Level level : levels) {
+			level.simplifier.flush();
+			level.hasLast = false;
+		}
+		hasLast = false;
+		synchronized (lock) {
+			if (pendingCount > 0 && !closed) {
+				io.execute(writeTask);
+			}
+		}
+	}
+
+	private void addPoint(int level, int tileX, int tileY, double x, double y, boolean polylineStart, int activityType) {
+		long key = getKey(level, tileX, tileY);
+		int flags = Tile.getFlags(polylineStart, activityType);
+		float pointX = (float) (x - tileX);
+		float pointY = (float) (y - tileY);
+		synchronized (lock) {
+			if (closed) return;
+			PointBuffer buffer = pending.get(key);
+			if (buffer == null) {
+				buffer = new PointBuffer(level, tileX, tileY);
+				buffer.tile = cache.get(key);
+				pending.put(key, buffer);
+			}
+			buffer.add(pointX, pointY, flags);
+			if (buffer.tile != null) {
+				buffer.tile.add(pointX, pointY, flags);
+				cachedPoints++;
+				evict();
+			}
+			if (++pendingCount == MAX_PENDING_POINTS) {
+				io.execute(writeTask);
+			}
+		}
+	}
+
+	private void writePending() {
+		PendingTiles points;
+		synchronized (lock) {
+			if (pendingCount == 0) return;
+			points = pending;
+			pending = new PendingTiles();
+			pendingCount = 0;
+		}
+		for (int slot = 0; slot < points.getCapacity(); slot++) {
+			PointBuffer buffer = points.getBuffer(slot);
+			if (buffer == null) continue;
+			try {
+				write(buffer);
+			} catch (IOException e) {
+				// The tile misses these points, the track store still has the fixes
+			}
+		}
+	}
+
+	private void write(PointBuffer buffer) throws IOException {
+		File file = getFile(buffer.level, buffer.x, buffer.y);
+		File levelDirectory = file.getParentFile();
+		if (!levelDirectory.isDirectory() && !levelDirectory.mkdirs()) {
+			throw new IOException("Can not create " + levelDirectory);
+		}
+		try (FileChannel channel = new FileOutputStream(file, true).getChannel()) {
+			for (int start = 0; start < buffer.size; start += MAX_PENDING_POINTS) {
+				ioBuffer.clear();
+				for (int point = start; point < Math.min(buffer.size, start + MAX_PENDING_POINTS); point++) {
+					ioBuffer.putFloat(buffer.coordinates[point * 2])
+							.putFloat(buffer.coordinates[point * 2 + 1])
+							.putInt(buffer.flags[point]);
+				}
+				ioBuffer.flip();
+				while (ioBuffer.hasRemaining()) {
+					channel.write(ioBuffer);
+				}
+			}
+		}
+	}
+
+	private Tile read(int level, int x, int y) throws IOException {
+		Tile tile = new Tile(level, x, y);
+		File file = getFile(level, x, y);
+		if (!file.exists()) return tile;
+		try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			long size = channel.size() - channel.size() % POINT_SIZE;
+			long position = 0;
+			while (position < size) {
+				ioBuffer.clear();
+				ioBuffer.limit((int) Math.min(ioBuffer.capacity(), size - position));
+				while (ioBuffer.hasRemaining() && channel.read(ioBuffer, position + ioBuffer.position()) >= 0) {
+				}
+				ioBuffer.flip();
+				position += ioBuffer.limit();
+				while (ioBuffer.remaining() >= POINT_SIZE) {
+					tile.add(ioBuffer.getFloat(), ioBuffer.getFloat(), ioBuffer.getInt());
+				}
+			}
+		}
+		return tile;
+	}
+
+	// Evicts the least recently used tiles, the points of evicted tiles are all written or pending
+	private void evict() {
+		Iterator<Tile> tiles = cache.values().iterator();
+		while (cachedPoints > maxCachedPoints && tiles.hasNext()) {
+			Tile tile = tiles.next();
+			cachedPoints -= tile.getPointCount() + TILE_COST;
+			tiles.remove();
+			PointBuffer buffer = pending.get(getKey(tile.getLevel(), tile.getX(), tile.getY()));
+			if (buffer != null) {
+				buffer.tile = null;
+			}
+		}
+	}
+
+	private File getFile(int level, int x, int y) {
+		return new File(directory, level + File.separator + x + '-' + y + TILE_SUFFIX);
+	}
+
+	private class LoadTask implements Runnable {
+		private final int level;
+		private final int x;
+		private final int y;
+
+		LoadTask(int level, int x, int y) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		// The points of the tile are either in its file or pending, since only this thread writes
+		// and the pending points are added to the loaded tile atomically
+		@Override
+		public void run() {
+			long key = getKey(level, x, y);
+			PointBuffer points;
+			synchronized (lock) {
+				points = pending.remove(key);
+				if (points != null) {
+					pendingCount -= points.size;
+				}
+			}
+			Tile tile;
+			try {
+				if (points != null) {
+					write(points);
+				}
+				tile = read(level, x, y);
+			} catch (IOException e) {
+				tile = new Tile(level, x, y);
+			}
+			Listener listener;
+			synchronized (lock) {
+				PointBuffer added = pending.get(key);
+				if (added != null) {
+					for (int point = 0; point < added.size; point++) {
+						tile.add(added.coordinates[point * 2], added.coordinates[point * 2 + 1], added.flags[point]);
+					}
+					added.tile = tile;
+				}
+				loading.remove(key);
+				cache.put(key, tile);
+				cachedPoints += tile.getPointCount() + TILE_COST;
+				evict();
+				listener = TilePyramid.this.listener;
+			}
+			if (listener != null) {
+				listener.onTileLoaded(tile);
+			}
+		}
+	}
+
+	/**
+	 * Simplified track of a level, cut into tiles.
+	 */
+	private class Level implements FixSink {
+		final int level;
+		final int tiles;
+		TrackSimplifier simplifier;
+
+		boolean hasLast = false;
+		double lastX;
+		double lastY;
+		int lastActivityType;
+		// Tiles whose last point is the last one, where the next segment continues the polyline
+		final long[] lastTiles = new long[MAX_SEGMENT_TILES];
+		int lastTileCount = 0;
+		// Tiles crossed by the current segment
+		private final int[] segmentX = new int[MAX_SEGMENT_TILES];
+		private final int[] segmentY = new int[MAX_SEGMENT_TILES];
+		private final long[] segmentKeys = new long[MAX_SEGMENT_TILES];
+
+		Level(int level) {
+			this.level = level;
+			this.tiles = 1 << level;
+		}
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			double x = getWorldX(longitude) * tiles;
+			double y = getWorldY(latitude) * tiles;
+			int count = hasLast ? getSegmentTiles(lastX, lastY, x, y) : -1;
+			if (count == -1) {
+				// First point, or a segment too long to be drawn
+				int tileX = getTile(x);
+				int tileY = getTile(y);
+				addPoint(level, tileX, tileY, x, y, true, activityType);
+				lastTiles[0] = getKey(level, tileX, tileY);
+				lastTileCount = 1;
+			} else {
+				for (int i = 0; i < count; i++) {
+					// A change of activity starts a new polyline to change the color
+					boolean continued = activityType == lastActivityType && contains(segmentKeys[i]);
+					if (!continued) {
+						addPoint(level, segmentX[i], segmentY[i], lastX, lastY, true, activityType);
+					}
+					addPoint(level, segmentX[i], segmentY[i], x, y, false, activityType);
+				}
+				System.arraycopy(segmentKeys, 0, lastTiles, 0, count);
+				lastTileCount = count;
+			}
+			hasLast = true;
+			lastX = x;
+			lastY = y;
+			lastActivityType = activityType;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		// Walks the tiles crossed by the segment, from the first one, returns -1 when there are too many
+		private int getSegmentTiles(double x0, double y0, double x1, double y1) {
+			int tileX = getTile(x0);
+			int tileY = getTile(y0);
+			int endX = getTile(x1);
+			int endY = getTile(y1);
+			int count = Math.abs(endX - tileX) + Math.abs(endY - tileY) + 1;
+			if (count > MAX_SEGMENT_TILES) return -1;
+			double dx = x1 - x0;
+			double dy = y1 - y0;
+			int stepX = dx > 0 ? 1 : -1;
+			int stepY = dy > 0 ? 1 : -1;
+			// Parameter along the segment of the next vertical and horizontal tile border
+			double nextX = dx == 0 ? Double.MAX_VALUE : ((dx > 0 ? tileX + 1 : tileX) - x0) / dx;
+			double nextY = dy == 0 ? Double.MAX_VALUE : ((dy > 0 ? tileY + 1 : tileY) - y0) / dy;
+			double deltaX = dx == 0 ? Double.MAX_VALUE : Math.abs(1 / dx);
+			double deltaY = dy == 0 ? Double.MAX_VALUE : Math.abs(1 / dy);
+			for (int i = 0; i < count; i++) {
+				segmentX[i] = tileX;
+				segmentY[i] = tileY;
+				segmentKeys[i] = getKey(level, tileX, tileY);
+				if (nextX < nextY) {
+					tileX += stepX;
+					nextX += deltaX;
+				} else {
+					tileY += stepY;
+					nextY += deltaY;
+				}
+			}
+			return count;
+		}
+
+		private int getTile(double coordinate) {
+			return Math.max(0, Math.min(tiles - 1, (int) Math.floor(coordinate)));
+		}
+
+		private boolean contains(long key) {
+			for (int i = 0; i < lastTileCount; i++) {
+				if (lastTiles[i] == key) return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Points of a tile not written yet.
+	 */
+	static class PointBuffer {
+		final int level;
+		final int x;
+		final int y;
+		// Cached tile the new points are also added to, guarded by the lock
+		Tile tile;
+		float[] coordinates = new float[32];
+		int[] flags = new int[16];
+		int size = 0;
+
+		PointBuffer(int level, int x, int y) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		void add(float x, float y, int flags) {
+			if (size == this.flags.length) {
+				coordinates = Arrays.copyOf(coordinates, size * 4);
+				this.flags = Arrays.copyOf(this.flags, size * 2);
+			}
+			coordinates[size * 2] = x;
+			coordinates[size * 2 + 1] = y;
+			this.flags[size] = flags;
+			size++;
+		}
+	}
+
+	/**
+	 * Pending points by tile key, in an open addressing table so that adding a point does not box
+	 * its key. Tile keys are never negative.
+	 */
+	static class PendingTiles {
+		private static final int INITIAL_CAPACITY = 64;
+		private static final long NO_TILE = -1;
+
+		private long[] keys = newKeys(INITIAL_CAPACITY);
+		private PointBuffer[] buffers = new PointBuffer[INITIAL_CAPACITY];
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		int getCapacity() {
+			return keys.length;
+		}
+
+		/**
+		 * @return the buffer in the slot, or null when the slot is empty
+		 */
+		PointBuffer getBuffer(int slot) {
+			return buffers[slot];
+		}
+
+		PointBuffer get(long key) {
+			return buffers[getSlot(key)];
+		}
+
+		void put(long key, PointBuffer buffer) {
+			int slot = getSlot(key);
+			if (keys[slot] == NO_TILE) {
+				if ((size + 1) * 2 > keys.length) {
+					grow();
+					slot = getSlot(key);
+				}
+				keys[slot] = key;
+				size++;
+			}
+			buffers[slot] = buffer;
+		}
+
+		PointBuffer remove(long key) {
+			int slot = getSlot(key);
+			PointBuffer buffer = buffers[slot];
+			if (keys[slot] == NO_TILE) return null;
+			// Moves back the following entries of the cluster which would not be found past the hole
+			int mask = keys.length - 1;
+			int hole = slot;
+			for (int next = (slot + 1) & mask; keys[next] != NO_TILE; next = (next + 1) & mask) {
+				int home = getHome(keys[next]);
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					keys[hole] = keys[next];
+					buffers[hole] = buffers[next];
+					hole = next;
+				}
+			}
+			keys[hole] = NO_TILE;
+			buffers[hole] = null;
+			size--;
+			return buffer;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			PointBuffer[] oldBuffers = buffers;
+			keys = newKeys(oldKeys.length * 2);
+			buffers = new PointBuffer[oldKeys.length * 2];
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] != NO_TILE) {
+					int newSlot = getSlot(oldKeys[slot]);
+					keys[newSlot] = oldKeys[slot];
+					buffers[newSlot] = oldBuffers[slot];
+				}
+			}
+		}
+
+		// Slot of the key, or the empty slot where it must be inserted
+		private int getSlot(long key) {
+			int mask = keys.length - 1;
+			int slot = getHome(key);
+			while (keys[slot] != NO_TILE && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private int getHome(long key) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash >>> 32) & (keys.length - 1);
+		}
+
+		private static long[] newKeys(int capacity) {
+			long[] keys = new long[capacity];
+			Arrays.fill(keys, NO_TILE);
+			return keys;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.example.gtimelinetracker.track;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the fixes returned by {@link TrackReader#query}. The fields of the current fix are read
+ * directly from the mapped segment, nothing is allocated while iterating:
+ * <pre>
+ * TrackCursor cursor = reader.query(from, to);
+ * while (cursor.next()) {
+ *     draw(cursor.getLatitude(), cursor.getLongitude());
+ * }
+ * </pre>
+ */
+public final class TrackCursor {
+	private final TrackReader.Segment[] segments;
+	private final long from;
+	private final long to;
+
+	private int segmentIndex = -1;
+	private ByteBuffer buffer;
+	private int record = 0;
+	private int end = 0;
+	private int offset = -1;
+
+	TrackCursor(TrackReader.Segment[] segments, long from, long to) {
+		this.segments = segments;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Moves to the next fix.
+	 *
+	 * @return false when all the fixes of the range were read
+	 */
+	public boolean next() {
+		while (record >= end) {
+			if (++segmentIndex >= segments.length) {
+				offset = -1;
+				return false;
+			}
+			TrackReader.Segment segment = segments[segmentIndex];
+			buffer = segment.buffer;
+			record = segment.find(from);
+			end = segment.count;
+		}
+		offset = record * TrackStore.RECORD_SIZE;
+		if (buffer.getLong(offset + TrackStore.TIME_OFFSET) >= to) {
+			// Past the end of the range, no need to look at the following segments
+			segmentIndex = segments.length;
+			record = end;
+			offset = -1;
+			return false;
+		}
+		record++;
+		return true;
+	}
+
+	public long getTime() {
+		return buffer.getLong(offset + TrackStore.TIME_OFFSET);
+	}
+
+	public double getLatitude() {
+		return buffer.getDouble(offset + TrackStore.LATITUDE_OFFSET);
+	}
+
+	public double getLongitude() {
+		return buffer.getDouble(offset + TrackStore.LONGITUDE_OFFSET);
+	}
+
+	public float getAccuracy() {
+		return buffer.getFloat(offset + TrackStore.ACCURACY_OFFSET);
+	}
+
+	public int getActivityType() {
+		return buffer.getInt(offset + TrackStore.ACTIVITY_OFFSET);
+	}
+}
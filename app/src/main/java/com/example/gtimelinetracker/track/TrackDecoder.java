@@ -0,0 +1,145 @@
+package com.example.gtimelinetracker.track;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the fixes encoded by a {@link TrackEncoder}, in the same way as a {@link TrackCursor}.
+ * Nothing is allocated while decoding.
+ */
+public final class TrackDecoder {
+	private final ByteBuffer data;
+	private int blockEnd = 0;
+	private int count = 0;
+	// Fixes left in the current block
+	private int remaining = 0;
+
+	private long time;
+	private long delta;
+	private int latitude;
+	private int longitude;
+	private int accuracy;
+	private int activityType;
+
+	/**
+	 * @param data the encoded blocks between its position and its limit, they are not modified
+	 */
+	public TrackDecoder(ByteBuffer data) {
+		this.data = data.duplicate();
+	}
+
+	/**
+	 * Moves to the next fix.
+	 *
+	 * @return false when all the fixes were read
+	 */
+	public boolean next() {
+		if (remaining == 0) {
+			if (!data.hasRemaining()) return false;
+			startBlock();
+		}
+		long nextDelta = delta + readLong();
+		time += nextDelta;
+		latitude += readInt();
+		longitude += readInt();
+		accuracy += readInt();
+		activityType += readInt();
+		// The first time of a block is absolute
+		delta = remaining == count ? 0 : nextDelta;
+		remaining--;
+		return true;
+	}
+
+	/**
+	 * Skips the blocks that end before the given time. The following fixes may still start up to a
+	 * block before it.
+	 */
+	public void skipTo(long time) {
+		if (remaining > 0) {
+			if (peekFirstTime(blockEnd) > time) return;
+			data.position(blockEnd);
+			remaining = 0;
+		}
+		while (data.hasRemaining()) {
+			int start = data.position();
+			int end = readVarint() + data.position();
+			if (peekFirstTime(end) > time) {
+				data.position(start);
+				return;
+			}
+			data.position(end);
+		}
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return latitude / TrackEncoder.COORDINATE_SCALE;
+	}
+
+	public double getLongitude() {
+		return longitude / TrackEncoder.COORDINATE_SCALE;
+	}
+
+	public float getAccuracy() {
+		return accuracy / TrackEncoder.ACCURACY_SCALE;
+	}
+
+	public int getActivityType() {
+		return activityType;
+	}
+
+	private void startBlock() {
+		blockEnd = readVarint() + data.position();
+		count = readVarint();
+		remaining = count;
+		time = 0;
+		delta = 0;
+		latitude = 0;
+		longitude = 0;
+		accuracy = 0;
+		activityType = 0;
+	}
+
+	// Long.MAX_VALUE when there is no block there
+	private long peekFirstTime(int blockStart) {
+		if (blockStart >= data.limit()) return Long.MAX_VALUE;
+		int position = data.position();
+		data.position(blockStart);
+		readVarint();
+		readVarint();
+		long firstTime = readLong();
+		data.position(position);
+		return firstTime;
+	}
+
+	private int readInt() {
+		int zigzag = readVarint();
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private long readLong() {
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private int readVarint() {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
@@ -0,0 +1,151 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compact encoding of a sequence of fixes, about 7 bytes per fix instead of the 32 bytes of a
+ * {@link TrackStore} record.
+ * <p>
+ * Coordinates are quantized to {@code 1 / COORDINATE_SCALE} degree (about 1 cm) and accuracies to
+ * {@code 1 / ACCURACY_SCALE} meter, times are kept to the millisecond. Fixes are grouped in blocks
+ * that can be decoded independently:
+ * <pre>
+ * block  = varint(length of the rest of the block) varint(fix count) fix...
+ * fix    = zigzag(time delta of delta) zigzag(latitude delta) zigzag(longitude delta)
+ *          zigzag(accuracy delta) zigzag(activity delta)
+ * </pre>
+ * All the deltas start from 0 at the beginning of a block, so the first varint of a block is its
+ * first time. Time deltas of deltas are 0 when the fixes are regularly spaced, the other deltas are
+ * small when consecutive fixes are close.
+ */
+public class TrackEncoder {
+	public static final double COORDINATE_SCALE = 1e7;
+	public static final float ACCURACY_SCALE = 10;
+	public static final int DEFAULT_BLOCK_SIZE = 256;
+	// Varint sizes of a long and 4 ints
+	private static final int MAX_FIX_BYTES = 10 + 4 * 5;
+	private static final int MAX_HEADER_BYTES = 2 * 5;
+
+	private final OutputStream out;
+	private final int blockSize;
+	private final byte[] header = new byte[MAX_HEADER_BYTES];
+	private final byte[] block;
+	private int blockLength = 0;
+	private int count = 0;
+	private long encodedSize = 0;
+
+	private long previousTime;
+	private long previousDelta;
+	private int previousLatitude;
+	private int previousLongitude;
+	private int previousAccuracy;
+	private int previousActivity;
+
+	public TrackEncoder(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param blockSize maximum number of fixes per block, smaller blocks give a finer random access
+	 *                  at the cost of a few more bytes
+	 */
+	public TrackEncoder(OutputStream out, int blockSize) {
+		this.out = out;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize * MAX_FIX_BYTES];
+	}
+
+	public void write(long time, double latitude, double longitude, float accuracy, int activityType) throws IOException {
+		int latitudeValue = (int) Math.round(latitude * COORDINATE_SCALE);
+		int longitudeValue = (int) Math.round(longitude * COORDINATE_SCALE);
+		int accuracyValue = Math.round(accuracy * ACCURACY_SCALE);
+		long delta = time - previousTime;
+		writeLong(delta - previousDelta);
+		writeInt(latitudeValue - previousLatitude);
+		writeInt(longitudeValue - previousLongitude);
+		writeInt(accuracyValue - previousAccuracy);
+		writeInt(activityType - previousActivity);
+		// The first time is absolute, the delta of delta starts with the second one
+		previousDelta = count == 0 ? 0 : delta;
+		previousTime = time;
+		previousLatitude = latitudeValue;
+		previousLongitude = longitudeValue;
+		previousAccuracy = accuracyValue;
+		previousActivity = activityType;
+		if (++count == blockSize) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Encodes all the remaining fixes of a cursor.
+	 *
+	 * @return the number of encoded fixes
+	 */
+	public int write(TrackCursor cursor) throws IOException {
+		int written = 0;
+		while (cursor.next()) {
+			write(cursor.getTime(), cursor.getLatitude(), cursor.getLongitude(), cursor.getAccuracy(), cursor.getActivityType());
+			written++;
+		}
+		return written;
+	}
+
+	/**
+	 * Writes the pending fixes as a last, possibly shorter, block. The output stream is neither
+	 * flushed nor closed.
+	 */
+	public void finish() throws IOException {
+		if (count > 0) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to the output stream so far
+	 */
+	public long getEncodedSize() {
+		return encodedSize;
+	}
+
+	private void writeBlock() throws IOException {
+		int countLength = putVarint(header, 0, count);
+		int headerLength = putVarint(header, countLength, countLength + blockLength);
+		// The length comes first, it was put after the count to be computed
+		out.write(header, countLength, headerLength - countLength);
+		out.write(header, 0, countLength);
+		out.write(block, 0, blockLength);
+		encodedSize += headerLength + blockLength;
+		blockLength = 0;
+		count = 0;
+		previousTime = 0;
+		previousDelta = 0;
+		previousLatitude = 0;
+		previousLongitude = 0;
+		previousAccuracy = 0;
+		previousActivity = 0;
+	}
+
+	private void writeInt(int value) {
+		blockLength = putVarint(block, blockLength, (value << 1) ^ (value >> 31));
+	}
+
+	private void writeLong(long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			block[blockLength++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		block[blockLength++] = (byte) zigzag;
+	}
+
+	private static int putVarint(byte[] buffer, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+}
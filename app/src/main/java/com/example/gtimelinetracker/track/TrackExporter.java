@@ -0,0 +1,201 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams stored fixes to a text format, one segment per activity.
+ * <p>
+ * The fixes are written as they are read from the cursor through a fixed size character buffer and
+ * the numbers are formatted by hand, so the memory used does not depend on the length of the track
+ * and nothing is allocated per fix.
+ * <p>
+ * A new segment starts when the activity changes, either according to the transition log or to the
+ * activity recorded with the fixes, when the fixes are more than {@link #MAX_GAP} apart, and after a
+ * {@link TrackStore#GAP_MARKER}, which is not exported.
+ */
+public abstract class TrackExporter {
+	public static final long MAX_GAP = TimeUnit.MINUTES.toMillis(5);
+	private static final int BUFFER_SIZE = 8192;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+	private final Writer out;
+	private final String[] activityNames;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int length = 0;
+	// Digits of a long, in reverse order
+	private final char[] digits = new char[20];
+
+	/**
+	 * @param activityNames names of the activity types, the types without a name are written as numbers
+	 */
+	protected TrackExporter(Writer out, String[] activityNames) {
+		this.out = out;
+		this.activityNames = activityNames;
+	}
+
+	/**
+	 * Writes a whole document. The writer is flushed but not closed.
+	 *
+	 * @param transitions activity transitions to split the fixes with, in time order
+	 * @return the number of exported fixes
+	 */
+	public long export(TrackCursor fixes, TransitionLog.Cursor transitions) throws IOException {
+		writeHeader();
+		boolean hasTransition = transitions.next();
+		int transitionActivity = -1;
+		int segmentActivity = -1;
+		long previousTime = 0;
+		long count = 0;
+		boolean gap = false;
+		while (fixes.next()) {
+			long time = fixes.getTime();
+			if (fixes.getActivityType() == TrackStore.GAP_MARKER) {
+				gap = true;
+				continue;
+			}
+			while (hasTransition && transitions.getTime() <= time) {
+				if (transitions.getTransitionType() == TransitionLog.TRANSITION_ENTER) {
+					transitionActivity = transitions.getActivityType();
+				} else if (transitions.getActivityType() == transitionActivity) {
+					transitionActivity = -1;
+				}
+				hasTransition = transitions.next();
+			}
+			int activity = transitionActivity != -1 ? transitionActivity : fixes.getActivityType();
+			if (count == 0 || gap || activity != segmentActivity || time - previousTime > MAX_GAP) {
+				if (count > 0) writeSegmentEnd(previousTime);
+				writeSegmentStart(activity, time);
+				segmentActivity = activity;
+				gap = false;
+			}
+			writeFix(time, fixes.getLatitude(), fixes.getLongitude(), fixes.getAccuracy());
+			previousTime = time;
+			count++;
+		}
+		if (count > 0) writeSegmentEnd(previousTime);
+		writeFooter();
+		flushBuffer();
+		out.flush();
+		return count;
+	}
+
+	protected abstract void writeHeader() throws IOException;
+
+	protected abstract void writeSegmentStart(int activityType, long time) throws IOException;
+
+	protected abstract void writeFix(long time, double latitude, double longitude, float accuracy) throws IOException;
+
+	protected abstract void writeSegmentEnd(long time) throws IOException;
+
+	protected abstract void writeFooter() throws IOException;
+
+	protected final void append(String text) throws IOException {
+		int textLength = text.length();
+		if (textLength > BUFFER_SIZE) {
+			flushBuffer();
+			out.write(text);
+			return;
+		}
+		reserve(textLength);
+		text.getChars(0, textLength, buffer, length);
+		length += textLength;
+	}
+
+	protected final void append(char c) throws IOException {
+		reserve(1);
+		buffer[length++] = c;
+	}
+
+	protected final void appendLong(long value) throws IOException {
+		reserve(digits.length + 1);
+		if (value < 0) {
+			buffer[length++] = '-';
+		}
+		int count = 0;
+		do {
+			digits[count++] = (char) ('0' + Math.abs(value % 10));
+			value /= 10;
+		} while (value != 0);
+		while (count > 0) {
+			buffer[length++] = digits[--count];
+		}
+	}
+
+	/**
+	 * Appends a number rounded to the given number of decimals, at most 8.
+	 */
+	protected final void appendDecimal(double value, int decimals) throws IOException {
+		long power = POWERS_OF_TEN[decimals];
+		long scaled = Math.round(Math.abs(value) * power);
+		if (value < 0 && scaled != 0) {
+			append('-');
+		}
+		appendLong(scaled / power);
+		if (decimals > 0) {
+			append('.');
+			appendPadded(scaled % power, decimals);
+		}
+	}
+
+	/**
+	 * Appends a UTC time in the ISO 8601 format, as in 2020-03-01T12:34:56.789Z.
+	 */
+	protected final void appendTime(long time) throws IOException {
+		long days = Math.floorDiv(time, DAY_MILLIS);
+		long millis = time - days * DAY_MILLIS;
+		// Civil date of a day number, see http://howardhinnant.github.io/date_algorithms.html
+		long shifted = days + 719468;
+		long era = Math.floorDiv(shifted, 146097);
+		long dayOfEra = shifted - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		appendPadded(year, 4);
+		append('-');
+		appendPadded(month, 2);
+		append('-');
+		appendPadded(day, 2);
+		append('T');
+		appendPadded(millis / 3600000, 2);
+		append(':');
+		appendPadded(millis / 60000 % 60, 2);
+		append(':');
+		appendPadded(millis / 1000 % 60, 2);
+		append('.');
+		appendPadded(millis % 1000, 3);
+		append('Z');
+	}
+
+	protected final void appendActivity(int activityType) throws IOException {
+		if (activityType >= 0 && activityType < activityNames.length && activityNames[activityType] != null) {
+			append(activityNames[activityType]);
+		} else {
+			appendLong(activityType);
+		}
+	}
+
+	// Positive value with leading zeros
+	private void appendPadded(long value, int width) throws IOException {
+		for (long power = POWERS_OF_TEN[width - 1]; power > 1 && value < power; power /= 10) {
+			append('0');
+		}
+		appendLong(value);
+	}
+
+	private void reserve(int count) throws IOException {
+		if (length + count > BUFFER_SIZE) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, length);
+		length = 0;
+	}
+}
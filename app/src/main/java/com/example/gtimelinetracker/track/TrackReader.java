@@ -0,0 +1,177 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read path over the segment files written by {@link TrackStore}.
+ * <p>
+ * Segments are memory mapped and indexed with one time entry every {@link #INDEX_INTERVAL}
+ * records, so that a time range query only binary searches the index and then a single block of
+ * records before streaming the fixes through a {@link TrackCursor}. Mappings and indexes are kept
+ * between queries and only extended when a segment has grown.
+ * <p>
+ * Not thread safe, the cursors it returns share its mappings and must be used by the same thread.
+ */
+public class TrackReader {
+	// 17 minutes of fixes at 1 Hz, the index of a whole day fits in 100 longs
+	static final int INDEX_INTERVAL = 1024;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final Segment[] NO_SEGMENTS = new Segment[0];
+	private static final FileFilter SEGMENT_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			String name = file.getName();
+			return name.startsWith(TrackStore.SEGMENT_PREFIX) && name.endsWith(TrackStore.SEGMENT_SUFFIX);
+		}
+	};
+	private static final Comparator<Segment> SEGMENT_ORDER = new Comparator<Segment>() {
+		@Override
+		public int compare(Segment a, Segment b) {
+			return Long.compare(a.day, b.day);
+		}
+	};
+
+	private final File directory;
+	private final TimeZone timeZone = TimeZone.getDefault();
+	private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.US);
+	private final Map<String, Segment> segments = new HashMap<>();
+
+	public TrackReader(File directory) {
+		this.directory = directory;
+		dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * @return a cursor over the stored fixes such that {@code from <= time < to}, in time order
+	 */
+	public TrackCursor query(long from, long to) throws IOException {
+		if (from >= to) return new TrackCursor(NO_SEGMENTS, from, to);
+		// Segments are split at local midnight, allow for a change of time zone since they were written
+		long firstDay = getDay(from) - 1;
+		long lastDay = getDay(to) + 1;
+		List<Segment> selected = new ArrayList<>();
+		File[] files = directory.listFiles(SEGMENT_FILTER);
+		if (files != null) {
+			for (File file : files) {
+				Segment segment = getSegment(file);
+				if (segment != null && segment.day >= firstDay && segment.day <= lastDay) {
+					segment.update();
+					if (segment.count > 0 && segment.getTime(0) < to && segment.getTime(segment.count - 1) >= from) {
+						selected.add(segment);
+					}
+				}
+			}
+		}
+		Segment[] result = selected.toArray(new Segment[0]);
+		Arrays.sort(result, SEGMENT_ORDER);
+		return new TrackCursor(result, from, to);
+	}
+
+	private Segment getSegment(File file) {
+		String name = file.getName();
+		Segment segment = segments.get(name);
+		if (segment == null) {
+			String date = name.substring(TrackStore.SEGMENT_PREFIX.length(), name.length() - TrackStore.SEGMENT_SUFFIX.length());
+			try {
+				segment = new Segment(file, dayFormat.parse(date).getTime() / DAY_MILLIS);
+			} catch (ParseException e) {
+				return null;
+			}
+			segments.put(name, segment);
+		}
+		return segment;
+	}
+
+	private long getDay(long time) {
+		return (time + timeZone.getOffset(time)) / DAY_MILLIS;
+	}
+
+	/**
+	 * A mapped segment file and its sparse time index.
+	 */
+	static final class Segment {
+		final File file;
+		// Local day number of the fixes
+		final long day;
+		ByteBuffer buffer;
+		int count = 0;
+		// Time of every INDEX_INTERVAL-th record
+		long[] index = new long[0];
+
+		Segment(File file, long day) {
+			this.file = file;
+			this.day = day;
+		}
+
+		/**
+		 * Remaps the segment if records were appended since it was mapped.
+		 */
+		void update() throws IOException {
+			// Ignore a partial record being written
+			long size = file.length() / TrackStore.RECORD_SIZE * TrackStore.RECORD_SIZE;
+			if (size == (long) count * TrackStore.RECORD_SIZE) return;
+			if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+			try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+				// The mapping stays valid after the channel is closed
+				buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size).order(TrackStore.BYTE_ORDER);
+			}
+			int newCount = (int) (size / TrackStore.RECORD_SIZE);
+			int entries = (newCount + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			int first = newCount < count ? 0 : index.length;
+			index = Arrays.copyOf(index, entries);
+			for (int i = first; i < entries; i++) {
+				index[i] = getTime(i * INDEX_INTERVAL);
+			}
+			count = newCount;
+		}
+
+		long getTime(int record) {
+			return buffer.getLong(record * TrackStore.RECORD_SIZE + TrackStore.TIME_OFFSET);
+		}
+
+		/**
+		 * @return the first record such that {@code time <= getTime(record)}, {@link #count} if none
+		 */
+		int find(long time) {
+			// Last block starting before the time, the record is in it or starts the next one
+			int low = 0;
+			int high = index.length - 1;
+			if (high < 0 || index[0] >= time) return 0;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (index[middle] < time) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			int start = low * INDEX_INTERVAL;
+			int end = Math.min(count, start + INDEX_INTERVAL);
+			while (start < end) {
+				int middle = (start + end) >>> 1;
+				if (getTime(middle) < time) {
+					start = middle + 1;
+				} else {
+					end = middle;
+				}
+			}
+			return start;
+		}
+	}
+}
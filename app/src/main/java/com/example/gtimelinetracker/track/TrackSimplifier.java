@@ -0,0 +1,159 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Streaming track simplification: only forwards the fixes needed to rebuild the track, as a
+ * polyline, within a given tolerance.
+ * <p>
+ * Starting from the last forwarded fix (the anchor), every following fix {@code Q} constrains the
+ * direction of the next segment to a sector of half-angle {@code asin(tolerance / |AQ|)} around
+ * {@code AQ}. A fix is dropped as long as the direction of the next one lies in the intersection of
+ * the sectors, otherwise it becomes the new anchor. This only requires constant state and work per
+ * fix, and every dropped fix is within the tolerance of the forwarded polyline. A
+ * {@link TrackStore#GAP_MARKER} is forwarded right after the last fix, and the next fix starts over.
+ */
+public class TrackSimplifier implements FixSink {
+	private final FixSink downstream;
+	private final double tolerance;
+	private final long maxInterval;
+
+	private boolean hasAnchor = false;
+	private long anchorTime;
+	private double anchorLatitude;
+	private double anchorLongitude;
+	// Meters per degree of longitude at the anchor latitude
+	private double anchorLongitudeScale;
+
+	private boolean hasLast = false;
+	private long lastTime;
+	private double lastLatitude;
+	private double lastLongitude;
+	private float lastAccuracy;
+	private int lastActivityType;
+
+	// Allowed directions, relative to sectorReference, when sectorOpen is false
+	private boolean sectorOpen = true;
+	private double sectorReference;
+	private double sectorMin;
+	private double sectorMax;
+	private double maxDistance;
+
+	private long inputCount = 0;
+	private long outputCount = 0;
+
+	/**
+	 * @param tolerance   maximum distance in meters between a dropped fix and the simplified track
+	 * @param maxInterval maximum time in milliseconds between two forwarded fixes
+	 */
+	public TrackSimplifier(FixSink downstream, double tolerance, long maxInterval) {
+		this.downstream = downstream;
+		this.tolerance = tolerance;
+		this.maxInterval = maxInterval;
+	}
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		if (activityType == TrackStore.GAP_MARKER) {
+			// The fixes after the gap are not simplified against the ones before
+			if (hasLast) {
+				forwardLast();
+			}
+			hasAnchor = false;
+			downstream.onFix(time, latitude, longitude, accuracy, activityType);
+			return;
+		}
+		inputCount++;
+		if (!hasAnchor) {
+			forward(time, latitude, longitude, accuracy, activityType);
+			return;
+		}
+		if (hasLast && (activityType != lastActivityType || time - anchorTime > maxInterval)) {
+			forwardLast();
+		}
+		double x = (longitude - anchorLongitude) * anchorLongitudeScale;
+		double y = (latitude - anchorLatitude) * Geo.METERS_PER_DEGREE;
+		double distance = Math.sqrt(x * x + y * y);
+		double angle = Math.atan2(y, x);
+		if (!sectorOpen && !isInSector(angle, distance)) {
+			forwardLast();
+			x = (longitude - anchorLongitude) * anchorLongitudeScale;
+			y = (latitude - anchorLatitude) * Geo.METERS_PER_DEGREE;
+			distance = Math.sqrt(x * x + y * y);
+			angle = Math.atan2(y, x);
+		}
+		// Fixes closer than the tolerance to the anchor do not constrain the direction
+		if (distance > tolerance) {
+			narrowSector(angle, distance);
+		}
+		setLast(time, latitude, longitude, accuracy, activityType);
+	}
+
+	@Override
+	public void flush() {
+		if (hasLast) {
+			forwardLast();
+		}
+		downstream.flush();
+	}
+
+	public long getInputCount() {
+		return inputCount;
+	}
+
+	public long getOutputCount() {
+		return outputCount;
+	}
+
+	private boolean isInSector(double angle, double distance) {
+		double relative = normalize(angle - sectorReference);
+		// Going back towards the anchor would leave the farthest fixes beyond the end of the segment
+		return relative >= sectorMin && relative <= sectorMax && distance >= maxDistance;
+	}
+
+	private void narrowSector(double angle, double distance) {
+		double halfAngle = Math.asin(tolerance / distance);
+		if (sectorOpen) {
+			sectorOpen = false;
+			sectorReference = angle;
+			sectorMin = -halfAngle;
+			sectorMax = halfAngle;
+		} else {
+			double relative = normalize(angle - sectorReference);
+			sectorMin = Math.max(sectorMin, relative - halfAngle);
+			sectorMax = Math.min(sectorMax, relative + halfAngle);
+		}
+		maxDistance = Math.max(maxDistance, distance);
+	}
+
+	private void forwardLast() {
+		hasLast = false;
+		forward(lastTime, lastLatitude, lastLongitude, lastAccuracy, lastActivityType);
+	}
+
+	private void forward(long time, double latitude, double longitude, float accuracy, int activityType) {
+		hasAnchor = true;
+		anchorTime = time;
+		anchorLatitude = latitude;
+		anchorLongitude = longitude;
+		anchorLongitudeScale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+		lastActivityType = activityType;
+		sectorOpen = true;
+		maxDistance = 0;
+		outputCount++;
+		downstream.onFix(time, latitude, longitude, accuracy, activityType);
+	}
+
+	private void setLast(long time, double latitude, double longitude, float accuracy, int activityType) {
+		hasLast = true;
+		lastTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastAccuracy = accuracy;
+		lastActivityType = activityType;
+	}
+
+	private static double normalize(double angle) {
+		if (angle > Math.PI) return angle - 2 * Math.PI;
+		if (angle <= -Math.PI) return angle + 2 * Math.PI;
+		return angle;
+	}
+}
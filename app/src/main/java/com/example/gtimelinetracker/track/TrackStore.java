@@ -0,0 +1,313 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Append-only log of location fixes stored as fixed-width binary records, one segment file per day.
+ * <p>
+ * {@link #onFix} only copies the fix into a memory-mapped {@link WriteAheadLog}, the disk writes
+ * happen on a dedicated writer thread so that the caller (the tracker looper) is never blocked by
+ * I/O. The fixes of the log which did not reach their segment when the process was killed are
+ * written when the store is created again.
+ * <p>
+ * A record whose activity type is {@link #GAP_MARKER} is not a fix but marks a gap: no fix could be
+ * obtained from its time to the next record, which must not be joined to the previous one. It holds
+ * the position and accuracy of the last fix before the gap.
+ */
+public class TrackStore implements FixSink, Closeable {
+	public static final int RECORD_SIZE = 32;
+	public static final int TIME_OFFSET = 0;
+	public static final int LATITUDE_OFFSET = 8;
+	public static final int LONGITUDE_OFFSET = 16;
+	public static final int ACCURACY_OFFSET = 24;
+	public static final int ACTIVITY_OFFSET = 28;
+	public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	public static final int GAP_MARKER = -2;
+
+	static final String SEGMENT_PREFIX = "track-";
+	static final String SEGMENT_SUFFIX = ".bin";
+	static final String LOG_FILE = "pending.wal";
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	// 2 minutes of fixes at 2 Hz are written at once
+	private static final int BUFFER_RECORDS = 256;
+	// 30 minutes of fixes at 2 Hz can wait for the writer
+	private static final int LOG_CAPACITY = 16 * BUFFER_RECORDS;
+
+	private final File directory;
+	private final TimeZone timeZone = TimeZone.getDefault();
+	private final ExecutorService writer = Executors.newSingleThreadExecutor();
+	private static final Runnable NO_TASK = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			writePending();
+		}
+	};
+
+	// Guards the sequences of log, flushScheduled, closed and dropped
+	private final Object lock = new Object();
+	private final WriteAheadLog log;
+	private boolean flushScheduled = false;
+	private boolean closed = false;
+	private long dropped = 0;
+
+	// Only accessed by the writer thread
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(BYTE_ORDER);
+	private final ByteBuffer timeBuffer = ByteBuffer.allocate(8).order(BYTE_ORDER);
+	// Fixes before this one were recovered from a previous process, some may already be in their segment
+	private final long recoveredEnd;
+	private FileChannel channel;
+	private long channelDay = -1;
+	private long channelLastTime = Long.MIN_VALUE;
+
+	public TrackStore(File directory) {
+		this.directory = directory;
+		this.log = openLog(directory);
+		synchronized (lock) {
+			recoveredEnd = log.getEnd();
+			if (recoveredEnd > log.getStart()) {
+				scheduleFlush();
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Queues a fix for writing. Does not allocate and does not perform any I/O.
+	 */
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		synchronized (lock) {
+			if (closed) return;
+			if (log.getEnd() - log.getStart() >= log.getCapacity()) {
+				// The writer thread is late, better lose a fix than block the caller
+				dropped++;
+				return;
+			}
+			log.append(time, latitude, longitude, accuracy, activityType);
+			if (log.getEnd() - log.getStart() >= BUFFER_RECORDS) {
+				scheduleFlush();
+			}
+		}
+	}
+
+	/**
+	 * Asynchronously writes the queued fixes to disk.
+	 */
+	@Override
+	public void flush() {
+		synchronized (lock) {
+			if (!closed && log.getEnd() > log.getStart()) {
+				scheduleFlush();
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued fixes, and waits until they can be read.
+	 *
+	 * @return false when the timeout elapsed first, or when the store is closed
+	 */
+	public boolean awaitFlushed(long timeout) throws InterruptedException {
+		Future<?> written;
+		synchronized (lock) {
+			if (closed) return false;
+			if (log.getEnd() > log.getStart()) {
+				scheduleFlush();
+			}
+			// The writer thread runs its tasks in order
+			written = writer.submit(NO_TASK);
+		}
+		try {
+			written.get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (ExecutionException | TimeoutException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Passes the last fix given to the store, possibly by a previous process, to {@code sink}.
+	 *
+	 * @return false when there is none
+	 */
+	public boolean readLastFix(FixSink sink) {
+		synchronized (lock) {
+			return log.readLast(sink);
+		}
+	}
+
+	public long getDroppedCount() {
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Writes the queued fixes and releases the writer thread. The store can not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) return;
+			if (log.getEnd() > log.getStart()) {
+				scheduleFlush();
+			}
+			closed = true;
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					closeChannel();
+				}
+			});
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for the writes queued before {@link #close} to complete.
+	 *
+	 * @return false when the timeout elapsed first
+	 */
+	boolean awaitClosed(long timeout) throws InterruptedException {
+		return writer.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public static File getSegmentFile(File directory, long dayStart) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return new File(directory, SEGMENT_PREFIX + format.format(new Date(dayStart)) + SEGMENT_SUFFIX);
+	}
+
+	private void scheduleFlush() {
+		if (!flushScheduled) {
+			flushScheduled = true;
+			writer.execute(flushTask);
+		}
+	}
+
+	private void writePending() {
+		long start;
+		long end;
+		synchronized (lock) {
+			start = log.getStart();
+			end = log.getEnd();
+			flushScheduled = false;
+		}
+		try {
+			while (start < end) {
+				int count = (int) Math.min(end - start, BUFFER_RECORDS);
+				writeBuffer.clear();
+				for (int i = 0; i < count; i++) {
+					log.read(start + i, writeBuffer);
+				}
+				writeBuffer.flip();
+				writeRecords(writeBuffer, start < recoveredEnd);
+				start += count;
+				// Until now, a kill would write the fixes again from the log
+				synchronized (lock) {
+					log.release(start);
+				}
+			}
+		} catch (IOException e) {
+			// The fixes stay in the log until the next flush
+			closeChannel();
+		}
+	}
+
+	private void writeRecords(ByteBuffer buffer, boolean recovered) throws IOException {
+		while (buffer.hasRemaining()) {
+			int start = buffer.position();
+			long day = getDay(buffer.getLong(start + TIME_OFFSET));
+			FileChannel segment = openSegment(day);
+			if (recovered && buffer.getLong(start + TIME_OFFSET) <= channelLastTime) {
+				// Already written before the kill
+				buffer.position(start + RECORD_SIZE);
+				continue;
+			}
+			// Records of the same day are written in one go
+			int end = start + RECORD_SIZE;
+			while (end < buffer.limit() && getDay(buffer.getLong(end + TIME_OFFSET)) == day) {
+				end += RECORD_SIZE;
+			}
+			channelLastTime = buffer.getLong(end - RECORD_SIZE + TIME_OFFSET);
+			int limit = buffer.limit();
+			buffer.limit(end);
+			while (buffer.hasRemaining()) {
+				segment.write(buffer);
+			}
+			buffer.limit(limit);
+		}
+	}
+
+	private FileChannel openSegment(long day) throws IOException {
+		if (channel == null || day != channelDay) {
+			closeChannel();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Can not create " + directory);
+			}
+			FileChannel segment = new RandomAccessFile(getSegmentFile(directory, day * DAY_MILLIS), "rw").getChannel();
+			// Drop a partial record left by a previous crash
+			long size = segment.size() - segment.size() % RECORD_SIZE;
+			segment.truncate(size);
+			segment.position(size);
+			channelLastTime = Long.MIN_VALUE;
+			if (size > 0) {
+				timeBuffer.clear();
+				segment.read(timeBuffer, size - RECORD_SIZE + TIME_OFFSET);
+				channelLastTime = timeBuffer.getLong(0);
+			}
+			channel = segment;
+			channelDay = day;
+		}
+		return channel;
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			channel = null;
+			channelDay = -1;
+		}
+	}
+
+	// Local day number, used to rotate segments at local midnight
+	private long getDay(long time) {
+		return (time + timeZone.getOffset(time)) / DAY_MILLIS;
+	}
+
+	// Falls back to a log in memory, which does not survive the process, when the file can not be mapped
+	private static WriteAheadLog openLog(File directory) {
+		try {
+			return WriteAheadLog.open(new File(directory, LOG_FILE), LOG_CAPACITY);
+		} catch (IOException e) {
+			return new WriteAheadLog(ByteBuffer.allocateDirect(WriteAheadLog.getSize(LOG_CAPACITY)), LOG_CAPACITY);
+		}
+	}
+}
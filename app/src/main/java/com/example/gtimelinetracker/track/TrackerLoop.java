@@ -0,0 +1,209 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Messages of the tracker thread, which owns the {@link TrackingCore} for the whole life of the
+ * service: starts, reconfigurations and stops are handled in place on this single thread, so that
+ * no thread is created per transition.
+ * <p>
+ * The platform provides the message queue of the thread, see {@link Queue}, and what surrounds the
+ * core, see {@link Platform}, so that the loop also runs on a plain thread in the tests. The
+ * methods sending messages can be called from any thread, the others only from the tracker thread.
+ */
+public class TrackerLoop {
+	public static final int START_MESSAGE = 1;
+	public static final int STOP_MESSAGE = 2;
+	public static final int PLACE_EXIT_MESSAGE = 3;
+	public static final int DUMP_METRICS_MESSAGE = 4;
+	public static final int SET_ENERGY_BUDGET_MESSAGE = 5;
+	public static final int BATTERY_UPDATE_MESSAGE = 6;
+	public static final int POLL_MESSAGE = 7;
+	public static final int QUIT_MESSAGE = 8;
+	// Period of the battery measurements, which calibrate the energy model and update the plan
+	static final long BATTERY_UPDATE_INTERVAL = 5 * 60000;
+	static final long METRICS_DUMP_INTERVAL = 15 * 60000;
+
+	/**
+	 * Message queue of the tracker thread, a handler on a device.
+	 */
+	public interface Queue {
+		/**
+		 * Sends a message, handled after the ones already due.
+		 */
+		void send(int what, int arg, Object obj);
+
+		void sendDelayed(int what, long delay);
+
+		/**
+		 * Removes the pending messages of this kind.
+		 */
+		void remove(int what);
+
+		/**
+		 * Terminates the thread once the messages already due are handled, the delayed ones are dropped.
+		 */
+		void quit();
+	}
+
+	/**
+	 * Called on the tracker thread around the core.
+	 */
+	public interface Platform {
+		/**
+		 * Called before the core starts tracking, not when it switches to another activity.
+		 */
+		void onTrackingStart();
+
+		/**
+		 * Called before the core stops tracking.
+		 */
+		void onTrackingStop();
+
+		/**
+		 * Called once the core stopped tracking, to save what it learned.
+		 */
+		void onTrackingStopped();
+
+		/**
+		 * Measures the battery, before the plan is updated.
+		 */
+		void updateBattery();
+
+		void dumpMetrics();
+
+		/**
+		 * Called once on quit, after tracking stopped, to close the sinks of the core.
+		 */
+		void close();
+	}
+
+	private final Clock clock;
+	private final TrackingCore core;
+	private final Queue queue;
+	private final Platform platform;
+	// Only accessed by the tracker thread
+	private boolean quit = false;
+
+	public TrackerLoop(Clock clock, TrackingCore core, Queue queue, Platform platform) {
+		this.clock = clock;
+		this.core = core;
+		this.queue = queue;
+		this.platform = platform;
+		queue.sendDelayed(DUMP_METRICS_MESSAGE, METRICS_DUMP_INTERVAL);
+	}
+
+	public TrackingCore getCore() {
+		return core;
+	}
+
+	/**
+	 * Starts tracking the activity, or switches to it when already tracking.
+	 */
+	public void start(int activityType, ActivitySettings settings) {
+		queue.send(START_MESSAGE, activityType, settings);
+	}
+
+	public void stop() {
+		queue.send(STOP_MESSAGE, 0, null);
+	}
+
+	/**
+	 * Tells that the user left a frequent place.
+	 */
+	public void exitPlace() {
+		queue.send(PLACE_EXIT_MESSAGE, 0, null);
+	}
+
+	/**
+	 * @param budget daily charge allowed for tracking, in mAh, 0 to track without limit
+	 */
+	public void setEnergyBudget(int budget) {
+		queue.send(SET_ENERGY_BUDGET_MESSAGE, budget, null);
+	}
+
+	/**
+	 * Stops tracking, closes the sinks then terminates the thread, without waiting. The loop can not
+	 * be used afterwards.
+	 */
+	public void quit() {
+		queue.send(QUIT_MESSAGE, 0, null);
+	}
+
+	/**
+	 * Handles a message of the queue, on the tracker thread.
+	 *
+	 * @return false when the message is not one of the loop
+	 */
+	public boolean handleMessage(int what, int arg, Object obj) {
+		// Messages already due when the thread was told to quit
+		if (quit) return what >= START_MESSAGE && what <= QUIT_MESSAGE;
+		switch (what) {
+			case START_MESSAGE:
+				onStart(arg, (ActivitySettings) obj);
+				break;
+			case STOP_MESSAGE:
+				onStop();
+				break;
+			case PLACE_EXIT_MESSAGE:
+				core.exitPlace();
+				break;
+			case DUMP_METRICS_MESSAGE:
+				platform.dumpMetrics();
+				queue.sendDelayed(DUMP_METRICS_MESSAGE, METRICS_DUMP_INTERVAL);
+				break;
+			case SET_ENERGY_BUDGET_MESSAGE:
+				core.setEnergyBudget(arg);
+				break;
+			case BATTERY_UPDATE_MESSAGE:
+				platform.updateBattery();
+				core.plan();
+				queue.sendDelayed(BATTERY_UPDATE_MESSAGE, BATTERY_UPDATE_INTERVAL);
+				break;
+			case POLL_MESSAGE:
+				core.poll();
+				break;
+			case QUIT_MESSAGE:
+				onQuit();
+				break;
+			default:
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Schedules the next poll of the core, to be called by its {@link TrackingCore.Listener}.
+	 */
+	public void onDeadlineChange(long deadline) {
+		queue.remove(POLL_MESSAGE);
+		if (deadline != Long.MAX_VALUE) {
+			queue.sendDelayed(POLL_MESSAGE, Math.max(0, deadline - clock.currentTimeMillis()));
+		}
+	}
+
+	private void onStart(int activityType, ActivitySettings settings) {
+		if (!core.isStarted()) {
+			platform.onTrackingStart();
+			queue.sendDelayed(BATTERY_UPDATE_MESSAGE, BATTERY_UPDATE_INTERVAL);
+		}
+		core.start(activityType, settings);
+	}
+
+	private void onStop() {
+		if (!core.isStarted()) return;
+		queue.remove(BATTERY_UPDATE_MESSAGE);
+		platform.onTrackingStop();
+		core.stop();
+		platform.onTrackingStopped();
+	}
+
+	// The last fixes reach the sinks before they are closed, on this thread, so nobody waits for it
+	private void onQuit() {
+		onStop();
+		queue.remove(DUMP_METRICS_MESSAGE);
+		queue.remove(POLL_MESSAGE);
+		platform.dumpMetrics();
+		platform.close();
+		quit = true;
+		queue.quit();
+	}
+}
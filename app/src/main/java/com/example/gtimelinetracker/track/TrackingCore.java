@@ -0,0 +1,386 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Location tracking engine, which turns the fixes of a {@link LocationSource} into recorded
+ * fixes, trips and learned places, and adapts the location request to the activity, the places
+ * and the energy budget.
+ * <p>
+ * High accuracy requests are suspended within seconds of a stop, see {@link StopDetector}, when
+ * the accelerometer samples are given to {@link #onAcceleration}.
+ * <p>
+ * While the satellites can not be received, the high accuracy requests are backed off and probed,
+ * see {@link AvailabilitySamplingPolicy}. The core must then be polled at {@link #getDeadline}, and
+ * a {@link TrackStore#GAP_MARKER} is recorded after the last fix before the gap.
+ * <p>
+ * Until the first accurate fix of a start, fixes are requested without batching, so that the
+ * time to first fix is not lengthened by the max wait time of the activity.
+ * <p>
+ * The core depends neither on Android nor on a thread. All the methods must be called by the same
+ * thread, which is the tracker thread of the service on a device, and the thread running the
+ * replay in the tests.
+ */
+public class TrackingCore implements LocationSource.Listener {
+	// Fixes less accurate than this, in meters, are dropped
+	static final float MAX_FIX_ACCURACY = 50;
+	// Maximum delay between a fix and its processing, on top of the batching delay
+	static final long MAX_FIX_AGE = 10000;
+	// Maximum distance in meters between a dropped fix and the recorded track
+	static final double SIMPLIFICATION_TOLERANCE = 10;
+	static final long SIMPLIFICATION_MAX_INTERVAL = 60000;
+
+	public interface Listener extends TripBuilder.Listener {
+		/**
+		 * Called when the location request changes, after it has been given to the source.
+		 */
+		void onLocationRequest(SamplingProfile profile);
+
+		/**
+		 * Called when places are learned or updated, so that they can be saved.
+		 */
+		void onPlacesChange();
+
+		/**
+		 * Called once per start, when the first fix is received.
+		 *
+		 * @param delay elapsed time since the start, in milliseconds
+		 */
+		void onFirstFix(long delay);
+
+		/**
+		 * Called once per start, when the first fix accurate enough to be recorded is received,
+		 * possibly the first fix.
+		 *
+		 * @param delay elapsed time since the start, in milliseconds
+		 */
+		void onFirstAccurateFix(long delay);
+
+		/**
+		 * Called when the satellites can not be received and the high accuracy requests are backed off.
+		 */
+		void onGapStart();
+
+		/**
+		 * Called when the satellites are received again, or tracking stops, after a gap.
+		 *
+		 * @param duration  time since the start of the gap, in milliseconds
+		 * @param savedTime time without high accuracy request during the gap, in milliseconds
+		 */
+		void onGapEnd(long duration, long savedTime);
+
+		/**
+		 * Called when the time of the next call to {@link #poll} changes.
+		 *
+		 * @param deadline time in milliseconds since the epoch, {@link Long#MAX_VALUE} when there is none
+		 */
+		void onDeadlineChange(long deadline);
+	}
+
+	private final Clock clock;
+	private final LocationSource locationSource;
+	private final Listener listener;
+	private final PlaceIndex places;
+	private final PlaceLearner placeLearner;
+	private final PlaceSamplingPolicy placePolicy;
+	private final StopSamplingPolicy stopPolicy;
+	private final EnergyBudgetPlanner planner;
+	private final BudgetSamplingPolicy budgetPolicy;
+	private final AvailabilitySamplingPolicy samplingPolicy;
+	private final FixFilter fixFilter = new FixFilter();
+	// Accepted fixes are smoothed, then the ones that can be interpolated are dropped before being recorded
+	private final TrackSimplifier simplifier;
+	// Trips are built from the smoothed fixes, before the simplification shortens them
+	private final TripBuilder tripBuilder;
+	private final KalmanSmoother smoother;
+	private int activityType = -1;
+	private ActivitySettings settings = ActivitySettings.DEFAULT;
+	// Time and elapsed realtime when the current batch of fixes has been received, -1 between batches
+	private long batchTime = -1;
+	private long batchElapsedTime;
+	private boolean profileChanged = false;
+	// Elapsed realtime of the start, and whether its first fix and first accurate fix are awaited
+	private long startTime;
+	private boolean firstFixPending = false;
+	private boolean warmingUp = false;
+	// Last accepted fix of the start, the time is -1 when there is none
+	private long lastFixTime = -1;
+	private double lastLatitude;
+	private double lastLongitude;
+	private float lastAccuracy;
+	// Whether a gap is reported, and the saved time when it started
+	private boolean inGap = false;
+	private long gapSavedTime;
+	private long deadline = Long.MAX_VALUE;
+
+	/**
+	 * @param sink receives the fixes to record
+	 */
+	public TrackingCore(Clock clock, LocationSource locationSource, FixSink sink, PlaceIndex places,
+						EnergyBudgetPlanner planner, Listener listener) {
+		this.clock = clock;
+		this.locationSource = locationSource;
+		this.listener = listener;
+		this.places = places;
+		this.placeLearner = new PlaceLearner(places);
+		this.stopPolicy = new StopSamplingPolicy(new AdaptiveSamplingPolicy());
+		this.placePolicy = new PlaceSamplingPolicy(stopPolicy, places);
+		this.planner = planner;
+		this.budgetPolicy = new BudgetSamplingPolicy(placePolicy, planner);
+		// Outermost, so that the backoff only applies to the high accuracy requests which remain
+		this.samplingPolicy = new AvailabilitySamplingPolicy(budgetPolicy);
+		this.simplifier = new TrackSimplifier(sink, SIMPLIFICATION_TOLERANCE, SIMPLIFICATION_MAX_INTERVAL);
+		this.tripBuilder = new TripBuilder(simplifier, listener);
+		this.smoother = new KalmanSmoother(tripBuilder, ActivitySettings.DEFAULT.processNoise);
+	}
+
+	/**
+	 * @return the tracked activity type, -1 when stopped
+	 */
+	public int getActivityType() {
+		return activityType;
+	}
+
+	public boolean isStarted() {
+		return activityType != -1;
+	}
+
+	public PlaceIndex getPlaces() {
+		return places;
+	}
+
+	public EnergyBudgetPlanner getPlanner() {
+		return planner;
+	}
+
+	public FixFilter getFixFilter() {
+		return fixFilter;
+	}
+
+	public TrackSimplifier getSimplifier() {
+		return simplifier;
+	}
+
+	public StopDetector getStopDetector() {
+		return stopPolicy.getDetector();
+	}
+
+	public AvailabilitySamplingPolicy getAvailabilityPolicy() {
+		return samplingPolicy;
+	}
+
+	/**
+	 * @return the time of the next call to {@link #poll}, {@link Long#MAX_VALUE} when there is none
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Starts tracking the activity, or switches to it when already tracking.
+	 */
+	public void start(int activityType, ActivitySettings settings) {
+		boolean started = isStarted();
+		long now = clock.currentTimeMillis();
+		this.activityType = activityType;
+		this.settings = settings;
+		samplingPolicy.reset(settings.profile);
+		budgetPolicy.plan(now);
+		fixFilter.setLimits(MAX_FIX_ACCURACY, MAX_FIX_AGE + settings.profile.maxWaitTime, settings.maxSpeed);
+		smoother.setProcessNoise(settings.processNoise);
+		tripBuilder.onTransition(now, activityType, TransitionLog.TRANSITION_ENTER);
+		if (!started) {
+			startTime = clock.elapsedRealtime();
+			firstFixPending = true;
+			warmingUp = true;
+			lastFixTime = -1;
+		}
+		requestLocationUpdates();
+		if (!started) {
+			fixFilter.reset();
+			smoother.reset();
+		}
+	}
+
+	public void stop() {
+		if (!isStarted()) return;
+		activityType = -1;
+		firstFixPending = false;
+		warmingUp = false;
+		locationSource.removeLocationUpdates();
+		samplingPolicy.end(clock.currentTimeMillis());
+		updateGap();
+		updateDeadline();
+		planner.onProfile(clock.currentTimeMillis(), null);
+		smoother.flush();
+		// The tracker stops when the user is still
+		tripBuilder.endTrip();
+		if (placeLearner.reset()) {
+			listener.onPlacesChange();
+		}
+	}
+
+	/**
+	 * Tells that the user left a frequent place.
+	 *
+	 * @return true when the location request was suppressed by the place
+	 */
+	public boolean exitPlace() {
+		if (!isStarted() || !placePolicy.onPlaceExit()) return false;
+		plan();
+		return true;
+	}
+
+	/**
+	 * @param budget daily charge allowed for tracking, in mAh, 0 to track without limit
+	 */
+	public void setEnergyBudget(double budget) {
+		planner.setDailyBudget(budget);
+		plan();
+	}
+
+	/**
+	 * Plans the location request again, once the battery level or the energy model changed.
+	 */
+	public void plan() {
+		if (isStarted() && budgetPolicy.plan(clock.currentTimeMillis())) {
+			requestLocationUpdates();
+		}
+	}
+
+	/**
+	 * Backs off or probes the high accuracy requests, when the deadline is reached.
+	 */
+	public void poll() {
+		if (!isStarted()) return;
+		if (samplingPolicy.poll(clock.currentTimeMillis())) {
+			requestLocationUpdates();
+		} else {
+			updateDeadline();
+		}
+	}
+
+	/**
+	 * Feeds an accelerometer sample to the stop detection.
+	 *
+	 * @param time time of the sample, from the same clock as the fixes
+	 * @param x    acceleration including the gravity, in m/s^2
+	 */
+	public void onAcceleration(long time, float x, float y, float z) {
+		if (isStarted() && stopPolicy.onAcceleration(time, x, y, z)) {
+			plan();
+		}
+	}
+
+	/**
+	 * Tells that the significant motion sensor triggered.
+	 */
+	public void onSignificantMotion(long time) {
+		if (isStarted() && stopPolicy.onSignificantMotion(time)) {
+			plan();
+		}
+	}
+
+	@Override
+	public boolean onFix(long time, long elapsedTime, double latitude, double longitude, float accuracy) {
+		if (batchTime == -1) {
+			batchTime = clock.currentTimeMillis();
+			batchElapsedTime = clock.elapsedRealtime();
+		}
+		if (!isStarted()) return false;
+		profileChanged |= samplingPolicy.onFixReceived(batchTime, time, accuracy);
+		// The policies weigh the accuracy themselves, and need the low power fixes which the
+		// filter drops to notice a move while stopped
+		profileChanged |= samplingPolicy.onFix(time, latitude, longitude, accuracy);
+		boolean accepted = fixFilter.accept(batchElapsedTime - elapsedTime, time, latitude, longitude, accuracy);
+		if (warmingUp) {
+			onStartupFix(accepted);
+		}
+		if (!accepted) return false;
+		lastFixTime = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		lastAccuracy = accuracy;
+		smoother.onFix(time, latitude, longitude, accuracy, activityType);
+		if (placeLearner.onFix(time, latitude, longitude)) {
+			listener.onPlacesChange();
+		}
+		return true;
+	}
+
+	@Override
+	public void onBatchEnd() {
+		batchTime = -1;
+		if (profileChanged) {
+			profileChanged = false;
+			if (isStarted()) {
+				requestLocationUpdates();
+			}
+		}
+	}
+
+	@Override
+	public void onAvailability(boolean available) {
+		if (!isStarted()) return;
+		if (samplingPolicy.onAvailability(clock.currentTimeMillis(), available)) {
+			requestLocationUpdates();
+		} else {
+			updateDeadline();
+		}
+	}
+
+	private void onStartupFix(boolean accurate) {
+		long delay = clock.elapsedRealtime() - startTime;
+		if (firstFixPending) {
+			firstFixPending = false;
+			listener.onFirstFix(delay);
+		}
+		if (accurate) {
+			warmingUp = false;
+			listener.onFirstAccurateFix(delay);
+			// Batches from now on
+			profileChanged |= samplingPolicy.getProfile().maxWaitTime > 0;
+		}
+	}
+
+	// Records a marker after the last fix when a gap starts, and reports the gaps
+	private void updateGap() {
+		if (samplingPolicy.isInGap() == inGap) return;
+		inGap = !inGap;
+		long now = clock.currentTimeMillis();
+		if (inGap) {
+			gapSavedTime = samplingPolicy.getSavedTime(now);
+			if (lastFixTime != -1) {
+				simplifier.onFix(lastFixTime + 1, lastLatitude, lastLongitude, lastAccuracy, TrackStore.GAP_MARKER);
+			}
+			listener.onGapStart();
+		} else {
+			listener.onGapEnd(now - samplingPolicy.getGapTime(), samplingPolicy.getSavedTime(now) - gapSavedTime);
+		}
+	}
+
+	private void updateDeadline() {
+		long next = isStarted() ? samplingPolicy.getDeadline() : Long.MAX_VALUE;
+		if (next != deadline) {
+			deadline = next;
+			listener.onDeadlineChange(next);
+		}
+	}
+
+	// Requesting again replaces the current request in place
+	private void requestLocationUpdates() {
+		updateGap();
+		SamplingProfile profile = samplingPolicy.getProfile();
+		if (warmingUp && profile.maxWaitTime > 0) {
+			profile = new SamplingProfile(profile.interval, profile.priority, profile.smallestDisplacement, 0);
+		}
+		locationSource.requestLocationUpdates(profile, this);
+		planner.onProfile(clock.currentTimeMillis(), profile);
+		listener.onLocationRequest(profile);
+		updateDeadline();
+	}
+
+	@Override
+	public String toString() {
+		return "TrackingCore{activityType=" + activityType + ", " + fixFilter + ", recorded=" + simplifier.getOutputCount()
+				+ '/' + simplifier.getInputCount() + ", profile=" + samplingPolicy.getProfile() + '}';
+	}
+}
@@ -0,0 +1,113 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only log of the activity transitions, stored next to the track segments as fixed-width
+ * binary records. There are only a few transitions per day, so they are written synchronously and
+ * read by scanning the whole file.
+ */
+public class TransitionLog {
+	public static final int RECORD_SIZE = 16;
+	public static final int TIME_OFFSET = 0;
+	public static final int ACTIVITY_OFFSET = 8;
+	public static final int TRANSITION_OFFSET = 12;
+	// Same values as ActivityTransition
+	public static final int TRANSITION_ENTER = 0;
+	public static final int TRANSITION_EXIT = 1;
+
+	static final String FILE_NAME = "transitions.bin";
+
+	private final File file;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(TrackStore.BYTE_ORDER);
+
+	public TransitionLog(File directory) {
+		this.file = new File(directory, FILE_NAME);
+	}
+
+	public synchronized void append(long time, int activityType, int transitionType) throws IOException {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+			// Drop a partial record left by a previous crash
+			long size = channel.size() - channel.size() % RECORD_SIZE;
+			channel.truncate(size);
+			record.clear();
+			record.putLong(time).putInt(activityType).putInt(transitionType).flip();
+			while (record.hasRemaining()) {
+				channel.write(record, size + record.position());
+			}
+		}
+	}
+
+	/**
+	 * @return a cursor over the transitions such that {@code from <= time < to}, preceded by the last
+	 * transition before {@code from} so that the activity at {@code from} is known
+	 */
+	public Cursor query(long from, long to) throws IOException {
+		if (!file.exists()) return new Cursor(ByteBuffer.allocate(0), 0, 0);
+		ByteBuffer buffer;
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			long size = input.length() - input.length() % RECORD_SIZE;
+			buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size).order(TrackStore.BYTE_ORDER);
+		}
+		int start = 0;
+		int end = buffer.limit();
+		for (int offset = 0; offset < buffer.limit(); offset += RECORD_SIZE) {
+			long time = buffer.getLong(offset + TIME_OFFSET);
+			if (time < from) {
+				start = offset;
+			} else if (time >= to) {
+				end = offset;
+				break;
+			}
+		}
+		return new Cursor(buffer, start, end);
+	}
+
+	/**
+	 * Streams the transitions returned by {@link #query}.
+	 */
+	public static final class Cursor {
+		private final ByteBuffer buffer;
+		private final int end;
+		private int next;
+		private int offset = -1;
+
+		Cursor(ByteBuffer buffer, int start, int end) {
+			this.buffer = buffer;
+			this.next = start;
+			this.end = end;
+		}
+
+		/**
+		 * Moves to the next transition.
+		 *
+		 * @return false when all the transitions were read
+		 */
+		public boolean next() {
+			if (next >= end) return false;
+			offset = next;
+			next += RECORD_SIZE;
+			return true;
+		}
+
+		public long getTime() {
+			return buffer.getLong(offset + TIME_OFFSET);
+		}
+
+		public int getActivityType() {
+			return buffer.getInt(offset + ACTIVITY_OFFSET);
+		}
+
+		public int getTransitionType() {
+			return buffer.getInt(offset + TRANSITION_OFFSET);
+		}
+	}
+}
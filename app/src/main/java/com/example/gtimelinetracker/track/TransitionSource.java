@@ -0,0 +1,22 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Delivers the activity transitions, from the activity recognition on a device and recorded or
+ * synthetic transitions in a replay.
+ */
+public interface TransitionSource {
+	interface Listener {
+		/**
+		 * @param time           elapsed time of the transition, see {@link Clock#elapsedRealtime}
+		 * @param transitionType {@link TransitionLog#TRANSITION_ENTER} or {@link TransitionLog#TRANSITION_EXIT}
+		 */
+		void onTransition(long time, int activityType, int transitionType);
+
+		/**
+		 * Called after the transitions delivered together.
+		 */
+		void onBatchEnd();
+	}
+
+	void setListener(Listener listener);
+}
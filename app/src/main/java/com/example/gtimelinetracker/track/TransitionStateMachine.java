@@ -0,0 +1,179 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+
+/**
+ * Turns the stream of activity transitions into tracker reconfigurations, ignoring the flapping
+ * between activities.
+ * <p>
+ * Activities are gathered in groups, typically the activities tracked with the same sampling
+ * profile, and a change within the current group is ignored. Tracking starts as soon as a moving
+ * activity is entered, but a change to another group must last for the switch dwell time and
+ * STILL, or the exit of the current activity, for the stop dwell time before being applied. A
+ * pending change is cancelled when the current activity is entered again in the meantime.
+ * <p>
+ * The machine does not keep time by itself: its owner calls {@link #poll} at {@link #getDeadline}.
+ * All the times must come from the same monotonic clock.
+ */
+public class TransitionStateMachine {
+	// Same value as DetectedActivity
+	public static final int STILL = 3;
+	public static final int STOPPED = -1;
+	private static final int NONE = -2;
+
+	public interface Listener {
+		/**
+		 * @param activityType the activity to track, {@link #STOPPED} to stop tracking
+		 */
+		void onTrackingChange(int activityType);
+	}
+
+	private final Listener listener;
+	private final long switchDwellTime;
+	private final long stopDwellTime;
+	private int[] groups = new int[0];
+
+	private int current = STOPPED;
+	// Change waiting for its dwell time, NONE if there is none
+	private int pending = NONE;
+	private long pendingTime;
+
+	// Statistics
+	private int transitionCount = 0;
+	private int changeCount = 0;
+	private int ignoredCount = 0;
+	private int cancelledCount = 0;
+
+	public TransitionStateMachine(Listener listener, long switchDwellTime, long stopDwellTime) {
+		this.listener = listener;
+		this.switchDwellTime = switchDwellTime;
+		this.stopDwellTime = stopDwellTime;
+	}
+
+	/**
+	 * Puts the activity in a group, activities without a group are alone in theirs.
+	 */
+	public void setGroup(int activityType, int group) {
+		if (activityType >= groups.length) {
+			int length = groups.length;
+			groups = Arrays.copyOf(groups, activityType + 1);
+			for (int i = length; i < groups.length; i++) {
+				groups[i] = i;
+			}
+		}
+		groups[activityType] = group;
+	}
+
+	/**
+	 * Sets the tracked activity without any dwell time, when tracking is started or stopped by the
+	 * user. No change is reported.
+	 */
+	public void reset(int activityType) {
+		current = activityType;
+		pending = NONE;
+	}
+
+	public int getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @param transitionType {@link TransitionLog#TRANSITION_ENTER} or {@link TransitionLog#TRANSITION_EXIT}
+	 */
+	public void onTransition(long time, int activityType, int transitionType) {
+		transitionCount++;
+		// A change may have been due before this transition
+		poll(time);
+		if (transitionType == TransitionLog.TRANSITION_ENTER) {
+			onEnter(time, activityType);
+		} else if (transitionType == TransitionLog.TRANSITION_EXIT) {
+			onExit(time, activityType);
+		}
+		poll(time);
+	}
+
+	/**
+	 * Applies the pending change if its dwell time has elapsed.
+	 */
+	public void poll(long now) {
+		if (pending != NONE && now >= getDeadline()) {
+			int activityType = pending;
+			pending = NONE;
+			change(activityType);
+		}
+	}
+
+	/**
+	 * @return the time when the pending change must be applied, Long.MAX_VALUE if there is none
+	 */
+	public long getDeadline() {
+		if (pending == NONE) return Long.MAX_VALUE;
+		return pendingTime + (pending == STOPPED ? stopDwellTime : switchDwellTime);
+	}
+
+	private void onEnter(long time, int activityType) {
+		if (activityType == STILL) {
+			if (current != STOPPED) setPending(time, STOPPED);
+		} else if (current == STOPPED) {
+			pending = NONE;
+			change(activityType);
+		} else if (getGroup(activityType) == getGroup(current)) {
+			// Back to the current activity, or to an equivalent one
+			cancelPending();
+			ignoredCount++;
+		} else {
+			setPending(time, activityType);
+		}
+	}
+
+	private void onExit(long time, int activityType) {
+		if (activityType == STILL) {
+			if (pending == STOPPED) cancelPending();
+		} else if (pending >= 0 && getGroup(activityType) == getGroup(pending)) {
+			cancelPending();
+		} else if (current != STOPPED && getGroup(activityType) == getGroup(current) && pending == NONE) {
+			setPending(time, STOPPED);
+		}
+	}
+
+	private void setPending(long time, int activityType) {
+		if (pending == activityType) return;
+		if (pending != NONE) cancelledCount++;
+		pending = activityType;
+		pendingTime = time;
+	}
+
+	private void cancelPending() {
+		if (pending != NONE) {
+			pending = NONE;
+			cancelledCount++;
+		}
+	}
+
+	private void change(int activityType) {
+		current = activityType;
+		changeCount++;
+		listener.onTrackingChange(activityType);
+	}
+
+	private int getGroup(int activityType) {
+		return activityType >= 0 && activityType < groups.length ? groups[activityType] : activityType;
+	}
+
+	/**
+	 * @return the number of tracker reconfigurations, starts and stops included
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	@Override
+	public String toString() {
+		return "TransitionStateMachine{" +
+				"transitions=" + transitionCount +
+				", changes=" + changeCount +
+				", ignored=" + ignoredCount +
+				", cancelled=" + cancelledCount +
+				'}';
+	}
+}
@@ -0,0 +1,95 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Splits the fixes flowing to the track store into trips and trip segments as they arrive.
+ * <p>
+ * A trip goes from the first fix to the next STILL transition, a new segment starts at each change
+ * of activity. The aggregates of the current segment are updated in constant time per fix, closed
+ * segments are handed to a {@link Listener} so that they can be saved and the summaries never need
+ * to scan the fixes again.
+ */
+public class TripBuilder implements FixSink {
+	// Same value as DetectedActivity
+	public static final int STILL = 3;
+
+	public interface Listener {
+		/**
+		 * Called for every closed segment. The segment is reused afterwards and must not be kept.
+		 */
+		void onSegmentClosed(TripSegment segment);
+	}
+
+	private final FixSink downstream;
+	private final Listener listener;
+	private final TripSegment segment = new TripSegment();
+	private boolean tripStarted = false;
+	private long tripStart;
+	private boolean segmentStarted = false;
+	// Activity of the last transition, -1 when unknown
+	private int activityType = -1;
+
+	public TripBuilder(FixSink downstream, Listener listener) {
+		this.downstream = downstream;
+		this.listener = listener;
+	}
+
+	/**
+	 * @param transitionType {@link TransitionLog#TRANSITION_ENTER} or {@link TransitionLog#TRANSITION_EXIT}
+	 */
+	public void onTransition(long time, int activityType, int transitionType) {
+		if (transitionType == TransitionLog.TRANSITION_ENTER) {
+			if (activityType == STILL) {
+				endTrip();
+			} else if (activityType != this.activityType) {
+				closeSegment();
+				this.activityType = activityType;
+			}
+		} else if (transitionType == TransitionLog.TRANSITION_EXIT && activityType == this.activityType) {
+			closeSegment();
+			this.activityType = -1;
+		}
+	}
+
+	/**
+	 * Closes the current segment and trip.
+	 */
+	public void endTrip() {
+		closeSegment();
+		tripStarted = false;
+		activityType = -1;
+	}
+
+	/**
+	 * @return the current segment, null when there is none
+	 */
+	public TripSegment getCurrentSegment() {
+		return segmentStarted ? segment : null;
+	}
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		if (!tripStarted) {
+			tripStarted = true;
+			tripStart = time;
+		}
+		if (segmentStarted) {
+			segment.add(time, latitude, longitude);
+		} else {
+			segmentStarted = true;
+			segment.start(tripStart, this.activityType != -1 ? this.activityType : activityType, time, latitude, longitude);
+		}
+		downstream.onFix(time, latitude, longitude, accuracy, activityType);
+	}
+
+	@Override
+	public void flush() {
+		downstream.flush();
+	}
+
+	private void closeSegment() {
+		if (segmentStarted) {
+			segmentStarted = false;
+			listener.onSegmentClosed(segment);
+		}
+	}
+}
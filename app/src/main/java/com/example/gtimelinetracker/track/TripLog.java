@@ -0,0 +1,147 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only log of the closed trip segments, stored next to the track segments as fixed-width
+ * binary records, so that trip summaries are read without going through the fixes.
+ */
+public class TripLog {
+	public static final int RECORD_SIZE = 76;
+	public static final int TRIP_START_OFFSET = 0;
+	public static final int START_TIME_OFFSET = 8;
+	public static final int END_TIME_OFFSET = 16;
+	public static final int DISTANCE_OFFSET = 24;
+	public static final int MIN_LATITUDE_OFFSET = 32;
+	public static final int MIN_LONGITUDE_OFFSET = 40;
+	public static final int MAX_LATITUDE_OFFSET = 48;
+	public static final int MAX_LONGITUDE_OFFSET = 56;
+	public static final int MAX_SPEED_OFFSET = 64;
+	public static final int ACTIVITY_OFFSET = 68;
+	public static final int FIX_COUNT_OFFSET = 72;
+
+	static final String FILE_NAME = "trips.bin";
+
+	private final File file;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(TrackStore.BYTE_ORDER);
+
+	public TripLog(File directory) {
+		this.file = new File(directory, FILE_NAME);
+	}
+
+	public synchronized void append(TripSegment segment) throws IOException {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+			// Drop a partial record left by a previous crash
+			long size = channel.size() - channel.size() % RECORD_SIZE;
+			channel.truncate(size);
+			record.clear();
+			record.putLong(segment.getTripStart())
+					.putLong(segment.getStartTime())
+					.putLong(segment.getEndTime())
+					.putDouble(segment.getDistance())
+					.putDouble(segment.getMinLatitude())
+					.putDouble(segment.getMinLongitude())
+					.putDouble(segment.getMaxLatitude())
+					.putDouble(segment.getMaxLongitude())
+					.putFloat(segment.getMaxSpeed())
+					.putInt(segment.getActivityType())
+					.putInt(segment.getFixCount())
+					.flip();
+			while (record.hasRemaining()) {
+				channel.write(record, size + record.position());
+			}
+		}
+	}
+
+	/**
+	 * @return a cursor over the segments that end at or after {@code from} and start before {@code to}
+	 */
+	public Cursor query(long from, long to) throws IOException {
+		if (!file.exists()) return new Cursor(ByteBuffer.allocate(0), from, to);
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			long size = input.length() - input.length() % RECORD_SIZE;
+			return new Cursor(input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size).order(TrackStore.BYTE_ORDER), from, to);
+		}
+	}
+
+	/**
+	 * Streams the segments returned by {@link #query}, in the order they were closed. The segments
+	 * of a trip follow each other and share the same trip start.
+	 */
+	public static final class Cursor {
+		private final ByteBuffer buffer;
+		private final long from;
+		private final long to;
+		private int offset = -RECORD_SIZE;
+
+		Cursor(ByteBuffer buffer, long from, long to) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Moves to the next segment.
+		 *
+		 * @return false when all the segments were read
+		 */
+		public boolean next() {
+			while ((offset += RECORD_SIZE) < buffer.limit()) {
+				if (getEndTime() >= from && getStartTime() < to) return true;
+			}
+			return false;
+		}
+
+		public long getTripStart() {
+			return buffer.getLong(offset + TRIP_START_OFFSET);
+		}
+
+		public long getStartTime() {
+			return buffer.getLong(offset + START_TIME_OFFSET);
+		}
+
+		public long getEndTime() {
+			return buffer.getLong(offset + END_TIME_OFFSET);
+		}
+
+		public double getDistance() {
+			return buffer.getDouble(offset + DISTANCE_OFFSET);
+		}
+
+		public double getMinLatitude() {
+			return buffer.getDouble(offset + MIN_LATITUDE_OFFSET);
+		}
+
+		public double getMinLongitude() {
+			return buffer.getDouble(offset + MIN_LONGITUDE_OFFSET);
+		}
+
+		public double getMaxLatitude() {
+			return buffer.getDouble(offset + MAX_LATITUDE_OFFSET);
+		}
+
+		public double getMaxLongitude() {
+			return buffer.getDouble(offset + MAX_LONGITUDE_OFFSET);
+		}
+
+		public float getMaxSpeed() {
+			return buffer.getFloat(offset + MAX_SPEED_OFFSET);
+		}
+
+		public int getActivityType() {
+			return buffer.getInt(offset + ACTIVITY_OFFSET);
+		}
+
+		public int getFixCount() {
+			return buffer.getInt(offset + FIX_COUNT_OFFSET);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Running aggregates of the fixes of a trip segment, a part of a trip done with a single activity.
+ * Each fix is added in constant time, nothing is kept but the last fix.
+ */
+public class TripSegment {
+	private long tripStart;
+	private int activityType;
+	private long startTime;
+	private long endTime;
+	private int fixCount;
+	private double distance;
+	private float maxSpeed;
+	private double minLatitude;
+	private double minLongitude;
+	private double maxLatitude;
+	private double maxLongitude;
+	private double lastLatitude;
+	private double lastLongitude;
+
+	/**
+	 * Starts a new segment with its first fix.
+	 *
+	 * @param tripStart time of the first fix of the trip, identifies the trip
+	 */
+	public void start(long tripStart, int activityType, long time, double latitude, double longitude) {
+		this.tripStart = tripStart;
+		this.activityType = activityType;
+		startTime = time;
+		endTime = time;
+		fixCount = 1;
+		distance = 0;
+		maxSpeed = 0;
+		minLatitude = maxLatitude = lastLatitude = latitude;
+		minLongitude = maxLongitude = lastLongitude = longitude;
+	}
+
+	public void add(long time, double latitude, double longitude) {
+		double step = Geo.distance(lastLatitude, lastLongitude, latitude, longitude);
+		long elapsed = time - endTime;
+		if (elapsed > 0) {
+			maxSpeed = Math.max(maxSpeed, (float) (step * 1000 / elapsed));
+		}
+		distance += step;
+		endTime = time;
+		fixCount++;
+		minLatitude = Math.min(minLatitude, latitude);
+		maxLatitude = Math.max(maxLatitude, latitude);
+		minLongitude = Math.min(minLongitude, longitude);
+		maxLongitude = Math.max(maxLongitude, longitude);
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+	}
+
+	public long getTripStart() {
+		return tripStart;
+	}
+
+	public int getActivityType() {
+		return activityType;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public long getDuration() {
+		return endTime - startTime;
+	}
+
+	public int getFixCount() {
+		return fixCount;
+	}
+
+	/**
+	 * @return the length of the segment in meters
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return the average speed in m/s, 0 for a single fix
+	 */
+	public float getAverageSpeed() {
+		return endTime > startTime ? (float) (distance * 1000 / (endTime - startTime)) : 0;
+	}
+
+	/**
+	 * @return the maximum speed between two consecutive fixes in m/s
+	 */
+	public float getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	@Override
+	public String toString() {
+		return "TripSegment{" +
+				"activityType=" + activityType +
+				", startTime=" + startTime +
+				", duration=" + getDuration() +
+				", fixCount=" + fixCount +
+				", distance=" + Math.round(distance) +
+				", maxSpeed=" + maxSpeed +
+				'}';
+	}
+}
@@ -0,0 +1,274 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stage of the pipeline which packs the recorded fixes into compressed chunks queued on disk for
+ * the {@link ChunkUploader}, then forwards the fixes downstream as they are.
+ * <p>
+ * The fixes are encoded in memory by a {@link TrackEncoder}, and sealed into a chunk once the
+ * encoding reaches {@link #MAX_CHUNK_BYTES} or its first fix is older than {@link #MAX_CHUNK_AGE}.
+ * A chunk is the gzip of the encoding, in its own file named after its first and last times and
+ * the CRC of its content, so that sealing the same fixes again gives the same chunk ID.
+ * <p>
+ * The fixes not sealed yet are only held in memory, the downstream store keeps them durably. The
+ * time of the last sealed fix is kept with the chunks, and {@link #recover} packs the fixes the
+ * store recorded after it again.
+ * <p>
+ * When a chunk can not be written, its fixes are kept and sealed again after
+ * {@link #SEAL_RETRY_DELAY}, with the ones received meanwhile. Once {@link #MAX_PENDING_BYTES} are
+ * pending, the following fixes are no longer packed, and are left to the next recovery.
+ */
+public class UploadQueue implements FixSink {
+	// About 18k fixes, a day of tracking, per chunk
+	static final int MAX_CHUNK_BYTES = 128 * 1024;
+	static final long MAX_CHUNK_AGE = 24 * 3600 * 1000L;
+	static final long SEAL_RETRY_DELAY = 10 * 60000;
+	// About 4 days of tracking held in memory while the chunks can not be written
+	static final int MAX_PENDING_BYTES = 4 * MAX_CHUNK_BYTES;
+	static final String CHUNK_SUFFIX = ".chunk";
+	static final String SEALED_FILE = "sealed.bin";
+
+	/**
+	 * Told on the thread feeding the fixes when a chunk is queued.
+	 */
+	public interface Listener {
+		void onChunkSealed(File chunk);
+	}
+
+	private static final FileFilter CHUNK_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File file) {
+			return file.getName().endsWith(CHUNK_SUFFIX);
+		}
+	};
+
+	private final File directory;
+	private final FixSink downstream;
+	private final Clock clock;
+	private final Listener listener;
+	private final ByteArrayOutputStream encoding = new ByteArrayOutputStream(MAX_CHUNK_BYTES + 4096);
+	private TrackEncoder encoder;
+	private int count = 0;
+	private long firstTime;
+	private long lastTime;
+	// Time of the last sealed fix, older fixes are not packed again
+	private long sealedTime;
+	// Time before which a failed seal is not attempted again
+	private long retryTime = Long.MIN_VALUE;
+	// Whether fixes were left to the next recovery, no fix is packed until then
+	private boolean overflowed = false;
+	private long sealedCount = 0;
+	private long failedCount = 0;
+	private long skippedCount = 0;
+
+	/**
+	 * @param listener told when a chunk is queued, may be null
+	 */
+	public UploadQueue(File directory, FixSink downstream, Clock clock, Listener listener) {
+		this.directory = directory;
+		this.downstream = downstream;
+		this.clock = clock;
+		this.listener = listener;
+		this.sealedTime = readSealedTime(directory);
+		resetEncoder();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the time of the last fix packed into a chunk, {@link Long#MIN_VALUE} when there is none
+	 */
+	public long getSealedTime() {
+		return sealedTime;
+	}
+
+	/**
+	 * @return the number of fixes which were not packed, since too many were pending
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		add(time, latitude, longitude, accuracy, activityType);
+		downstream.onFix(time, latitude, longitude, accuracy, activityType);
+	}
+
+	/**
+	 * Seals the pending fixes if the first one is old enough, otherwise they wait for more fixes.
+	 */
+	@Override
+	public void flush() {
+		sealIfOld();
+		downstream.flush();
+	}
+
+	/**
+	 * Packs the fixes of a cursor over the downstream store which were recorded after the last
+	 * sealed fix, when a previous process was killed before sealing them. Must be called before
+	 * any new fix.
+	 *
+	 * @return the number of packed fixes
+	 */
+	public int recover(TrackCursor cursor) {
+		int recovered = 0;
+		overflowed = false;
+		while (cursor.next()) {
+			if (cursor.getTime() <= sealedTime || (count > 0 && cursor.getTime() <= lastTime)) continue;
+			add(cursor.getTime(), cursor.getLatitude(), cursor.getLongitude(), cursor.getAccuracy(), cursor.getActivityType());
+			recovered++;
+		}
+		sealIfOld();
+		return recovered;
+	}
+
+	/**
+	 * @return the queued chunks of the directory, oldest first
+	 */
+	public static File[] listChunks(File directory) {
+		File[] chunks = directory.listFiles(CHUNK_FILTER);
+		if (chunks == null) return new File[0];
+		// Names start with the zero padded first time
+		Arrays.sort(chunks);
+		return chunks;
+	}
+
+	/**
+	 * @return the ID of a chunk, unique among the chunks of a device
+	 */
+	public static String getChunkId(File chunk) {
+		String name = chunk.getName();
+		return name.substring(0, name.length() - CHUNK_SUFFIX.length());
+	}
+
+	private void add(long time, double latitude, double longitude, float accuracy, int activityType) {
+		if (overflowed || encoder.getEncodedSize() >= MAX_PENDING_BYTES) {
+			// Packing the next fixes would seal them before these ones, which would not be recovered
+			overflowed = true;
+			skippedCount++;
+		} else {
+			try {
+				encoder.write(time, latitude, longitude, accuracy, activityType);
+			} catch (IOException e) {
+				// Not thrown by a ByteArrayOutputStream
+				throw new IllegalStateException(e);
+			}
+			if (count++ == 0) {
+				firstTime = time;
+			}
+			lastTime = time;
+		}
+		if (count > 0 && (encoder.getEncodedSize() >= MAX_CHUNK_BYTES || time - firstTime >= MAX_CHUNK_AGE)
+				&& clock.currentTimeMillis() >= retryTime) {
+			seal();
+		}
+	}
+
+	private void sealIfOld() {
+		long now = clock.currentTimeMillis();
+		if (count > 0 && now - firstTime >= MAX_CHUNK_AGE && now >= retryTime) {
+			seal();
+		}
+	}
+
+	// Writes the chunk then the sealed time, a kill in between leaves the chunk name as the reference
+	private void seal() {
+		File chunk;
+		try {
+			// Closes the last block, more blocks may follow if the chunk can not be written
+			encoder.finish();
+			CRC32 crc = new CRC32();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(encoding.size() / 2);
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				encoding.writeTo(out);
+			}
+			crc.update(encoding.toByteArray());
+			chunk = new File(directory, String.format(Locale.US, "%016x-%016x-%08x%s", firstTime, lastTime,
+					crc.getValue(), CHUNK_SUFFIX));
+			write(chunk, ByteBuffer.wrap(compressed.toByteArray()));
+		} catch (IOException e) {
+			// The fixes are kept, dropping them would leave them behind the next sealed time
+			failedCount++;
+			retryTime = clock.currentTimeMillis() + SEAL_RETRY_DELAY;
+			return;
+		}
+		sealedTime = lastTime;
+		sealedCount++;
+		resetEncoder();
+		try {
+			ByteBuffer sealed = ByteBuffer.allocate(8).order(TrackStore.BYTE_ORDER).putLong(0, sealedTime);
+			write(new File(directory, SEALED_FILE), sealed);
+		} catch (IOException e) {
+			// The chunk name is the reference until it is uploaded
+			failedCount++;
+		}
+		if (listener != null) {
+			listener.onChunkSealed(chunk);
+		}
+	}
+
+	private void resetEncoder() {
+		encoding.reset();
+		encoder = new TrackEncoder(encoding);
+		count = 0;
+	}
+
+	private void write(File file, ByteBuffer buffer) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Can not replace " + file);
+		}
+	}
+
+	// The last time of the sealed file or of the newest queued chunk, whichever is later
+	private static long readSealedTime(File directory) {
+		long time = Long.MIN_VALUE;
+		try (FileChannel channel = new RandomAccessFile(new File(directory, SEALED_FILE), "r").getChannel()) {
+			ByteBuffer buffer = ByteBuffer.allocate(8).order(TrackStore.BYTE_ORDER);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) break;
+			}
+			if (!buffer.hasRemaining()) {
+				time = buffer.getLong(0);
+			}
+		} catch (IOException e) {
+			// Nothing sealed yet
+		}
+		File[] chunks = listChunks(directory);
+		if (chunks.length > 0) {
+			String id = getChunkId(chunks[chunks.length - 1]);
+			time = Math.max(time, Long.parseLong(id.substring(17, 33), 16));
+		}
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return "UploadQueue{pending=" + count + ", sealed=" + sealedCount + ", failed=" + failedCount
+				+ ", skipped=" + skippedCount + ", queued=" + listChunks(directory).length + '}';
+	}
+}
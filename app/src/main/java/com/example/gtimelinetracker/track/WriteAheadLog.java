@@ -0,0 +1,205 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ring of fixes in a memory-mapped file, which keeps the fixes not written to their segment yet
+ * when the process is killed.
+ * <p>
+ * An append is a few stores in the mapped pages, the kernel writes them back on its own and they
+ * survive the death of the process without any fsync. Every slot holds its sequence number and a
+ * checksum, so that the slots torn by a kill, or left by a previous round of the ring, are told
+ * apart from the valid ones on {@link #open}.
+ * <p>
+ * Fixes are appended at the end of the log and released from its start once stored elsewhere.
+ * The log is not thread safe: {@link #append} can be called by one thread and {@link #read} by
+ * another, as long as the changes of the sequences are synchronized by the caller.
+ */
+public class WriteAheadLog {
+	public static final int SLOT_SIZE = 48;
+	static final int HEADER_SIZE = 64;
+	static final long MAGIC = 0x314C415754475447L;
+
+	private static final int SEQUENCE_OFFSET = 32;
+	private static final int CHECKSUM_OFFSET = 40;
+	private static final int HEADER_CAPACITY_OFFSET = 8;
+	private static final int HEADER_START_OFFSET = 16;
+	private static final int HEADER_START_CHECK_OFFSET = 24;
+
+	// Used by the appending thread
+	private final ByteBuffer appendBuffer;
+	// Used by the reading thread, which also releases the fixes
+	private final ByteBuffer readBuffer;
+	private final int capacity;
+	private long start;
+	private long end;
+
+	/**
+	 * Uses the log held by {@code buffer}, or starts an empty one when it does not hold a log of
+	 * the same capacity.
+	 */
+	public WriteAheadLog(ByteBuffer buffer, int capacity) {
+		if (buffer.capacity() < getSize(capacity)) {
+			throw new IllegalArgumentException("Buffer too small for " + capacity + " slots");
+		}
+		this.appendBuffer = buffer.duplicate().order(TrackStore.BYTE_ORDER);
+		this.readBuffer = buffer.duplicate().order(TrackStore.BYTE_ORDER);
+		this.capacity = capacity;
+		recover();
+	}
+
+	/**
+	 * Maps the log file, created if needed, and recovers the fixes it holds.
+	 */
+	public static WriteAheadLog open(File file, int capacity) throws IOException {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+			// The mapping stays valid once the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getSize(capacity));
+			return new WriteAheadLog(buffer, capacity);
+		}
+	}
+
+	public static int getSize(int capacity) {
+		return HEADER_SIZE + capacity * SLOT_SIZE;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the sequence number of the first fix which is not released
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the sequence number of the next appended fix
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Appends a fix, the log must not be full.
+	 */
+	public void append(long time, double latitude, double longitude, float accuracy, int activityType) {
+		if (end - start >= capacity) throw new IllegalStateException("Log is full");
+		long sequence = end;
+		int offset = getOffset(sequence);
+		appendBuffer.putLong(offset + TrackStore.TIME_OFFSET, time)
+				.putDouble(offset + TrackStore.LATITUDE_OFFSET, latitude)
+				.putDouble(offset + TrackStore.LONGITUDE_OFFSET, longitude)
+				.putFloat(offset + TrackStore.ACCURACY_OFFSET, accuracy)
+				.putInt(offset + TrackStore.ACTIVITY_OFFSET, activityType)
+				.putLong(offset + SEQUENCE_OFFSET, sequence)
+				.putLong(offset + CHECKSUM_OFFSET, getChecksum(appendBuffer, offset, sequence));
+		end = sequence + 1;
+	}
+
+	/**
+	 * Copies a fix in the {@link TrackStore} record format to {@code out}.
+	 *
+	 * @param sequence sequence number of a fix which has been appended and not released
+	 */
+	public void read(long sequence, ByteBuffer out) {
+		int offset = getOffset(sequence);
+		out.putLong(readBuffer.getLong(offset + TrackStore.TIME_OFFSET))
+				.putDouble(readBuffer.getDouble(offset + TrackStore.LATITUDE_OFFSET))
+				.putDouble(readBuffer.getDouble(offset + TrackStore.LONGITUDE_OFFSET))
+				.putFloat(readBuffer.getFloat(offset + TrackStore.ACCURACY_OFFSET))
+				.putInt(readBuffer.getInt(offset + TrackStore.ACTIVITY_OFFSET));
+	}
+
+	/**
+	 * Passes the last appended fix to {@code sink}, even if it has been released, as long as its
+	 * slot has not been reused.
+	 *
+	 * @return false when there is no such fix
+	 */
+	public boolean readLast(FixSink sink) {
+		long sequence = end - 1;
+		int offset = getOffset(sequence);
+		if (sequence < 0 || !isValid(readBuffer, offset, sequence)) return false;
+		sink.onFix(readBuffer.getLong(offset + TrackStore.TIME_OFFSET),
+				readBuffer.getDouble(offset + TrackStore.LATITUDE_OFFSET),
+				readBuffer.getDouble(offset + TrackStore.LONGITUDE_OFFSET),
+				readBuffer.getFloat(offset + TrackStore.ACCURACY_OFFSET),
+				readBuffer.getInt(offset + TrackStore.ACTIVITY_OFFSET));
+		return true;
+	}
+
+	/**
+	 * Frees the slots of the fixes before {@code sequence}, which must be stored elsewhere.
+	 */
+	public void release(long sequence) {
+		if (sequence < start || sequence > end) throw new IllegalArgumentException("Invalid sequence " + sequence);
+		start = sequence;
+		readBuffer.putLong(HEADER_START_OFFSET, sequence)
+				.putLong(HEADER_START_CHECK_OFFSET, ~sequence);
+	}
+
+	// The fixes to recover are the valid slots which follow the start, in sequence
+	private void recover() {
+		ByteBuffer buffer = readBuffer;
+		if (buffer.getLong(0) != MAGIC || buffer.getInt(HEADER_CAPACITY_OFFSET) != capacity) {
+			for (int offset = 0; offset < getSize(capacity); offset += 8) {
+				buffer.putLong(offset, 0);
+			}
+			buffer.putInt(HEADER_CAPACITY_OFFSET, capacity);
+			buffer.putLong(0, MAGIC);
+			start = 0;
+		} else {
+			start = buffer.getLong(HEADER_START_OFFSET);
+			if (start < 0 || buffer.getLong(HEADER_START_CHECK_OFFSET) != ~start) {
+				// Torn header, the oldest valid slot is a safe start since stored fixes are skipped
+				start = Long.MAX_VALUE;
+				for (int slot = 0; slot < capacity; slot++) {
+					int offset = HEADER_SIZE + slot * SLOT_SIZE;
+					long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+					if (sequence >= 0 && getOffset(sequence) == offset && isValid(buffer, offset, sequence)) {
+						start = Math.min(start, sequence);
+					}
+				}
+				if (start == Long.MAX_VALUE) {
+					start = 0;
+				}
+			}
+		}
+		end = start;
+		while (end - start < capacity && isValid(buffer, getOffset(end), end)) {
+			end++;
+		}
+		release(start);
+	}
+
+	private int getOffset(long sequence) {
+		return HEADER_SIZE + (int) (sequence % capacity) * SLOT_SIZE;
+	}
+
+	private static boolean isValid(ByteBuffer buffer, int offset, long sequence) {
+		return buffer.getLong(offset + SEQUENCE_OFFSET) == sequence
+				&& buffer.getLong(offset + CHECKSUM_OFFSET) == getChecksum(buffer, offset, sequence);
+	}
+
+	// Mixes the record with its sequence number, a slot torn by a kill does not match its checksum
+	private static long getChecksum(ByteBuffer buffer, int offset, long sequence) {
+		long hash = sequence * 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < TrackStore.RECORD_SIZE; i += 8) {
+			hash = (hash ^ buffer.getLong(offset + i)) * 0xBF58476D1CE4E5B9L;
+			hash ^= hash >>> 31;
+		}
+		// Never 0, so that a zeroed slot is not valid
+		return hash == 0 ? 1 : hash;
+	}
+}
@@ -0,0 +1,108 @@
+package com.example.gtimelinetracker;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LoggerTest {
+	@Test
+	public void formatsObjectsAndLongs() {
+		assertEquals("a 1 b 2", format("%s %d %s %d", 4, 0b1010, "a", null, "b", null, 0, 1, 0, 2));
+		assertEquals("100% done\n", format("%d%% done%n", 1, 0b1, null, null, null, null, 100, 0, 0, 0));
+	}
+
+	@Test
+	public void formatsVarargs() {
+		Object[] args = {"a", 1, 'c'};
+		assertEquals("a 1 c null", format("%s %s %s %s", LogFormat.VARARGS, 0, args, null, null, null, 0, 0, 0, 0));
+	}
+
+	@Test
+	public void padsAndTruncates() {
+		assertEquals("[   ab]", format("[%5s]", 1, 0, "ab", null, null, null, 0, 0, 0, 0));
+		assertEquals("[ab   ]", format("[%-5s]", 1, 0, "ab", null, null, null, 0, 0, 0, 0));
+		assertEquals("[abc]", format("[%.3s]", 1, 0, "abcdef", null, null, null, 0, 0, 0, 0));
+		assertEquals("[  ABC]", format("[%5.3S]", 1, 0, "abcdef", null, null, null, 0, 0, 0, 0));
+		assertEquals("[   42]", format("[%5d]", 1, 0b1, null, null, null, null, 42, 0, 0, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherConversions() {
+		format("%x", 1, 0b1, null, null, null, null, 42, 0, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPrecisionOfIntegers() {
+		format("%.2d", 1, 0b1, null, null, null, null, 42, 0, 0, 0);
+	}
+
+	@Test
+	public void capturesMutableObjectsAsStrings() {
+		StringBuilder mutable = new StringBuilder("before");
+		Object captured = Logger.capture(mutable);
+		mutable.append(" after");
+		assertEquals("before", captured);
+		Long value = 42L;
+		assertSame(value, Logger.capture(value));
+	}
+
+	@Test
+	public void dumpsEntriesAsLogged() throws IOException {
+		LogRingBuffer buffer = new LogRingBuffer(2);
+		StringBuilder mutable = new StringBuilder("first");
+		buffer.add(0, 3, "Test", "%s", 1, 0, Logger.capture(mutable), null, null, null, 0, 0, 0, 0);
+		mutable.setLength(0);
+		buffer.add(0, 3, "Test", "%x", 1, 0b1, null, null, null, null, 1, 0, 0, 0);
+		StringBuilder out = new StringBuilder();
+		buffer.dump(out);
+		String[] lines = out.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].endsWith("D/Test: first"));
+		assertTrue(lines[1], lines[1].contains("Unsupported conversion %x"));
+	}
+
+	@Test
+	public void skipsDisabledLogsWithoutRingBuffer() throws IOException {
+		final int[] calls = {0};
+		Object arg = new Object() {
+			@Override
+			public String toString() {
+				calls[0]++;
+				return "arg";
+			}
+		};
+		Logger logger = new Logger("Test");
+		Logger.setLevel(Log.INFO);
+		try {
+			Logger.disableRingBuffer();
+			assertFalse(logger.isLoggable(Log.DEBUG));
+			logger.d("%s", arg);
+			assertEquals(0, calls[0]);
+
+			Logger.enableRingBuffer(4);
+			assertTrue(logger.isLoggable(Log.DEBUG));
+			logger.d("%s", arg);
+			assertEquals(1, calls[0]);
+			StringBuilder out = new StringBuilder();
+			Logger.dumpRingBuffer(out);
+			assertTrue(out.toString(), out.toString().endsWith("D/Test: arg\n"));
+			assertEquals(1, calls[0]);
+		} finally {
+			Logger.disableRingBuffer();
+		}
+	}
+
+	private static String format(String format, int count, int longMask, Object o0, Object o1, Object o2, Object o3,
+								 long l0, long l1, long l2, long l3) {
+		StringBuilder out = new StringBuilder();
+		LogFormat.format(out, format, count, longMask, o0, o1, o2, o3, l0, l1, l2, l3);
+		return out.toString();
+	}
+}
@@ -0,0 +1,46 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+
+/**
+ * Activity types of the replays, with the values of DetectedActivity, and the settings the
+ * application tracks them with.
+ */
+final class ActivityTypes {
+	static final int IN_VEHICLE = 0;
+	static final int ON_BICYCLE = 1;
+	static final int ON_FOOT = 2;
+	static final int STILL = 3;
+	static final int UNKNOWN = 4;
+	static final int WALKING = 7;
+	static final int RUNNING = 8;
+
+	private static final ActivitySettings[] SETTINGS = new ActivitySettings[RUNNING + 1];
+
+	static {
+		Arrays.fill(SETTINGS, ActivitySettings.DEFAULT);
+		SETTINGS[IN_VEHICLE] = ActivitySettings.VEHICLE;
+		SETTINGS[ON_BICYCLE] = ActivitySettings.BICYCLE;
+		SETTINGS[ON_FOOT] = ActivitySettings.ON_FOOT;
+		SETTINGS[WALKING] = ActivitySettings.ON_FOOT;
+		SETTINGS[RUNNING] = ActivitySettings.RUNNING;
+	}
+
+	private ActivityTypes() {
+	}
+
+	/**
+	 * @return the settings of the given activity type, {@link ActivitySettings#DEFAULT} for unknown types
+	 */
+	static ActivitySettings getSettings(int activityType) {
+		if (activityType < 0 || activityType >= SETTINGS.length) return ActivitySettings.DEFAULT;
+		return SETTINGS[activityType];
+	}
+
+	/**
+	 * @return a new array holding, for each activity type, the first type tracked in the same way
+	 */
+	static int[] getGroups() {
+		return ActivitySettings.getGroups(SETTINGS);
+	}
+}
@@ -0,0 +1,106 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveSamplingPolicyTest {
+	private static final SamplingProfile BASE =
+			new SamplingProfile(1000, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, 0);
+	private static final double LONGITUDE_SCALE = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(48.85));
+
+	@Test
+	public void requestsFewerFixesOnStraightRoads() {
+		SamplingSimulator simulator = new SamplingSimulator(BASE);
+		for (int seed = 1; seed <= 3; seed++) {
+			SamplingSimulator.Track track = drive(new Random(seed));
+			SamplingSimulator.Result fixed = simulator.run(track, new FixedSamplingPolicy());
+			SamplingSimulator.Result adaptive = simulator.run(track, new AdaptiveSamplingPolicy());
+			assertEquals(track.size, fixed.keptCount);
+			assertTrue("kept " + adaptive.keptCount + '/' + fixed.keptCount, adaptive.keptCount * 2 < fixed.keptCount);
+			assertTrue("p95 error " + adaptive.p95Error, adaptive.p95Error <= 15);
+			assertTrue("max error " + adaptive.maxError, adaptive.maxError <= AdaptiveSamplingPolicy.MAX_SPACING / 2);
+		}
+	}
+
+	@Test
+	public void lengthensIntervalOnStraightLineUntilTurn() {
+		AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy();
+		policy.reset(BASE);
+		long time = 0;
+		double x = 0;
+		for (; time < 60000; time += 1000) {
+			x += 15;
+			policy.onFix(time, 48.85, 2.35 + x / LONGITUDE_SCALE, 5);
+		}
+		assertEquals(AdaptiveSamplingPolicy.MAX_INTERVAL, policy.getProfile().interval);
+		// Right angle turn
+		assertTrue(policy.onFix(time, 48.85 + 75 / Geo.METERS_PER_DEGREE, 2.35 + x / LONGITUDE_SCALE, 5));
+		assertEquals(BASE.interval, policy.getProfile().interval);
+	}
+
+	@Test
+	public void keepsNominalIntervalInCurves() {
+		AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy();
+		policy.reset(BASE);
+		// Circle of 50 m at 15 m/s, the heading changes by about 17 degrees per second
+		for (int i = 0; i < 120; i++) {
+			double angle = i * 0.3;
+			policy.onFix(i * 1000L, 48.85 + 50 * Math.sin(angle) / Geo.METERS_PER_DEGREE,
+					2.35 + 50 * Math.cos(angle) / LONGITUDE_SCALE, 5);
+		}
+		assertEquals(BASE.interval, policy.getProfile().interval);
+	}
+
+	@Test
+	public void lowersPriorityWhenStopped() {
+		AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy();
+		policy.reset(BASE);
+		Random random = new Random(1);
+		long time = 0;
+		for (; time <= AdaptiveSamplingPolicy.STOPPED_DELAY + 5000; time += 1000) {
+			policy.onFix(time, 48.85 + random.nextGaussian() / Geo.METERS_PER_DEGREE, 2.35, 5);
+		}
+		SamplingProfile stopped = policy.getProfile();
+		assertEquals(SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY, stopped.priority);
+		assertEquals(AdaptiveSamplingPolicy.STOPPED_DISPLACEMENT, stopped.smallestDisplacement, 0);
+
+		assertTrue(policy.onFix(time, 48.85 + 50 / Geo.METERS_PER_DEGREE, 2.35, 5));
+		assertEquals(BASE.priority, policy.getProfile().priority);
+		assertFalse(policy.getProfile().smallestDisplacement > 0);
+	}
+
+	/**
+	 * @return 1 Hz fixes of 20 minutes of driving at 15 m/s, along straight roads with right angle
+	 * turns, around a stop at a light. The error of the fixes drifts slowly, as the one of a receiver.
+	 */
+	static SamplingSimulator.Track drive(Random random) {
+		SamplingSimulator.Track track = new SamplingSimulator.Track(1200);
+		double x = 0;
+		double y = 0;
+		double errorX = 0;
+		double errorY = 0;
+		double heading = 0;
+		int straight = 30 + random.nextInt(60);
+		for (int i = 0; i < 1200; i++) {
+			if (--straight == 0) {
+				heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+				straight = 30 + random.nextInt(60);
+			}
+			// Stopped at a light for a minute in the middle
+			if (i < 570 || i >= 630) {
+				x += 15 * Math.cos(heading);
+				y += 15 * Math.sin(heading);
+			}
+			errorX = 0.95 * errorX + random.nextGaussian() * 0.5;
+			errorY = 0.95 * errorY + random.nextGaussian() * 0.5;
+			track.add(i * 1000L, 48.85 + (y + errorY) / Geo.METERS_PER_DEGREE,
+					2.35 + (x + errorX) / LONGITUDE_SCALE, 5);
+		}
+		return track;
+	}
+}
@@ -0,0 +1,445 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the upload pipeline against a local stand-in of the collector, which fails requests on
+ * purpose: it answers 503, or drops the connection before or after storing the chunk.
+ * <p>
+ * Days of generated fixes go through an {@link UploadQueue} to a {@link TrackStore}. Every night
+ * the phone charges on Wi-Fi, and a {@link ChunkUploader} drains the queue. Some nights the
+ * process is killed before, the fixes not sealed yet are lost and recovered from the store. Once
+ * the failures stop, the collector must hold every fix once and in order.
+ */
+public class ChunkUploaderTest {
+	private static final long FIRST_TIME = 1577836800000L;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	// The phone charges at 23:00 every night
+	private static final long CHARGE_TIME = TimeUnit.HOURS.toMillis(23);
+	private static final int DAYS = 5;
+	private static final double FAILURE_RATE = 0.3;
+	private static final double KILL_RATE = 0.3;
+	// Fixes given to the store between two waits for its writer
+	private static final int STORE_BURST = 1024;
+	private static final long RETRY_DELAY = 10;
+	private static final String DEVICE_ID = "test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void uploadsEveryFixOnceThroughFailuresAndKills() throws IOException, InterruptedException {
+		File storeDirectory = new File(folder.getRoot(), "tracks");
+		File queueDirectory = new File(folder.getRoot(), "upload");
+		Random random = new Random(1);
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track((int) (DAYS * DAY_MILLIS / 1000));
+		ReplayEngine.generateDays(FIRST_TIME, DAYS, random, fixes, new TransitionReplay.Transitions(DAYS * 16));
+		VirtualClock clock = new VirtualClock(FIRST_TIME);
+		TrackStore store = new TrackStore(storeDirectory);
+		UploadQueue queue = new UploadQueue(queueDirectory, store, clock, null);
+		int kills = 0;
+		int recovered = 0;
+		try (StandInCollector collector = new StandInCollector(FAILURE_RATE, random)) {
+			ChunkUploader uploader = new ChunkUploader(collector.getUrl(), DEVICE_ID, RETRY_DELAY);
+			long night = FIRST_TIME + CHARGE_TIME;
+			for (int fix = 0; fix <= fixes.size; fix++) {
+				long time = fix < fixes.size ? fixes.times[fix] : Long.MAX_VALUE;
+				while (time >= night && night <= FIRST_TIME + DAYS * DAY_MILLIS) {
+					clock.advanceTo(night);
+					if (random.nextDouble() < KILL_RATE) {
+						// The pending fixes are lost with the process, the store keeps them
+						kills++;
+						assertTrue("store flushed", store.awaitFlushed(10000));
+						queue = new UploadQueue(queueDirectory, store, clock, null);
+						recovered += queue.recover(new TrackReader(storeDirectory).query(
+								Math.max(0, queue.getSealedTime() + 1), Long.MAX_VALUE / 2));
+					}
+					queue.flush();
+					uploader.drain(queueDirectory);
+					night += DAY_MILLIS;
+				}
+				if (fix < fixes.size) {
+					queue.onFix(time, fixes.latitudes[fix], fixes.longitudes[fix], fixes.accuracies[fix], 0);
+				}
+				// The fixes come much faster than in real time, the store would drop some
+				if (fix % STORE_BURST == 0) {
+					assertTrue("store flushed", store.awaitFlushed(10000));
+				}
+			}
+			// Flushes the last fixes, then drains once the collector behaves
+			clock.advanceTo(night + DAY_MILLIS);
+			queue.flush();
+			collector.setFailureRate(0);
+			assertTrue("queue drained", uploader.drain(queueDirectory));
+			assertEquals(0, UploadQueue.listChunks(queueDirectory).length);
+
+			assertEquals(fixes.size, check(collector.getChunks(), fixes));
+			assertTrue("failures injected", collector.failureCount.get() > 0);
+			assertTrue("stored chunks checked", collector.headCount.get() > 0);
+			assertTrue("killed", kills > 0);
+			assertTrue("recovered", recovered > 0);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void keepsChunksWhenCollectorFails() throws IOException {
+		File queueDirectory = folder.newFolder("upload");
+		SamplingSimulator.Track fixes = queueDays(queueDirectory, new Random(2));
+		int chunks = UploadQueue.listChunks(queueDirectory).length;
+		assertTrue("chunks " + chunks, chunks > 1);
+		try (StandInCollector collector = new StandInCollector(1, new Random(3))) {
+			ChunkUploader uploader = new ChunkUploader(collector.getUrl(), DEVICE_ID, RETRY_DELAY);
+			assertFalse(uploader.drain(queueDirectory));
+			assertEquals(chunks, UploadQueue.listChunks(queueDirectory).length);
+			collector.setFailureRate(0);
+			assertTrue(uploader.drain(queueDirectory));
+			// Some chunks were stored without an answer, they are not sent again
+			assertEquals(0, UploadQueue.listChunks(queueDirectory).length);
+			assertEquals(chunks, collector.getChunks().size());
+			assertEquals(fixes.size, check(collector.getChunks(), fixes));
+		}
+	}
+
+	@Test
+	public void movesRejectedChunksAside() throws IOException {
+		File queueDirectory = folder.newFolder("upload");
+		queueDays(queueDirectory, new Random(4));
+		File[] chunks = UploadQueue.listChunks(queueDirectory);
+		assertTrue("chunks " + chunks.length, chunks.length > 2);
+		String rejectedId = UploadQueue.getChunkId(chunks[1]);
+		try (StandInCollector collector = new StandInCollector(1, new Random(5))) {
+			collector.reject('/' + DEVICE_ID + '/' + rejectedId);
+			ChunkUploader uploader = new ChunkUploader(collector.getUrl(), DEVICE_ID, RETRY_DELAY);
+			// Transient failures are left for a later attempt
+			assertFalse(uploader.drain(queueDirectory));
+			collector.setFailureRate(0);
+			// The rejected chunk does not keep the queue from draining, nor the next chunks from being sent
+			assertTrue(uploader.drain(queueDirectory));
+			assertEquals(0, UploadQueue.listChunks(queueDirectory).length);
+			assertEquals(1, uploader.getRejectedCount());
+			assertTrue("rejected chunk kept", new File(queueDirectory, rejectedId + ChunkUploader.REJECTED_SUFFIX).isFile());
+			assertEquals(chunks.length - 1, collector.getChunks().size());
+			long puts = collector.putCount.get();
+			assertTrue(uploader.drain(queueDirectory));
+			assertEquals("rejected chunk sent again", puts, collector.putCount.get());
+		}
+	}
+
+	@Test
+	public void keepsFixesWhenChunkCanNotBeWritten() throws IOException {
+		// A file in the way of the directory fails the seals
+		File queueDirectory = folder.newFile("upload");
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track(86400);
+		ReplayEngine.generateDays(FIRST_TIME, 1, new Random(4), fixes, new TransitionReplay.Transitions(16));
+		VirtualClock clock = new VirtualClock(FIRST_TIME);
+		UploadQueue queue = new UploadQueue(queueDirectory, new NullSink(), clock, null);
+		int repair = fixes.size / 2;
+		for (int fix = 0; fix < fixes.size; fix++) {
+			if (fix == repair) {
+				assertEquals(Long.MIN_VALUE, queue.getSealedTime());
+				assertTrue(queueDirectory.delete() && queueDirectory.mkdir());
+			}
+			clock.advanceTo(fixes.times[fix]);
+			queue.onFix(fixes.times[fix], fixes.latitudes[fix], fixes.longitudes[fix], fixes.accuracies[fix], 0);
+		}
+		clock.advanceTo(fixes.times[fixes.size - 1] + UploadQueue.MAX_CHUNK_AGE);
+		queue.flush();
+		assertEquals(0, queue.getSkippedCount());
+		assertEquals(fixes.size, check(readChunks(queueDirectory), fixes));
+	}
+
+	@Test
+	public void leavesFixesToRecoveryWhenTooManyPending() throws IOException, InterruptedException {
+		File storeDirectory = new File(folder.getRoot(), "tracks");
+		File queueDirectory = folder.newFile("upload");
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track(2 * 86400);
+		ReplayEngine.generateDays(FIRST_TIME, 2, new Random(5), fixes, new TransitionReplay.Transitions(32));
+		VirtualClock clock = new VirtualClock(FIRST_TIME);
+		TrackStore store = new TrackStore(storeDirectory);
+		try {
+			UploadQueue queue = new UploadQueue(queueDirectory, store, clock, null);
+			boolean repaired = false;
+			for (int fix = 0; fix < fixes.size; fix++) {
+				if (!repaired && queue.getSkippedCount() > 0) {
+					repaired = true;
+					assertTrue(queueDirectory.delete() && queueDirectory.mkdir());
+				}
+				clock.advanceTo(fixes.times[fix]);
+				queue.onFix(fixes.times[fix], fixes.latitudes[fix], fixes.longitudes[fix], fixes.accuracies[fix], 0);
+				if (fix % STORE_BURST == 0) {
+					assertTrue("store flushed", store.awaitFlushed(10000));
+				}
+			}
+			assertTrue("overflowed", repaired);
+			assertTrue("sealed", queue.getSealedTime() > Long.MIN_VALUE);
+			// The next process packs the skipped fixes
+			assertTrue("store flushed", store.awaitFlushed(10000));
+			queue = new UploadQueue(queueDirectory, store, clock, null);
+			int recovered = queue.recover(new TrackReader(storeDirectory).query(
+					Math.max(0, queue.getSealedTime() + 1), Long.MAX_VALUE / 2));
+			assertTrue("recovered " + recovered, recovered > 0);
+			clock.advanceTo(fixes.times[fixes.size - 1] + UploadQueue.MAX_CHUNK_AGE);
+			queue.flush();
+			assertEquals(fixes.size, check(readChunks(queueDirectory), fixes));
+		} finally {
+			store.close();
+		}
+	}
+
+	// Two days of generated fixes packed into chunks
+	private static SamplingSimulator.Track queueDays(File queueDirectory, Random random) {
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track(3 * 86400);
+		ReplayEngine.generateDays(FIRST_TIME, 2, random, fixes, new TransitionReplay.Transitions(32));
+		VirtualClock clock = new VirtualClock(FIRST_TIME);
+		UploadQueue queue = new UploadQueue(queueDirectory, new NullSink(), clock, null);
+		for (int fix = 0; fix < fixes.size; fix++) {
+			queue.onFix(fixes.times[fix], fixes.latitudes[fix], fixes.longitudes[fix], fixes.accuracies[fix], 0);
+		}
+		clock.advanceTo(fixes.times[fixes.size - 1] + UploadQueue.MAX_CHUNK_AGE);
+		queue.flush();
+		return fixes;
+	}
+
+	private static Map<String, byte[]> readChunks(File directory) throws IOException {
+		Map<String, byte[]> chunks = new HashMap<>();
+		for (File chunk : UploadQueue.listChunks(directory)) {
+			chunks.put(UploadQueue.getChunkId(chunk), Files.readAllBytes(chunk.toPath()));
+		}
+		return chunks;
+	}
+
+	// Decodes the stored chunks, which must hold the generated fixes once and in order
+	private static long check(Map<String, byte[]> chunks, SamplingSimulator.Track fixes) throws IOException {
+		List<String> ids = new ArrayList<>(chunks.keySet());
+		Collections.sort(ids);
+		int fix = 0;
+		for (String id : ids) {
+			TrackDecoder decoder = new TrackDecoder(ByteBuffer.wrap(gunzip(chunks.get(id))));
+			while (decoder.next()) {
+				assertTrue("fix at " + decoder.getTime() + " in " + id + " after the last one", fix < fixes.size);
+				assertEquals("fix in " + id, fixes.times[fix], decoder.getTime());
+				assertEquals(fixes.latitudes[fix], decoder.getLatitude(), 1e-7);
+				assertEquals(fixes.longitudes[fix], decoder.getLongitude(), 1e-7);
+				fix++;
+			}
+		}
+		assertEquals("fixes uploaded", fixes.size, fix);
+		return fix;
+	}
+
+	private static byte[] gunzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) != -1) {
+				out.write(buffer, 0, length);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Minimal HTTP/1.1 collector on the loopback interface, which stores the chunks put to it
+	 * in memory and tells whether it has one on HEAD. The chunks of the rejected paths are
+	 * answered 400.
+	 */
+	static class StandInCollector implements Closeable {
+		private final ServerSocket serverSocket;
+		private final Map<String, byte[]> chunks = new ConcurrentHashMap<>();
+		private final Set<String> rejectedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final Random random;
+		private volatile double failureRate;
+		final AtomicLong putCount = new AtomicLong();
+		final AtomicLong headCount = new AtomicLong();
+		final AtomicLong failureCount = new AtomicLong();
+		private final AtomicLong receivedBytes = new AtomicLong();
+
+		StandInCollector(double failureRate, Random random) throws IOException {
+			this.failureRate = failureRate;
+			this.random = new Random(random.nextLong());
+			serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+			Thread acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					accept();
+				}
+			}, "Collector");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		URL getUrl() throws IOException {
+			return new URL("http", serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), "/");
+		}
+
+		void setFailureRate(double failureRate) {
+			this.failureRate = failureRate;
+		}
+
+		void reject(String path) {
+			rejectedPaths.add(path);
+		}
+
+		/**
+		 * @return the stored chunks, by path
+		 */
+		Map<String, byte[]> getChunks() {
+			return chunks;
+		}
+
+		// Bytes of the bodies received, stored or not
+		long getReceivedBytes() {
+			return receivedBytes.get();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+
+		private void accept() {
+			while (!serverSocket.isClosed()) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (IOException e) {
+					return;
+				}
+				Thread connection = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try (Socket closed = socket) {
+							serve(closed.getInputStream(), closed.getOutputStream());
+						} catch (IOException e) {
+							// Dropped by either side
+						}
+					}
+				}, "Collector connection");
+				connection.setDaemon(true);
+				connection.start();
+			}
+		}
+
+		// Serves the requests of a kept-alive connection, returns when a failure drops it
+		private void serve(InputStream socketIn, OutputStream out) throws IOException {
+			InputStream in = new BufferedInputStream(socketIn);
+			String requestLine;
+			while ((requestLine = readLine(in)) != null) {
+				String[] request = requestLine.split(" ");
+				int contentLength = 0;
+				String header;
+				while ((header = readLine(in)) != null && !header.isEmpty()) {
+					int colon = header.indexOf(':');
+					if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+						contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+					}
+				}
+				String path = request.length > 1 ? request[1] : "";
+				int failure = random.nextDouble() < failureRate ? 1 + random.nextInt(3) : 0;
+				if (failure != 0) {
+					failureCount.incrementAndGet();
+				}
+				if ("PUT".equals(request[0])) {
+					putCount.incrementAndGet();
+					// Dropped before the body is read
+					if (failure == 1) return;
+					byte[] body = new byte[contentLength];
+					int read = 0;
+					while (read < contentLength) {
+						int length = in.read(body, read, contentLength - read);
+						if (length < 0) return;
+						read += length;
+					}
+					receivedBytes.addAndGet(contentLength);
+					if (failure == 2) {
+						respond(out, 503, "Service Unavailable");
+						continue;
+					}
+					if (rejectedPaths.contains(path)) {
+						respond(out, 400, "Bad Request");
+						continue;
+					}
+					chunks.put(path, body);
+					// Stored, but the answer is lost
+					if (failure == 3) return;
+					respond(out, 201, "Created");
+				} else if ("HEAD".equals(request[0])) {
+					headCount.incrementAndGet();
+					if (failure != 0) return;
+					if (chunks.containsKey(path)) {
+						respond(out, 200, "OK");
+					} else {
+						respond(out, 404, "Not Found");
+					}
+				} else {
+					respond(out, 405, "Method Not Allowed");
+				}
+			}
+		}
+
+		private static void respond(OutputStream out, int status, String reason) throws IOException {
+			out.write(("HTTP/1.1 " + status + ' ' + reason + "\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+		}
+
+		// Reads a line ended by CRLF, null at the end of the stream
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1) {
+				if (c == '\n') {
+					int length = line.length();
+					return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+				}
+				line.append((char) c);
+			}
+			return line.length() == 0 ? null : line.toString();
+		}
+	}
+
+	private static class NullSink implements FixSink {
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EnergyBudgetPlannerTest {
+	private static final int DAYS = 7;
+	// The device draws more than the default model predicts
+	private static final double SCALE = 1.5;
+
+	@Test
+	public void drawsLessThanBudget() {
+		for (double budget : new double[]{30, 60, 100}) {
+			EnergyBudgetSimulator.Day[] days = simulate(budget, SCALE);
+			for (int d = 0; d < DAYS; d++) {
+				assertTrue("day " + d + " drew " + days[d].actualCharge + " mAh for " + budget,
+						days[d].actualCharge <= budget);
+			}
+		}
+	}
+
+	@Test
+	public void spendsBudgetOnAccuracy() {
+		EnergyBudgetSimulator.Day[] unlimited = simulate(0, SCALE);
+		for (double budget : new double[]{30, 60, 100}) {
+			EnergyBudgetSimulator.Day[] days = simulate(budget, SCALE);
+			for (int d = 0; d < DAYS; d++) {
+				double needed = Math.min(unlimited[d].spentCharge, budget);
+				assertTrue("day " + d + " spent " + days[d].spentCharge + " mAh of " + budget,
+						days[d].spentCharge >= 0.6 * needed);
+				assertTrue(days[d].getMeanError() >= unlimited[d].getMeanError());
+			}
+		}
+	}
+
+	@Test
+	public void tracksAtFullAccuracyWithoutBudget() {
+		EnergyBudgetSimulator.Day[] unlimited = simulate(0, SCALE);
+		EnergyBudgetSimulator.Day[] large = simulate(1000, SCALE);
+		for (int d = 0; d < DAYS; d++) {
+			assertEquals(unlimited[d].fixCount, large[d].fixCount);
+			assertEquals(unlimited[d].spentCharge, large[d].spentCharge, 1e-9);
+			int balanced = EnergyModel.getPriorityIndex(SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY);
+			assertEquals(0, unlimited[d].priorityTimes[balanced]);
+		}
+	}
+
+	@Test
+	public void calibratesModelOnMeasuredDrain() {
+		for (double scale : new double[]{0.7, SCALE}) {
+			EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+			new EnergyBudgetSimulator(scale, 1).run(planner, DAYS);
+			assertEquals(scale, planner.getModel().getScale(), 0.1 * scale);
+		}
+	}
+
+	private static EnergyBudgetSimulator.Day[] simulate(double budget, double scale) {
+		EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+		planner.setDailyBudget(budget);
+		return new EnergyBudgetSimulator(scale, 1).run(planner, DAYS);
+	}
+}
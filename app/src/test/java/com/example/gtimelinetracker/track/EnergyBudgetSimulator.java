@@ -0,0 +1,141 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates days of trips tracked under a daily energy budget and tells, for each day, the
+ * charge spent on tracking, the share of time spent at each priority and the expected error of
+ * the requested fixes.
+ * <p>
+ * The simulated device draws {@code scale} times the charge predicted by the default
+ * {@link EnergyModel}, on top of an idle current, and the model is calibrated on it every
+ * {@link #OBSERVATION_INTERVAL}, as the tracker does.
+ */
+public class EnergyBudgetSimulator {
+	static final long OBSERVATION_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+	static final long TICK = 1000;
+	static final double IDLE_CURRENT = 20;
+	// Charge of the simulated battery, in mAh
+	static final double BATTERY_CAPACITY = 3000;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private final double scale;
+	private final Random random;
+
+	public EnergyBudgetSimulator(double scale, long seed) {
+		this.scale = scale;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Simulates {@code days} days, each with a commute by vehicle in the morning and evening and
+	 * walks of random length in between. The battery is recharged every night.
+	 *
+	 * @return the results of every day
+	 */
+	public Day[] run(EnergyBudgetPlanner planner, int days) {
+		SamplingProfile vehicle = new SamplingProfile(1000, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, 30000);
+		SamplingProfile onFoot = new SamplingProfile(1000, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, 60000);
+		BudgetSamplingPolicy policy = new BudgetSamplingPolicy(new FixedSamplingPolicy(), planner);
+		Day[] results = new Day[days];
+		double battery = BATTERY_CAPACITY;
+		long observationTime = 0;
+		double observedRawCharge = 0;
+		double observedCharge = 0;
+		for (int d = 0; d < days; d++) {
+			Day day = results[d] = new Day();
+			long dayStart = d * DAY_MILLIS;
+			battery = BATTERY_CAPACITY;
+			long[] tripStarts = {
+					dayStart + 8 * HOUR_MILLIS + random.nextInt(30) * 60000L,
+					dayStart + 12 * HOUR_MILLIS + random.nextInt(60) * 60000L,
+					dayStart + 15 * HOUR_MILLIS + random.nextInt(60) * 60000L,
+					dayStart + 18 * HOUR_MILLIS + random.nextInt(30) * 60000L,
+			};
+			long[] tripDurations = {
+					(30 + random.nextInt(30)) * 60000L,
+					(10 + random.nextInt(40)) * 60000L,
+					(10 + random.nextInt(40)) * 60000L,
+					(30 + random.nextInt(30)) * 60000L,
+			};
+			int trip = 0;
+			long nextFix = Long.MAX_VALUE;
+			double latitude = 48.85;
+			double longitude = 2.35;
+			float speed = 0;
+			for (long time = dayStart; time < dayStart + DAY_MILLIS; time += TICK) {
+				if (trip < tripStarts.length && time == tripStarts[trip]) {
+					boolean commute = trip == 0 || trip == tripStarts.length - 1;
+					speed = commute ? 15 : 1.4f;
+					policy.reset(commute ? vehicle : onFoot);
+					policy.plan(time);
+					planner.onProfile(time, policy.getProfile());
+					nextFix = time;
+				} else if (trip < tripStarts.length && time >= tripStarts[trip] + tripDurations[trip]) {
+					planner.onProfile(time, null);
+					nextFix = Long.MAX_VALUE;
+					speed = 0;
+					trip++;
+				}
+				latitude += speed * TICK / 1000.0 / 111000;
+				if (time >= nextFix) {
+					SamplingProfile profile = policy.getProfile();
+					day.addFix(profile, speed);
+					if (policy.onFix(time, latitude, longitude, 5)) {
+						planner.onProfile(time, policy.getProfile());
+					}
+					nextFix = time + policy.getProfile().interval;
+				}
+				planner.update(time);
+				if (nextFix != Long.MAX_VALUE) {
+					day.addTime(policy.getProfile());
+				}
+
+				// The device drains according to its own scale, the planner only sees the measurements
+				double drained = IDLE_CURRENT * TICK / HOUR_MILLIS;
+				battery -= drained;
+				observedCharge += drained;
+				planner.setBatteryLevel((float) (battery / BATTERY_CAPACITY));
+				if (time - observationTime >= OBSERVATION_INTERVAL) {
+					double rawCharge = planner.getRawCharge() - observedRawCharge;
+					double measured = observedCharge + rawCharge * scale;
+					battery -= rawCharge * scale;
+					planner.getModel().addObservation(time - observationTime, rawCharge, measured);
+					observationTime = time;
+					observedRawCharge = planner.getRawCharge();
+					observedCharge = 0;
+				}
+			}
+			planner.update(dayStart + DAY_MILLIS - 1);
+			day.spentCharge = planner.getSpentCharge();
+			day.actualCharge = day.spentCharge / planner.getModel().getScale() * scale;
+			day.batteryLevel = battery / BATTERY_CAPACITY;
+		}
+		return results;
+	}
+
+	public static class Day {
+		// Time spent tracking, in seconds, by index in EnergyModel.PRIORITIES
+		public final long[] priorityTimes = new long[EnergyModel.PRIORITIES.length];
+		public int fixCount;
+		public double errorSum;
+		public double spentCharge;
+		public double actualCharge;
+		public double batteryLevel;
+
+		void addFix(SamplingProfile profile, float speed) {
+			fixCount++;
+			errorSum += EnergyBudgetPlanner.getExpectedError(profile.interval, profile.priority, speed);
+		}
+
+		void addTime(SamplingProfile profile) {
+			priorityTimes[EnergyModel.getPriorityIndex(profile.priority)]++;
+		}
+
+		public double getMeanError() {
+			return fixCount == 0 ? 0 : errorSum / fixCount;
+		}
+	}
+}
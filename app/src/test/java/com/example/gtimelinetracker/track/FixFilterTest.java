@@ -0,0 +1,114 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks each reason for a {@link FixFilter} to reject a fix, with the limits the tracking core
+ * sets for each group of activities.
+ */
+public class FixFilterTest {
+	private static final long START = 1577836800000L;
+	private static final double LATITUDE = 48.85;
+	private static final double LONGITUDE = 2.35;
+	private static final float ACCURACY = 5;
+	private static final long INTERVAL = 10000;
+
+	@Test
+	public void rejectsInaccurateFixes() {
+		FixFilter filter = newFilter(ActivitySettings.ON_FOOT);
+		assertFalse(filter.accept(0, START, LATITUDE, LONGITUDE, Math.nextUp(TrackingCore.MAX_FIX_ACCURACY)));
+		assertTrue(filter.accept(0, START, LATITUDE, LONGITUDE, TrackingCore.MAX_FIX_ACCURACY));
+		assertEquals("FixFilter{accepted=1, inaccurate=1, stale=0, tooFast=0}", filter.toString());
+	}
+
+	@Test
+	public void rejectsStaleFixes() {
+		for (ActivitySettings settings : new ActivitySettings[]{ActivitySettings.VEHICLE, ActivitySettings.ON_FOOT}) {
+			FixFilter filter = newFilter(settings);
+			// Batched fixes may wait for the whole batch on top of the delivery delay
+			long maxAge = TrackingCore.MAX_FIX_AGE + settings.profile.maxWaitTime;
+			assertFalse(filter.accept(maxAge + 1, START, LATITUDE, LONGITUDE, ACCURACY));
+			assertTrue(filter.accept(maxAge, START, LATITUDE, LONGITUDE, ACCURACY));
+			// Fixes older than the last accepted one
+			assertFalse(filter.accept(0, START, LATITUDE, LONGITUDE, ACCURACY));
+			assertFalse(filter.accept(0, START - 1, LATITUDE, LONGITUDE, ACCURACY));
+			assertTrue(filter.accept(0, START + 1, LATITUDE, LONGITUDE, ACCURACY));
+			assertEquals(settings.toString(), "FixFilter{accepted=2, inaccurate=0, stale=3, tooFast=0}", filter.toString());
+		}
+	}
+
+	@Test
+	public void rejectsTooFastFixesPerActivityGroup() {
+		int[] groups = ActivityTypes.getGroups();
+		for (int activityType = 0; activityType < groups.length; activityType++) {
+			if (groups[activityType] != activityType) continue;
+			ActivitySettings settings = ActivityTypes.getSettings(activityType);
+			String message = "activity " + activityType;
+			FixFilter filter = newFilter(settings);
+			assertTrue(filter.accept(0, START, LATITUDE, LONGITUDE, ACCURACY));
+			// The accuracies of both fixes may explain part of the move
+			double reach = settings.maxSpeed * INTERVAL / 1000.0 + 2 * ACCURACY;
+			assertFalse(message, filter.accept(0, START + INTERVAL, latitude(reach + 1), LONGITUDE, ACCURACY));
+			assertTrue(message, filter.accept(0, START + INTERVAL, latitude(reach - 1), LONGITUDE, ACCURACY));
+			assertEquals(message, "FixFilter{accepted=2, inaccurate=0, stale=0, tooFast=1}", filter.toString());
+		}
+	}
+
+	@Test
+	public void appliesSpeedOfTrackedActivity() {
+		// 30 m/s, a car on a highway but neither a cyclist nor a walker
+		double step = 30 * INTERVAL / 1000.0;
+		ActivitySettings[] settings = {ActivitySettings.VEHICLE, ActivitySettings.BICYCLE, ActivitySettings.ON_FOOT, ActivitySettings.RUNNING};
+		boolean[] accepted = {true, false, false, false};
+		for (int i = 0; i < settings.length; i++) {
+			FixFilter filter = newFilter(settings[i]);
+			assertTrue(filter.accept(0, START, LATITUDE, LONGITUDE, ACCURACY));
+			assertEquals(settings[i].toString(), accepted[i], filter.accept(0, START + INTERVAL, latitude(step), LONGITUDE, ACCURACY));
+		}
+	}
+
+	@Test
+	public void takesNewReferenceAfterSpeedRejections() {
+		FixFilter filter = newFilter(ActivitySettings.ON_FOOT);
+		// A wrong first fix 5 km away from where the user walks
+		assertTrue(filter.accept(0, START, latitude(5000), LONGITUDE, ACCURACY));
+		long time = START;
+		for (int i = 0; i < FixFilter.MAX_SPEED_REJECTIONS; i++) {
+			time += INTERVAL;
+			assertFalse(filter.accept(0, time, latitude(i * 10), LONGITUDE, ACCURACY));
+		}
+		time += INTERVAL;
+		assertTrue(filter.accept(0, time, latitude(50), LONGITUDE, ACCURACY));
+		assertTrue(filter.accept(0, time + INTERVAL, latitude(60), LONGITUDE, ACCURACY));
+		assertFalse(filter.accept(0, time + 2 * INTERVAL, latitude(5000), LONGITUDE, ACCURACY));
+		assertEquals("FixFilter{accepted=3, inaccurate=0, stale=0, tooFast=6}", filter.toString());
+		assertEquals(6, filter.getRejectedCount());
+	}
+
+	@Test
+	public void skipsSpeedCheckAfterGapOrReset() {
+		FixFilter filter = newFilter(ActivitySettings.ON_FOOT);
+		assertTrue(filter.accept(0, START, LATITUDE, LONGITUDE, ACCURACY));
+		// Back from the underground, 2 km away after a minute
+		assertTrue(filter.accept(0, START + FixFilter.MAX_GAP, latitude(2000), LONGITUDE, ACCURACY));
+		filter.reset();
+		assertTrue(filter.accept(0, START + FixFilter.MAX_GAP + INTERVAL, LATITUDE, LONGITUDE, ACCURACY));
+		assertEquals(3, filter.getAcceptedCount());
+		assertEquals(0, filter.getRejectedCount());
+	}
+
+	// A filter with the limits of the tracking core
+	private static FixFilter newFilter(ActivitySettings settings) {
+		FixFilter filter = new FixFilter();
+		filter.setLimits(TrackingCore.MAX_FIX_ACCURACY, TrackingCore.MAX_FIX_AGE + settings.profile.maxWaitTime, settings.maxSpeed);
+		return filter;
+	}
+
+	private static double latitude(double north) {
+		return LATITUDE + north / Geo.METERS_PER_DEGREE;
+	}
+}
@@ -0,0 +1,24 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Always uses the nominal profile of the tracked activity, the baseline the simulations compare
+ * the adaptive policies with, and the delegate of the policies under test.
+ */
+public class FixedSamplingPolicy implements SamplingPolicy {
+	private SamplingProfile profile;
+
+	@Override
+	public void reset(SamplingProfile base) {
+		profile = base;
+	}
+
+	@Override
+	public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+		return false;
+	}
+
+	@Override
+	public SamplingProfile getProfile() {
+		return profile;
+	}
+}
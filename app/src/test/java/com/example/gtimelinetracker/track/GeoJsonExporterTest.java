@@ -0,0 +1,48 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoJsonExporterTest {
+	private static final long START = 1577836800000L;
+	private static final String[] ACTIVITY_NAMES = {"IN_VEHICLE", "ON_BICYCLE", "ON_FOOT"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesLineStringsAndPoints() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tracks");
+		TrackStore store = new TrackStore(directory);
+		store.onFix(START, 48.85, 2.35, 5, 0);
+		store.onFix(START + 1000, 48.851, 2.351, 5, 0);
+		store.onFix(START + 1001, 48.851, 2.351, 5, TrackStore.GAP_MARKER);
+		// A single fix after the gap
+		store.onFix(START + 60000, 48.86, 2.36, 5, 2);
+		store.close();
+		assertTrue("store closed", store.awaitClosed(10000));
+
+		StringWriter out = new StringWriter();
+		GeoJsonExporter exporter = new GeoJsonExporter(out, ACTIVITY_NAMES);
+		long count = exporter.export(new TrackReader(directory).query(0, Long.MAX_VALUE / 2),
+				new TransitionLog(directory).query(0, Long.MAX_VALUE / 2));
+		assertEquals(3, count);
+		assertEquals("{\"type\":\"FeatureCollection\",\"features\":[\n"
+				+ "{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":"
+				+ "[[2.3500000,48.8500000],[2.3510000,48.8510000]]},"
+				+ "\"properties\":{\"activity\":\"IN_VEHICLE\",\"startTime\":\"2020-01-01T00:00:00.000Z\","
+				+ "\"endTime\":\"2020-01-01T00:00:01.000Z\"}},\n"
+				+ "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[2.3600000,48.8600000]},"
+				+ "\"properties\":{\"activity\":\"ON_FOOT\",\"startTime\":\"2020-01-01T00:01:00.000Z\","
+				+ "\"endTime\":\"2020-01-01T00:01:00.000Z\"}}\n"
+				+ "]}\n", out.toString());
+	}
+}
@@ -0,0 +1,184 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports stored fixes to GPX and reads them back with the XML parser of the JDK, and checks how
+ * the activity transitions split the exported tracks.
+ */
+public class GpxExporterTest {
+	private static final long START = 1577836800000L;
+	private static final String GPX_NAMESPACE = "http://www.topografix.com/GPX/1/1";
+	private static final String[] ACTIVITY_NAMES = {"IN_VEHICLE", "ON_BICYCLE", "ON_FOOT"};
+	// Half of the last decimal written
+	private static final double COORDINATE_DELTA = 0.5e-7 + 1e-12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackExportedFixes() throws IOException, InterruptedException, ParseException, ParserConfigurationException, SAXException {
+		File directory = folder.newFolder("tracks");
+		TrackStore store = new TrackStore(directory);
+		Random random = new Random(1);
+		List<List<double[]>> expected = new ArrayList<>();
+		List<Integer> activities = new ArrayList<>();
+		// Segments around Rio, west and south of Greenwich, long enough to go through the buffer of
+		// the exporter several times. The fourth and fifth ones are only split by a marked gap, the
+		// fifth and sixth ones by a silent gap
+		long time = START;
+		double latitude = -22.9;
+		double longitude = -43.2;
+		int[] segmentActivities = {0, 1, 2, 1, 1, 1, 2, 0};
+		for (int segment = 0; segment < segmentActivities.length; segment++) {
+			int activity = segmentActivities[segment];
+			List<double[]> fixes = new ArrayList<>();
+			for (int i = 0; i < 300; i++) {
+				time += 1000 + random.nextInt(1000);
+				latitude += (random.nextDouble() - 0.5) * 1e-4;
+				longitude += (random.nextDouble() - 0.5) * 1e-4;
+				store.onFix(time, latitude, longitude, 5, activity);
+				fixes.add(new double[]{time, latitude, longitude});
+				if (i % 100 == 99) {
+					assertTrue(store.awaitFlushed(10000));
+				}
+			}
+			expected.add(fixes);
+			activities.add(activity);
+			if (segment == 3) {
+				store.onFix(time + 1, latitude, longitude, 5, TrackStore.GAP_MARKER);
+			} else if (segment == 4) {
+				time += TrackExporter.MAX_GAP + 1;
+			}
+		}
+		store.close();
+		assertTrue("store closed", store.awaitClosed(10000));
+
+		StringWriter out = new StringWriter();
+		long count = new GpxExporter(out, ACTIVITY_NAMES).export(new TrackReader(directory).query(0, Long.MAX_VALUE / 2),
+				new TransitionLog(directory).query(0, Long.MAX_VALUE / 2));
+		assertEquals(segmentActivities.length * 300, count);
+		Element root = parse(out.toString()).getDocumentElement();
+		assertEquals(GPX_NAMESPACE, root.getNamespaceURI());
+		assertEquals("gpx", root.getLocalName());
+		assertEquals("1.1", root.getAttribute("version"));
+		NodeList tracks = root.getElementsByTagNameNS(GPX_NAMESPACE, "trk");
+		assertEquals(expected.size(), tracks.getLength());
+		SimpleDateFormat timeFormat = newTimeFormat();
+		for (int i = 0; i < tracks.getLength(); i++) {
+			Element track = (Element) tracks.item(i);
+			assertEquals("track " + i, ACTIVITY_NAMES[activities.get(i)], getText(track, "type"));
+			assertEquals(1, track.getElementsByTagNameNS(GPX_NAMESPACE, "trkseg").getLength());
+			NodeList points = track.getElementsByTagNameNS(GPX_NAMESPACE, "trkpt");
+			List<double[]> fixes = expected.get(i);
+			assertEquals("track " + i, fixes.size(), points.getLength());
+			for (int j = 0; j < points.getLength(); j++) {
+				Element point = (Element) points.item(j);
+				double[] fix = fixes.get(j);
+				assertEquals((long) fix[0], timeFormat.parse(getText(point, "time")).getTime());
+				assertEquals(fix[1], Double.parseDouble(point.getAttribute("lat")), COORDINATE_DELTA);
+				assertEquals(fix[2], Double.parseDouble(point.getAttribute("lon")), COORDINATE_DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void splitsTracksOnTransitions() throws IOException, InterruptedException, ParseException, ParserConfigurationException, SAXException {
+		File directory = folder.newFolder("tracks");
+		TrackStore store = new TrackStore(directory);
+		TransitionLog transitions = new TransitionLog(directory);
+		// Fixes every 10 s for 40 minutes, all recorded as on foot, the transitions tell otherwise
+		for (long time = START; time < START + 2400000; time += 10000) {
+			store.onFix(time, 48.85 + (time - START) * 1e-9, 2.35, 5, 2);
+		}
+		store.close();
+		assertTrue("store closed", store.awaitClosed(10000));
+		transitions.append(START - 60000, 0, TransitionLog.TRANSITION_ENTER);
+		// On a fix, which already belongs to the new activity
+		transitions.append(START + 600000, 1, TransitionLog.TRANSITION_ENTER);
+		// The exit of another activity is ignored
+		transitions.append(START + 900005, 0, TransitionLog.TRANSITION_EXIT);
+		transitions.append(START + 1200005, 1, TransitionLog.TRANSITION_EXIT);
+		transitions.append(START + 1800005, 0, TransitionLog.TRANSITION_ENTER);
+		String[] types = {"IN_VEHICLE", "ON_BICYCLE", "ON_FOOT", "IN_VEHICLE"};
+		long[] startTimes = {START, START + 600000, START + 1210000, START + 1810000};
+		long[] endTimes = {START + 590000, START + 1200000, START + 1800000, START + 2390000};
+
+		StringWriter out = new StringWriter();
+		new GpxExporter(out, ACTIVITY_NAMES).export(new TrackReader(directory).query(0, Long.MAX_VALUE / 2),
+				transitions.query(0, Long.MAX_VALUE / 2));
+		NodeList tracks = parse(out.toString()).getDocumentElement().getElementsByTagNameNS(GPX_NAMESPACE, "trk");
+		assertEquals(types.length, tracks.getLength());
+		SimpleDateFormat timeFormat = newTimeFormat();
+		for (int i = 0; i < types.length; i++) {
+			Element track = (Element) tracks.item(i);
+			assertEquals("track " + i, types[i], getText(track, "type"));
+			NodeList times = track.getElementsByTagNameNS(GPX_NAMESPACE, "time");
+			assertEquals("track " + i, startTimes[i], timeFormat.parse(times.item(0).getTextContent()).getTime());
+			assertEquals("track " + i, endTimes[i], timeFormat.parse(times.item(times.getLength() - 1).getTextContent()).getTime());
+			assertEquals("track " + i, (endTimes[i] - startTimes[i]) / 10000 + 1, times.getLength());
+		}
+
+		// The same features in GeoJSON
+		out = new StringWriter();
+		new GeoJsonExporter(out, ACTIVITY_NAMES).export(new TrackReader(directory).query(0, Long.MAX_VALUE / 2),
+				transitions.query(0, Long.MAX_VALUE / 2));
+		Matcher matcher = Pattern.compile("\"activity\":\"([A-Z_]+)\",\"startTime\":\"([^\"]+)\",\"endTime\":\"([^\"]+)\"")
+				.matcher(out.toString());
+		for (int i = 0; i < types.length; i++) {
+			assertTrue("feature " + i, matcher.find());
+			assertEquals(types[i], matcher.group(1));
+			assertEquals(startTimes[i], timeFormat.parse(matcher.group(2)).getTime());
+			assertEquals(endTimes[i], timeFormat.parse(matcher.group(3)).getTime());
+		}
+		assertFalse("extra feature", matcher.find());
+	}
+
+	private static Document parse(String xml) throws ParserConfigurationException, IOException, SAXException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+	}
+
+	// Text of the only child element with the given name
+	private static String getText(Element element, String name) {
+		NodeList children = element.getElementsByTagNameNS(GPX_NAMESPACE, name);
+		assertEquals(name, 1, children.getLength());
+		return children.item(0).getTextContent();
+	}
+
+	private static SimpleDateFormat newTimeFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		return format;
+	}
+}
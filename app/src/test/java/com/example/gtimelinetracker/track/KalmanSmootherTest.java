@@ -0,0 +1,131 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Smooths straight lines travelled at constant speed with a {@link KalmanSmoother}, and checks
+ * how far the smoothed positions are from the true ones.
+ */
+public class KalmanSmootherTest {
+	private static final long START = 1577836800000L;
+	private static final long INTERVAL = 1000;
+	private static final double LATITUDE = 48.85;
+	private static final double LONGITUDE = 2.35;
+	private static final double LONGITUDE_SCALE = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+	// 15 m/s to the north-east
+	private static final double SPEED_NORTH = 9;
+	private static final double SPEED_EAST = 12;
+
+	@Test
+	public void convergesOnExactLine() {
+		Recorder recorder = new Recorder();
+		KalmanSmoother smoother = new KalmanSmoother(recorder, ActivitySettings.VEHICLE.processNoise);
+		// 20 minutes, far enough to move the local plane
+		int fixes = 1200;
+		for (int i = 0; i < fixes; i++) {
+			smoother.onFix(START + i * INTERVAL, trueLatitude(i), trueLongitude(i), 10, ActivityTypes.IN_VEHICLE);
+		}
+		assertEquals(fixes, recorder.fixes.size());
+		// Unchanged first fix, then the estimated speed catches up
+		assertEquals(0, error(recorder.fixes.get(0), 0), 0);
+		for (int i = 60; i < fixes; i++) {
+			assertTrue("fix " + i + " error " + error(recorder.fixes.get(i), i), error(recorder.fixes.get(i), i) < 0.1);
+			assertEquals(START + i * INTERVAL, (long) recorder.fixes.get(i)[0]);
+		}
+	}
+
+	@Test
+	public void reducesNoiseOnStraightLine() {
+		Recorder recorder = new Recorder();
+		KalmanSmoother smoother = new KalmanSmoother(recorder, ActivitySettings.VEHICLE.processNoise);
+		Random random = new Random(1);
+		float accuracy = 10;
+		int fixes = 600;
+		double rawSquares = 0;
+		for (int i = 0; i < fixes; i++) {
+			double latitude = trueLatitude(i) + random.nextGaussian() * accuracy / Math.sqrt(2) / Geo.METERS_PER_DEGREE;
+			double longitude = trueLongitude(i) + random.nextGaussian() * accuracy / Math.sqrt(2) / LONGITUDE_SCALE;
+			if (i >= 60) {
+				double north = (latitude - trueLatitude(i)) * Geo.METERS_PER_DEGREE;
+				double east = (longitude - trueLongitude(i)) * LONGITUDE_SCALE;
+				rawSquares += north * north + east * east;
+			}
+			smoother.onFix(START + i * INTERVAL, latitude, longitude, accuracy, ActivityTypes.IN_VEHICLE);
+		}
+		double smoothedSquares = 0;
+		for (int i = 60; i < fixes; i++) {
+			double[] fix = recorder.fixes.get(i);
+			smoothedSquares += error(fix, i) * error(fix, i);
+			// The estimated accuracy is better than the one of the fixes
+			assertTrue("fix " + i + " accuracy " + fix[3], fix[3] < accuracy);
+		}
+		double rawError = Math.sqrt(rawSquares / (fixes - 60));
+		double smoothedError = Math.sqrt(smoothedSquares / (fixes - 60));
+		assertTrue("raw " + rawError + " smoothed " + smoothedError, smoothedError < rawError * 0.7);
+	}
+
+	@Test
+	public void restartsAfterGap() {
+		Recorder recorder = new Recorder();
+		KalmanSmoother smoother = new KalmanSmoother(recorder, ActivitySettings.VEHICLE.processNoise);
+		for (int i = 0; i < 100; i++) {
+			smoother.onFix(START + i * INTERVAL, trueLatitude(i), trueLongitude(i), 10, ActivityTypes.IN_VEHICLE);
+		}
+		// After a gap, back in time or after a reset, the fix goes through unchanged instead of
+		// being pulled along the former speed
+		long[] times = {START + 99 * INTERVAL + KalmanSmoother.MAX_GAP + 1, START, START + 10 * INTERVAL};
+		for (int i = 0; i < times.length; i++) {
+			if (i == 2) {
+				smoother.reset();
+			}
+			smoother.onFix(times[i], LATITUDE, LONGITUDE, 20, ActivityTypes.ON_FOOT);
+			double[] fix = recorder.fixes.get(recorder.fixes.size() - 1);
+			assertEquals(times[i], (long) fix[0]);
+			assertEquals(LATITUDE, fix[1], 0);
+			assertEquals(LONGITUDE, fix[2], 0);
+			assertEquals(20, fix[3], 0);
+		}
+		// The restarted filter assumes no speed, a still user stays in place
+		for (int i = 1; i <= 30; i++) {
+			smoother.onFix(times[2] + i * INTERVAL, LATITUDE, LONGITUDE, 20, ActivityTypes.ON_FOOT);
+			double[] fix = recorder.fixes.get(recorder.fixes.size() - 1);
+			assertEquals(0, Geo.distance(LATITUDE, LONGITUDE, fix[1], fix[2]), 1e-6);
+		}
+	}
+
+	private static double trueLatitude(int i) {
+		return LATITUDE + SPEED_NORTH * i * INTERVAL / 1000 / Geo.METERS_PER_DEGREE;
+	}
+
+	private static double trueLongitude(int i) {
+		return LONGITUDE + SPEED_EAST * i * INTERVAL / 1000 / LONGITUDE_SCALE;
+	}
+
+	// Distance in meters between the smoothed fix and the true position of the i-th fix
+	private static double error(double[] fix, int i) {
+		double north = (fix[1] - trueLatitude(i)) * Geo.METERS_PER_DEGREE;
+		double east = (fix[2] - trueLongitude(i)) * LONGITUDE_SCALE;
+		return Math.sqrt(north * north + east * east);
+	}
+
+	private static class Recorder implements FixSink {
+		// Time, latitude, longitude and accuracy
+		final List<double[]> fixes = new ArrayList<>();
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			fixes.add(new double[]{time, latitude, longitude, accuracy});
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the grid lookups of a {@link PlaceIndex} against a scan of all the places, around the
+ * borders of the cells where a place and the points it contains are in different cells.
+ */
+public class PlaceIndexTest {
+	private static final double CELL_SIZE = 2 * PlaceIndex.PLACE_RADIUS;
+	// Paris, the equator, the southern hemisphere, the antimeridian and far north
+	private static final double[][] ORIGINS = {{48.85, 2.35}, {0, 0}, {-33.87, 151.21}, {-17.7, 179.99}, {69.65, 18.96}};
+	private static final int DIRECTIONS = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsPlacesAcrossCellBorders() {
+		for (double[] origin : ORIGINS) {
+			// On the border of two rows, then on a corner of the cells
+			double latitude = Math.floor(origin[0] * Geo.METERS_PER_DEGREE / CELL_SIZE) * CELL_SIZE / Geo.METERS_PER_DEGREE;
+			double scale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+			double corner = Math.floor(origin[1] * scale / CELL_SIZE) * CELL_SIZE / scale;
+			double[][] centers = {{latitude, origin[1]}, {latitude, corner}};
+			for (double[] center : centers) {
+				PlaceIndex index = new PlaceIndex();
+				int place = index.addVisit(center[0], center[1], 0);
+				String message = "place at " + center[0] + "," + center[1];
+				assertEquals(message, place, index.find(center[0], center[1]));
+				for (int direction = 0; direction < DIRECTIONS; direction++) {
+					double angle = 2 * Math.PI * direction / DIRECTIONS;
+					double[] inside = move(center, PlaceIndex.PLACE_RADIUS - 1, angle);
+					assertEquals(message + " angle " + direction, place, index.find(inside[0], inside[1]));
+					double[] outside = move(center, PlaceIndex.PLACE_RADIUS + 1, angle);
+					assertEquals(message + " angle " + direction, -1, index.find(outside[0], outside[1]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findsClosestPlaceInNeighbourCells() {
+		for (double[] origin : ORIGINS) {
+			PlaceIndex index = new PlaceIndex();
+			// Two places 120 m apart on each side of a row border
+			double border = Math.floor(origin[0] * Geo.METERS_PER_DEGREE / CELL_SIZE) * CELL_SIZE / Geo.METERS_PER_DEGREE;
+			double[] south = move(new double[]{border, origin[1]}, 60, Math.PI);
+			double[] north = move(new double[]{border, origin[1]}, 60, 0);
+			int southPlace = index.addVisit(south[0], south[1], 0);
+			int northPlace = index.addVisit(north[0], north[1], 0);
+			assertEquals(2, index.size());
+			double[] point = move(new double[]{border, origin[1]}, 5, 0);
+			assertEquals(northPlace, index.find(point[0], point[1]));
+			point = move(new double[]{border, origin[1]}, 5, Math.PI);
+			assertEquals(southPlace, index.find(point[0], point[1]));
+		}
+	}
+
+	@Test
+	public void matchesLinearScan() {
+		Random random = new Random(1);
+		for (double[] origin : ORIGINS) {
+			PlaceIndex index = new PlaceIndex();
+			// Enough visits to grow the arrays and the cell table, some merged into the same places
+			for (int i = 0; i < 500; i++) {
+				double[] point = move(origin, random.nextDouble() * 3000, random.nextDouble() * 2 * Math.PI);
+				index.addVisit(point[0], point[1], 1000);
+			}
+			for (int i = 0; i < 2000; i++) {
+				double[] point = move(origin, random.nextDouble() * 3200, random.nextDouble() * 2 * Math.PI);
+				assertEquals("point " + point[0] + "," + point[1], scan(index, point[0], point[1]), index.find(point[0], point[1]));
+			}
+		}
+	}
+
+	@Test
+	public void mergesVisitsIntoTheirAverage() {
+		PlaceIndex index = new PlaceIndex();
+		double[] origin = ORIGINS[0];
+		int place = index.addVisit(origin[0], origin[1], 60000);
+		double[] east = move(origin, 90, Math.PI / 2);
+		assertEquals(place, index.addVisit(east[0], east[1], 30000));
+		assertEquals(1, index.size());
+		assertEquals(2, index.getVisitCount(place));
+		assertEquals(90000, index.getDwellTime(place));
+		assertEquals((origin[0] + east[0]) / 2, index.getLatitude(place), 1e-12);
+		assertEquals((origin[1] + east[1]) / 2, index.getLongitude(place), 1e-12);
+		// Out of reach of the moved center
+		double[] west = move(origin, 90, -Math.PI / 2);
+		assertEquals(1, index.addVisit(west[0], west[1], 0));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void keepsFindingPlacesMovedAcrossBorders() {
+		PlaceIndex index = new PlaceIndex();
+		double border = Math.floor(ORIGINS[0][0] * Geo.METERS_PER_DEGREE / CELL_SIZE) * CELL_SIZE / Geo.METERS_PER_DEGREE;
+		double[] south = move(new double[]{border, ORIGINS[0][1]}, 10, Math.PI);
+		int place = index.addVisit(south[0], south[1], 0);
+		// The center moves 37.5 m north of the border, in the next row
+		double[] north = move(new double[]{border, ORIGINS[0][1]}, 85, 0);
+		assertEquals(place, index.addVisit(north[0], north[1], 0));
+		double[] far = move(new double[]{border, ORIGINS[0][1]}, 130, 0);
+		assertEquals(place, index.find(far[0], far[1]));
+		assertEquals(place, scan(index, far[0], far[1]));
+	}
+
+	@Test
+	public void readsWrittenPlaces() throws IOException {
+		Random random = new Random(2);
+		PlaceIndex index = new PlaceIndex();
+		for (int i = 0; i < 40; i++) {
+			double[] point = move(ORIGINS[0], random.nextDouble() * 2000, random.nextDouble() * 2 * Math.PI);
+			index.addVisit(point[0], point[1], random.nextInt(3600000));
+		}
+		File file = new File(folder.getRoot(), "places.bin");
+		index.write(file);
+		PlaceIndex read = PlaceIndex.read(file);
+		assertEquals(index.size(), read.size());
+		for (int place = 0; place < index.size(); place++) {
+			assertEquals(index.getLatitude(place), read.getLatitude(place), 0);
+			assertEquals(index.getLongitude(place), read.getLongitude(place), 0);
+			assertEquals(index.getVisitCount(place), read.getVisitCount(place));
+			assertEquals(index.getDwellTime(place), read.getDwellTime(place));
+			assertEquals(place, read.find(read.getLatitude(place), read.getLongitude(place)));
+		}
+		assertEquals(0, PlaceIndex.read(new File(folder.getRoot(), "missing.bin")).size());
+	}
+
+	// Closest place containing the point, as the index must find it
+	private static int scan(PlaceIndex index, double latitude, double longitude) {
+		int found = -1;
+		double foundDistance = PlaceIndex.PLACE_RADIUS;
+		for (int place = 0; place < index.size(); place++) {
+			double distance = Geo.distance(latitude, longitude, index.getLatitude(place), index.getLongitude(place));
+			if (distance <= foundDistance) {
+				found = place;
+				foundDistance = distance;
+			}
+		}
+		return found;
+	}
+
+	// Point at the given distance in meters and bearing in radians, clockwise from the north
+	private static double[] move(double[] point, double distance, double angle) {
+		double latitude = point[0] + distance * Math.cos(angle) / Geo.METERS_PER_DEGREE;
+		double longitude = point[1] + distance * Math.sin(angle) / (Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians((point[0] + latitude) / 2)));
+		return new double[]{latitude, longitude};
+	}
+}
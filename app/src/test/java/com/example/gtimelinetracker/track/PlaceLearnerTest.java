@@ -0,0 +1,118 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds dwells and moves to a {@link PlaceLearner}, and checks how their visits are clustered into
+ * the places of the index.
+ */
+public class PlaceLearnerTest {
+	private static final long START = 1577836800000L;
+	private static final long DAY = 24 * 3600000;
+	private static final long FIX_INTERVAL = 10000;
+	private static final double LATITUDE = 48.85;
+	private static final double LONGITUDE = 2.35;
+
+	@Test
+	public void addsVisitAfterDwellTime() {
+		PlaceIndex places = new PlaceIndex();
+		PlaceLearner learner = new PlaceLearner(places);
+		Random random = new Random(1);
+		long time = START;
+		double latitudeSum = 0;
+		int fixes = 0;
+		for (; time < START + PlaceLearner.DWELL_TIME; time += FIX_INTERVAL) {
+			double latitude = latitude(random.nextDouble() * 20);
+			latitudeSum += latitude;
+			fixes++;
+			assertFalse(learner.onFix(time, latitude, LONGITUDE));
+		}
+		assertEquals(0, places.size());
+		latitudeSum += LATITUDE;
+		fixes++;
+		assertTrue(learner.onFix(time, LATITUDE, LONGITUDE));
+		assertEquals(1, places.size());
+		assertEquals(1, places.getVisitCount(0));
+		assertEquals(latitudeSum / fixes, places.getLatitude(0), 1e-12);
+		assertEquals(LONGITUDE, places.getLongitude(0), 1e-12);
+		assertEquals(0, places.getDwellTime(0));
+
+		// Staying adds nothing until the user leaves, then the whole dwell time is added
+		assertFalse(learner.onFix(time + FIX_INTERVAL, LATITUDE, LONGITUDE));
+		assertTrue(learner.onFix(time + 2 * FIX_INTERVAL, latitude(200), LONGITUDE));
+		assertEquals(1, places.size());
+		assertEquals(1, places.getVisitCount(0));
+		assertEquals(time + FIX_INTERVAL - START, places.getDwellTime(0));
+	}
+
+	@Test
+	public void skipsShortStops() {
+		PlaceIndex places = new PlaceIndex();
+		PlaceLearner learner = new PlaceLearner(places);
+		long time = START;
+		// Stops of a minute, each one 100 m further than the previous one
+		for (int stop = 0; stop < 10; stop++) {
+			for (long end = time + PlaceLearner.DWELL_TIME / 2; time < end; time += FIX_INTERVAL) {
+				assertFalse(learner.onFix(time, latitude(stop * 100), LONGITUDE));
+			}
+		}
+		// A fix further than the dwell radius from the first one of a stop starts a new one
+		for (long end = time + PlaceLearner.DWELL_TIME; time < end; time += FIX_INTERVAL) {
+			double north = 1000 + (time / FIX_INTERVAL % 2) * (PlaceLearner.DWELL_RADIUS + 1);
+			assertFalse(learner.onFix(time, latitude(north), LONGITUDE));
+		}
+		assertFalse(learner.reset());
+		assertEquals(0, places.size());
+	}
+
+	@Test
+	public void mergesDwellsIntoPromotedPlace() {
+		PlaceIndex places = new PlaceIndex();
+		PlaceLearner learner = new PlaceLearner(places);
+		// Dwells of an hour each day at home, within the place radius of each other, and once at the office
+		double[] homeNorths = {0, 30, 60, 20};
+		for (int day = 0; day < homeNorths.length; day++) {
+			long time = START + day * DAY;
+			assertTrue(dwell(learner, time, homeNorths[day], 0));
+			// The dwell ends with the tracking
+			assertTrue(learner.reset());
+			assertFalse(learner.reset());
+			if (day == 1) {
+				assertTrue(dwell(learner, time + 2 * 3600000, 0, 3000));
+				assertTrue(learner.reset());
+			}
+			assertEquals(day == 0 ? 1 : 2, places.size());
+			boolean promoted = places.getVisitCount(0) >= PlaceSamplingPolicy.MIN_VISIT_COUNT;
+			assertEquals("day " + day, day + 1 >= PlaceSamplingPolicy.MIN_VISIT_COUNT, promoted);
+		}
+		assertEquals(homeNorths.length, places.getVisitCount(0));
+		assertEquals(homeNorths.length * 3600000, places.getDwellTime(0));
+		// Running mean of the visit centroids
+		assertEquals(latitude((0 + 30 + 60 + 20) / 4.0), places.getLatitude(0), 1e-9);
+		assertEquals(1, places.getVisitCount(1));
+		assertEquals(1, places.find(latitude(0), longitude(0, 3000)));
+	}
+
+	// Fixes every 10 s for an hour at the given point, true when a visit was added
+	private static boolean dwell(PlaceLearner learner, long start, double north, double east) {
+		boolean changed = false;
+		for (long time = start; time <= start + 3600000; time += FIX_INTERVAL) {
+			changed |= learner.onFix(time, latitude(north), longitude(north, east));
+		}
+		return changed;
+	}
+
+	private static double latitude(double north) {
+		return LATITUDE + north / Geo.METERS_PER_DEGREE;
+	}
+
+	private static double longitude(double north, double east) {
+		return LONGITUDE + east / (Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude(north))));
+	}
+}
@@ -0,0 +1,106 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when a {@link PlaceSamplingPolicy} switches to its low power profile in a frequent place,
+ * and when it goes back to the profile of its delegate.
+ */
+public class PlaceSamplingPolicyTest {
+	private static final long START = 1577836800000L;
+	private static final long FIX_INTERVAL = 10000;
+	private static final double LATITUDE = 48.85;
+	private static final double LONGITUDE = 2.35;
+	private static final SamplingProfile BASE = ActivitySettings.ON_FOOT.profile;
+
+	@Test
+	public void downgradesWhenStationaryInPlace() {
+		PlaceSamplingPolicy policy = newPolicy(PlaceSamplingPolicy.MIN_VISIT_COUNT);
+		// The first fix has no speed, the next ones crawl at 0.5 m/s
+		assertFalse(policy.onFix(START, latitude(0), LONGITUDE, 10));
+		long time = START + FIX_INTERVAL;
+		for (; time < START + FIX_INTERVAL + PlaceSamplingPolicy.STATIONARY_DELAY; time += FIX_INTERVAL) {
+			assertFalse(policy.onFix(time, latitude((time - START) / 2000.0), LONGITUDE, 10));
+			assertSame(BASE, policy.getProfile());
+		}
+		assertTrue(policy.onFix(time, latitude((time - START) / 2000.0), LONGITUDE, 10));
+		assertTrue(policy.isSuppressed());
+		assertSame(PlaceSamplingPolicy.LOW_POWER_PROFILE, policy.getProfile());
+		assertEquals(SamplingProfile.PRIORITY_LOW_POWER, policy.getProfile().priority);
+
+		// Inaccurate low power fixes possibly in the place keep the profile
+		assertFalse(policy.onFix(time + 60000, latitude(150), LONGITUDE, 60));
+		assertTrue(policy.isSuppressed());
+		// A fix surely out of the place restores the delegate profile
+		assertTrue(policy.onFix(time + 120000, latitude(200), LONGITUDE, 60));
+		assertFalse(policy.isSuppressed());
+		assertSame(BASE, policy.getProfile());
+	}
+
+	@Test
+	public void keepsProfileWhenMovingInPlace() {
+		PlaceSamplingPolicy policy = newPolicy(PlaceSamplingPolicy.MIN_VISIT_COUNT);
+		// Crossing the place at 1.5 m/s, back and forth
+		for (int i = 0; i < 100; i++) {
+			double north = -80 + Math.abs(i % 20 - 10) * 15;
+			assertFalse(policy.onFix(START + i * FIX_INTERVAL, latitude(north), LONGITUDE, 10));
+		}
+		assertFalse(policy.isSuppressed());
+		assertSame(BASE, policy.getProfile());
+	}
+
+	@Test
+	public void ignoresRarePlaces() {
+		PlaceSamplingPolicy policy = newPolicy(PlaceSamplingPolicy.MIN_VISIT_COUNT - 1);
+		for (int i = 0; i < 100; i++) {
+			assertFalse(policy.onFix(START + i * FIX_INTERVAL, LATITUDE, LONGITUDE, 10));
+		}
+		assertFalse(policy.isSuppressed());
+	}
+
+	@Test
+	public void restoresProfileOnExitAndReset() {
+		PlaceSamplingPolicy policy = newPolicy(PlaceSamplingPolicy.MIN_VISIT_COUNT);
+		long time = stayUntilSuppressed(policy, START);
+		assertTrue(policy.onPlaceExit());
+		assertFalse(policy.onPlaceExit());
+		assertSame(BASE, policy.getProfile());
+		// The stationary delay starts over
+		assertFalse(policy.onFix(time + FIX_INTERVAL, LATITUDE, LONGITUDE, 10));
+		assertFalse(policy.isSuppressed());
+
+		stayUntilSuppressed(policy, time + 2 * FIX_INTERVAL);
+		policy.reset(BASE);
+		assertFalse(policy.isSuppressed());
+		assertSame(BASE, policy.getProfile());
+	}
+
+	// A place visited the given number of times at the origin, and a policy tracking on foot
+	private static PlaceSamplingPolicy newPolicy(int visitCount) {
+		PlaceIndex places = new PlaceIndex();
+		for (int i = 0; i < visitCount; i++) {
+			places.addVisit(LATITUDE, LONGITUDE, 3600000);
+		}
+		PlaceSamplingPolicy policy = new PlaceSamplingPolicy(new FixedSamplingPolicy(), places);
+		policy.reset(BASE);
+		return policy;
+	}
+
+	// Fixes at the origin until the policy switches
+	private static long stayUntilSuppressed(PlaceSamplingPolicy policy, long time) {
+		while (!policy.onFix(time, LATITUDE, LONGITUDE, 10)) {
+			time += FIX_INTERVAL;
+		}
+		assertTrue(policy.isSuppressed());
+		return time;
+	}
+
+	private static double latitude(double north) {
+		return LATITUDE + north / Geo.METERS_PER_DEGREE;
+	}
+}
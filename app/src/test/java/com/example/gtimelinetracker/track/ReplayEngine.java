@@ -0,0 +1,492 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link TrackingCore} off device on a {@link VirtualClock}, fed by recorded or synthetic
+ * fixes and transitions, as fast as the processing allows.
+ * <p>
+ * The engine plays the part of the tracker service and of Play Services. The transitions are
+ * debounced by a {@link TransitionStateMachine}, which starts and stops the core. The input fixes
+ * stand for what the receiver would measure, and only the ones matching the requested
+ * {@link SamplingProfile} are delivered, in batches when a max wait time is requested. A new
+ * request gets no fix during {@link #ACQUISITION_TIME}, then fixes whose accuracy converges during
+ * {@link #CONVERGENCE_TIME}, as the receiver acquires the satellites, and so does a switch to
+ * high accuracy. Locations are unavailable once there was no input fix for
+ * {@link #AVAILABILITY_TIMEOUT}, as in a tunnel. The clock jumps from one event to the next, so
+ * that a replay gives the same results every time.
+ */
+public class ReplayEngine implements LocationSource, TransitionSource, TrackingCore.Listener {
+	// Same dwell times as the tracker service
+	static final long SWITCH_DWELL_TIME = 30000;
+	static final long STOP_DWELL_TIME = 60000;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+	// Capacity of a batch when the fastest sampling is requested for the longest max wait time
+	private static final int MAX_BATCH_SIZE = 256;
+	// Time from a new request to the first fix, then to fixes at their nominal accuracy
+	static final long ACQUISITION_TIME = 5000;
+	static final long CONVERGENCE_TIME = 20000;
+	// Accuracy added to the first fix, in meters, decreasing linearly until the convergence
+	static final float ACQUISITION_ACCURACY = 100;
+	static final long AVAILABILITY_TIMEOUT = 10000;
+
+	private final VirtualClock clock;
+	private final TrackingCore core;
+	private final TransitionStateMachine machine;
+	private TransitionSource.Listener transitionListener;
+
+	// Current location request, null when there is none
+	private SamplingProfile profile;
+	private LocationSource.Listener locationListener;
+	private long lastSampleTime = Long.MIN_VALUE;
+	private double lastSampleLatitude;
+	private double lastSampleLongitude;
+	// Fixes sampled and not delivered yet
+	private final SamplingSimulator.Track batch = new SamplingSimulator.Track(MAX_BATCH_SIZE);
+	private long batchDeadline = Long.MAX_VALUE;
+	// Time when the receiver gets its first fix since the request
+	private long acquisitionTime;
+	private boolean available = true;
+	private long lastInputTime = Long.MIN_VALUE;
+	// Time since when high accuracy is requested, -1 when it is not
+	private long highAccuracyTime = -1;
+
+	// Statistics
+	private long inputCount = 0;
+	private long deliveredCount = 0;
+	private long acceptedCount = 0;
+	private long wakeupCount = 0;
+	private long requestCount = 0;
+	private long segmentCount = 0;
+	private long placeChangeCount = 0;
+	// Delays from the starts to their first fix and first accurate fix
+	private long[] firstFixDelays = new long[16];
+	private long[] accurateFixDelays = new long[16];
+	private int firstFixCount = 0;
+	private int accurateFixCount = 0;
+	private long highAccuracyDuration = 0;
+	private long gapCount = 0;
+	private long gapDuration = 0;
+	private long savedTime = 0;
+	private long startTime;
+	private long endTime;
+
+	/**
+	 * @param sink receives the fixes recorded by the core
+	 */
+	public ReplayEngine(long startTime, FixSink sink, PlaceIndex places, EnergyBudgetPlanner planner) {
+		clock = new VirtualClock(startTime);
+		core = new TrackingCore(clock, this, sink, places, planner, this);
+		machine = new TransitionStateMachine(new TransitionStateMachine.Listener() {
+			@Override
+			public void onTrackingChange(int activityType) {
+				if (activityType == TransitionStateMachine.STOPPED) {
+					core.stop();
+				} else {
+					core.start(activityType, ActivityTypes.getSettings(activityType));
+				}
+			}
+		}, SWITCH_DWELL_TIME, STOP_DWELL_TIME);
+		// Activities tracked in the same way are not worth a reconfiguration
+		int[] groups = ActivityTypes.getGroups();
+		for (int activityType = 0; activityType < groups.length; activityType++) {
+			machine.setGroup(activityType, groups[activityType]);
+		}
+		setListener(new TransitionSource.Listener() {
+			@Override
+			public void onTransition(long time, int activityType, int transitionType) {
+				machine.onTransition(time, activityType, transitionType);
+			}
+
+			@Override
+			public void onBatchEnd() {
+				machine.poll(clock.elapsedRealtime());
+			}
+		});
+	}
+
+	public TrackingCore getCore() {
+		return core;
+	}
+
+	public TransitionStateMachine getTransitionStateMachine() {
+		return machine;
+	}
+
+	/**
+	 * @return the virtual time when the last replay started
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the virtual time when the last replay ended
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public long getDeliveredCount() {
+		return deliveredCount;
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount;
+	}
+
+	public long getInputCount() {
+		return inputCount;
+	}
+
+	public long getWakeupCount() {
+		return wakeupCount;
+	}
+
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	public long getSegmentCount() {
+		return segmentCount;
+	}
+
+	public long getPlaceChangeCount() {
+		return placeChangeCount;
+	}
+
+	public int getStartCount() {
+		return firstFixCount;
+	}
+
+	/**
+	 * @return the percentile of the delays from the starts to their first fix, 0 when there is none
+	 */
+	public long getFirstFixDelay(double percentile) {
+		return percentile(firstFixDelays, firstFixCount, percentile);
+	}
+
+	/**
+	 * @return the percentile of the delays from the starts to their first accurate fix, 0 when there is none
+	 */
+	public long getAccurateFixDelay(double percentile) {
+		return percentile(accurateFixDelays, accurateFixCount, percentile);
+	}
+
+	/**
+	 * @return the time high accuracy was requested, in milliseconds
+	 */
+	public long getHighAccuracyDuration() {
+		return highAccuracyDuration;
+	}
+
+	public long getGapCount() {
+		return gapCount;
+	}
+
+	public long getGapDuration() {
+		return gapDuration;
+	}
+
+	/**
+	 * @return the time spent backing off instead of requesting high accuracy during the gaps
+	 */
+	public long getSavedTime() {
+		return savedTime;
+	}
+
+	/**
+	 * Replays the fixes and the transitions, both sorted by time, then stops the core once the
+	 * pending changes are applied.
+	 */
+	public void run(SamplingSimulator.Track fixes, TransitionReplay.Transitions transitions) {
+		int fix = 0;
+		int transition = 0;
+		startTime = clock.currentTimeMillis();
+		while (fix < fixes.size || transition < transitions.size) {
+			long fixTime = fix < fixes.size ? fixes.times[fix] : Long.MAX_VALUE;
+			long transitionTime = transition < transitions.size ? transitions.times[transition] : Long.MAX_VALUE;
+			if (transitionTime <= fixTime) {
+				advanceTo(transitionTime);
+				// Transitions of the same time are delivered together, as by the activity recognition
+				do {
+					transitionListener.onTransition(transitionTime, transitions.activityTypes[transition],
+							transitions.transitionTypes[transition]);
+					transition++;
+				} while (transition < transitions.size && transitions.times[transition] == transitionTime);
+				transitionListener.onBatchEnd();
+			} else {
+				advanceTo(fixTime);
+				onInputFix(fixTime, fixes.latitudes[fix], fixes.longitudes[fix], fixes.accuracies[fix]);
+				fix++;
+			}
+		}
+		// The last changes and batch may be due after the last event, the receiver is then out of input
+		long deadline;
+		while ((deadline = Math.min(machine.getDeadline(), batchDeadline)) != Long.MAX_VALUE) {
+			advanceTo(deadline);
+		}
+		core.stop();
+		endTime = clock.currentTimeMillis();
+	}
+
+	@Override
+	public void setListener(TransitionSource.Listener listener) {
+		transitionListener = listener;
+	}
+
+	@Override
+	public void requestLocationUpdates(SamplingProfile profile, LocationSource.Listener listener) {
+		long now = clock.currentTimeMillis();
+		boolean highAccuracy = profile.priority == SamplingProfile.PRIORITY_HIGH_ACCURACY;
+		if (this.profile == null || (highAccuracy && highAccuracyTime == -1)) {
+			acquisitionTime = now + ACQUISITION_TIME;
+		}
+		if (highAccuracy && highAccuracyTime == -1) {
+			highAccuracyTime = now;
+		} else if (!highAccuracy) {
+			endHighAccuracy(now);
+		}
+		this.profile = profile;
+		this.locationListener = listener;
+		if (batch.size > 0) {
+			batchDeadline = Math.min(batchDeadline, batch.times[0] + profile.maxWaitTime);
+		}
+	}
+
+	@Override
+	public void removeLocationUpdates() {
+		endHighAccuracy(clock.currentTimeMillis());
+		// The availability is told again to the next request
+		available = true;
+		profile = null;
+		locationListener = null;
+		batch.size = 0;
+		batchDeadline = Long.MAX_VALUE;
+	}
+
+	@Override
+	public void onLocationRequest(SamplingProfile profile) {
+		requestCount++;
+	}
+
+	@Override
+	public void onPlacesChange() {
+		placeChangeCount++;
+	}
+
+	@Override
+	public void onSegmentClosed(TripSegment segment) {
+		segmentCount++;
+	}
+
+	@Override
+	public void onFirstFix(long delay) {
+		if (firstFixCount == firstFixDelays.length) {
+			firstFixDelays = Arrays.copyOf(firstFixDelays, firstFixCount * 2);
+		}
+		firstFixDelays[firstFixCount++] = delay;
+	}
+
+	@Override
+	public void onFirstAccurateFix(long delay) {
+		if (accurateFixCount == accurateFixDelays.length) {
+			accurateFixDelays = Arrays.copyOf(accurateFixDelays, accurateFixCount * 2);
+		}
+		accurateFixDelays[accurateFixCount++] = delay;
+	}
+
+	@Override
+	public void onGapStart() {
+		gapCount++;
+	}
+
+	@Override
+	public void onGapEnd(long duration, long savedTime) {
+		gapDuration += duration;
+		this.savedTime += savedTime;
+	}
+
+	// The deadline of the core is read at each step
+	@Override
+	public void onDeadlineChange(long deadline) {
+	}
+
+	private void endHighAccuracy(long now) {
+		if (highAccuracyTime != -1) {
+			highAccuracyDuration += now - highAccuracyTime;
+			highAccuracyTime = -1;
+		}
+	}
+
+	// Applies the changes and delivers the batches due up to the time, then moves the clock there
+	private void advanceTo(long time) {
+		while (true) {
+			long availabilityDeadline = available && profile != null && lastInputTime != Long.MIN_VALUE
+					? Math.max(lastInputTime, acquisitionTime - ACQUISITION_TIME) + AVAILABILITY_TIMEOUT : Long.MAX_VALUE;
+			long deadline = Math.min(Math.min(machine.getDeadline(), batchDeadline), Math.min(core.getDeadline(), availabilityDeadline));
+			if (deadline > time) break;
+			clock.advanceTo(deadline);
+			if (deadline == batchDeadline) {
+				deliverBatch();
+			} else if (deadline == machine.getDeadline()) {
+				machine.poll(deadline);
+			} else if (deadline == availabilityDeadline) {
+				available = false;
+				locationListener.onAvailability(false);
+			} else {
+				core.poll();
+			}
+		}
+		clock.advanceTo(time);
+	}
+
+	private void onInputFix(long time, double latitude, double longitude, float accuracy) {
+		inputCount++;
+		lastInputTime = time;
+		if (!available && profile != null) {
+			available = true;
+			locationListener.onAvailability(true);
+		}
+		if (profile == null || time < acquisitionTime || time < lastSampleTime + profile.interval) return;
+		if (profile.smallestDisplacement > 0 && lastSampleTime != Long.MIN_VALUE
+				&& Geo.distance(lastSampleLatitude, lastSampleLongitude, latitude, longitude) < profile.smallestDisplacement) {
+			return;
+		}
+		lastSampleTime = time;
+		lastSampleLatitude = latitude;
+		lastSampleLongitude = longitude;
+		long convergence = acquisitionTime + CONVERGENCE_TIME - time;
+		if (convergence > 0) {
+			accuracy += ACQUISITION_ACCURACY * convergence / CONVERGENCE_TIME;
+		}
+		batch.add(time, latitude, longitude, accuracy);
+		if (batch.size == 1) {
+			batchDeadline = time + profile.maxWaitTime;
+		}
+		if (time >= batchDeadline || batch.size == MAX_BATCH_SIZE) {
+			deliverBatch();
+		}
+	}
+
+	private void deliverBatch() {
+		LocationSource.Listener listener = locationListener;
+		int size = batch.size;
+		batch.size = 0;
+		batchDeadline = Long.MAX_VALUE;
+		if (listener == null || size == 0) return;
+		wakeupCount++;
+		deliveredCount += size;
+		for (int i = 0; i < size; i++) {
+			// The virtual clock gives the same elapsed realtime as the fix time
+			if (listener.onFix(batch.times[i], batch.times[i], batch.latitudes[i], batch.longitudes[i], batch.accuracies[i])) {
+				acceptedCount++;
+			}
+		}
+		listener.onBatchEnd();
+	}
+
+	// Sorts the first values, then returns the percentile, 0 when there is none
+	private static long percentile(long[] values, int count, double percentile) {
+		if (count == 0) return 0;
+		Arrays.sort(values, 0, count);
+		return values[Math.min(count - 1, (int) Math.ceil(count * percentile / 100) - 1)];
+	}
+
+	/**
+	 * Generates days of 1 Hz fixes and their transitions: a commute by vehicle in the morning and
+	 * in the evening, a walk at noon, and short false detections of walking while at work. There is
+	 * no fix in a tunnel of the morning commute, nor in a shopping mall entered during the walk.
+	 */
+	static void generateDays(long start, int days, Random random, SamplingSimulator.Track fixes,
+							 TransitionReplay.Transitions transitions) {
+		double homeLatitude = 48.85;
+		double homeLongitude = 2.35;
+		double workLatitude = homeLatitude + 0.02;
+		double workLongitude = homeLongitude + 0.12;
+		for (int day = 0; day < days; day++) {
+			long dayStart = start + day * DAY_MILLIS;
+			// Trips of the day: start, duration, activity, then the place reached, 0 for home and 1 for work
+			long[] tripStarts = {
+					dayStart + 8 * HOUR_MILLIS + random.nextInt(30) * 60000L,
+					dayStart + 12 * HOUR_MILLIS + random.nextInt(30) * 60000L,
+					dayStart + 18 * HOUR_MILLIS + random.nextInt(30) * 60000L,
+			};
+			long[] tripDurations = {
+					(25 + random.nextInt(15)) * 60000L,
+					(20 + random.nextInt(20)) * 60000L,
+					(25 + random.nextInt(15)) * 60000L,
+			};
+			int[] tripActivities = {ActivityTypes.IN_VEHICLE, ActivityTypes.WALKING, ActivityTypes.IN_VEHICLE};
+			long tunnelStart = tripStarts[0] + (5 + random.nextInt(10)) * 60000L;
+			long tunnelEnd = tunnelStart + (60 + random.nextInt(180)) * 1000L;
+			long mallStart = tripStarts[1] + (5 + random.nextInt(5)) * 60000L;
+			long mallEnd = mallStart + (5 + random.nextInt(10)) * 60000L;
+			for (int trip = 0; trip < tripStarts.length; trip++) {
+				transitions.add(tripStarts[trip], tripActivities[trip], TransitionLog.TRANSITION_ENTER);
+				transitions.add(tripStarts[trip] + tripDurations[trip], ActivityTypes.STILL, TransitionLog.TRANSITION_ENTER);
+				// False detections, which start the tracker until STILL is detected again
+				if (trip < tripStarts.length - 1) {
+					long falseStart = tripStarts[trip] + tripDurations[trip] + (10 + random.nextInt(60)) * 60000L;
+					transitions.add(falseStart, ActivityTypes.ON_FOOT, TransitionLog.TRANSITION_ENTER);
+					transitions.add(falseStart + (5 + random.nextInt(30)) * 1000L, ActivityTypes.STILL, TransitionLog.TRANSITION_ENTER);
+				}
+			}
+			int trip = 0;
+			for (long time = dayStart; time < dayStart + DAY_MILLIS; time += 1000) {
+				while (trip < tripStarts.length && time >= tripStarts[trip] + tripDurations[trip]) {
+					trip++;
+				}
+				if ((time >= tunnelStart && time < tunnelEnd) || (time >= mallStart && time < mallEnd)) continue;
+				double latitude;
+				double longitude;
+				float accuracy;
+				boolean atWork = trip == 1 || trip == 2;
+				if (trip < tripStarts.length && time >= tripStarts[trip]) {
+					double progress = (double) (time - tripStarts[trip]) / tripDurations[trip];
+					if (trip == 1) {
+						// Loop around the work place
+						double angle = 2 * Math.PI * progress;
+						latitude = workLatitude + 0.004 * Math.sin(angle);
+						longitude = workLongitude + 0.006 * (1 - Math.cos(angle));
+					} else {
+						double from = trip == 0 ? 0 : 1;
+						double ratio = from + (1 - 2 * from) * progress;
+						latitude = homeLatitude + (workLatitude - homeLatitude) * ratio;
+						longitude = homeLongitude + (workLongitude - homeLongitude) * ratio;
+					}
+					accuracy = 4 + 4 * random.nextFloat();
+				} else {
+					latitude = atWork ? workLatitude : homeLatitude;
+					longitude = atWork ? workLongitude : homeLongitude;
+					accuracy = 10 + 20 * random.nextFloat();
+				}
+				fixes.add(time, latitude + random.nextGaussian() * accuracy / 2 / Geo.METERS_PER_DEGREE,
+						longitude + random.nextGaussian() * accuracy / 2 / Geo.METERS_PER_DEGREE, accuracy);
+			}
+		}
+		sort(transitions);
+	}
+
+	// Insertion sort, the transitions are nearly sorted
+	private static void sort(TransitionReplay.Transitions transitions) {
+		for (int i = 1; i < transitions.size; i++) {
+			long time = transitions.times[i];
+			int activityType = transitions.activityTypes[i];
+			int transitionType = transitions.transitionTypes[i];
+			int j = i - 1;
+			while (j >= 0 && transitions.times[j] > time) {
+				transitions.times[j + 1] = transitions.times[j];
+				transitions.activityTypes[j + 1] = transitions.activityTypes[j];
+				transitions.transitionTypes[j + 1] = transitions.transitionTypes[j];
+				j--;
+			}
+			transitions.times[j + 1] = time;
+			transitions.activityTypes[j + 1] = activityType;
+			transitions.transitionTypes[j + 1] = transitionType;
+		}
+	}
+}
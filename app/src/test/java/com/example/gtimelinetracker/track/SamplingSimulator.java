@@ -0,0 +1,108 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+
+/**
+ * Replays tracks through sampling policies and tells, for each policy, how many fixes it would
+ * have requested and how far the track rebuilt from these fixes is from the replayed one. The
+ * tracks should be sampled at the nominal rate of the activity for the results to be meaningful.
+ */
+public class SamplingSimulator {
+	private final SamplingProfile base;
+
+	public SamplingSimulator(SamplingProfile base) {
+		this.base = base;
+	}
+
+	/**
+	 * Keeps the recorded fixes the policy would have received, then measures the distance between
+	 * every recorded fix and the track interpolated from the kept fixes.
+	 */
+	public Result run(Track track, SamplingPolicy policy) {
+		policy.reset(base);
+		int[] kept = new int[track.size];
+		int keptCount = 0;
+		long nextTime = Long.MIN_VALUE;
+		for (int i = 0; i < track.size; i++) {
+			SamplingProfile profile = policy.getProfile();
+			if (track.times[i] < nextTime) continue;
+			if (keptCount > 0 && profile.smallestDisplacement > 0) {
+				int last = kept[keptCount - 1];
+				double distance = Geo.distance(track.latitudes[last], track.longitudes[last], track.latitudes[i], track.longitudes[i]);
+				if (distance < profile.smallestDisplacement) continue;
+			}
+			kept[keptCount++] = i;
+			policy.onFix(track.times[i], track.latitudes[i], track.longitudes[i], track.accuracies[i]);
+			nextTime = track.times[i] + policy.getProfile().interval;
+		}
+
+		double[] errors = new double[track.size];
+		int segment = 0;
+		for (int i = 0; i < track.size; i++) {
+			while (segment < keptCount - 1 && kept[segment + 1] <= i) {
+				segment++;
+			}
+			int from = kept[segment];
+			int to = segment < keptCount - 1 ? kept[segment + 1] : from;
+			double ratio = to == from ? 0 : (double) (track.times[i] - track.times[from]) / (track.times[to] - track.times[from]);
+			double latitude = track.latitudes[from] + (track.latitudes[to] - track.latitudes[from]) * ratio;
+			double longitude = track.longitudes[from] + (track.longitudes[to] - track.longitudes[from]) * ratio;
+			errors[i] = Geo.distance(latitude, longitude, track.latitudes[i], track.longitudes[i]);
+		}
+		return new Result(track.size, keptCount, errors);
+	}
+
+	/**
+	 * A track, stored as columns of primitives.
+	 */
+	public static class Track {
+		long[] times;
+		double[] latitudes;
+		double[] longitudes;
+		float[] accuracies;
+		int size;
+
+		public Track(int capacity) {
+			times = new long[capacity];
+			latitudes = new double[capacity];
+			longitudes = new double[capacity];
+			accuracies = new float[capacity];
+		}
+
+		public void add(long time, double latitude, double longitude, float accuracy) {
+			if (size == times.length) {
+				int capacity = Math.max(16, size * 2);
+				times = Arrays.copyOf(times, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				longitudes = Arrays.copyOf(longitudes, capacity);
+				accuracies = Arrays.copyOf(accuracies, capacity);
+			}
+			times[size] = time;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			accuracies[size] = accuracy;
+			size++;
+		}
+	}
+
+	public static class Result {
+		public final int recordedCount;
+		public final int keptCount;
+		public final double meanError;
+		public final double p95Error;
+		public final double maxError;
+
+		Result(int recordedCount, int keptCount, double[] errors) {
+			this.recordedCount = recordedCount;
+			this.keptCount = keptCount;
+			double sum = 0;
+			for (double error : errors) {
+				sum += error;
+			}
+			Arrays.sort(errors);
+			meanError = errors.length == 0 ? 0 : sum / errors.length;
+			p95Error = errors.length == 0 ? 0 : errors[(int) ((errors.length - 1) * 0.95)];
+			maxError = errors.length == 0 ? 0 : errors[errors.length - 1];
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays synthetic sensor traces through a {@link StopDetector}, and measures how fast it detects
+ * the stops and the moves. The fixes are dropped while the detector tells a stop, as the high
+ * accuracy requests are then suspended.
+ */
+public class StopDetectorTest {
+	private static final long FIRST_TIME = 1577836800000L;
+	private static final long FIX_INTERVAL = 1000;
+	private static final long SAMPLE_INTERVAL = 200;
+	private static final double LONGITUDE_SCALE = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(48.85));
+
+	// Kinds of synthetic segments: speed in m/s, standard deviation of the acceleration in m/s^2,
+	// amplitude of the steps in m/s^2, and whether the user is stopped
+	private static final int DRIVE = 0;
+	private static final int CAR_STOPPED = 1;
+	private static final int CRAWL = 2;
+	private static final int WALK = 3;
+	private static final int STILL = 4;
+	private static final double[] SPEEDS = {13, 0, 1, 1.4, 0};
+	private static final double[] VIBRATIONS = {0.6, 0.05, 0.4, 0.3, 0.02};
+	private static final double[] STEPS = {0, 0, 0, 3, 0};
+	private static final boolean[] STOPPED = {false, true, false, false, true};
+	// A drive with a red light and a traffic jam, a stop in the parked car, then a walk and a pause
+	// at a table, as pairs of kind and duration in seconds
+	private static final int[] SCENARIO = {
+			DRIVE, 120, CAR_STOPPED, 45, DRIVE, 90, CRAWL, 40, DRIVE, 60, CAR_STOPPED, 300,
+			WALK, 120, STILL, 180, WALK, 60, CAR_STOPPED, 30, DRIVE, 120, CAR_STOPPED, 600,
+	};
+	private static final int SCENARIO_STOPS = 5;
+
+	@Test
+	public void detectsStopsWithinSeconds() {
+		for (int seed = 1; seed <= 3; seed++) {
+			Replay replay = replayScenario(new Random(seed));
+			assertEquals("seed " + seed, SCENARIO_STOPS, replay.detectedStops);
+			assertEquals("seed " + seed, 0, replay.missedStops);
+			assertEquals("seed " + seed, 0, replay.falseStops);
+			// The window of fixes must be covered, then the accelerometer still
+			assertTrue("seed " + seed + " max stop delay " + replay.maxStopDelay,
+					replay.maxStopDelay <= StopDetector.FIX_WINDOW + StopDetector.STILL_TIME);
+		}
+	}
+
+	@Test
+	public void detectsMovesWithinSeconds() {
+		for (int seed = 1; seed <= 3; seed++) {
+			Replay replay = replayScenario(new Random(seed));
+			// Every stop but the last one is followed by a move
+			assertEquals("seed " + seed, SCENARIO_STOPS - 1, replay.detectedMoves);
+			// Sustained motions tell it before the significant motion sensor, which triggers up to 15 s late
+			assertTrue("seed " + seed + " max move delay " + replay.maxMoveDelay, replay.maxMoveDelay <= 8000);
+			assertTrue("seed " + seed + " dropped " + replay.droppedFixes, replay.droppedFixes > 0);
+		}
+	}
+
+	@Test
+	public void neverStopsWithoutAccelerometer() {
+		StopDetector detector = new StopDetector();
+		for (long time = 0; time < 120000; time += FIX_INTERVAL) {
+			assertFalse(detector.onFix(time, 48.85, 2.35, 5));
+		}
+		assertFalse(detector.isStopped());
+	}
+
+	@Test
+	public void resumesOnDistantFix() {
+		StopDetector detector = new StopDetector();
+		long time = 0;
+		for (; !detector.isStopped() && time < 60000; time += SAMPLE_INTERVAL) {
+			detector.onAcceleration(time, 0, 0, (float) StopDetector.GRAVITY);
+			if (time % FIX_INTERVAL == 0) {
+				detector.onFix(time, 48.85, 2.35, 5);
+			}
+		}
+		assertTrue(detector.isStopped());
+		assertFalse(detector.onFix(time, 48.85 + 20 / Geo.METERS_PER_DEGREE, 2.35, 5));
+		assertTrue(detector.onFix(time + FIX_INTERVAL, 48.85 + 100 / Geo.METERS_PER_DEGREE, 2.35, 5));
+		assertFalse(detector.isStopped());
+		assertEquals(1, detector.getStopCount());
+	}
+
+	// Replays the synthetic scenario, with 1 Hz fixes and 5 Hz accelerometer samples
+	private static Replay replayScenario(Random random) {
+		Replay replay = new Replay();
+		long time = FIRST_TIME;
+		double x = 0;
+		double y = 0;
+		double heading = 0;
+		for (int segment = 0; segment < SCENARIO.length; segment += 2) {
+			int kind = SCENARIO[segment];
+			long end = time + SCENARIO[segment + 1] * 1000L;
+			replay.onTruth(time, STOPPED[kind]);
+			heading += random.nextGaussian() * 0.5;
+			// The significant motion sensor triggers a few seconds after the user starts moving
+			long motionTime = kind == WALK || kind == DRIVE ? time + 5000 + SAMPLE_INTERVAL * random.nextInt(50) : -1;
+			for (; time < end; time += SAMPLE_INTERVAL) {
+				if (time == motionTime) {
+					replay.onSignificantMotion(time);
+				}
+				double deviation = VIBRATIONS[kind] * random.nextGaussian()
+						+ STEPS[kind] * Math.sin(2 * Math.PI * 1.8 * time / 1000.0);
+				replay.onAcceleration(time, (float) (0.1 * random.nextGaussian()), (float) (0.1 * random.nextGaussian()),
+						(float) (StopDetector.GRAVITY + deviation));
+				if ((time - FIRST_TIME) % FIX_INTERVAL == 0) {
+					double distance = SPEEDS[kind] * FIX_INTERVAL / 1000.0;
+					x += distance * Math.cos(heading);
+					y += distance * Math.sin(heading);
+					replay.onFix(time, 48.85 + (y + 3 * random.nextGaussian()) / Geo.METERS_PER_DEGREE,
+							2.35 + (x + 3 * random.nextGaussian()) / LONGITUDE_SCALE, (float) (4 + 4 * random.nextDouble()));
+				}
+			}
+		}
+		replay.end();
+		return replay;
+	}
+
+	/**
+	 * Feeds the events to a detector and compares its detections with the truth.
+	 */
+	private static class Replay {
+		private final StopDetector detector = new StopDetector();
+		private boolean truthKnown = false;
+		private boolean truth = false;
+		private long truthTime;
+		// Whether the current truth was detected
+		private boolean truthDetected = true;
+		long maxStopDelay = 0;
+		int detectedStops = 0;
+		int missedStops = 0;
+		long maxMoveDelay = 0;
+		int detectedMoves = 0;
+		int falseStops = 0;
+		int droppedFixes = 0;
+
+		void onFix(long time, double latitude, double longitude, float accuracy) {
+			if (detector.isStopped()) {
+				droppedFixes++;
+			} else if (detector.onFix(time, latitude, longitude, accuracy)) {
+				onDetection(time);
+			}
+		}
+
+		void onAcceleration(long time, float x, float y, float z) {
+			if (detector.onAcceleration(time, x, y, z)) {
+				onDetection(time);
+			}
+		}
+
+		void onSignificantMotion(long time) {
+			if (detector.onSignificantMotion(time)) {
+				onDetection(time);
+			}
+		}
+
+		void onTruth(long time, boolean stopped) {
+			if (truthKnown && truth == stopped) return;
+			end();
+			truthKnown = true;
+			truth = stopped;
+			truthTime = time;
+			// A stop must be detected, a move only when the detector tells a stop
+			truthDetected = !stopped && !detector.isStopped();
+		}
+
+		void end() {
+			if (truthKnown && truth && !truthDetected) {
+				missedStops++;
+			}
+		}
+
+		private void onDetection(long time) {
+			boolean stopped = detector.isStopped();
+			if (stopped && !truth) {
+				falseStops++;
+			} else if (stopped == truth && !truthDetected) {
+				truthDetected = true;
+				long delay = time - truthTime;
+				if (stopped) {
+					detectedStops++;
+					maxStopDelay = Math.max(maxStopDelay, delay);
+				} else {
+					detectedMoves++;
+					maxMoveDelay = Math.max(maxMoveDelay, delay);
+				}
+			}
+		}
+	}
+}
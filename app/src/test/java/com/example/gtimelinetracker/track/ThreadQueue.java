@@ -0,0 +1,143 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message queue of a plain thread, standing for the handler thread of the service: the messages
+ * are handled in the order they are due, then of sending, and delayed ones wait on the real time.
+ */
+class ThreadQueue implements TrackerLoop.Queue {
+	private final Thread thread;
+	// Guarded by this
+	private final PriorityQueue<Message> messages = new PriorityQueue<>();
+	private long sequence = 0;
+	private boolean quit = false;
+	private TrackerLoop loop;
+
+	ThreadQueue(String name) {
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+	}
+
+	Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * Starts handing the messages to the loop.
+	 */
+	void start(TrackerLoop loop) {
+		this.loop = loop;
+		thread.start();
+	}
+
+	/**
+	 * Runs the task on the thread, after the messages already due.
+	 */
+	synchronized void post(Runnable task) {
+		add(new Message(System.currentTimeMillis(), 0, 0, null, task));
+	}
+
+	/**
+	 * Waits until the messages already due are handled.
+	 *
+	 * @return false on timeout
+	 */
+	boolean sync(long timeout) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		return latch.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void send(int what, int arg, Object obj) {
+		add(new Message(System.currentTimeMillis(), what, arg, obj, null));
+	}
+
+	@Override
+	public synchronized void sendDelayed(int what, long delay) {
+		add(new Message(System.currentTimeMillis() + delay, what, 0, null, null));
+	}
+
+	@Override
+	public synchronized void remove(int what) {
+		for (Iterator<Message> i = messages.iterator(); i.hasNext(); ) {
+			Message message = i.next();
+			if (message.task == null && message.what == what) {
+				i.remove();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void quit() {
+		quit = true;
+		notifyAll();
+	}
+
+	private void add(Message message) {
+		message.sequence = sequence++;
+		messages.add(message);
+		notifyAll();
+	}
+
+	private void loop() {
+		while (true) {
+			Message message;
+			synchronized (this) {
+				long now = System.currentTimeMillis();
+				Message next = messages.peek();
+				if (next == null || next.time > now) {
+					if (quit) return;
+					try {
+						wait(next == null ? 0 : next.time - now);
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+				message = messages.poll();
+			}
+			if (message.task != null) {
+				message.task.run();
+			} else {
+				loop.handleMessage(message.what, message.arg, message.obj);
+			}
+		}
+	}
+
+	private static class Message implements Comparable<Message> {
+		final long time;
+		final int what;
+		final int arg;
+		final Object obj;
+		final Runnable task;
+		long sequence;
+
+		Message(long time, int what, int arg, Object obj, Runnable task) {
+			this.time = time;
+			this.what = what;
+			this.arg = arg;
+			this.obj = obj;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(Message other) {
+			if (time != other.time) return time < other.time ? -1 : 1;
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+}
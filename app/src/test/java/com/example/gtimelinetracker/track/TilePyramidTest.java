@@ -0,0 +1,347 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds fixes placed in the tiles of the finest level of a {@link TilePyramid}, and checks the
+ * polylines of the tiles, how they are cached and how they are read back from their files.
+ */
+public class TilePyramidTest {
+	private static final long START = 1577836800000L;
+	private static final long INTERVAL = 10000;
+	private static final long TIMEOUT = 10000;
+	private static final int LEVEL = 16;
+	private static final int TILES = 1 << LEVEL;
+	// Tile of the level around Paris, the fixes are given in tiles from its top left corner
+	private static final int ORIGIN_X = 33190;
+	private static final int ORIGIN_Y = 22545;
+	private static final int ON_FOOT = ActivityTypes.ON_FOOT;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Tiles told loaded by the listener
+	private final BlockingQueue<Tile> loaded = new LinkedBlockingQueue<>();
+	private long time = START;
+
+	@Test
+	public void pendingTilesMatchAMap() {
+		Random random = new Random(42);
+		TilePyramid.PendingTiles table = new TilePyramid.PendingTiles();
+		Map<Long, TilePyramid.PointBuffer> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			// Few neighbouring tiles, so that clusters form and removals move entries back
+			int x = random.nextInt(40);
+			int y = random.nextInt(40);
+			long key = TilePyramid.getKey(12, x, y);
+			if (random.nextInt(3) == 0) {
+				assertSame(expected.remove(key), table.remove(key));
+			} else if (table.get(key) == null) {
+				TilePyramid.PointBuffer buffer = new TilePyramid.PointBuffer(12, x, y);
+				table.put(key, buffer);
+				expected.put(key, buffer);
+			}
+			assertSame(expected.get(key), table.get(key));
+			assertEquals(expected.size(), table.size());
+		}
+		int count = 0;
+		for (int slot = 0; slot < table.getCapacity(); slot++) {
+			TilePyramid.PointBuffer buffer = table.getBuffer(slot);
+			if (buffer != null) {
+				assertSame(buffer, expected.get(TilePyramid.getKey(buffer.level, buffer.x, buffer.y)));
+				count++;
+			}
+		}
+		assertEquals(expected.size(), count);
+		assertNull(table.get(TilePyramid.getKey(14, 0, 0)));
+	}
+
+	@Test
+	public void cutsSegmentsIntoCrossedTiles() throws IOException, InterruptedException {
+		TilePyramid pyramid = newPyramid(folder.newFolder("tiles"), 100000);
+		// Down and right, up and left, then straight down, each segment in its own rows
+		double[][] segments = {{0.3, 0.6, 3.7, 2.2}, {3.8, 5.9, 0.1, 4.4}, {1.5, 7.2, 1.5, 9.8}};
+		for (double[] segment : segments) {
+			add(pyramid, segment[0], segment[1], ON_FOOT);
+			add(pyramid, segment[2], segment[3], ON_FOOT);
+			gap(pyramid);
+		}
+		for (double[] segment : segments) {
+			// The tiles touched by points sampled along the segment
+			Set<Long> crossed = new HashSet<>();
+			for (int i = 0; i <= 100000; i++) {
+				double x = segment[0] + (segment[2] - segment[0]) * i / 100000;
+				double y = segment[1] + (segment[3] - segment[1]) * i / 100000;
+				crossed.add(TilePyramid.getKey(LEVEL, ORIGIN_X + (int) Math.floor(x), ORIGIN_Y + (int) Math.floor(y)));
+			}
+			int minX = (int) Math.floor(Math.min(segment[0], segment[2]));
+			int maxX = (int) Math.floor(Math.max(segment[0], segment[2]));
+			int minY = (int) Math.floor(Math.min(segment[1], segment[3]));
+			int maxY = (int) Math.floor(Math.max(segment[1], segment[3]));
+			assertEquals(maxX - minX + maxY - minY + 1, crossed.size());
+			// Each crossed tile holds the whole segment, the tiles around it nothing
+			for (int x = ORIGIN_X + minX - 1; x <= ORIGIN_X + maxX + 1; x++) {
+				for (int y = ORIGIN_Y + minY - 1; y <= ORIGIN_Y + maxY + 1; y++) {
+					Tile tile = load(pyramid, x, y);
+					if (crossed.contains(TilePyramid.getKey(LEVEL, x, y))) {
+						assertEquals(tile.toString(), 2, tile.getPointCount());
+						assertPoint(tile, 0, segment[0], segment[1], true, ON_FOOT);
+						assertPoint(tile, 1, segment[2], segment[3], false, ON_FOOT);
+					} else {
+						assertEquals(tile.toString(), 0, tile.getPointCount());
+					}
+				}
+			}
+		}
+		close(pyramid);
+	}
+
+	@Test
+	public void skipsSegmentsCrossingTooManyTiles() throws IOException, InterruptedException {
+		TilePyramid pyramid = newPyramid(folder.newFolder("tiles"), 100000);
+		add(pyramid, 0.5, 0.5, ON_FOOT);
+		add(pyramid, TilePyramid.MAX_SEGMENT_TILES + 0.5, 0.7, ON_FOOT);
+		pyramid.flush();
+		// Both ends are drawn as points, nothing in between
+		Tile first = load(pyramid, ORIGIN_X, ORIGIN_Y);
+		assertEquals(1, first.getPointCount());
+		assertPoint(first, 0, 0.5, 0.5, true, ON_FOOT);
+		Tile last = load(pyramid, ORIGIN_X + TilePyramid.MAX_SEGMENT_TILES, ORIGIN_Y);
+		assertEquals(1, last.getPointCount());
+		assertPoint(last, 0, TilePyramid.MAX_SEGMENT_TILES + 0.5, 0.7, true, ON_FOOT);
+		for (int x = ORIGIN_X + 1; x < ORIGIN_X + TilePyramid.MAX_SEGMENT_TILES; x++) {
+			assertEquals(0, load(pyramid, x, ORIGIN_Y).getPointCount());
+		}
+		close(pyramid);
+	}
+
+	@Test
+	public void continuesPolylinesAcrossTiles() throws IOException, InterruptedException {
+		TilePyramid pyramid = newPyramid(folder.newFolder("tiles"), 100000);
+		// From the first tile to the second one, a turn in the second one, on to the third one,
+		// then the activity changes in the third one
+		double[][] points = {{0.5, 0.5}, {1.5, 0.6}, {1.7, 0.2}, {2.4, 0.5}, {2.7, 0.8}};
+		for (int i = 0; i < 4; i++) {
+			add(pyramid, points[i][0], points[i][1], ON_FOOT);
+		}
+		add(pyramid, points[4][0], points[4][1], ActivityTypes.ON_BICYCLE);
+		pyramid.flush();
+
+		Tile tile = load(pyramid, ORIGIN_X, ORIGIN_Y);
+		assertEquals(2, tile.getPointCount());
+		assertPoint(tile, 0, points[0], true, ON_FOOT);
+		assertPoint(tile, 1, points[1], false, ON_FOOT);
+		// The segments which continue in the tile extend its polyline
+		tile = load(pyramid, ORIGIN_X + 1, ORIGIN_Y);
+		assertEquals(4, tile.getPointCount());
+		assertEquals(1, tile.getPolylineCount());
+		assertPoint(tile, 0, points[0], true, ON_FOOT);
+		for (int i = 1; i < 4; i++) {
+			assertPoint(tile, i, points[i], false, ON_FOOT);
+		}
+		tile = load(pyramid, ORIGIN_X + 2, ORIGIN_Y);
+		assertEquals(4, tile.getPointCount());
+		assertEquals(2, tile.getPolylineCount());
+		assertPoint(tile, 0, points[2], true, ON_FOOT);
+		assertPoint(tile, 1, points[3], false, ON_FOOT);
+		assertPoint(tile, 2, points[3], true, ActivityTypes.ON_BICYCLE);
+		assertPoint(tile, 3, points[4], false, ActivityTypes.ON_BICYCLE);
+		close(pyramid);
+	}
+
+	@Test
+	public void breaksPolylinesOnGaps() throws IOException, InterruptedException {
+		TilePyramid pyramid = newPyramid(folder.newFolder("tiles"), 100000);
+		double[][] points = {{0.2, 0.2}, {0.5, 0.4}, {0.3, 0.7}, {0.6, 0.8}, {0.8, 0.3}, {0.4, 0.5}, {0.7, 0.6}};
+		add(pyramid, points[0][0], points[0][1], ON_FOOT);
+		add(pyramid, points[1][0], points[1][1], ON_FOOT);
+		gap(pyramid);
+		add(pyramid, points[2][0], points[2][1], ON_FOOT);
+		add(pyramid, points[3][0], points[3][1], ON_FOOT);
+		// Silent gaps, one too long then one just short enough
+		time += TilePyramid.MAX_GAP + 1 - INTERVAL;
+		add(pyramid, points[4][0], points[4][1], ON_FOOT);
+		add(pyramid, points[5][0], points[5][1], ON_FOOT);
+		time += TilePyramid.MAX_GAP - INTERVAL;
+		add(pyramid, points[6][0], points[6][1], ON_FOOT);
+		pyramid.flush();
+
+		Tile tile = load(pyramid, ORIGIN_X, ORIGIN_Y);
+		boolean[] starts = {true, false, true, false, true, false, false};
+		assertEquals(points.length, tile.getPointCount());
+		assertEquals(3, tile.getPolylineCount());
+		for (int i = 0; i < points.length; i++) {
+			assertPoint(tile, i, points[i], starts[i], ON_FOOT);
+		}
+		close(pyramid);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedTiles() throws IOException, InterruptedException {
+		// Room for two tiles of two points
+		TilePyramid pyramid = newPyramid(folder.newFolder("tiles"), 2 * (TilePyramid.TILE_COST + 2));
+		for (int x = 0; x < 3; x++) {
+			add(pyramid, x + 0.2, 0.2, ON_FOOT);
+			add(pyramid, x + 0.6, 0.7, ON_FOOT);
+			gap(pyramid);
+		}
+		load(pyramid, ORIGIN_X, ORIGIN_Y);
+		load(pyramid, ORIGIN_X + 1, ORIGIN_Y);
+		assertNotNull(pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+		// The second tile is now the least recently used one
+		load(pyramid, ORIGIN_X + 2, ORIGIN_Y);
+		assertNotNull(pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+		assertNotNull(pyramid.getTile(LEVEL, ORIGIN_X + 2, ORIGIN_Y));
+		assertNull(pyramid.getTile(LEVEL, ORIGIN_X + 1, ORIGIN_Y));
+		assertEquals(2, take().getPointCount());
+		assertNull(pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+		assertEquals(2, take().getPointCount());
+
+		// Points added to a cached tile count too, the other tile goes as soon as they overflow
+		Tile tile = pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y);
+		for (int i = 0; i < 10; i++) {
+			add(pyramid, 0.1 + 0.07 * i, 0.3 + 0.3 * (i % 2), ON_FOOT);
+		}
+		pyramid.flush();
+		assertSame(tile, pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+		assertEquals(12, tile.getPointCount());
+		assertNull(pyramid.getTile(LEVEL, ORIGIN_X + 1, ORIGIN_Y));
+		assertEquals(2, take().getPointCount());
+		close(pyramid);
+	}
+
+	@Test
+	public void mergesWrittenAndPendingPoints() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tiles");
+		TilePyramid pyramid = newPyramid(directory, 100000);
+		// A zigzag in a single tile, whose points all stay through the simplification. The first
+		// part is written, the simplifier holds the last point of the second one
+		double[][] points = new double[30][];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new double[]{0.05 + 0.03 * i, 0.3 + 0.3 * (i % 2)};
+			if (i == 10) {
+				pyramid.flush();
+			} else if (i == 20) {
+				// Loaded while the second part is pending, and the third one comes in
+				assertNull(pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+			}
+			add(pyramid, points[i][0], points[i][1], ON_FOOT);
+		}
+		Tile tile = take();
+		pyramid.flush();
+		assertSame(tile, pyramid.getTile(LEVEL, ORIGIN_X, ORIGIN_Y));
+		assertPolylines(tile, points);
+		close(pyramid);
+
+		// The file holds the same points
+		pyramid = newPyramid(directory, 100000);
+		assertFalse(pyramid.isEmpty());
+		assertPolylines(load(pyramid, ORIGIN_X, ORIGIN_Y), points);
+		close(pyramid);
+	}
+
+	private TilePyramid newPyramid(File directory, int maxCachedPoints) {
+		TilePyramid pyramid = new TilePyramid(directory, new NullSink(), maxCachedPoints);
+		pyramid.setListener(new TilePyramid.Listener() {
+			@Override
+			public void onTileLoaded(Tile tile) {
+				loaded.add(tile);
+			}
+		});
+		return pyramid;
+	}
+
+	private static void close(TilePyramid pyramid) throws InterruptedException {
+		pyramid.close();
+		assertTrue("pyramid closed", pyramid.awaitClosed(TIMEOUT));
+	}
+
+	// Fix at the given point, in tiles from the origin, after the previous one
+	private void add(TilePyramid pyramid, double x, double y, int activityType) {
+		pyramid.onFix(time, latitude(y), longitude(x), 5, activityType);
+		time += INTERVAL;
+	}
+
+	private void gap(TilePyramid pyramid) {
+		pyramid.onFix(time, 0, 0, 0, TrackStore.GAP_MARKER);
+		time += INTERVAL;
+	}
+
+	// The cached tile, or the tile once loaded
+	private Tile load(TilePyramid pyramid, int x, int y) throws InterruptedException {
+		Tile tile = pyramid.getTile(LEVEL, x, y);
+		if (tile == null) {
+			tile = take();
+			assertEquals(TilePyramid.getKey(LEVEL, x, y), tile.key);
+		}
+		return tile;
+	}
+
+	private Tile take() throws InterruptedException {
+		Tile tile = loaded.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull("tile loaded", tile);
+		return tile;
+	}
+
+	// The 30 points of the zigzag, broken after the first 10
+	private static void assertPolylines(Tile tile, double[][] points) {
+		assertEquals(points.length, tile.getPointCount());
+		assertEquals(2, tile.getPolylineCount());
+		for (int i = 0; i < points.length; i++) {
+			assertPoint(tile, i, points[i], i % 10 == 0 && i < 20, ON_FOOT);
+		}
+	}
+
+	private static void assertPoint(Tile tile, int point, double[] expected, boolean polylineStart, int activityType) {
+		assertPoint(tile, point, expected[0], expected[1], polylineStart, activityType);
+	}
+
+	// The point is stored as the pyramid projects the fix, relative to the tile
+	private static void assertPoint(Tile tile, int point, double x, double y, boolean polylineStart, int activityType) {
+		String message = tile + " point " + point;
+		double worldX = TilePyramid.getWorldX(longitude(x)) * TILES;
+		double worldY = TilePyramid.getWorldY(latitude(y)) * TILES;
+		assertEquals(message, (float) (worldX - tile.getX()), tile.getPointX(point), 0);
+		assertEquals(message, (float) (worldY - tile.getY()), tile.getPointY(point), 0);
+		assertEquals(message, polylineStart, tile.isPolylineStart(point));
+		assertEquals(message, activityType, tile.getActivityType(point));
+	}
+
+	private static double longitude(double x) {
+		return (ORIGIN_X + x) / TILES * 360 - 180;
+	}
+
+	private static double latitude(double y) {
+		return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (ORIGIN_Y + y) / TILES))));
+	}
+
+	private static class NullSink implements FixSink {
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
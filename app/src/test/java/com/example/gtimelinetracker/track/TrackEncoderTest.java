@@ -0,0 +1,119 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackEncoderTest {
+	private static final int FIXES = 10000;
+	private static final double MAX_COORDINATE_ERROR = 0.5 / TrackEncoder.COORDINATE_SCALE + 1e-12;
+	private static final float MAX_ACCURACY_ERROR = 0.5f / TrackEncoder.ACCURACY_SCALE + 1e-6f;
+
+	private final long[] times = new long[FIXES];
+	private final double[] latitudes = new double[FIXES];
+	private final double[] longitudes = new double[FIXES];
+	private final float[] accuracies = new float[FIXES];
+	private final int[] activityTypes = new int[FIXES];
+
+	@Before
+	public void setUp() {
+		Random random = new Random(42);
+		double latitude = 48.85;
+		double longitude = 2.35;
+		for (int i = 0; i < FIXES; i++) {
+			// Fix times are not exactly regular
+			times[i] = 1500000000000L + i * 1000L + random.nextInt(100) - 50;
+			latitude += (random.nextDouble() - 0.5) * 2e-4;
+			longitude += (random.nextDouble() - 0.5) * 2e-4;
+			latitudes[i] = latitude;
+			longitudes[i] = longitude;
+			accuracies[i] = 3 + 20 * random.nextFloat();
+			// Gap markers are negative
+			activityTypes[i] = i % 1000 == 999 ? TrackStore.GAP_MARKER : i / 1000 % 3;
+		}
+	}
+
+	@Test
+	public void roundTripsWithinQuantization() throws IOException {
+		ByteBuffer encoded = encode(TrackEncoder.DEFAULT_BLOCK_SIZE);
+		TrackDecoder decoder = new TrackDecoder(encoded);
+		for (int i = 0; i < FIXES; i++) {
+			assertTrue("missing fix " + i, decoder.next());
+			assertEquals(times[i], decoder.getTime());
+			assertEquals(latitudes[i], decoder.getLatitude(), MAX_COORDINATE_ERROR);
+			assertEquals(longitudes[i], decoder.getLongitude(), MAX_COORDINATE_ERROR);
+			assertEquals(accuracies[i], decoder.getAccuracy(), MAX_ACCURACY_ERROR);
+			assertEquals(activityTypes[i], decoder.getActivityType());
+		}
+		assertFalse(decoder.next());
+	}
+
+	@Test
+	public void encodesFewBytesPerFix() throws IOException {
+		ByteBuffer encoded = encode(TrackEncoder.DEFAULT_BLOCK_SIZE);
+		double bytesPerFix = (double) encoded.remaining() / FIXES;
+		assertTrue("bytes per fix " + bytesPerFix, bytesPerFix < TrackStore.RECORD_SIZE / 3.0);
+	}
+
+	@Test
+	public void skipsBlocksBeforeTime() throws IOException {
+		ByteBuffer encoded = encode(TrackEncoder.DEFAULT_BLOCK_SIZE);
+		int target = FIXES / 2 + 17;
+		TrackDecoder decoder = new TrackDecoder(encoded);
+		decoder.skipTo(times[target]);
+		int skipped = 0;
+		while (decoder.next() && decoder.getTime() < times[target]) {
+			skipped++;
+		}
+		assertEquals(times[target], decoder.getTime());
+		assertTrue("skipped " + skipped, skipped < TrackEncoder.DEFAULT_BLOCK_SIZE);
+	}
+
+	@Test
+	public void skipsWithinCurrentBlock() throws IOException {
+		ByteBuffer encoded = encode(16);
+		TrackDecoder decoder = new TrackDecoder(encoded);
+		assertTrue(decoder.next());
+		decoder.skipTo(times[100]);
+		assertTrue(decoder.next());
+		assertEquals(times[96], decoder.getTime());
+	}
+
+	@Test
+	public void reportsEncodedSize() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackEncoder encoder = new TrackEncoder(out, 100);
+		for (int i = 0; i < 150; i++) {
+			encoder.write(times[i], latitudes[i], longitudes[i], accuracies[i], activityTypes[i]);
+		}
+		// Only the full block was written
+		assertEquals(out.size(), encoder.getEncodedSize());
+		encoder.finish();
+		assertEquals(out.size(), encoder.getEncodedSize());
+		TrackDecoder decoder = new TrackDecoder(ByteBuffer.wrap(out.toByteArray()));
+		int count = 0;
+		while (decoder.next()) {
+			count++;
+		}
+		assertEquals(150, count);
+	}
+
+	private ByteBuffer encode(int blockSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackEncoder encoder = new TrackEncoder(out, blockSize);
+		for (int i = 0; i < FIXES; i++) {
+			encoder.write(times[i], latitudes[i], longitudes[i], accuracies[i], activityTypes[i]);
+		}
+		encoder.finish();
+		assertEquals(out.size(), encoder.getEncodedSize());
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+}
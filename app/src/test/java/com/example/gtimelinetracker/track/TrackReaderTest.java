@@ -0,0 +1,176 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queries segments written by a {@link TrackStore} with a {@link TrackReader}, and checks each
+ * result against a linear scan of the written fixes, with ranges starting and ending around the
+ * entries of the sparse index, the blocks of records and the daily segments.
+ */
+public class TrackReaderTest {
+	private static final long START = 1577836800000L;
+	private static final long DAY = 24 * 3600000;
+	private static final int DAYS = 3;
+	// Fixes up to 20 s apart, several index blocks per day
+	private static final int MAX_INTERVAL = 20000;
+	private static final long TIMEOUT = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random random = new Random(1);
+	// Written fixes, in time order
+	private long[] times = new long[0];
+	private int count = 0;
+	private TrackStore store;
+
+	@Test
+	public void matchesLinearScanAroundIndexEntries() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tracks");
+		store = new TrackStore(directory);
+		write(START, START + DAYS * DAY);
+		TrackReader reader = new TrackReader(directory);
+		long[] entries = getBoundaries(directory);
+		assertTrue("boundaries " + entries.length, entries.length > DAYS * 4);
+		for (long entry : entries) {
+			// Starting or ending exactly on a boundary, then just around it
+			check(reader, entry, entry + 1);
+			check(reader, entry, entry + MAX_INTERVAL * TrackReader.INDEX_INTERVAL / 4);
+			check(reader, entry - MAX_INTERVAL, entry);
+			check(reader, entry - 1, entry + 1);
+			check(reader, entry + 1, entry + 2 * MAX_INTERVAL);
+			check(reader, entry, entry);
+		}
+		for (int i = 0; i + 1 < entries.length; i++) {
+			// A whole block, then inside it
+			check(reader, entries[i], entries[i + 1]);
+			long middle = (entries[i] + entries[i + 1]) / 2;
+			check(reader, middle, middle + 1);
+			check(reader, middle - 1000, middle + 1000);
+		}
+		store.close();
+		assertTrue("store closed", store.awaitClosed(TIMEOUT));
+	}
+
+	@Test
+	public void matchesLinearScanAroundSegments() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tracks");
+		store = new TrackStore(directory);
+		write(START, START + DAYS * DAY);
+		TrackReader reader = new TrackReader(directory);
+		long first = times[0];
+		long last = times[count - 1];
+		// Before the first record and after the last one
+		check(reader, first - DAY, first);
+		check(reader, first - DAY, first + 1);
+		check(reader, 0, Long.MAX_VALUE / 2);
+		check(reader, last, last + 1);
+		check(reader, last + 1, last + DAY);
+		// Across several daily segments, then on each side of each midnight
+		check(reader, first + 1, last);
+		check(reader, START + DAY / 2, START + DAY / 2 + 2 * DAY);
+		for (int day = 1; day < DAYS; day++) {
+			long midnight = START + day * DAY;
+			check(reader, midnight - 3600000, midnight + 3600000);
+			check(reader, midnight, midnight + 1);
+			check(reader, midnight - 1, midnight);
+		}
+		for (int i = 0; i < 200; i++) {
+			long from = first - DAY + (long) (random.nextDouble() * (last - first + 2 * DAY));
+			check(reader, from, from + (long) (random.nextDouble() * DAY));
+		}
+		store.close();
+		assertTrue("store closed", store.awaitClosed(TIMEOUT));
+	}
+
+	@Test
+	public void extendsIndexOfGrowingSegments() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tracks");
+		store = new TrackStore(directory);
+		write(START, START + DAY / 3);
+		TrackReader reader = new TrackReader(directory);
+		check(reader, 0, Long.MAX_VALUE / 2);
+		// The same reader sees the records appended to its mapped segment, then the next segment
+		write(times[count - 1] + 1, START + DAY + DAY / 3);
+		check(reader, 0, Long.MAX_VALUE / 2);
+		for (long entry : getBoundaries(directory)) {
+			check(reader, entry - MAX_INTERVAL, entry + MAX_INTERVAL);
+		}
+		store.close();
+		assertTrue("store closed", store.awaitClosed(TIMEOUT));
+	}
+
+	// Fixes at random intervals through the store, waiting for the writer now and then
+	private void write(long from, long to) throws InterruptedException {
+		for (long time = from; time < to; time += 1 + random.nextInt(MAX_INTERVAL)) {
+			if (count == times.length) {
+				times = Arrays.copyOf(times, Math.max(1024, count * 2));
+			}
+			times[count] = time;
+			store.onFix(time, getLatitude(count), 2.35, count % 50, count % 9);
+			if (++count % 1000 == 0) {
+				assertTrue(store.awaitFlushed(TIMEOUT));
+			}
+		}
+		assertTrue(store.awaitFlushed(TIMEOUT));
+		assertEquals(0, store.getDroppedCount());
+	}
+
+	// Compares a query with a scan of the written fixes
+	private void check(TrackReader reader, long from, long to) throws IOException {
+		TrackCursor cursor = reader.query(from, to);
+		String range = "[" + from + ", " + to + "[";
+		for (int i = 0; i < count; i++) {
+			if (times[i] < from || times[i] >= to) continue;
+			assertTrue(range + " missing " + times[i], cursor.next());
+			assertEquals(range, times[i], cursor.getTime());
+			assertEquals(range, getLatitude(i), cursor.getLatitude(), 0);
+			assertEquals(range, i % 50, cursor.getAccuracy(), 0);
+			assertEquals(range, i % 9, cursor.getActivityType());
+		}
+		assertFalse(range + " extra record", cursor.next());
+	}
+
+	// Times of the records starting the index blocks and ending the segments, in time order
+	private static long[] getBoundaries(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		assertTrue(files != null);
+		Arrays.sort(files);
+		List<Long> entries = new ArrayList<>();
+		int segments = 0;
+		for (File file : files) {
+			if (!file.getName().startsWith(TrackStore.SEGMENT_PREFIX)) continue;
+			TrackReader.Segment segment = new TrackReader.Segment(file, 0);
+			segment.update();
+			for (long entry : segment.index) {
+				entries.add(entry);
+			}
+			// The last record of the segment
+			entries.add(segment.getTime(segment.count - 1));
+			segments++;
+		}
+		assertTrue("segments " + segments, segments >= 2);
+		long[] result = new long[entries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = entries.get(i);
+		}
+		return result;
+	}
+
+	private static double getLatitude(int i) {
+		return 48.85 + i * 1e-7;
+	}
+}
@@ -0,0 +1,195 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackSimplifierTest {
+	private static final double TOLERANCE = 5;
+	private static final long MAX_INTERVAL = 10 * 60000;
+	private static final int ACTIVITY = 0;
+
+	@Test
+	public void keepsDroppedFixesWithinTolerance() {
+		Fixes track = drive(new Random(1), 2 * 3600);
+		Fixes kept = simplify(track, TOLERANCE);
+		assertTrue("max deviation " + maxDeviation(track, kept), maxDeviation(track, kept) <= TOLERANCE + 0.01);
+	}
+
+	@Test
+	public void compressesCurvedTrack() {
+		Fixes track = drive(new Random(2), 2 * 3600);
+		Fixes kept = simplify(track, TOLERANCE);
+		double ratio = (double) track.size / kept.size;
+		assertTrue("compression ratio " + ratio, ratio >= 10);
+	}
+
+	@Test
+	public void keepsEndsOfStraightLine() {
+		Fixes track = new Fixes(100);
+		for (int i = 0; i < 100; i++) {
+			track.onFix(i * 1000L, 48.85, 2.35 + i * 0.0002, 5, ACTIVITY);
+		}
+		Fixes kept = simplify(track, TOLERANCE);
+		assertEquals(2, kept.size);
+		assertEquals(0, kept.times[0]);
+		assertEquals(99000, kept.times[1]);
+	}
+
+	@Test
+	public void forwardsFixesAroundGapMarker() {
+		Fixes kept = new Fixes(8);
+		TrackSimplifier simplifier = new TrackSimplifier(kept, TOLERANCE, MAX_INTERVAL);
+		for (int i = 0; i < 10; i++) {
+			simplifier.onFix(i * 1000L, 48.85, 2.35 + i * 0.0002, 5, ACTIVITY);
+		}
+		simplifier.onFix(9001, 48.85, 2.3518, 5, TrackStore.GAP_MARKER);
+		for (int i = 20; i < 30; i++) {
+			simplifier.onFix(i * 1000L, 48.85, 2.35 + i * 0.0002, 5, ACTIVITY);
+		}
+		simplifier.flush();
+		assertEquals(5, kept.size);
+		assertEquals(9000, kept.times[1]);
+		assertEquals(TrackStore.GAP_MARKER, kept.activityTypes[2]);
+		assertEquals(20000, kept.times[3]);
+		assertEquals(20, simplifier.getInputCount());
+	}
+
+	@Test
+	public void forwardsFixBeforeActivityChange() {
+		Fixes kept = new Fixes(8);
+		TrackSimplifier simplifier = new TrackSimplifier(kept, TOLERANCE, MAX_INTERVAL);
+		for (int i = 0; i < 20; i++) {
+			simplifier.onFix(i * 1000L, 48.85, 2.35 + i * 0.0002, 5, i < 10 ? ACTIVITY : ACTIVITY + 1);
+		}
+		simplifier.flush();
+		assertEquals(3, kept.size);
+		assertEquals(9000, kept.times[1]);
+		assertEquals(ACTIVITY, kept.activityTypes[1]);
+		assertEquals(ACTIVITY + 1, kept.activityTypes[2]);
+	}
+
+	@Test
+	public void forwardsAtMaxInterval() {
+		Fixes track = new Fixes(3600);
+		for (int i = 0; i < 3600; i++) {
+			track.onFix(i * 1000L, 48.85, 2.35 + i * 0.0002, 5, ACTIVITY);
+		}
+		Fixes kept = simplify(track, TOLERANCE);
+		for (int i = 1; i < kept.size; i++) {
+			assertTrue(kept.times[i] - kept.times[i - 1] <= MAX_INTERVAL);
+		}
+	}
+
+	private static Fixes simplify(Fixes track, double tolerance) {
+		Fixes kept = new Fixes(track.size);
+		TrackSimplifier simplifier = new TrackSimplifier(kept, tolerance, MAX_INTERVAL);
+		for (int i = 0; i < track.size; i++) {
+			simplifier.onFix(track.times[i], track.latitudes[i], track.longitudes[i], track.accuracies[i], ACTIVITY);
+		}
+		simplifier.flush();
+		assertEquals(track.size, simplifier.getInputCount());
+		assertEquals(kept.size, simplifier.getOutputCount());
+		return kept;
+	}
+
+	/**
+	 * @return the largest distance in meters between a fix and the segment of the kept fixes around it
+	 */
+	private static double maxDeviation(Fixes track, Fixes kept) {
+		double max = 0;
+		int segment = 0;
+		for (int i = 0; i < track.size; i++) {
+			while (segment < kept.size - 2 && kept.times[segment + 1] < track.times[i]) {
+				segment++;
+			}
+			max = Math.max(max, segmentDistance(track.latitudes[i], track.longitudes[i],
+					kept.latitudes[segment], kept.longitudes[segment],
+					kept.latitudes[segment + 1], kept.longitudes[segment + 1]));
+		}
+		return max;
+	}
+
+	private static double segmentDistance(double latitude, double longitude,
+			double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+		double scale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(fromLatitude));
+		double x = (longitude - fromLongitude) * scale;
+		double y = (latitude - fromLatitude) * Geo.METERS_PER_DEGREE;
+		double dx = (toLongitude - fromLongitude) * scale;
+		double dy = (toLatitude - fromLatitude) * Geo.METERS_PER_DEGREE;
+		double length = dx * dx + dy * dy;
+		double ratio = length == 0 ? 0 : Math.max(0, Math.min(1, (x * dx + y * dy) / length));
+		return Math.hypot(x - ratio * dx, y - ratio * dy);
+	}
+
+	/**
+	 * @return noisy 1 Hz fixes of a drive at 15 m/s, along long curves and turns every few minutes
+	 */
+	private static Fixes drive(Random random, int seconds) {
+		Fixes track = new Fixes(seconds);
+		double longitudeScale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(48.85));
+		double x = 0;
+		double y = 0;
+		double heading = 0;
+		double turnRate = 0;
+		for (int i = 0; i < seconds; i++) {
+			if (random.nextInt(180) == 0) {
+				heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+			} else if (random.nextInt(60) == 0) {
+				turnRate = random.nextGaussian() * 0.01;
+			}
+			heading += turnRate;
+			x += 15 * Math.cos(heading);
+			y += 15 * Math.sin(heading);
+			track.onFix(i * 1000L, 48.85 + (y + random.nextGaussian()) / Geo.METERS_PER_DEGREE,
+					2.35 + (x + random.nextGaussian()) / longitudeScale, 4, ACTIVITY);
+		}
+		return track;
+	}
+
+	/**
+	 * Fixes stored as columns of primitives.
+	 */
+	private static class Fixes implements FixSink {
+		long[] times;
+		double[] latitudes;
+		double[] longitudes;
+		float[] accuracies;
+		int[] activityTypes;
+		int size;
+
+		Fixes(int capacity) {
+			times = new long[capacity];
+			latitudes = new double[capacity];
+			longitudes = new double[capacity];
+			accuracies = new float[capacity];
+			activityTypes = new int[capacity];
+		}
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			if (size == times.length) {
+				int capacity = Math.max(16, size * 2);
+				times = Arrays.copyOf(times, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				longitudes = Arrays.copyOf(longitudes, capacity);
+				accuracies = Arrays.copyOf(accuracies, capacity);
+				activityTypes = Arrays.copyOf(activityTypes, capacity);
+			}
+			times[size] = time;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			accuracies[size] = accuracy;
+			activityTypes[size] = activityType;
+			size++;
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the fixes given to a {@link TrackStore} survive the kill of the process.
+ * <p>
+ * Each round, a child JVM opens the store, which recovers the fixes left in its log, appends
+ * fixes one second apart and prints the time of every fix once {@link TrackStore#onFix} has
+ * returned. It is killed after a random delay, possibly before it is done recovering. Every few
+ * rounds, the store is recovered and closed, then its segments must hold each fix once and in
+ * order, up to at least the last one printed.
+ */
+public class TrackStoreKillTest {
+	static final long FIRST_TIME = 1577836800000L;
+	static final long STEP = 1000;
+	// Fixes appended between two pauses of the child, so that its writer keeps up
+	static final int BURST = 16;
+	static final int MAX_KILL_DELAY = 2000;
+	static final int ROUNDS = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keepsFixesAcrossKills() throws IOException, InterruptedException, URISyntaxException {
+		File directory = folder.newFolder("tracks");
+		String classPath = getClassPath(TrackStoreKillTest.class) + File.pathSeparator + getClassPath(TrackStore.class);
+		Random random = new Random(1);
+		long lastPrintedTime = Long.MIN_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+					"-cp", classPath, Child.class.getName(), directory.getPath())
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			ChildReader reader = new ChildReader(child);
+			reader.start();
+			child.waitFor(random.nextInt(MAX_KILL_DELAY), TimeUnit.MILLISECONDS);
+			assertTrue("child exited", child.isAlive());
+			child.destroyForcibly().waitFor();
+			reader.join();
+			lastPrintedTime = Math.max(lastPrintedTime, reader.lastTime);
+			if (round % 4 == 3 || round == ROUNDS - 1) {
+				check(directory, lastPrintedTime);
+			}
+		}
+		assertTrue("no fix appended", lastPrintedTime >= FIRST_TIME);
+	}
+
+	// Recovers the store in this process, then reads all the stored fixes
+	private static void check(File directory, long lastPrintedTime) throws IOException, InterruptedException {
+		TrackStore store = new TrackStore(directory);
+		store.close();
+		assertTrue("store closed", store.awaitClosed(60000));
+		TrackCursor cursor = new TrackReader(directory).query(0, Long.MAX_VALUE / 2);
+		long expected = FIRST_TIME;
+		while (cursor.next()) {
+			assertEquals(expected, cursor.getTime());
+			expected += STEP;
+		}
+		assertTrue("fixes lost after " + (expected - STEP) + ", up to " + lastPrintedTime, expected - STEP >= lastPrintedTime);
+	}
+
+	private static String getClassPath(Class<?> type) throws URISyntaxException {
+		return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+	}
+
+	/**
+	 * Appends fixes to the store of the directory given as argument until it is killed.
+	 */
+	public static class Child {
+		public static void main(String[] args) throws InterruptedException {
+			TrackStore store = new TrackStore(new File(args[0]));
+			final long[] lastTime = {FIRST_TIME - STEP};
+			store.readLastFix(new FixSink() {
+				@Override
+				public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+					lastTime[0] = time;
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+			for (long time = lastTime[0] + STEP; ; time += STEP) {
+				store.onFix(time, 48.85 + time % 1000 * 1e-6, 2.35, 5, 7);
+				if (store.getDroppedCount() > 0) {
+					System.err.println("Fixes dropped, the writer does not keep up");
+					System.exit(1);
+				}
+				System.out.println(time);
+				if (time / STEP % BURST == 0) {
+					System.out.flush();
+					Thread.sleep(1);
+				}
+			}
+		}
+	}
+
+	private static class ChildReader extends Thread {
+		private final Process child;
+		volatile long lastTime = Long.MIN_VALUE;
+
+		ChildReader(Process child) {
+			this.child = child;
+		}
+
+		@Override
+		public void run() {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// The last line may be cut by the kill
+					if (line.length() == Long.toString(FIRST_TIME).length()) {
+						lastTime = Long.parseLong(line);
+					}
+				}
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the tracker thread through its messages, with a plain thread in place of the handler thread.
+ */
+public class TrackerLoopTest {
+	private static final long START = 1577836800000L;
+	private static final int TRANSITIONS = 1000;
+	private static final int FIXES_PER_START = 20;
+	private static final long TIMEOUT = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keepsThreadCountAcrossTransitions() throws IOException, InterruptedException {
+		TrackStore store = new TrackStore(folder.newFolder("tracks"));
+		TilePyramid pyramid = new TilePyramid(folder.newFolder("tiles"), store, 100000);
+		Tracker tracker = new Tracker(store, pyramid);
+		// The first start and stop start the threads of the sinks
+		int transitions = tracker.commute();
+		assertTrue(tracker.queue.sync(TIMEOUT));
+		int threads = Thread.activeCount();
+		while (transitions < TRANSITIONS) {
+			transitions += tracker.commute();
+		}
+		assertTrue(tracker.queue.sync(TIMEOUT));
+		assertEquals("threads after " + transitions + " transitions", threads, Thread.activeCount());
+		assertTrue("fixes recorded", tracker.core.getSimplifier().getOutputCount() > 0);
+
+		tracker.loop.quit();
+		tracker.queue.getThread().join(TIMEOUT);
+		assertFalse("tracker thread running", tracker.queue.getThread().isAlive());
+		assertTrue("store closed", store.awaitClosed(TIMEOUT));
+	}
+
+	@Test
+	public void closesSinksOnTrackerThreadOnceStopped() throws IOException, InterruptedException {
+		TrackStore store = new TrackStore(folder.newFolder("tracks"));
+		TilePyramid pyramid = new TilePyramid(folder.newFolder("tiles"), store, 100000);
+		Tracker tracker = new Tracker(store, pyramid);
+		tracker.loop.start(ActivityTypes.IN_VEHICLE, ActivitySettings.VEHICLE);
+		tracker.feed();
+		tracker.loop.quit();
+		// Dropped once the loop quit
+		tracker.loop.start(ActivityTypes.ON_FOOT, ActivitySettings.ON_FOOT);
+		tracker.queue.getThread().join(TIMEOUT);
+		assertFalse("tracker thread running", tracker.queue.getThread().isAlive());
+		assertSame(tracker.queue.getThread(), tracker.closeThread);
+		assertEquals(1, tracker.starts);
+		assertEquals(1, tracker.stops);
+		assertEquals(1, tracker.closes);
+		assertTrue(tracker.metricsDumped);
+		assertFalse(tracker.core.isStarted());
+		assertTrue("store closed", store.awaitClosed(TIMEOUT));
+	}
+
+	/**
+	 * Loop on a plain thread with a location source whose fixes are fed by the test.
+	 */
+	private static class Tracker implements LocationSource, TrackingCore.Listener, TrackerLoop.Platform {
+		final ThreadQueue queue = new ThreadQueue("Tracker");
+		final TrackingCore core;
+		final TrackerLoop loop;
+		private final TilePyramid pyramid;
+		private final TrackStore store;
+		// Only accessed by the tracker thread until it terminates
+		private final VirtualClock clock = new VirtualClock(START);
+		private long time = START;
+		private double latitude = 48.85;
+		int starts;
+		int stops;
+		int closes;
+		boolean metricsDumped;
+		Thread closeThread;
+
+		Tracker(TrackStore store, TilePyramid pyramid) {
+			this.store = store;
+			this.pyramid = pyramid;
+			EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+			core = new TrackingCore(clock, this, pyramid, new PlaceIndex(), planner, this);
+			loop = new TrackerLoop(clock, core, queue, this);
+			queue.start(loop);
+		}
+
+		/**
+		 * Starts tracking, switches to another activity then stops, with fixes in between.
+		 *
+		 * @return the number of transitions
+		 */
+		int commute() {
+			loop.start(ActivityTypes.ON_FOOT, ActivitySettings.ON_FOOT);
+			feed();
+			loop.start(ActivityTypes.IN_VEHICLE, ActivitySettings.VEHICLE);
+			feed();
+			loop.stop();
+			return 3;
+		}
+
+		// A batch of fixes moving north, as the source would deliver them on the tracker thread
+		void feed() {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < FIXES_PER_START; i++) {
+						time += 1000;
+						latitude += 20 / Geo.METERS_PER_DEGREE;
+						clock.advanceTo(time);
+						core.onFix(time, time, latitude, 2.35, 5);
+					}
+					core.onBatchEnd();
+				}
+			});
+		}
+
+		@Override
+		public void requestLocationUpdates(SamplingProfile profile, LocationSource.Listener listener) {
+		}
+
+		@Override
+		public void removeLocationUpdates() {
+		}
+
+		@Override
+		public void onTrackingStart() {
+			starts++;
+		}
+
+		@Override
+		public void onTrackingStop() {
+		}
+
+		@Override
+		public void onTrackingStopped() {
+			stops++;
+		}
+
+		@Override
+		public void updateBattery() {
+		}
+
+		@Override
+		public void dumpMetrics() {
+			metricsDumped = true;
+		}
+
+		@Override
+		public void close() {
+			closes++;
+			closeThread = Thread.currentThread();
+			pyramid.close();
+			store.close();
+		}
+
+		@Override
+		public void onLocationRequest(SamplingProfile profile) {
+		}
+
+		@Override
+		public void onPlacesChange() {
+		}
+
+		@Override
+		public void onFirstFix(long delay) {
+		}
+
+		@Override
+		public void onFirstAccurateFix(long delay) {
+		}
+
+		@Override
+		public void onGapStart() {
+		}
+
+		@Override
+		public void onGapEnd(long duration, long savedTime) {
+		}
+
+		@Override
+		public void onDeadlineChange(long deadline) {
+			loop.onDeadlineChange(deadline);
+		}
+
+		@Override
+		public void onSegmentClosed(TripSegment segment) {
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays synthetic weeks of commutes through the core with the {@link ReplayEngine}.
+ */
+public class TrackingCoreTest {
+	private static final long START = 1577836800000L;
+	private static final int DAYS = 7;
+	// Commutes, walk and false detections of walking of each day
+	private static final int STARTS_PER_DAY = 5;
+	// Tunnel and shopping mall of each day
+	private static final int GAPS_PER_DAY = 2;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void tracksWeekOfCommutes() {
+		RecordingSink sink = new RecordingSink();
+		ReplayEngine engine = replay(1, sink);
+		assertEquals(STARTS_PER_DAY * DAYS, engine.getStartCount());
+		assertEquals(STARTS_PER_DAY * DAYS, engine.getSegmentCount());
+		assertEquals(2 * STARTS_PER_DAY * DAYS, engine.getTransitionStateMachine().getChangeCount());
+		assertTrue("accepted " + engine.getAcceptedCount() + '/' + engine.getDeliveredCount(),
+				engine.getAcceptedCount() >= 0.95 * engine.getDeliveredCount());
+		// Batched fixes wake the tracker up much less often than they are delivered
+		assertTrue("wakeups " + engine.getWakeupCount(), engine.getWakeupCount() * 10 < engine.getDeliveredCount());
+		assertTrue("recorded " + sink.count, sink.count * 10 < engine.getAcceptedCount());
+		assertEquals(0, sink.unordered);
+	}
+
+	@Test
+	public void getsFirstAccurateFixWithoutBatching() {
+		ReplayEngine engine = replay(1, new RecordingSink());
+		assertTrue("first fix p95 " + engine.getFirstFixDelay(95),
+				engine.getFirstFixDelay(95) <= ReplayEngine.ACQUISITION_TIME);
+		assertTrue("first accurate fix p95 " + engine.getAccurateFixDelay(95),
+				engine.getAccurateFixDelay(95) <= ReplayEngine.ACQUISITION_TIME + ReplayEngine.CONVERGENCE_TIME);
+	}
+
+	@Test
+	public void backsOffDuringSatelliteGaps() {
+		RecordingSink sink = new RecordingSink();
+		ReplayEngine engine = replay(1, sink);
+		assertEquals(GAPS_PER_DAY * DAYS, engine.getGapCount());
+		assertEquals(engine.getGapCount(), sink.markers);
+		assertTrue("saved " + engine.getSavedTime(), engine.getSavedTime() > 0);
+		assertTrue("saved " + engine.getSavedTime() + " in gaps " + engine.getGapDuration(),
+				engine.getSavedTime() < engine.getGapDuration());
+	}
+
+	@Test
+	public void replaysSameWeekIdentically() {
+		RecordingSink first = new RecordingSink();
+		RecordingSink second = new RecordingSink();
+		ReplayEngine firstEngine = replay(2, first);
+		ReplayEngine secondEngine = replay(2, second);
+		assertEquals(first.count, second.count);
+		assertEquals(first.checksum, second.checksum, 0);
+		assertEquals(firstEngine.getRequestCount(), secondEngine.getRequestCount());
+		assertEquals(firstEngine.getHighAccuracyDuration(), secondEngine.getHighAccuracyDuration());
+	}
+
+	@Test
+	public void recordsOrderedTrackInStore() throws IOException, InterruptedException {
+		File directory = folder.newFolder("tracks");
+		TrackStore store = new TrackStore(directory);
+		RecordingSink sink = new RecordingSink();
+		try {
+			replay(3, new Tee(sink, store));
+		} finally {
+			store.close();
+		}
+		assertTrue("store closed", store.awaitClosed(10000));
+		assertEquals(0, store.getDroppedCount());
+		TrackCursor cursor = new TrackReader(directory).query(0, Long.MAX_VALUE / 2);
+		long count = 0;
+		long markers = 0;
+		long lastTime = Long.MIN_VALUE;
+		while (cursor.next()) {
+			assertTrue("record at " + cursor.getTime() + " after " + lastTime, cursor.getTime() > lastTime);
+			lastTime = cursor.getTime();
+			if (cursor.getActivityType() == TrackStore.GAP_MARKER) {
+				markers++;
+			}
+			count++;
+		}
+		assertEquals(sink.count, count);
+		assertEquals(sink.markers, markers);
+	}
+
+	@Test
+	public void agesFixesOnElapsedRealtime() {
+		final VirtualClock elapsed = new VirtualClock(3600000);
+		// The wall clock was set an hour ahead of the satellite time
+		Clock clock = new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return START + 3600000 + elapsed.currentTimeMillis();
+			}
+
+			@Override
+			public long elapsedRealtime() {
+				return elapsed.elapsedRealtime();
+			}
+		};
+		StubSource source = new StubSource();
+		TrackingCore core = source.start(clock);
+		assertTrue(core.onFix(START + 3600000, 3600000, 48.85, 2.35, 5));
+		core.onBatchEnd();
+		elapsed.advanceTo(3600000 + 2 * TrackingCore.MAX_FIX_AGE + ActivitySettings.VEHICLE.profile.maxWaitTime);
+		assertFalse(core.onFix(START + 3601000, 3601000, 48.85, 2.35, 5));
+		core.onBatchEnd();
+	}
+
+	@Test
+	public void resumesOnMoveOfFixRejectedWhileStopped() {
+		VirtualClock clock = new VirtualClock(START);
+		StubSource source = new StubSource();
+		TrackingCore core = source.start(clock);
+		long time = START;
+		while (time <= START + 2 * AdaptiveSamplingPolicy.STOPPED_DELAY) {
+			clock.advanceTo(time);
+			core.onFix(time, time, 48.85, 2.35, 5);
+			core.onBatchEnd();
+			time += 1000;
+		}
+		assertEquals(SamplingProfile.PRIORITY_BALANCED_POWER_ACCURACY, source.profile.priority);
+		// Too inaccurate to be recorded, but still a move
+		clock.advanceTo(time);
+		assertFalse(core.onFix(time, time, 48.85 + 500 / Geo.METERS_PER_DEGREE, 2.35, 2 * TrackingCore.MAX_FIX_ACCURACY));
+		core.onBatchEnd();
+		assertEquals(SamplingProfile.PRIORITY_HIGH_ACCURACY, source.profile.priority);
+	}
+
+	private static ReplayEngine replay(long seed, FixSink sink) {
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track(DAYS * 86400);
+		TransitionReplay.Transitions transitions = new TransitionReplay.Transitions(DAYS * 16);
+		ReplayEngine.generateDays(START, DAYS, new Random(seed), fixes, transitions);
+		EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+		ReplayEngine engine = new ReplayEngine(START, sink, new PlaceIndex(), planner);
+		engine.run(fixes, transitions);
+		return engine;
+	}
+
+	/**
+	 * Counts the recorded fixes and the gap markers, and the records older than the previous one.
+	 */
+	private static class RecordingSink implements FixSink {
+		long count;
+		long markers;
+		long unordered;
+		double checksum;
+		private long lastTime = Long.MIN_VALUE;
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			count++;
+			if (activityType == TrackStore.GAP_MARKER) {
+				markers++;
+			}
+			if (time <= lastTime) {
+				unordered++;
+			}
+			lastTime = time;
+			checksum += time + latitude + longitude + accuracy + activityType;
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+
+	/**
+	 * Keeps the last requested profile, and ignores the other events of the core.
+	 */
+	private static class StubSource implements LocationSource, TrackingCore.Listener {
+		SamplingProfile profile;
+
+		TrackingCore start(Clock clock) {
+			EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+			TrackingCore core = new TrackingCore(clock, this, new RecordingSink(), new PlaceIndex(), planner, this);
+			core.start(ActivityTypes.IN_VEHICLE, ActivitySettings.VEHICLE);
+			return core;
+		}
+
+		@Override
+		public void requestLocationUpdates(SamplingProfile profile, LocationSource.Listener listener) {
+			this.profile = profile;
+		}
+
+		@Override
+		public void removeLocationUpdates() {
+			profile = null;
+		}
+
+		@Override
+		public void onLocationRequest(SamplingProfile profile) {
+		}
+
+		@Override
+		public void onPlacesChange() {
+		}
+
+		@Override
+		public void onFirstFix(long delay) {
+		}
+
+		@Override
+		public void onFirstAccurateFix(long delay) {
+		}
+
+		@Override
+		public void onGapStart() {
+		}
+
+		@Override
+		public void onGapEnd(long duration, long savedTime) {
+		}
+
+		@Override
+		public void onDeadlineChange(long deadline) {
+		}
+
+		@Override
+		public void onSegmentClosed(TripSegment segment) {
+		}
+	}
+
+	private static class Tee implements FixSink {
+		private final FixSink first;
+		private final FixSink second;
+
+		Tee(FixSink first, FixSink second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			first.onFix(time, latitude, longitude, accuracy, activityType);
+			second.onFix(time, latitude, longitude, accuracy, activityType);
+		}
+
+		@Override
+		public void flush() {
+			first.flush();
+			second.flush();
+		}
+	}
+}
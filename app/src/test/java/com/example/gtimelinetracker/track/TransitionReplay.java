@@ -0,0 +1,71 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Arrays;
+
+/**
+ * Replays activity transitions and tells how many times the tracker would have been reconfigured
+ * by the {@link TransitionStateMachine}, compared to applying every transition immediately as the
+ * transition receiver used to do.
+ */
+public class TransitionReplay {
+	/**
+	 * Counts the reconfigurations of the former behaviour: every entered moving activity restarts
+	 * the tracker unless it is already tracked, STILL stops it, exits are ignored.
+	 */
+	public static int replayImmediate(Transitions transitions) {
+		int current = TransitionStateMachine.STOPPED;
+		int count = 0;
+		for (int i = 0; i < transitions.size; i++) {
+			if (transitions.transitionTypes[i] != TransitionLog.TRANSITION_ENTER) continue;
+			int activityType = transitions.activityTypes[i] == TransitionStateMachine.STILL
+					? TransitionStateMachine.STOPPED : transitions.activityTypes[i];
+			if (activityType != current) {
+				current = activityType;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static TransitionStateMachine replay(Transitions transitions, long switchDwellTime, long stopDwellTime) {
+		TransitionStateMachine machine = new TransitionStateMachine(new TransitionStateMachine.Listener() {
+			@Override
+			public void onTrackingChange(int activityType) {
+			}
+		}, switchDwellTime, stopDwellTime);
+		machine.setGroup(ActivityTypes.ON_FOOT, ActivityTypes.WALKING);
+		for (int i = 0; i < transitions.size; i++) {
+			machine.onTransition(transitions.times[i], transitions.activityTypes[i], transitions.transitionTypes[i]);
+		}
+		machine.poll(Long.MAX_VALUE);
+		return machine;
+	}
+
+	/**
+	 * A sequence of transitions, stored as columns of primitives.
+	 */
+	public static class Transitions {
+		long[] times;
+		int[] activityTypes;
+		int[] transitionTypes;
+		int size = 0;
+
+		public Transitions(int capacity) {
+			times = new long[capacity];
+			activityTypes = new int[capacity];
+			transitionTypes = new int[capacity];
+		}
+
+		public void add(long time, int activityType, int transitionType) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				activityTypes = Arrays.copyOf(activityTypes, size * 2);
+				transitionTypes = Arrays.copyOf(transitionTypes, size * 2);
+			}
+			times[size] = time;
+			activityTypes[size] = activityType;
+			transitionTypes[size] = transitionType;
+			size++;
+		}
+	}
+}
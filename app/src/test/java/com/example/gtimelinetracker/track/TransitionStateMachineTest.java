@@ -0,0 +1,140 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransitionStateMachineTest {
+	private static final long SWITCH_DWELL_TIME = 30000;
+	private static final long STOP_DWELL_TIME = 60000;
+	private static final int ENTER = TransitionLog.TRANSITION_ENTER;
+	private static final int EXIT = TransitionLog.TRANSITION_EXIT;
+
+	private final List<Integer> changes = new ArrayList<>();
+	private TransitionStateMachine machine;
+
+	@Before
+	public void setUp() {
+		machine = new TransitionStateMachine(new TransitionStateMachine.Listener() {
+			@Override
+			public void onTrackingChange(int activityType) {
+				changes.add(activityType);
+			}
+		}, SWITCH_DWELL_TIME, STOP_DWELL_TIME);
+		machine.setGroup(ActivityTypes.ON_FOOT, ActivityTypes.WALKING);
+	}
+
+	@Test
+	public void startsImmediately() {
+		machine.onTransition(1000, ActivityTypes.IN_VEHICLE, ENTER);
+		assertChanges(ActivityTypes.IN_VEHICLE);
+		assertEquals(Long.MAX_VALUE, machine.getDeadline());
+	}
+
+	@Test
+	public void stopsAfterStopDwellTime() {
+		machine.onTransition(0, ActivityTypes.WALKING, ENTER);
+		machine.onTransition(10000, ActivityTypes.STILL, ENTER);
+		assertEquals(10000 + STOP_DWELL_TIME, machine.getDeadline());
+		machine.poll(10000 + STOP_DWELL_TIME - 1);
+		assertChanges(ActivityTypes.WALKING);
+		machine.poll(10000 + STOP_DWELL_TIME);
+		assertChanges(ActivityTypes.WALKING, TransitionStateMachine.STOPPED);
+	}
+
+	@Test
+	public void stopsAfterExitOfCurrentActivity() {
+		machine.onTransition(0, ActivityTypes.ON_BICYCLE, ENTER);
+		machine.onTransition(10000, ActivityTypes.ON_BICYCLE, EXIT);
+		machine.poll(10000 + STOP_DWELL_TIME);
+		assertChanges(ActivityTypes.ON_BICYCLE, TransitionStateMachine.STOPPED);
+	}
+
+	@Test
+	public void cancelsStopWhenActivityIsEnteredAgain() {
+		machine.onTransition(0, ActivityTypes.IN_VEHICLE, ENTER);
+		// Stopped at a light
+		machine.onTransition(10000, ActivityTypes.STILL, ENTER);
+		machine.onTransition(40000, ActivityTypes.IN_VEHICLE, ENTER);
+		machine.poll(Long.MAX_VALUE);
+		assertChanges(ActivityTypes.IN_VEHICLE);
+	}
+
+	@Test
+	public void switchesAfterSwitchDwellTime() {
+		machine.onTransition(0, ActivityTypes.IN_VEHICLE, ENTER);
+		machine.onTransition(10000, ActivityTypes.WALKING, ENTER);
+		machine.onTransition(10000 + SWITCH_DWELL_TIME - 1, ActivityTypes.WALKING, ENTER);
+		assertChanges(ActivityTypes.IN_VEHICLE);
+		machine.poll(10000 + SWITCH_DWELL_TIME);
+		assertChanges(ActivityTypes.IN_VEHICLE, ActivityTypes.WALKING);
+	}
+
+	@Test
+	public void ignoresChangesWithinGroup() {
+		machine.onTransition(0, ActivityTypes.WALKING, ENTER);
+		machine.onTransition(10000, ActivityTypes.ON_FOOT, ENTER);
+		machine.onTransition(20000, ActivityTypes.WALKING, ENTER);
+		machine.poll(Long.MAX_VALUE);
+		assertChanges(ActivityTypes.WALKING);
+	}
+
+	@Test
+	public void appliesStopDueBeforeNextTransition() {
+		machine.onTransition(0, ActivityTypes.IN_VEHICLE, ENTER);
+		machine.onTransition(10000, ActivityTypes.STILL, ENTER);
+		// The next transition comes long after the stop was due, without any poll in between
+		machine.onTransition(3600000, ActivityTypes.WALKING, ENTER);
+		assertChanges(ActivityTypes.IN_VEHICLE, TransitionStateMachine.STOPPED, ActivityTypes.WALKING);
+	}
+
+	@Test
+	public void reconfiguresLessThanImmediateReplayOnFlappingTrace() {
+		TransitionReplay.Transitions transitions = flappingDrive(new Random(1));
+		int immediateCount = TransitionReplay.replayImmediate(transitions);
+		TransitionStateMachine replayed = TransitionReplay.replay(transitions, SWITCH_DWELL_TIME, STOP_DWELL_TIME);
+		// Only the start, the switch to walking when parked, and the stop are applied
+		assertEquals(3, replayed.getChangeCount());
+		assertTrue("immediate " + immediateCount, immediateCount >= 10 * replayed.getChangeCount());
+	}
+
+	/**
+	 * @return a drive with short stops at lights and false detections of walking and cycling,
+	 * then a walk from the car park and a stop
+	 */
+	private static TransitionReplay.Transitions flappingDrive(Random random) {
+		TransitionReplay.Transitions transitions = new TransitionReplay.Transitions(64);
+		long time = 0;
+		transitions.add(time, ActivityTypes.IN_VEHICLE, ENTER);
+		for (int i = 0; i < 20; i++) {
+			time += 60000 + random.nextInt(120000);
+			int activityType = i % 3 == 0 ? ActivityTypes.STILL
+					: i % 3 == 1 ? ActivityTypes.ON_FOOT : ActivityTypes.ON_BICYCLE;
+			transitions.add(time, activityType, ENTER);
+			time += 5000 + random.nextInt(20000);
+			transitions.add(time, ActivityTypes.IN_VEHICLE, ENTER);
+		}
+		time += 60000;
+		transitions.add(time, ActivityTypes.WALKING, ENTER);
+		transitions.add(time + 1000, ActivityTypes.IN_VEHICLE, EXIT);
+		transitions.add(time + 60000, ActivityTypes.ON_FOOT, ENTER);
+		transitions.add(time + 300000, ActivityTypes.STILL, ENTER);
+		return transitions;
+	}
+
+	private void assertChanges(int... expected) {
+		int[] actual = new int[changes.size()];
+		for (int i = 0; i < actual.length; i++) {
+			actual[i] = changes.get(i);
+		}
+		assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+		assertEquals(expected.length, machine.getChangeCount());
+	}
+}
@@ -0,0 +1,197 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Feeds known polylines through a {@link TripBuilder} and checks the aggregates of the segments it
+ * closes against the values computed by hand.
+ */
+public class TripBuilderTest {
+	private static final long START = 1577836800000L;
+	private static final double LATITUDE = 48.85;
+	private static final double LONGITUDE = 2.35;
+	private static final double DISTANCE_DELTA = 1e-6;
+	private static final double SPEED_DELTA = 1e-5;
+
+	@Test
+	public void aggregatesWalkThenDrive() {
+		Recorder recorder = new Recorder();
+		TripBuilder builder = new TripBuilder(recorder, recorder);
+		builder.onTransition(START, ActivityTypes.ON_FOOT, TransitionLog.TRANSITION_ENTER);
+		// 100 m north at 1 m/s twice, 300 m north at 3 m/s, then 300 m east at 3 m/s
+		fix(builder, 0, 0, 0);
+		fix(builder, 100, 100, 0);
+		fix(builder, 200, 200, 0);
+		fix(builder, 300, 500, 0);
+		fix(builder, 400, 500, 300);
+		TripSegment current = builder.getCurrentSegment();
+		assertNotNull(current);
+		assertEquals(5, current.getFixCount());
+
+		builder.onTransition(START + 400000, ActivityTypes.IN_VEHICLE, TransitionLog.TRANSITION_ENTER);
+		assertNull(builder.getCurrentSegment());
+		assertEquals(1, recorder.segments.size());
+		Closed walk = recorder.segments.get(0);
+		assertEquals(START, walk.tripStart);
+		assertEquals(ActivityTypes.ON_FOOT, walk.activityType);
+		assertEquals(START, walk.startTime);
+		assertEquals(START + 400000, walk.endTime);
+		assertEquals(400000, walk.duration);
+		assertEquals(5, walk.fixCount);
+		assertEquals(800, walk.distance, DISTANCE_DELTA);
+		assertEquals(2, walk.averageSpeed, SPEED_DELTA);
+		assertEquals(3, walk.maxSpeed, SPEED_DELTA);
+		assertEquals(LATITUDE, walk.minLatitude, 0);
+		assertEquals(LONGITUDE, walk.minLongitude, 0);
+		assertEquals(latitude(500), walk.maxLatitude, 0);
+		assertEquals(longitude(500, 300), walk.maxLongitude, 0);
+
+		// The drive starts at its first fix, the way from the last fix of the walk is not counted
+		fix(builder, 410, 500, 450);
+		fix(builder, 420, 500, 600);
+		fix(builder, 440, 500, 900);
+		builder.onTransition(START + 450000, ActivityTypes.STILL, TransitionLog.TRANSITION_ENTER);
+		assertEquals(2, recorder.segments.size());
+		Closed drive = recorder.segments.get(1);
+		assertEquals(START, drive.tripStart);
+		assertEquals(ActivityTypes.IN_VEHICLE, drive.activityType);
+		assertEquals(START + 410000, drive.startTime);
+		assertEquals(30000, drive.duration);
+		assertEquals(3, drive.fixCount);
+		assertEquals(450, drive.distance, DISTANCE_DELTA);
+		assertEquals(15, drive.averageSpeed, SPEED_DELTA);
+		assertEquals(15, drive.maxSpeed, SPEED_DELTA);
+		assertEquals(latitude(500), drive.minLatitude, 0);
+		assertEquals(latitude(500), drive.maxLatitude, 0);
+		assertEquals(longitude(500, 450), drive.minLongitude, 0);
+		assertEquals(longitude(500, 900), drive.maxLongitude, 0);
+
+		assertEquals("fixes forwarded", 8, recorder.fixes);
+	}
+
+	@Test
+	public void closesTripOnStill() {
+		Recorder recorder = new Recorder();
+		TripBuilder builder = new TripBuilder(recorder, recorder);
+		builder.onTransition(START, ActivityTypes.ON_BICYCLE, TransitionLog.TRANSITION_ENTER);
+		fix(builder, 0, 0, 0);
+		fix(builder, 60, 300, 0);
+		builder.onTransition(START + 60000, ActivityTypes.STILL, TransitionLog.TRANSITION_ENTER);
+		assertNull(builder.getCurrentSegment());
+		assertEquals(1, recorder.segments.size());
+		// A second STILL has nothing left to close
+		builder.onTransition(START + 70000, ActivityTypes.STILL, TransitionLog.TRANSITION_ENTER);
+		assertEquals(1, recorder.segments.size());
+
+		// The next fix starts a new trip, with the activity of the fix as no transition came since
+		fix(builder, 600, 300, 0);
+		fix(builder, 660, 400, 0);
+		builder.endTrip();
+		assertEquals(2, recorder.segments.size());
+		Closed next = recorder.segments.get(1);
+		assertEquals(START + 600000, next.tripStart);
+		assertEquals(START + 600000, next.startTime);
+		assertEquals(ActivityTypes.ON_FOOT, next.activityType);
+		assertEquals(2, next.fixCount);
+		assertEquals(100, next.distance, DISTANCE_DELTA);
+	}
+
+	@Test
+	public void closesSegmentOnExit() {
+		Recorder recorder = new Recorder();
+		TripBuilder builder = new TripBuilder(recorder, recorder);
+		builder.onTransition(START, ActivityTypes.RUNNING, TransitionLog.TRANSITION_ENTER);
+		fix(builder, 0, 0, 0);
+		// The exit of another activity is ignored
+		builder.onTransition(START + 5000, ActivityTypes.IN_VEHICLE, TransitionLog.TRANSITION_EXIT);
+		fix(builder, 10, 30, 0);
+		builder.onTransition(START + 20000, ActivityTypes.RUNNING, TransitionLog.TRANSITION_EXIT);
+		assertEquals(1, recorder.segments.size());
+		assertEquals(ActivityTypes.RUNNING, recorder.segments.get(0).activityType);
+		assertEquals(2, recorder.segments.get(0).fixCount);
+
+		// Same trip, the segment takes the activity of its first fix
+		fix(builder, 30, 60, 0);
+		builder.endTrip();
+		assertEquals(2, recorder.segments.size());
+		assertEquals(START, recorder.segments.get(1).tripStart);
+		assertEquals(ActivityTypes.ON_FOOT, recorder.segments.get(1).activityType);
+		assertEquals(1, recorder.segments.get(1).fixCount);
+		assertEquals(0, recorder.segments.get(1).averageSpeed, 0);
+	}
+
+	// A fix at the given seconds from the start, meters north and east of the origin
+	private static void fix(TripBuilder builder, long seconds, double north, double east) {
+		builder.onFix(START + seconds * 1000, latitude(north), longitude(north, east), 5, ActivityTypes.ON_FOOT);
+	}
+
+	private static double latitude(double north) {
+		return LATITUDE + north / Geo.METERS_PER_DEGREE;
+	}
+
+	// East legs keep to a parallel, so they are scaled at its latitude
+	private static double longitude(double north, double east) {
+		return LONGITUDE + east / (Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude(north))));
+	}
+
+	/**
+	 * Copy of a closed segment, which the builder reuses.
+	 */
+	private static class Closed {
+		final long tripStart;
+		final int activityType;
+		final long startTime;
+		final long endTime;
+		final long duration;
+		final int fixCount;
+		final double distance;
+		final float averageSpeed;
+		final float maxSpeed;
+		final double minLatitude;
+		final double minLongitude;
+		final double maxLatitude;
+		final double maxLongitude;
+
+		Closed(TripSegment segment) {
+			tripStart = segment.getTripStart();
+			activityType = segment.getActivityType();
+			startTime = segment.getStartTime();
+			endTime = segment.getEndTime();
+			duration = segment.getDuration();
+			fixCount = segment.getFixCount();
+			distance = segment.getDistance();
+			averageSpeed = segment.getAverageSpeed();
+			maxSpeed = segment.getMaxSpeed();
+			minLatitude = segment.getMinLatitude();
+			minLongitude = segment.getMinLongitude();
+			maxLatitude = segment.getMaxLatitude();
+			maxLongitude = segment.getMaxLongitude();
+		}
+	}
+
+	private static class Recorder implements FixSink, TripBuilder.Listener {
+		final List<Closed> segments = new ArrayList<>();
+		int fixes;
+
+		@Override
+		public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+			fixes++;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void onSegmentClosed(TripSegment segment) {
+			segments.add(new Closed(segment));
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.example.gtimelinetracker.track;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends trip segments to a {@link TripLog} and reads them back with range queries.
+ */
+public class TripLogTest {
+	private static final long START = 1577836800000L;
+	private static final int SEGMENTS = 50;
+	// Each segment lasts 10 minutes and is followed by a pause of 5 minutes
+	private static final long DURATION = 10 * 60000;
+	private static final long PERIOD = 15 * 60000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsAppendedSegments() throws IOException {
+		File directory = new File(folder.getRoot(), "tracks");
+		TripLog log = new TripLog(directory);
+		TripSegment[] segments = appendSegments(log, new Random(1));
+
+		TripLog.Cursor cursor = new TripLog(directory).query(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (TripSegment segment : segments) {
+			assertTrue(cursor.next());
+			assertSegment(segment, cursor);
+		}
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void queriesOverlappingSegments() throws IOException {
+		TripLog log = new TripLog(folder.getRoot());
+		TripSegment[] segments = appendSegments(log, new Random(2));
+		long[][] ranges = {
+				// Ends on the start of a segment, which is excluded
+				{START, START + 3 * PERIOD},
+				// Starts on the end of a segment, which is included
+				{START + 2 * PERIOD + DURATION, START + 4 * PERIOD},
+				// In a pause
+				{START + DURATION + 1, START + PERIOD},
+				// Inside a segment
+				{START + 7 * PERIOD + 1000, START + 7 * PERIOD + 2000},
+				{START - PERIOD, START},
+				{START + SEGMENTS * PERIOD, Long.MAX_VALUE},
+		};
+		for (long[] range : ranges) {
+			TripLog.Cursor cursor = log.query(range[0], range[1]);
+			for (TripSegment segment : segments) {
+				if (segment.getEndTime() >= range[0] && segment.getStartTime() < range[1]) {
+					assertTrue(cursor.next());
+					assertSegment(segment, cursor);
+				}
+			}
+			assertFalse(cursor.next());
+		}
+	}
+
+	@Test
+	public void dropsPartialRecord() throws IOException {
+		TripLog log = new TripLog(folder.getRoot());
+		assertFalse("no log yet", log.query(Long.MIN_VALUE, Long.MAX_VALUE).next());
+		TripSegment first = segment(START, START, ActivityTypes.ON_FOOT, new Random(3));
+		log.append(first);
+		// A record cut by a crash is neither read nor kept before the next one
+		try (FileOutputStream output = new FileOutputStream(new File(folder.getRoot(), TripLog.FILE_NAME), true)) {
+			output.write(new byte[TripLog.RECORD_SIZE / 2]);
+		}
+		TripLog.Cursor cursor = log.query(Long.MIN_VALUE, Long.MAX_VALUE);
+		assertTrue(cursor.next());
+		assertFalse(cursor.next());
+
+		TripSegment second = segment(START + PERIOD, START + PERIOD, ActivityTypes.IN_VEHICLE, new Random(4));
+		log.append(second);
+		cursor = log.query(Long.MIN_VALUE, Long.MAX_VALUE);
+		assertTrue(cursor.next());
+		assertSegment(first, cursor);
+		assertTrue(cursor.next());
+		assertSegment(second, cursor);
+		assertFalse(cursor.next());
+		assertEquals(2 * TripLog.RECORD_SIZE, new File(folder.getRoot(), TripLog.FILE_NAME).length());
+	}
+
+	// Trips of three segments of different activities
+	private static TripSegment[] appendSegments(TripLog log, Random random) throws IOException {
+		int[] activities = {ActivityTypes.ON_FOOT, ActivityTypes.IN_VEHICLE, ActivityTypes.ON_BICYCLE};
+		TripSegment[] segments = new TripSegment[SEGMENTS];
+		long tripStart = START;
+		for (int i = 0; i < SEGMENTS; i++) {
+			if (i % activities.length == 0) tripStart = START + i * PERIOD;
+			segments[i] = segment(tripStart, START + i * PERIOD, activities[i % activities.length], random);
+			log.append(segments[i]);
+		}
+		return segments;
+	}
+
+	// Random fixes every minute around Paris
+	private static TripSegment segment(long tripStart, long startTime, int activityType, Random random) {
+		TripSegment segment = new TripSegment();
+		segment.start(tripStart, activityType, startTime,
+				48.85 + random.nextDouble() * 0.01, 2.35 + random.nextDouble() * 0.01);
+		for (long time = startTime + 60000; time <= startTime + DURATION; time += 60000) {
+			segment.add(time, 48.85 + random.nextDouble() * 0.01, 2.35 + random.nextDouble() * 0.01);
+		}
+		return segment;
+	}
+
+	private static void assertSegment(TripSegment expected, TripLog.Cursor actual) {
+		assertEquals(expected.getTripStart(), actual.getTripStart());
+		assertEquals(expected.getStartTime(), actual.getStartTime());
+		assertEquals(expected.getEndTime(), actual.getEndTime());
+		assertEquals(expected.getDistance(), actual.getDistance(), 0);
+		assertEquals(expected.getMinLatitude(), actual.getMinLatitude(), 0);
+		assertEquals(expected.getMinLongitude(), actual.getMinLongitude(), 0);
+		assertEquals(expected.getMaxLatitude(), actual.getMaxLatitude(), 0);
+		assertEquals(expected.getMaxLongitude(), actual.getMaxLongitude(), 0);
+		assertEquals(expected.getMaxSpeed(), actual.getMaxSpeed(), 0);
+		assertEquals(expected.getActivityType(), actual.getActivityType());
+		assertEquals(expected.getFixCount(), actual.getFixCount());
+	}
+}
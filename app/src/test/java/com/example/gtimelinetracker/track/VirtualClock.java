@@ -0,0 +1,32 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * Clock which only moves when told to, so that a replay runs as fast as the processing allows
+ * and gives the same results every time. The boot is at the epoch, both times are the same.
+ */
+public class VirtualClock implements Clock {
+	private long time;
+
+	public VirtualClock(long time) {
+		this.time = time;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return time;
+	}
+
+	@Override
+	public long elapsedRealtime() {
+		return time;
+	}
+
+	/**
+	 * Moves the clock forward to {@code time}, the clock never goes back.
+	 */
+	public void advanceTo(long time) {
+		if (time > this.time) {
+			this.time = time;
+		}
+	}
+}
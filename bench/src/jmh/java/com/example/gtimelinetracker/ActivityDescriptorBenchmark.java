@@ -0,0 +1,42 @@
+package com.example.gtimelinetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link ActivityDescriptor} lookups done for every received transition, over all the
+ * types including the unknown ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActivityDescriptorBenchmark {
+	// One more than the highest type, to go through the default descriptor
+	private static final int TYPES = ActivityDescriptor.RUNNING + 2;
+
+	private int activityType = 0;
+
+	// As ActivityRecognition.getActivityName
+	@Benchmark
+	public String getName() {
+		return ActivityDescriptor.get(nextType()).name;
+	}
+
+	// As the transition receiver, before starting the tracker
+	@Benchmark
+	public boolean isTracked() {
+		return ActivityDescriptor.get(nextType()).settings.tracked;
+	}
+
+	private int nextType() {
+		int type = activityType;
+		activityType = type + 1 == TYPES ? 0 : type + 1;
+		return type;
+	}
+}
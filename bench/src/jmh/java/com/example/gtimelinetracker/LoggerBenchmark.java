@@ -0,0 +1,71 @@
+package com.example.gtimelinetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting a log with the {@link Logger} overloads, paid for every printed log, and of
+ * keeping a log in the ring buffer, paid for every log when the buffer is enabled. The GC profiler
+ * of the build reports the allocations, which must stay at zero but for the varargs fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggerBenchmark {
+	private static final String TAG = "TRACKER_SERVICE";
+
+	private final StringBuilder builder = new StringBuilder(128);
+	private final LogRingBuffer ringBuffer = new LogRingBuffer(2048);
+	private final String activityName = "IN_VEHICLE";
+	private long value = 0;
+
+	// As d(String, long, long, long, long)
+	@Benchmark
+	public int formatLongs() {
+		long fixes = value++;
+		builder.setLength(0);
+		LogFormat.format(builder, "Received %d fixes in %d wakeups over %d s - %d wakeups/h", 4, 0b1111,
+				null, null, null, null, fixes, fixes >> 4, fixes >> 2, fixes >> 6);
+		return builder.length();
+	}
+
+	// As d(String, Object, Object)
+	@Benchmark
+	public int formatObjects() {
+		builder.setLength(0);
+		LogFormat.format(builder, "%s tracking - activity=%s", 2, 0,
+				(value++ & 1) == 0 ? "Starting" : "Updating", activityName, null, null, 0, 0, 0, 0);
+		return builder.length();
+	}
+
+	// As d(String, Object, long), with a width
+	@Benchmark
+	public int formatMixed() {
+		builder.setLength(0);
+		LogFormat.format(builder, "Upload %-11s in %d ms", 2, 0b10,
+				"interrupted", null, null, null, 0, value++, 0, 0);
+		return builder.length();
+	}
+
+	// As d(String, Object...), which allocates its array at the call
+	@Benchmark
+	public int formatVarargs() {
+		builder.setLength(0);
+		LogFormat.format(builder, "   %s %s", LogFormat.VARARGS, 0,
+				new Object[]{activityName, (value++ & 1) == 0 ? "ENTER" : "EXIT"}, null, null, null, 0, 0, 0, 0);
+		return builder.length();
+	}
+
+	@Benchmark
+	public void ringBufferAdd() {
+		long time = value++;
+		ringBuffer.add(time, 3, TAG, "Received %d locations, last at %d", 2, 0b11,
+				null, null, null, null, time & 0xF, time, 0, 0);
+	}
+}
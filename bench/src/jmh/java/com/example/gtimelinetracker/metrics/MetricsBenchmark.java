@@ -0,0 +1,33 @@
+package com.example.gtimelinetracker.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording an event, which is paid on the tracker thread for every fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+	private final MetricsRegistry registry = new MetricsRegistry(0);
+	private final Counter counter = registry.counter("counter");
+	private final Histogram histogram = registry.histogram("histogram", "us");
+	private long value = 0;
+
+	@Benchmark
+	public void counterIncrement() {
+		counter.increment();
+	}
+
+	@Benchmark
+	public void histogramRecord() {
+		histogram.record(value++ & 0xFFFF);
+	}
+}
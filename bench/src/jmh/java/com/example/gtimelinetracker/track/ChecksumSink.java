@@ -0,0 +1,17 @@
+package com.example.gtimelinetracker.track;
+
+/**
+ * End of the pipeline, folds what it receives so that the work can not be eliminated.
+ */
+class ChecksumSink implements FixSink {
+	long checksum;
+
+	@Override
+	public void onFix(long time, double latitude, double longitude, float accuracy, int activityType) {
+		checksum += time ^ Double.doubleToRawLongBits(latitude) ^ Double.doubleToRawLongBits(longitude);
+	}
+
+	@Override
+	public void flush() {
+	}
+}
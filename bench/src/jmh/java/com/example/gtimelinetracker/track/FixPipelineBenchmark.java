@@ -0,0 +1,89 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each stage a fix goes through between the location callback and the track store, and of
+ * the whole chain as run by the tracker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FixPipelineBenchmark {
+	private static final int ACTIVITY_TYPE = 0;
+
+	private SyntheticTrack track;
+	private ChecksumSink sink;
+	private FixFilter filter;
+	private KalmanSmoother smoother;
+	private TrackSimplifier simplifier;
+	private AdaptiveSamplingPolicy samplingPolicy;
+
+	// The whole chain, as set up by the tracker
+	private FixFilter pipelineFilter;
+	private KalmanSmoother pipelineSmoother;
+	private AdaptiveSamplingPolicy pipelinePolicy;
+
+	@Setup
+	public void setUp() {
+		track = new SyntheticTrack();
+		sink = new ChecksumSink();
+		filter = new FixFilter();
+		filter.setLimits(50, 10000, 70);
+		smoother = new KalmanSmoother(sink, 9);
+		simplifier = new TrackSimplifier(sink, 10, 60000);
+		samplingPolicy = new AdaptiveSamplingPolicy();
+		samplingPolicy.reset(new SamplingProfile(1000, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, 0));
+
+		pipelineFilter = new FixFilter();
+		pipelineFilter.setLimits(50, 10000, 70);
+		pipelineSmoother = new KalmanSmoother(new TrackSimplifier(sink, 10, 60000), 9);
+		pipelinePolicy = new AdaptiveSamplingPolicy();
+		pipelinePolicy.reset(new SamplingProfile(1000, SamplingProfile.PRIORITY_HIGH_ACCURACY, 0, 0));
+	}
+
+	@Benchmark
+	public boolean filter() {
+		int i = track.next();
+		return filter.accept(0, track.time(), track.latitudes[i], track.longitudes[i], track.accuracies[i]);
+	}
+
+	@Benchmark
+	public long smoother() {
+		int i = track.next();
+		smoother.onFix(track.time(), track.latitudes[i], track.longitudes[i], track.accuracies[i], ACTIVITY_TYPE);
+		return sink.checksum;
+	}
+
+	@Benchmark
+	public long simplifier() {
+		int i = track.next();
+		simplifier.onFix(track.time(), track.latitudes[i], track.longitudes[i], track.accuracies[i], ACTIVITY_TYPE);
+		return sink.checksum;
+	}
+
+	@Benchmark
+	public boolean samplingPolicy() {
+		int i = track.next();
+		return samplingPolicy.onFix(track.time(), track.latitudes[i], track.longitudes[i], track.accuracies[i]);
+	}
+
+	@Benchmark
+	public boolean pipeline() {
+		int i = track.next();
+		long time = track.time();
+		boolean changed = pipelinePolicy.onFix(time, track.latitudes[i], track.longitudes[i], track.accuracies[i]);
+		if (pipelineFilter.accept(0, time, track.latitudes[i], track.longitudes[i], track.accuracies[i])) {
+			pipelineSmoother.onFix(time, track.latitudes[i], track.longitudes[i], track.accuracies[i], ACTIVITY_TYPE);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,44 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay of a synthetic week through the whole {@link TrackingCore} by the {@link ReplayEngine},
+ * from the transitions to the recorded fixes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+	private static final int DAYS = 7;
+	private static final long START = 1577836800000L;
+
+	private SamplingSimulator.Track fixes;
+	private TransitionReplay.Transitions transitions;
+
+	@Setup
+	public void setUp() {
+		fixes = new SamplingSimulator.Track(DAYS * 86400);
+		transitions = new TransitionReplay.Transitions(DAYS * 16);
+		ReplayEngine.generateDays(START, DAYS, new Random(1), fixes, transitions);
+	}
+
+	@Benchmark
+	public long replayWeek() {
+		ChecksumSink sink = new ChecksumSink();
+		EnergyBudgetPlanner planner = new EnergyBudgetPlanner(new EnergyModel(), TimeZone.getTimeZone("UTC"));
+		ReplayEngine engine = new ReplayEngine(START, sink, new PlaceIndex(), planner);
+		engine.run(fixes, transitions);
+		return sink.checksum + engine.getAcceptedCount();
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.gtimelinetracker.track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Days of 1 Hz fixes along the {@link SyntheticTrack}, written in a temporary directory in the
+ * {@link TrackStore} format, with a transition to another activity every hour.
+ */
+class SyntheticHistory {
+	static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+	private static final int ACTIVITY_COUNT = 3;
+
+	final File directory;
+	// Local midnight of the first day
+	final long start;
+	final int days;
+
+	SyntheticHistory(int days) throws IOException {
+		this.days = days;
+		directory = Files.createTempDirectory("tracks").toFile();
+		// Segments start at local midnight, as written by the store
+		long firstDay = 1500000000000L / DAY_MILLIS;
+		start = firstDay * DAY_MILLIS - TimeZone.getDefault().getOffset(firstDay * DAY_MILLIS);
+		SyntheticTrack track = new SyntheticTrack();
+		ByteBuffer buffer = ByteBuffer.allocate(86400 * TrackStore.RECORD_SIZE).order(TrackStore.BYTE_ORDER);
+		for (int day = 0; day < days; day++) {
+			buffer.clear();
+			long dayStart = start + day * DAY_MILLIS;
+			for (int second = 0; second < 86400; second++) {
+				int i = track.next();
+				buffer.putLong(dayStart + second * 1000L)
+						.putDouble(track.latitudes[i])
+						.putDouble(track.longitudes[i])
+						.putFloat(track.accuracies[i])
+						.putInt(0);
+			}
+			buffer.flip();
+			File file = TrackStore.getSegmentFile(directory, (firstDay + day) * DAY_MILLIS);
+			try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+		TransitionLog transitionLog = new TransitionLog(directory);
+		for (int hour = 0; hour < days * 24; hour++) {
+			transitionLog.append(start + hour * HOUR_MILLIS, hour % ACTIVITY_COUNT, TransitionLog.TRANSITION_ENTER);
+		}
+	}
+
+	void delete() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+}
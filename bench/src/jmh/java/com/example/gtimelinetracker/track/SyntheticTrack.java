@@ -0,0 +1,47 @@
+package com.example.gtimelinetracker.track;
+
+import java.util.Random;
+
+/**
+ * Noisy 1 Hz fixes along a closed loop made of long curves and frequent turns. The loop closes
+ * exactly so that benchmarks can cycle through it without any jump in position.
+ */
+class SyntheticTrack {
+	static final int SIZE = 4096;
+	private static final int MASK = SIZE - 1;
+	private static final double ORIGIN_LATITUDE = 48.85;
+	private static final double ORIGIN_LONGITUDE = 2.35;
+
+	final double[] latitudes = new double[SIZE];
+	final double[] longitudes = new double[SIZE];
+	final float[] accuracies = new float[SIZE];
+
+	private int index = -1;
+	private long time = 1500000000000L;
+
+	SyntheticTrack() {
+		Random random = new Random(42);
+		double longitudeScale = Geo.METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+		for (int i = 0; i < SIZE; i++) {
+			double angle = 2 * Math.PI * i / SIZE;
+			double x = 8000 * Math.cos(angle) + 300 * Math.cos(40 * angle);
+			double y = 8000 * Math.sin(angle) + 300 * Math.sin(40 * angle);
+			accuracies[i] = 3 + 5 * random.nextFloat();
+			latitudes[i] = ORIGIN_LATITUDE + (y + random.nextGaussian() * accuracies[i] / 2) / Geo.METERS_PER_DEGREE;
+			longitudes[i] = ORIGIN_LONGITUDE + (x + random.nextGaussian() * accuracies[i] / 2) / longitudeScale;
+		}
+	}
+
+	/**
+	 * Moves to the next fix, one second after the current one.
+	 */
+	int next() {
+		index = (index + 1) & MASK;
+		time += 1000;
+		return index;
+	}
+
+	long time() {
+		return time;
+	}
+}
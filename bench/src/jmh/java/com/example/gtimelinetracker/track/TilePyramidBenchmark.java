@@ -0,0 +1,79 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of adding a fix to every level of the {@link TilePyramid}, paid by the tracker thread for
+ * every recorded fix, and of getting the cached tiles drawn by a map view.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TilePyramidBenchmark {
+	private static final int MAX_CACHED_POINTS = 1 << 18;
+
+	private final SyntheticTrack track = new SyntheticTrack();
+	private final ChecksumSink sink = new ChecksumSink();
+	private File directory;
+	private TilePyramid pyramid;
+	private int tileX;
+	private int tileY;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException, InterruptedException {
+		directory = Files.createTempDirectory("tiles").toFile();
+		pyramid = new TilePyramid(directory, sink, MAX_CACHED_POINTS);
+		for (int i = 0; i < SyntheticTrack.SIZE; i++) {
+			addFix();
+		}
+		pyramid.flush();
+		// Loads the tiles of the finest level around the track
+		int tiles = 1 << TilePyramid.LEVELS[TilePyramid.LEVELS.length - 1];
+		tileX = (int) (TilePyramid.getWorldX(track.longitudes[0]) * tiles);
+		tileY = (int) (TilePyramid.getWorldY(track.latitudes[0]) * tiles);
+		while (pyramid.getTile(TilePyramid.LEVELS[TilePyramid.LEVELS.length - 1], tileX, tileY) == null) {
+			Thread.sleep(1);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		pyramid.close();
+		delete(directory);
+	}
+
+	@Benchmark
+	public long addFix() {
+		int i = track.next();
+		pyramid.onFix(track.time(), track.latitudes[i], track.longitudes[i], track.accuracies[i], 7);
+		return sink.checksum;
+	}
+
+	@Benchmark
+	public Tile getCachedTile() {
+		return pyramid.getTile(TilePyramid.LEVELS[TilePyramid.LEVELS.length - 1], tileX, tileY);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
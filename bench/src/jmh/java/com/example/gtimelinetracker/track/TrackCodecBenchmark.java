@@ -0,0 +1,113 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding cost of the compact track encoding compared to plain {@link TrackStore}
+ * records. The setup prints the number of bytes per fix, the round trip is checked by
+ * {@code TrackEncoderTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackCodecBenchmark {
+	private static final int FIXES = 16 * SyntheticTrack.SIZE;
+
+	private final long[] times = new long[FIXES];
+	private final double[] latitudes = new double[FIXES];
+	private final double[] longitudes = new double[FIXES];
+	private final float[] accuracies = new float[FIXES];
+	private final int[] activityTypes = new int[FIXES];
+
+	private ByteBuffer encoded;
+	private ByteBuffer records;
+	private TrackEncoder encoder;
+	private int index = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		SyntheticTrack track = new SyntheticTrack();
+		Random random = new Random(42);
+		for (int i = 0; i < FIXES; i++) {
+			int fix = track.next();
+			// Fix times are not exactly regular
+			times[i] = track.time() + random.nextInt(100) - 50;
+			latitudes[i] = track.latitudes[fix];
+			longitudes[i] = track.longitudes[fix];
+			accuracies[i] = track.accuracies[fix];
+			activityTypes[i] = i / 1000 % 3;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackEncoder roundTripEncoder = new TrackEncoder(out);
+		records = ByteBuffer.allocate(FIXES * TrackStore.RECORD_SIZE).order(TrackStore.BYTE_ORDER);
+		for (int i = 0; i < FIXES; i++) {
+			roundTripEncoder.write(times[i], latitudes[i], longitudes[i], accuracies[i], activityTypes[i]);
+			records.putLong(times[i]).putDouble(latitudes[i]).putDouble(longitudes[i]).putFloat(accuracies[i]).putInt(activityTypes[i]);
+		}
+		roundTripEncoder.finish();
+		encoded = ByteBuffer.wrap(out.toByteArray());
+		System.out.printf("%nEncoded size: %.2f bytes per fix, %d bytes per record%n",
+				(double) encoded.capacity() / FIXES, TrackStore.RECORD_SIZE);
+
+		encoder = new TrackEncoder(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	@Benchmark
+	public long encode() throws IOException {
+		int i = index++ % FIXES;
+		encoder.write(times[i], latitudes[i], longitudes[i], accuracies[i], activityTypes[i]);
+		return encoder.getEncodedSize();
+	}
+
+	@Benchmark
+	public ByteBuffer encodeRecord() {
+		int i = index++ % FIXES;
+		if (!records.hasRemaining()) records.clear();
+		return records.putLong(times[i]).putDouble(latitudes[i]).putDouble(longitudes[i]).putFloat(accuracies[i]).putInt(activityTypes[i]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FIXES)
+	public double decode() {
+		TrackDecoder decoder = new TrackDecoder(encoded);
+		double sum = 0;
+		while (decoder.next()) {
+			sum += decoder.getTime() + decoder.getLatitude() + decoder.getLongitude() + decoder.getAccuracy();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FIXES)
+	public double decodeRecord() {
+		double sum = 0;
+		for (int offset = 0; offset < FIXES * TrackStore.RECORD_SIZE; offset += TrackStore.RECORD_SIZE) {
+			sum += records.getLong(offset + TrackStore.TIME_OFFSET) + records.getDouble(offset + TrackStore.LATITUDE_OFFSET)
+					+ records.getDouble(offset + TrackStore.LONGITUDE_OFFSET) + records.getFloat(offset + TrackStore.ACCURACY_OFFSET);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time range queries over a month of 1 Hz fixes written in the {@link TrackStore} format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackReaderBenchmark {
+	private static final int DAYS = 30;
+
+	private SyntheticHistory history;
+	private TrackReader reader;
+	private long start;
+	private int query = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		history = new SyntheticHistory(DAYS);
+		reader = new TrackReader(history.directory);
+		start = history.start;
+	}
+
+	@TearDown
+	public void tearDown() {
+		history.delete();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public double scanMonth() throws IOException {
+		return scan(start, start + DAYS * SyntheticHistory.DAY_MILLIS);
+	}
+
+	@Benchmark
+	public double scanDay() throws IOException {
+		long from = start + (query++ % DAYS) * SyntheticHistory.DAY_MILLIS;
+		return scan(from, from + SyntheticHistory.DAY_MILLIS);
+	}
+
+	@Benchmark
+	public double scanHour() throws IOException {
+		long from = start + (query++ % (DAYS * 24)) * SyntheticHistory.HOUR_MILLIS;
+		return scan(from, from + SyntheticHistory.HOUR_MILLIS);
+	}
+
+	private double scan(long from, long to) throws IOException {
+		TrackCursor cursor = reader.query(from, to);
+		double sum = 0;
+		while (cursor.next()) {
+			sum += cursor.getLatitude() + cursor.getLongitude() + cursor.getTime();
+		}
+		return sum;
+	}
+}
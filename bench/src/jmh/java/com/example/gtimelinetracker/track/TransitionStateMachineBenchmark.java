@@ -0,0 +1,62 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of debouncing a transition with the {@link TransitionStateMachine}, paid on the main thread
+ * for every transition delivered to the service, over the transitions of synthetic weeks replayed
+ * again and again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransitionStateMachineBenchmark {
+	private static final int DAYS = 28;
+	private static final long START = 1577836800000L;
+	private static final long SWITCH_DWELL_TIME = 30000;
+	private static final long STOP_DWELL_TIME = 60000;
+
+	private TransitionReplay.Transitions transitions;
+	private TransitionStateMachine machine;
+	private int changes = 0;
+	private int next = 0;
+	// Added to the times of the transitions on each replay, so that the time never goes back
+	private long offset = 0;
+
+	@Setup
+	public void setUp() {
+		SamplingSimulator.Track fixes = new SamplingSimulator.Track(DAYS * 86400);
+		transitions = new TransitionReplay.Transitions(DAYS * 16);
+		ReplayEngine.generateDays(START, DAYS, new Random(1), fixes, transitions);
+		machine = new TransitionStateMachine(new TransitionStateMachine.Listener() {
+			@Override
+			public void onTrackingChange(int activityType) {
+				changes++;
+			}
+		}, SWITCH_DWELL_TIME, STOP_DWELL_TIME);
+		int[] groups = ActivityTypes.getGroups();
+		for (int activityType = 0; activityType < groups.length; activityType++) {
+			machine.setGroup(activityType, groups[activityType]);
+		}
+	}
+
+	@Benchmark
+	public long onTransition() {
+		int i = next;
+		machine.onTransition(offset + transitions.times[i], transitions.activityTypes[i], transitions.transitionTypes[i]);
+		if (++next == transitions.size) {
+			next = 0;
+			offset += DAYS * 86400000L;
+		}
+		return machine.getDeadline() + changes;
+	}
+}
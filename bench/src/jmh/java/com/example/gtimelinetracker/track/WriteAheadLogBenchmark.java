@@ -0,0 +1,50 @@
+package com.example.gtimelinetracker.track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of appending a fix to the memory-mapped {@link WriteAheadLog}, paid by the tracker thread
+ * for every recorded fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriteAheadLogBenchmark {
+	private static final int CAPACITY = 4096;
+
+	private File file;
+	private WriteAheadLog log;
+	private long time = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = File.createTempFile("bench", ".wal");
+		log = WriteAheadLog.open(file, CAPACITY);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long append() {
+		if (log.getEnd() - log.getStart() == CAPACITY) {
+			log.release(log.getEnd());
+		}
+		time += 1000;
+		log.append(time, 48.85, 2.35, 5, 7);
+		return log.getEnd();
+	}
+}